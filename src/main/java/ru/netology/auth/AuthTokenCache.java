@@ -0,0 +1,127 @@
+package ru.netology.auth;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.netology.entities.User;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+// Кэш token -> пользователь, чтобы не ходить в базу на каждый запрос.
+// Записи живут не дольше ttl (так ограничена устарелость при нескольких экземплярах приложения),
+// при переполнении вытесняются давно не использованные. Промахи не кэшируются.
+@Component
+public class AuthTokenCache implements MeterBinder {
+
+    private final long ttlNanos;
+    private final int maxSize;
+    private final Map<String, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    // Растёт при каждой инвалидации: пользователь, прочитанный из базы до logout,
+    // не должен попасть в кэш после него.
+    private long generation;
+
+    public AuthTokenCache(@Value("${cloud.auth.token-cache.ttl}") Duration ttl,
+                          @Value("${cloud.auth.token-cache.max-size}") int maxSize) {
+        this.ttlNanos = ttl.toNanos();
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > AuthTokenCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public Optional<User> get(String authToken, Function<String, Optional<User>> loader) {
+        if (ttlNanos <= 0 || maxSize <= 0) {
+            return loader.apply(authToken);
+        }
+        long loadGeneration;
+        synchronized (this) {
+            var entry = entries.get(authToken);
+            if (entry != null) {
+                if (entry.expiresAt - System.nanoTime() > 0) {
+                    hits.incrementAndGet();
+                    return Optional.of(entry.user);
+                }
+                entries.remove(authToken);
+                evictions.incrementAndGet();
+            }
+            loadGeneration = generation;
+        }
+        misses.incrementAndGet();
+        var user = loader.apply(authToken);
+        user.ifPresent(value -> {
+            synchronized (this) {
+                if (generation == loadGeneration) {
+                    entries.put(authToken, new Entry(value, System.nanoTime() + ttlNanos));
+                }
+            }
+        });
+        return user;
+    }
+
+    public synchronized void invalidate(String authToken) {
+        generation++;
+        if (authToken != null) {
+            entries.remove(authToken);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("cache.gets", this, AuthTokenCache::getHitCount)
+                .tags("cache", "auth-tokens", "result", "hit")
+                .register(registry);
+        FunctionCounter.builder("cache.gets", this, AuthTokenCache::getMissCount)
+                .tags("cache", "auth-tokens", "result", "miss")
+                .register(registry);
+        FunctionCounter.builder("cache.evictions", this, AuthTokenCache::getEvictionCount)
+                .tags("cache", "auth-tokens")
+                .register(registry);
+        Gauge.builder("cache.size", this, AuthTokenCache::size)
+                .tags("cache", "auth-tokens")
+                .register(registry);
+    }
+
+    private static class Entry {
+        private final User user;
+        private final long expiresAt;
+
+        private Entry(User user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
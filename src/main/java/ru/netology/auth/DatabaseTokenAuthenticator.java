@@ -0,0 +1,53 @@
+package ru.netology.auth;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.netology.entities.User;
+import ru.netology.repositories.UserRepository;
+
+import java.util.Optional;
+import java.util.UUID;
+
+// Случайный токен хранится в users.auth_token, проверка идёт через AuthTokenCache.
+@Component
+@ConditionalOnProperty(name = "cloud.auth.mode", havingValue = "database", matchIfMissing = true)
+public class DatabaseTokenAuthenticator implements TokenAuthenticator {
+
+    private final UserRepository userRepository;
+    private final AuthTokenCache authTokenCache;
+
+    public DatabaseTokenAuthenticator(UserRepository userRepository, AuthTokenCache authTokenCache) {
+        this.userRepository = userRepository;
+        this.authTokenCache = authTokenCache;
+    }
+
+    @Override
+    public String issueToken(User user) {
+        var token = UUID.randomUUID().toString();
+        while (userRepository.findUserByAuthToken(token).isPresent()) {
+            token = UUID.randomUUID().toString();
+        }
+        var previousToken = user.getAuthToken();
+        user.setAuthToken(token);
+        userRepository.saveAndFlush(user);
+        authTokenCache.invalidate(previousToken);
+        return token;
+    }
+
+    @Override
+    public Optional<User> findUser(String authToken) {
+        return authTokenCache.get(authToken, userRepository::findUserByAuthToken);
+    }
+
+    @Override
+    public void revokeToken(String authToken) {
+        var optionalUser = userRepository.findUserByAuthToken(authToken);
+        if (optionalUser.isEmpty()) {
+            return;
+        }
+        var user = optionalUser.get();
+        user.setAuthToken(null);
+        userRepository.saveAndFlush(user);
+        authTokenCache.invalidate(authToken);
+    }
+}
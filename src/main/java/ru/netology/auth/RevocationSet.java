@@ -0,0 +1,80 @@
+package ru.netology.auth;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Множество отозванных токенов: фильтр Блума отвечает "точно нет" для подавляющего
+// большинства запросов, точное множество подтверждает редкие срабатывания.
+// Записи удаляются после истечения срока токена, поэтому множество остаётся небольшим.
+class RevocationSet {
+
+    // 2^20 бит (128 КБ) и 5 хэшей дают около 1% ложных срабатываний фильтра на 100 тысячах отзывов.
+    private static final int FILTER_BITS = 1 << 20;
+    private static final int FILTER_HASHES = 5;
+
+    private final Map<String, Instant> revoked = new ConcurrentHashMap<>();
+    private volatile AtomicLongArray filter = new AtomicLongArray(FILTER_BITS / Long.SIZE);
+
+    // Запись синхронизирована с пересборкой, чтение идёт без блокировок.
+    synchronized void add(String id, Instant expiresAt) {
+        revoked.put(id, expiresAt);
+        setBits(filter, id);
+    }
+
+    boolean contains(String id) {
+        var current = filter;
+        var hash = hash(id);
+        for (var i = 0; i < FILTER_HASHES; i++) {
+            var bit = index(hash, i);
+            if ((current.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return revoked.containsKey(id);
+    }
+
+    // Добавляет отзывы, сделанные другими экземплярами, и пересобирает фильтр без истёкших записей.
+    synchronized void refresh(Map<String, Instant> entries, Instant now) {
+        revoked.putAll(entries);
+        revoked.values().removeIf(expiresAt -> expiresAt.isBefore(now));
+        var rebuilt = new AtomicLongArray(FILTER_BITS / Long.SIZE);
+        for (String id : revoked.keySet()) {
+            setBits(rebuilt, id);
+        }
+        filter = rebuilt;
+    }
+
+    int size() {
+        return revoked.size();
+    }
+
+    private static void setBits(AtomicLongArray target, String id) {
+        var hash = hash(id);
+        for (var i = 0; i < FILTER_HASHES; i++) {
+            var bit = index(hash, i);
+            var word = bit >>> 6;
+            var mask = 1L << bit;
+            long value;
+            do {
+                value = target.get(word);
+            } while ((value & mask) == 0 && !target.compareAndSet(word, value, value | mask));
+        }
+    }
+
+    private static int index(long hash, int i) {
+        var combined = (int) hash + i * (int) (hash >>> 32);
+        return (combined & Integer.MAX_VALUE) % FILTER_BITS;
+    }
+
+    // FNV-1a, 64 бита: младшая и старшая половины используются как два независимых хэша
+    private static long hash(String id) {
+        var hash = 0xcbf29ce484222325L;
+        for (var i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
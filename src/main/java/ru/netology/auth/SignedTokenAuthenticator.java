@@ -0,0 +1,162 @@
+package ru.netology.auth;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.netology.entities.RevokedToken;
+import ru.netology.entities.User;
+import ru.netology.repositories.RevokedTokenRepository;
+import ru.netology.repositories.UserRepository;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+// Токен содержит id пользователя, срок действия и случайный идентификатор и подписан HMAC-SHA256,
+// поэтому подпись проверяется без обращения к базе. В базу пишутся только отзывы при logout,
+// каждый экземпляр приложения периодически подтягивает их в свой RevocationSet.
+// Пользователь токена читается через AuthTokenCache: токен удалённого пользователя перестаёт действовать.
+@Component
+@ConditionalOnProperty(name = "cloud.auth.mode", havingValue = "signed")
+public class SignedTokenAuthenticator implements TokenAuthenticator {
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int MIN_KEY_LENGTH = 32;
+    private static final int ID_LENGTH = 16;
+    // id пользователя + срок действия в секундах + идентификатор токена
+    private static final int PAYLOAD_LENGTH = Integer.BYTES + Long.BYTES + ID_LENGTH;
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final UserRepository userRepository;
+    private final RevokedTokenRepository revokedTokenRepository;
+    private final AuthTokenCache authTokenCache;
+    private final SecretKeySpec key;
+    private final Duration tokenTtl;
+    private final SecureRandom random = new SecureRandom();
+    private final RevocationSet revocations = new RevocationSet();
+    private final ThreadLocal<Mac> mac;
+
+    public SignedTokenAuthenticator(UserRepository userRepository, RevokedTokenRepository revokedTokenRepository,
+                                    AuthTokenCache authTokenCache,
+                                    @Value("${cloud.auth.signing-key}") String signingKey,
+                                    @Value("${cloud.auth.token-ttl}") Duration tokenTtl) {
+        var keyBytes = Base64.getDecoder().decode(signingKey);
+        if (keyBytes.length < MIN_KEY_LENGTH) {
+            throw new IllegalArgumentException("cloud.auth.signing-key must be at least " + MIN_KEY_LENGTH + " bytes of base64");
+        }
+        this.userRepository = userRepository;
+        this.revokedTokenRepository = revokedTokenRepository;
+        this.authTokenCache = authTokenCache;
+        this.key = new SecretKeySpec(keyBytes, MAC_ALGORITHM);
+        this.tokenTtl = tokenTtl;
+        this.mac = ThreadLocal.withInitial(this::newMac);
+        refreshRevocations();
+    }
+
+    @Override
+    public String issueToken(User user) {
+        var id = new byte[ID_LENGTH];
+        random.nextBytes(id);
+        var payload = ByteBuffer.allocate(PAYLOAD_LENGTH)
+                .putInt(user.getId())
+                .putLong(Instant.now().plus(tokenTtl).getEpochSecond())
+                .put(id)
+                .array();
+        return ENCODER.encodeToString(payload) + "." + ENCODER.encodeToString(sign(payload));
+    }
+
+    @Override
+    public Optional<User> findUser(String authToken) {
+        // Подпись и отзыв проверяются на каждый запрос, кэшируется только пользователь.
+        return verify(authToken).flatMap(token -> authTokenCache.get(authToken, key -> userRepository.findById(token.userId)));
+    }
+
+    @Override
+    public void revokeToken(String authToken) {
+        var optionalToken = verify(authToken);
+        if (optionalToken.isEmpty()) {
+            return;
+        }
+        var token = optionalToken.get();
+        var revokedToken = new RevokedToken();
+        revokedToken.setId(token.id);
+        revokedToken.setExpiresAt(token.expiresAt);
+        revokedTokenRepository.saveAndFlush(revokedToken);
+        revocations.add(token.id, token.expiresAt);
+        authTokenCache.invalidate(authToken);
+    }
+
+    @Scheduled(fixedDelayString = "${cloud.auth.revocation-refresh-interval}")
+    public void refreshRevocations() {
+        var now = Instant.now();
+        revokedTokenRepository.deleteExpired(now);
+        var entries = revokedTokenRepository.findAllByExpiresAtAfter(now).stream()
+                .collect(Collectors.toMap(RevokedToken::getId, RevokedToken::getExpiresAt));
+        revocations.refresh(entries, now);
+    }
+
+    private Optional<SignedToken> verify(String authToken) {
+        var separator = authToken.indexOf('.');
+        if (separator < 0) {
+            return Optional.empty();
+        }
+        byte[] payload;
+        byte[] signature;
+        try {
+            payload = DECODER.decode(authToken.substring(0, separator));
+            signature = DECODER.decode(authToken.substring(separator + 1));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+        if (payload.length != PAYLOAD_LENGTH || !MessageDigest.isEqual(signature, sign(payload))) {
+            return Optional.empty();
+        }
+        var buffer = ByteBuffer.wrap(payload);
+        var userId = buffer.getInt();
+        var expiresAt = Instant.ofEpochSecond(buffer.getLong());
+        var id = new byte[ID_LENGTH];
+        buffer.get(id);
+        var token = new SignedToken(userId, expiresAt, ENCODER.encodeToString(id));
+        if (!expiresAt.isAfter(Instant.now()) || revocations.contains(token.id)) {
+            return Optional.empty();
+        }
+        return Optional.of(token);
+    }
+
+    private byte[] sign(byte[] payload) {
+        return mac.get().doFinal(payload);
+    }
+
+    private Mac newMac() {
+        try {
+            var instance = Mac.getInstance(MAC_ALGORITHM);
+            instance.init(key);
+            return instance;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class SignedToken {
+        private final int userId;
+        private final Instant expiresAt;
+        private final String id;
+
+        private SignedToken(int userId, Instant expiresAt, String id) {
+            this.userId = userId;
+            this.expiresAt = expiresAt;
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package ru.netology.auth;
+
+import ru.netology.entities.User;
+
+import java.util.Optional;
+
+// Выдача и проверка auth-token. Реализация выбирается свойством cloud.auth.mode.
+public interface TokenAuthenticator {
+
+    String issueToken(User user);
+
+    Optional<User> findUser(String authToken);
+
+    void revokeToken(String authToken);
+}
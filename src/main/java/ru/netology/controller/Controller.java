@@ -1,30 +1,48 @@
 package ru.netology.controller;
 
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.util.MultiValueMap;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.bind.MissingServletRequestParameterException;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
+import org.springframework.web.multipart.support.MissingServletRequestPartException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.netology.dto.GetChangesResponse;
 import ru.netology.dto.GetListResponse;
+import ru.netology.dto.GetUsageResponse;
+import ru.netology.dto.PostBatchDeleteRequest;
+import ru.netology.dto.PostBatchRenameRequest;
+import ru.netology.dto.PostBatchResponse;
+import ru.netology.dto.PostInstantUploadRequest;
+import ru.netology.dto.PostInstantUploadResponse;
 import ru.netology.dto.PostLoginRequest;
 import ru.netology.dto.PostLoginResponse;
 import ru.netology.dto.PutFileRequest;
 import ru.netology.service.FileService;
+import ru.netology.service.TransferAdmission;
 import ru.netology.service.UserService;
 
 import javax.security.auth.login.LoginException;
 import javax.security.auth.message.AuthException;
+import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 public class Controller {
 
     private final UserService userService;
     private final FileService fileService;
+    private final TransferAdmission transferAdmission;
 
-    public Controller(UserService userService, FileService fileService) {
+    public Controller(UserService userService, FileService fileService, TransferAdmission transferAdmission) {
         this.userService = userService;
         this.fileService = fileService;
+        this.transferAdmission = transferAdmission;
     }
 
     @CrossOrigin(origins = "http://localhost:8080", allowCredentials = "true")
@@ -43,20 +61,56 @@ public class Controller {
 
     @CrossOrigin(origins = "http://localhost:8080", allowCredentials = "true")
     @PostMapping("/file")
-    public void uploadFile(@RequestHeader("auth-token") String authToken, @RequestPart String hash, @RequestPart MultipartFile file, @RequestParam String filename) throws AuthException, IOException {
-        fileService.uploadFile(authToken, hash, file, filename);
+    public Callable<Void> uploadFile(@RequestHeader("auth-token") String authToken, MultipartHttpServletRequest request) throws AuthException {
+        // Токен проверяется на потоке Tomcat, а тело запроса (multipart разбирается лениво, в том числе
+        // при чтении параметров) читается уже в пуле передач.
+        fileService.checkUserExistence(authToken);
+        return () -> {
+            var filename = request.getParameter("filename");
+            if (filename == null) {
+                throw new MissingServletRequestParameterException("filename", "String");
+            }
+            var hash = request.getParameter("hash");
+            if (hash == null) {
+                throw new MissingServletRequestPartException("hash");
+            }
+            var file = request.getFile("file");
+            if (file == null) {
+                throw new MissingServletRequestPartException("file");
+            }
+            fileService.uploadFile(authToken, hash, file, filename);
+            return null;
+        };
+    }
+
+    @CrossOrigin(origins = "http://localhost:8080", allowCredentials = "true")
+    @PostMapping("/file/instant")
+    public PostInstantUploadResponse instantUpload(@RequestHeader("auth-token") String authToken, @RequestParam String filename, @Validated @RequestBody PostInstantUploadRequest request) throws AuthException, IOException {
+        return fileService.instantUpload(authToken, filename, request.getHash(), request.getSha256(), request.getSize(),
+                request.getNonce(), request.getProof());
     }
 
     @CrossOrigin(origins = "http://localhost:8080", allowCredentials = "true")
     @DeleteMapping("/file")
-    public void deleteFile(@RequestHeader("auth-token") String authToken, @RequestParam String filename) throws AuthException {
+    public void deleteFile(@RequestHeader("auth-token") String authToken, @RequestParam String filename) throws AuthException, IOException {
         fileService.deleteFile(authToken, filename);
     }
 
-    @CrossOrigin(origins = "http://localhost:8080", allowCredentials = "true")
+    @CrossOrigin(origins = "http://localhost:8080", allowCredentials = "true", exposedHeaders = {"ETag", "Accept-Ranges", "Content-Range"})
     @GetMapping("/file")
-    public ResponseEntity<MultiValueMap<String, Object>> getFile(@RequestHeader("auth-token") String authToken, @RequestParam String filename) throws AuthException {
-        return fileService.getFile(authToken, filename);
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> getFile(@RequestHeader("auth-token") String authToken, @RequestParam String filename,
+                                                                            @RequestHeader HttpHeaders headers, HttpServletRequest request) throws AuthException, IOException {
+        var user = fileService.checkUserExistence(authToken);
+        var response = fileService.getFile(user, filename, headers);
+        // Допуск по байтам, которые уйдут клиенту: у 304 и 416 тела нет, диапазон занимает только свою длину.
+        if (response.getBody() == null) {
+            return CompletableFuture.completedFuture(response);
+        }
+        // Не уместившееся скачивание ждёт допуска асинхронно, поток Tomcat при этом свободен.
+        return transferAdmission.acquire(user.getId(), response.getHeaders().getContentLength()).thenApply(permit -> {
+            TransferAdmissionInterceptor.hold(request, permit);
+            return response;
+        });
     }
 
     @CrossOrigin(origins = "http://localhost:8080", allowCredentials = "true")
@@ -66,9 +120,51 @@ public class Controller {
     }
 
     @CrossOrigin(origins = "http://localhost:8080", allowCredentials = "true")
+    @PostMapping("/files/delete")
+    public PostBatchResponse deleteFiles(@RequestHeader("auth-token") String authToken, @Validated @RequestBody PostBatchDeleteRequest request) throws AuthException, IOException {
+        return fileService.deleteFiles(authToken, request.getFilenames());
+    }
+
+    @CrossOrigin(origins = "http://localhost:8080", allowCredentials = "true")
+    @PostMapping("/files/rename")
+    public PostBatchResponse renameFiles(@RequestHeader("auth-token") String authToken, @Validated @RequestBody PostBatchRenameRequest request) throws AuthException {
+        return fileService.renameFiles(authToken, request.getFiles());
+    }
+
+    @CrossOrigin(origins = "http://localhost:8080", allowCredentials = "true", exposedHeaders = "ETag")
     @GetMapping("/list")
-    public GetListResponse getList(@RequestHeader("auth-token") String authToken, @RequestParam Integer limit) throws AuthException {
-        return fileService.getList(authToken, limit);
+    public ResponseEntity<GetListResponse> getList(@RequestHeader("auth-token") String authToken, @RequestParam Integer limit,
+                                                   @RequestParam(required = false) String sort, @RequestParam(required = false) String order,
+                                                   @RequestParam(required = false) String after, @RequestHeader HttpHeaders headers) throws AuthException {
+        return fileService.getList(authToken, limit, sort, order, after, headers);
+    }
+
+    @CrossOrigin(origins = "http://localhost:8080", allowCredentials = "true")
+    @GetMapping("/search")
+    public GetListResponse searchFiles(@RequestHeader("auth-token") String authToken, @RequestParam String query,
+                                       @RequestParam(required = false) String match, @RequestParam Integer limit,
+                                       @RequestParam(required = false) String after) throws AuthException {
+        return fileService.searchFiles(authToken, query, match, limit, after);
+    }
+
+    @CrossOrigin(origins = "http://localhost:8080", allowCredentials = "true")
+    @GetMapping("/usage")
+    public GetUsageResponse getUsage(@RequestHeader("auth-token") String authToken) throws AuthException {
+        return fileService.getUsage(authToken);
+    }
+
+    @CrossOrigin(origins = "http://localhost:8080", allowCredentials = "true")
+    @GetMapping("/changes")
+    public GetChangesResponse getChanges(@RequestHeader("auth-token") String authToken, @RequestParam Long since,
+                                         @RequestParam Integer limit) throws AuthException {
+        return fileService.getChanges(authToken, since, limit);
+    }
+
+    @CrossOrigin(origins = "http://localhost:8080", allowCredentials = "true")
+    @GetMapping(value = "/changes/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamChanges(@RequestHeader("auth-token") String authToken, @RequestParam(required = false) Long since,
+                                    @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) throws AuthException {
+        return fileService.streamChanges(authToken, since, lastEventId);
     }
 
 }
@@ -0,0 +1,203 @@
+package ru.netology.controller;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import ru.netology.entities.User;
+import ru.netology.service.FileService;
+import ru.netology.service.TransferAdmission;
+import ru.netology.service.TransferRejectedException;
+
+import javax.security.auth.message.AuthException;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// Допуск загрузок через TransferAdmission до того, как прочитано тело запроса (multipart разбирается лениво).
+// Скачивания допускает Controller.getFile, когда уже известно, сколько байт уйдёт клиенту.
+// Разрешение держится до конца запроса, для асинхронных передач — до конца асинхронной обработки.
+@Component
+public class TransferAdmissionInterceptor implements AsyncHandlerInterceptor {
+
+    private static final String PERMIT = TransferAdmissionInterceptor.class.getName() + ".permit";
+    private static final String ADMITTED = TransferAdmissionInterceptor.class.getName() + ".admitted";
+
+    private final TransferAdmission transferAdmission;
+    private final FileService fileService;
+    private final long maxFileSize;
+    private final long maxChunkSize;
+
+    public TransferAdmissionInterceptor(TransferAdmission transferAdmission, FileService fileService,
+                                        @Value("${cloud.upload.max-file-size}") DataSize maxFileSize,
+                                        @Value("${cloud.upload.max-chunk-size}") DataSize maxChunkSize) {
+        this.transferAdmission = transferAdmission;
+        this.fileService = fileService;
+        this.maxFileSize = maxFileSize.toBytes();
+        this.maxChunkSize = maxChunkSize.toBytes();
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // Загрузка дождалась допуска: запрос снова проходит через DispatcherServlet уже с разрешением или отказом.
+        var admitted = request.getAttribute(ADMITTED);
+        if (admitted != null) {
+            request.removeAttribute(ADMITTED);
+            hold(request, permitOf((CompletableFuture<?>) admitted));
+            return true;
+        }
+        // После асинхронной отдачи запрос проходит через интерсепторы ещё раз, разрешение у него уже есть.
+        if (request.getDispatcherType() == DispatcherType.ASYNC || request.getAttribute(PERMIT) != null) {
+            return true;
+        }
+        // Держатель заводится до того, как обработка станет асинхронной: разрешение скачивания может прийти позже.
+        var holder = holder(request);
+        var authToken = request.getHeader("auth-token");
+        if (authToken == null || !isUpload(request)) {
+            return true;
+        }
+        User user;
+        try {
+            user = fileService.checkUserExistence(authToken);
+        } catch (AuthException e) {
+            // Ответит контроллер
+            return true;
+        }
+        var permit = transferAdmission.acquire(user.getId(), transferSize(request));
+        if (permit.isDone()) {
+            hold(request, permitOf(permit));
+            return true;
+        }
+        // Ждём допуска, не занимая поток Tomcat: запрос становится асинхронным, а когда разрешение выдано
+        // или ожидание истекло, возвращается в DispatcherServlet. Ожидание ограничивает TransferAdmission.
+        var asyncContext = request.startAsync();
+        asyncContext.setTimeout(0);
+        holder.listen(request);
+        permit.whenComplete((result, e) -> {
+            request.setAttribute(ADMITTED, permit);
+            try {
+                asyncContext.dispatch();
+            } catch (IllegalStateException closed) {
+                // Запрос уже завершён с ошибкой
+                if (result != null) {
+                    result.close();
+                }
+            }
+        });
+        return false;
+    }
+
+    // Разрешение, полученное обработчиком, снимается вместе с остальными по завершении запроса.
+    // Если запрос уже завершился, пока разрешение ждало очереди, оно снимается сразу.
+    static void hold(HttpServletRequest request, TransferAdmission.Permit permit) {
+        holder(request).hold(permit);
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        var holder = (PermitHolder) request.getAttribute(PERMIT);
+        if (holder != null) {
+            holder.listen(request);
+        }
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        var holder = (PermitHolder) request.getAttribute(PERMIT);
+        if (holder != null && !request.isAsyncStarted()) {
+            holder.close();
+            request.removeAttribute(PERMIT);
+        }
+    }
+
+    private static PermitHolder holder(HttpServletRequest request) {
+        var holder = (PermitHolder) request.getAttribute(PERMIT);
+        if (holder == null) {
+            holder = new PermitHolder();
+            request.setAttribute(PERMIT, holder);
+        }
+        return holder;
+    }
+
+    private static TransferAdmission.Permit permitOf(CompletableFuture<?> permit) {
+        try {
+            return (TransferAdmission.Permit) permit.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof TransferRejectedException) {
+                throw (TransferRejectedException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static boolean isUpload(HttpServletRequest request) {
+        var method = request.getMethod();
+        var path = request.getServletPath();
+        return path.equals("/file") && method.equals("POST")
+                || path.startsWith("/upload/") && method.equals("PUT");
+    }
+
+    // Сколько байт займёт загрузка
+    private long transferSize(HttpServletRequest request) {
+        var contentLength = request.getContentLengthLong();
+        if (contentLength >= 0) {
+            return contentLength;
+        }
+        return request.getMethod().equals("POST") ? maxFileSize : maxChunkSize;
+    }
+
+    // Разрешение запроса. Слушает каждый асинхронный цикл запроса и снимает разрешение, когда последний из них
+    // завершился, истёк или оборвался.
+    private static class PermitHolder implements AsyncListener {
+        private TransferAdmission.Permit permit;
+        private boolean listening;
+        private boolean closed;
+
+        synchronized void hold(TransferAdmission.Permit permit) {
+            if (closed) {
+                permit.close();
+            } else {
+                this.permit = permit;
+            }
+        }
+
+        synchronized void listen(HttpServletRequest request) {
+            if (!listening) {
+                listening = true;
+                request.getAsyncContext().addListener(this);
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+            if (permit != null) {
+                permit.close();
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            close();
+        }
+
+        // Слушатели не переходят в новый асинхронный цикл сами
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
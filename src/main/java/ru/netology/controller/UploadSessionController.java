@@ -0,0 +1,61 @@
+package ru.netology.controller;
+
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.*;
+import ru.netology.dto.PostUploadSessionRequest;
+import ru.netology.dto.UploadSessionResponse;
+import ru.netology.service.UploadSessionService;
+
+import javax.security.auth.message.AuthException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+
+@RestController
+public class UploadSessionController {
+
+    private final UploadSessionService uploadSessionService;
+
+    public UploadSessionController(UploadSessionService uploadSessionService) {
+        this.uploadSessionService = uploadSessionService;
+    }
+
+    @CrossOrigin(origins = "http://localhost:8080", allowCredentials = "true")
+    @PostMapping("/upload")
+    public UploadSessionResponse createSession(@RequestHeader("auth-token") String authToken, @RequestParam String filename, @Validated @RequestBody PostUploadSessionRequest request) throws AuthException, IOException {
+        return uploadSessionService.createSession(authToken, filename, request.getHash(), request.getSize(), request.getChunkSize());
+    }
+
+    @CrossOrigin(origins = "http://localhost:8080", allowCredentials = "true")
+    @GetMapping("/upload/{sessionId}")
+    public UploadSessionResponse getSession(@RequestHeader("auth-token") String authToken, @PathVariable UUID sessionId) throws AuthException, IOException {
+        return uploadSessionService.getSession(authToken, sessionId);
+    }
+
+    @CrossOrigin(origins = "http://localhost:8080", allowCredentials = "true")
+    @PutMapping("/upload/{sessionId}/{index}")
+    public Callable<Void> uploadChunk(@RequestHeader("auth-token") String authToken, @PathVariable UUID sessionId, @PathVariable int index, InputStream content) {
+        return () -> {
+            uploadSessionService.uploadChunk(authToken, sessionId, index, content);
+            return null;
+        };
+    }
+
+    @CrossOrigin(origins = "http://localhost:8080", allowCredentials = "true")
+    @PostMapping("/upload/{sessionId}/commit")
+    public Callable<Void> commit(@RequestHeader("auth-token") String authToken, @PathVariable UUID sessionId) {
+        // Сборка файла из частей копирует всё содержимое, поэтому тоже идёт в пуле передач
+        return () -> {
+            uploadSessionService.commit(authToken, sessionId);
+            return null;
+        };
+    }
+
+    @CrossOrigin(origins = "http://localhost:8080", allowCredentials = "true")
+    @DeleteMapping("/upload/{sessionId}")
+    public void abort(@RequestHeader("auth-token") String authToken, @PathVariable UUID sessionId) throws AuthException, IOException {
+        uploadSessionService.abort(authToken, sessionId);
+    }
+
+}
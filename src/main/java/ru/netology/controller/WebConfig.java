@@ -0,0 +1,56 @@
+package ru.netology.controller;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    private final TransferAdmissionInterceptor transferAdmissionInterceptor;
+    private final int transferThreads;
+    private final int transferQueueCapacity;
+
+    // Каждая передача держит не больше одного соединения с БД (транзакция загрузки, запрос очередного куска
+    // содержимого), поэтому при таком пуле передачи не могут занять соединения, нужные /list и /login.
+    public WebConfig(TransferAdmissionInterceptor transferAdmissionInterceptor,
+                     @Value("${cloud.transfer.threads}") int transferThreads,
+                     @Value("${cloud.transfer.queue-capacity}") int transferQueueCapacity,
+                     @Value("${cloud.transfer.reserved-connections}") int reservedConnections,
+                     @Value("${spring.datasource.hikari.maximum-pool-size:10}") int maximumPoolSize) {
+        if (maximumPoolSize < transferThreads + reservedConnections) {
+            throw new IllegalStateException("spring.datasource.hikari.maximum-pool-size must be at least "
+                    + "cloud.transfer.threads + cloud.transfer.reserved-connections = " + (transferThreads + reservedConnections));
+        }
+        this.transferAdmissionInterceptor = transferAdmissionInterceptor;
+        this.transferThreads = transferThreads;
+        this.transferQueueCapacity = transferQueueCapacity;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(transferAdmissionInterceptor).addPathPatterns("/file", "/upload/*/*");
+    }
+
+    // Передачи содержимого (Callable загрузок и StreamingResponseBody скачиваний) выполняются в своём
+    // ограниченном пуле, потоки Tomcat остаются за /list, /login, переименованием и удалением.
+    // Передача, не уместившаяся в очередь, получает 503 (TaskRejectedException).
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(transferExecutor());
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor transferExecutor() {
+        var executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(transferThreads);
+        executor.setMaxPoolSize(transferThreads);
+        executor.setQueueCapacity(transferQueueCapacity);
+        executor.setThreadNamePrefix("transfer-");
+        return executor;
+    }
+}
@@ -1,6 +1,9 @@
 package ru.netology.controller.exception;
 
 import com.google.gson.Gson;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -8,14 +11,23 @@ import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 import ru.netology.dto.GeneralErrorResponse;
+import ru.netology.service.QuotaExceededException;
+import ru.netology.service.TransferRejectedException;
 
 import javax.security.auth.login.LoginException;
 import javax.security.auth.message.AuthException;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.NoSuchElementException;
 
 @RestControllerAdvice
 public class ExceptionHandlerAdvice {
+    private final Duration retryAfter;
+
+    public ExceptionHandlerAdvice(@Value("${cloud.admission.retry-after}") Duration retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+
     @ExceptionHandler(LoginException.class)
     public ResponseEntity<String> onLoginError(LoginException e) {
         return prepareResponseEntity(e.getMessage(), 1, HttpStatus.BAD_REQUEST);
@@ -46,6 +58,26 @@ public class ExceptionHandlerAdvice {
         return prepareResponseEntity(e.getMessage(), 6, HttpStatus.INTERNAL_SERVER_ERROR);
     }
 
+    @ExceptionHandler(TransferRejectedException.class)
+    public ResponseEntity<String> onTransferRejected(TransferRejectedException e) {
+        var response = prepareResponseEntity(e.getMessage(), 7, HttpStatus.SERVICE_UNAVAILABLE);
+        return ResponseEntity.status(response.getStatusCode())
+                .headers(response.getHeaders())
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfter().toSeconds()))
+                .body(response.getBody());
+    }
+
+    // Очередь пула передач заполнена — для клиента то же, что отказ в допуске.
+    @ExceptionHandler(TaskRejectedException.class)
+    public ResponseEntity<String> onTransferQueueFull(TaskRejectedException e) {
+        return onTransferRejected(new TransferRejectedException("server is busy, retry later", retryAfter));
+    }
+
+    @ExceptionHandler(QuotaExceededException.class)
+    public ResponseEntity<String> onQuotaExceeded(QuotaExceededException e) {
+        return prepareResponseEntity(e.getMessage(), 8, HttpStatus.INSUFFICIENT_STORAGE);
+    }
+
     private ResponseEntity<String> prepareResponseEntity(String message, int id, HttpStatus status) {
         var gson = new Gson();
         var err = new GeneralErrorResponse();
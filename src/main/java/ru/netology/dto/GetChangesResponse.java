@@ -0,0 +1,33 @@
+package ru.netology.dto;
+
+import java.util.List;
+
+public class GetChangesResponse {
+    private List<GetChangesResponseItem> changes;
+    private long sequence;
+    private boolean reset;
+
+    public List<GetChangesResponseItem> getChanges() {
+        return changes;
+    }
+
+    public void setChanges(List<GetChangesResponseItem> changes) {
+        this.changes = changes;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public boolean isReset() {
+        return reset;
+    }
+
+    public void setReset(boolean reset) {
+        this.reset = reset;
+    }
+}
@@ -4,6 +4,7 @@ import java.util.List;
 
 public class GetListResponse {
     private List<GetListResponseItem> files;
+    private String next;
 
     public List<GetListResponseItem> getFiles() {
         return files;
@@ -12,4 +13,12 @@ public class GetListResponse {
     public void setFiles(List<GetListResponseItem> files) {
         this.files = files;
     }
+
+    public String getNext() {
+        return next;
+    }
+
+    public void setNext(String next) {
+        this.next = next;
+    }
 }
@@ -1,14 +1,14 @@
 package ru.netology.dto;
 
 public class GetListResponseItem {
-    private Integer size;
+    private Long size;
     private String filename;
 
-    public Integer getSize() {
+    public Long getSize() {
         return size;
     }
 
-    public void setSize(Integer size) {
+    public void setSize(Long size) {
         this.size = size;
     }
 
@@ -0,0 +1,22 @@
+package ru.netology.dto;
+
+public class GetUsageResponse {
+    private long used;
+    private long quota;
+
+    public long getUsed() {
+        return used;
+    }
+
+    public void setUsed(long used) {
+        this.used = used;
+    }
+
+    public long getQuota() {
+        return quota;
+    }
+
+    public void setQuota(long quota) {
+        this.quota = quota;
+    }
+}
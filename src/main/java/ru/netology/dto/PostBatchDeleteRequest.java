@@ -0,0 +1,17 @@
+package ru.netology.dto;
+
+import javax.validation.constraints.NotEmpty;
+import java.util.List;
+
+public class PostBatchDeleteRequest {
+    @NotEmpty(message = "filenames can't be empty")
+    private List<String> filenames;
+
+    public List<String> getFilenames() {
+        return filenames;
+    }
+
+    public void setFilenames(List<String> filenames) {
+        this.filenames = filenames;
+    }
+}
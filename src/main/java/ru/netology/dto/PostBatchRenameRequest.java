@@ -0,0 +1,17 @@
+package ru.netology.dto;
+
+import javax.validation.constraints.NotEmpty;
+import java.util.List;
+
+public class PostBatchRenameRequest {
+    @NotEmpty(message = "files can't be empty")
+    private List<PostBatchRenameRequestItem> files;
+
+    public List<PostBatchRenameRequestItem> getFiles() {
+        return files;
+    }
+
+    public void setFiles(List<PostBatchRenameRequestItem> files) {
+        this.files = files;
+    }
+}
@@ -0,0 +1,22 @@
+package ru.netology.dto;
+
+public class PostBatchRenameRequestItem {
+    private String filename;
+    private String name;
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public void setFilename(String filename) {
+        this.filename = filename;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+}
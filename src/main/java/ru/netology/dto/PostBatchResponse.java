@@ -0,0 +1,15 @@
+package ru.netology.dto;
+
+import java.util.List;
+
+public class PostBatchResponse {
+    private List<PostBatchResponseItem> results;
+
+    public List<PostBatchResponseItem> getResults() {
+        return results;
+    }
+
+    public void setResults(List<PostBatchResponseItem> results) {
+        this.results = results;
+    }
+}
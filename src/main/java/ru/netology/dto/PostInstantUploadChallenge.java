@@ -0,0 +1,24 @@
+package ru.netology.dto;
+
+import java.util.List;
+
+public class PostInstantUploadChallenge {
+    private String nonce;
+    private List<PostInstantUploadChallengeRange> ranges;
+
+    public String getNonce() {
+        return nonce;
+    }
+
+    public void setNonce(String nonce) {
+        this.nonce = nonce;
+    }
+
+    public List<PostInstantUploadChallengeRange> getRanges() {
+        return ranges;
+    }
+
+    public void setRanges(List<PostInstantUploadChallengeRange> ranges) {
+        this.ranges = ranges;
+    }
+}
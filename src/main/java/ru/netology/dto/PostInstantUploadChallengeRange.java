@@ -0,0 +1,27 @@
+package ru.netology.dto;
+
+public class PostInstantUploadChallengeRange {
+    private long offset;
+    private long length;
+
+    public PostInstantUploadChallengeRange(long offset, long length) {
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public void setLength(long length) {
+        this.length = length;
+    }
+}
@@ -0,0 +1,61 @@
+package ru.netology.dto;
+
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
+import javax.validation.constraints.Positive;
+
+public class PostInstantUploadRequest {
+    @NotNull(message = "hash can't be null")
+    @Pattern(regexp = "[0-9a-fA-F]{64}", message = "hash must be a SHA-256 digest of 64 hex characters")
+    private String hash;
+    @NotNull(message = "sha256 can't be null")
+    @Pattern(regexp = "[0-9a-fA-F]{64}", message = "sha256 must be 64 hex characters")
+    private String sha256;
+    @NotNull(message = "size can't be null")
+    @Positive(message = "size must be positive")
+    private Long size;
+    // nonce из ответа с запросом доказательства и SHA-256(nonce || байты диапазонов) в hex
+    private String nonce;
+    @Pattern(regexp = "[0-9a-fA-F]{64}", message = "proof must be 64 hex characters")
+    private String proof;
+
+    public String getHash() {
+        return hash;
+    }
+
+    public void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    public void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+
+    public Long getSize() {
+        return size;
+    }
+
+    public void setSize(Long size) {
+        this.size = size;
+    }
+
+    public String getNonce() {
+        return nonce;
+    }
+
+    public void setNonce(String nonce) {
+        this.nonce = nonce;
+    }
+
+    public String getProof() {
+        return proof;
+    }
+
+    public void setProof(String proof) {
+        this.proof = proof;
+    }
+}
@@ -0,0 +1,23 @@
+package ru.netology.dto;
+
+public class PostInstantUploadResponse {
+    private boolean uploaded;
+    // Запрос доказательства владения: с ним клиент повторяет POST /file/instant
+    private PostInstantUploadChallenge challenge;
+
+    public boolean isUploaded() {
+        return uploaded;
+    }
+
+    public void setUploaded(boolean uploaded) {
+        this.uploaded = uploaded;
+    }
+
+    public PostInstantUploadChallenge getChallenge() {
+        return challenge;
+    }
+
+    public void setChallenge(PostInstantUploadChallenge challenge) {
+        this.challenge = challenge;
+    }
+}
@@ -0,0 +1,41 @@
+package ru.netology.dto;
+
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
+import javax.validation.constraints.Positive;
+
+public class PostUploadSessionRequest {
+    @NotNull(message = "hash can't be null")
+    @Pattern(regexp = "[0-9a-fA-F]{64}", message = "hash must be a SHA-256 digest of 64 hex characters")
+    private String hash;
+    @NotNull(message = "size can't be null")
+    @Positive(message = "size must be positive")
+    private Long size;
+    @NotNull(message = "chunkSize can't be null")
+    @Positive(message = "chunkSize must be positive")
+    private Integer chunkSize;
+
+    public String getHash() {
+        return hash;
+    }
+
+    public void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    public Long getSize() {
+        return size;
+    }
+
+    public void setSize(Long size) {
+        this.size = size;
+    }
+
+    public Integer getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(Integer chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+}
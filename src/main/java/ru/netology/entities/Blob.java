@@ -0,0 +1,76 @@
+package ru.netology.entities;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+// Уникальное содержимое, на которое ссылаются файлы. Сущность описывает таблицу,
+// счётчики ссылок меняются через JDBC в DeduplicatingStorageBackend.
+@Entity
+@Table(name = "blobs")
+public class Blob {
+    // SHA-256 содержимого, посчитанный сервером
+    @Id
+    private String hash;
+
+    @Column(nullable = false, unique = true)
+    private String storageRef;
+
+    private long size;
+
+    private long refCount;
+
+    // Кодировка содержимого в хранилище (ContentCodec), null — хранится как есть
+    private String encoding;
+
+    private Long storedSize;
+
+    public String getHash() {
+        return hash;
+    }
+
+    public void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    public String getStorageRef() {
+        return storageRef;
+    }
+
+    public void setStorageRef(String storageRef) {
+        this.storageRef = storageRef;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getRefCount() {
+        return refCount;
+    }
+
+    public void setRefCount(long refCount) {
+        this.refCount = refCount;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public void setEncoding(String encoding) {
+        this.encoding = encoding;
+    }
+
+    public Long getStoredSize() {
+        return storedSize;
+    }
+
+    public void setStoredSize(Long storedSize) {
+        this.storedSize = storedSize;
+    }
+}
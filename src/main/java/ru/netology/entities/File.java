@@ -1,16 +1,33 @@
 package ru.netology.entities;
 
 import javax.persistence.*;
+import java.time.Instant;
 import java.util.UUID;
 
 @Entity
-@Table(name = "files")
+// Индексы под keyset-пагинацию /list: по одному на каждый порядок (FileSort)
+@Table(name = "files", indexes = {
+        @Index(name = "files_user_name_id_idx", columnList = "user_id, name, id"),
+        @Index(name = "files_user_size_name_id_idx", columnList = "user_id, size, name, id"),
+        @Index(name = "files_user_uploaded_at_name_id_idx", columnList = "user_id, uploaded_at, name, id")
+})
 public class File {
     @Id
     private UUID id;
     private String name;
     private String hash;
-    private byte[] content;
+    // SHA-256 содержимого, посчитанный сервером при загрузке
+    private String contentHash;
+    private String storageRef;
+    // Значение по умолчанию нужно, чтобы колонка добавилась в таблицу, где уже есть строки.
+    @Column(nullable = false, columnDefinition = "bigint default 0")
+    private long size;
+    // Кодировка содержимого в хранилище и его размер там; у несжатых файлов encoding null
+    private String encoding;
+    private Long storedSize;
+    // Файлам, загруженным до появления колонки, достаётся время её добавления.
+    @Column(name = "uploaded_at", nullable = false, columnDefinition = "timestamp default current_timestamp")
+    private Instant uploadedAt;
 
     @ManyToOne
     @JoinColumn(name = "user_id", nullable = false)
@@ -32,12 +49,52 @@ public class File {
         this.hash = hash;
     }
 
-    public byte[] getContent() {
-        return content;
+    public String getContentHash() {
+        return contentHash;
     }
 
-    public void setContent(byte[] content) {
-        this.content = content;
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public String getStorageRef() {
+        return storageRef;
+    }
+
+    public void setStorageRef(String storageRef) {
+        this.storageRef = storageRef;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public void setEncoding(String encoding) {
+        this.encoding = encoding;
+    }
+
+    public Long getStoredSize() {
+        return storedSize;
+    }
+
+    public void setStoredSize(Long storedSize) {
+        this.storedSize = storedSize;
+    }
+
+    public Instant getUploadedAt() {
+        return uploadedAt;
+    }
+
+    public void setUploadedAt(Instant uploadedAt) {
+        this.uploadedAt = uploadedAt;
     }
 
     public UUID getId() {
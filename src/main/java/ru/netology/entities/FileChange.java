@@ -0,0 +1,106 @@
+package ru.netology.entities;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+// Запись ленты изменений файлов пользователя. sequence растёт у каждого пользователя на единицу
+// с каждым изменением (users.change_seq), записи только добавляются и удаляются по сроку хранения.
+@Entity
+@Table(name = "file_changes", indexes = {
+        @Index(name = "file_changes_user_sequence_idx", columnList = "user_id, sequence", unique = true),
+        @Index(name = "file_changes_changed_at_idx", columnList = "changed_at")
+})
+public class FileChange {
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Id
+    private long id;
+
+    @ManyToOne
+    @JoinColumn(name = "user_id", nullable = false)
+    private User user;
+
+    @Column(nullable = false)
+    private long sequence;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Type type;
+
+    // Имя файла; при переименовании — прежнее, новое в newName
+    @Column(nullable = false)
+    private String name;
+    private String newName;
+    // Размер загруженного файла
+    private Long size;
+
+    @Column(name = "changed_at", nullable = false)
+    private Instant changedAt;
+
+    public enum Type {
+        UPLOAD, RENAME, DELETE
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public void setUser(User user) {
+        this.user = user;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getNewName() {
+        return newName;
+    }
+
+    public void setNewName(String newName) {
+        this.newName = newName;
+    }
+
+    public Long getSize() {
+        return size;
+    }
+
+    public void setSize(Long size) {
+        this.size = size;
+    }
+
+    public Instant getChangedAt() {
+        return changedAt;
+    }
+
+    public void setChangedAt(Instant changedAt) {
+        this.changedAt = changedAt;
+    }
+}
@@ -0,0 +1,31 @@
+package ru.netology.entities;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+// Содержимое файлов для DatabaseStorageBackend. Сущность описывает таблицу,
+// а запись и чтение идут через JDBC, чтобы байты передавались потоком.
+@Entity
+@Table(name = "file_contents")
+public class FileContent {
+    @Id
+    private String id;
+    private byte[] content;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public byte[] getContent() {
+        return content;
+    }
+
+    public void setContent(byte[] content) {
+        this.content = content;
+    }
+}
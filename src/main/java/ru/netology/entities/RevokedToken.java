@@ -0,0 +1,31 @@
+package ru.netology.entities;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.time.Instant;
+
+// Отозванный подписанный токен. Хранится до истечения срока самого токена.
+@Entity
+@Table(name = "revoked_tokens")
+public class RevokedToken {
+    @Id
+    private String id;
+    private Instant expiresAt;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public Instant getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(Instant expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+}
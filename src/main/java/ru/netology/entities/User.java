@@ -21,6 +21,19 @@ public class User {
     @OneToMany(mappedBy = "user")
     private Set<File> files;
 
+    // Номер последнего изменения в ленте (FileChange). Меняется только запросом UserRepository.nextChangeSequence,
+    // поэтому сохранение пользователя при входе его не перезаписывает.
+    @Column(name = "change_seq", nullable = false, insertable = false, updatable = false, columnDefinition = "bigint default 0")
+    private long changeSequence;
+
+    // Объём файлов пользователя (сумма size) и его квота, null в quota_bytes — cloud.quota.default.
+    // Меняются только запросами UserRepository из StorageQuota; null в used_bytes — объём ещё не посчитан.
+    @Column(name = "used_bytes", insertable = false, updatable = false)
+    private Long usedBytes;
+
+    @Column(name = "quota_bytes", insertable = false, updatable = false)
+    private Long quotaBytes;
+
     public int getId() {
         return id;
     }
@@ -60,4 +73,16 @@ public class User {
     public void setFiles(Set<File> files) {
         this.files = files;
     }
+
+    public long getChangeSequence() {
+        return changeSequence;
+    }
+
+    public Long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public Long getQuotaBytes() {
+        return quotaBytes;
+    }
 }
@@ -0,0 +1,10 @@
+package ru.netology.repositories;
+
+import ru.netology.entities.FileChange;
+
+import java.util.List;
+
+public interface FileChangeBatchRepository {
+    // Записи пакетной операции одним пакетом JDBC
+    void insertAll(List<FileChange> changes);
+}
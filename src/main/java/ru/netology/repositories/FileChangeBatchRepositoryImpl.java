@@ -0,0 +1,39 @@
+package ru.netology.repositories;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.netology.entities.FileChange;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+
+// У FileChange id IDENTITY, и Hibernate такие вставки в пакеты не собирает: каждая шла бы отдельным запросом.
+// Пакет JdbcTemplate с reWriteBatchedInserts драйвер отправляет одним многострочным INSERT.
+public class FileChangeBatchRepositoryImpl implements FileChangeBatchRepository {
+
+    private static final String INSERT = "insert into file_changes (user_id, sequence, type, name, new_name, size, changed_at) "
+            + "values (?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public FileChangeBatchRepositoryImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void insertAll(List<FileChange> changes) {
+        jdbcTemplate.batchUpdate(INSERT, changes, changes.size(), (ps, change) -> {
+            ps.setInt(1, change.getUser().getId());
+            ps.setLong(2, change.getSequence());
+            ps.setString(3, change.getType().name());
+            ps.setString(4, change.getName());
+            ps.setString(5, change.getNewName());
+            if (change.getSize() != null) {
+                ps.setLong(6, change.getSize());
+            } else {
+                ps.setNull(6, Types.BIGINT);
+            }
+            ps.setTimestamp(7, Timestamp.from(change.getChangedAt()));
+        });
+    }
+}
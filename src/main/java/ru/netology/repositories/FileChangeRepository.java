@@ -0,0 +1,37 @@
+package ru.netology.repositories;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.netology.entities.FileChange;
+import ru.netology.entities.User;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface FileChangeRepository extends JpaRepository<FileChange, Long>, FileChangeBatchRepository {
+    // Читается диапазоном индекса (user_id, sequence)
+    List<FileChange> findByUserAndSequenceGreaterThanOrderBySequence(User user, long sequence, Pageable pageable);
+
+    // Номер последнего изменения каждого из пользователей, у которых изменения есть
+    @Query("select c.user.id as userId, max(c.sequence) as sequence from FileChange c where c.user.id in :userIds group by c.user.id")
+    List<LastSequence> findLastSequences(@Param("userIds") Collection<Integer> userIds);
+
+    @Transactional
+    @Modifying
+    @Query("delete from FileChange c where c.changedAt < :instant")
+    int deleteChangedBefore(@Param("instant") Instant instant);
+
+    interface LastSequence {
+        int getUserId();
+
+        long getSequence();
+    }
+
+}
@@ -0,0 +1,14 @@
+package ru.netology.repositories;
+
+import ru.netology.entities.User;
+
+import java.util.List;
+
+public interface FileListRepository {
+    // Страница /list по ключу (sort, name, id), начиная сразу после after — последней строки предыдущей страницы.
+    List<FileSummary> findSummaries(User user, FileSort sort, boolean descending, FileSummary after, int limit);
+
+    // Файлы, имя которых начинается с query (substring = false) или содержит его без учёта регистра,
+    // по ключу (имя в побайтовом порядке, id), начиная сразу после after.
+    List<FileSummary> searchSummaries(User user, String query, boolean substring, FileSummary after, int limit);
+}
@@ -0,0 +1,168 @@
+package ru.netology.repositories;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.netology.entities.User;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+// Keyset-пагинация: страница начинается сравнением строк (sort, name, id) > (?, ?, ?) и читается диапазоном
+// индекса (user_id, sort, name, id) без OFFSET и без сортировки в базе. В JPQL сравнения строк нет,
+// поэтому запрос на SQL.
+public class FileListRepositoryImpl implements FileListRepository {
+
+    private static final Logger log = LoggerFactory.getLogger(FileListRepositoryImpl.class);
+    // Поиск сравнивает имена в порядке "C": тогда диапазон префикса — непрерывный участок индекса.
+    private static final String NAME_C = "name collate \"C\"";
+    private static final String SUMMARY_COLUMNS = "select id, name, size, uploaded_at from files where user_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public FileListRepositoryImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public List<FileSummary> findSummaries(User user, FileSort sort, boolean descending, FileSummary after, int limit) {
+        var key = sort.getColumn() == null ? "name, id" : sort.getColumn() + ", name, id";
+        var direction = descending ? " desc" : "";
+        var order = (sort.getColumn() == null ? "" : sort.getColumn() + direction + ", ") + "name" + direction + ", id" + direction;
+        var sql = new StringBuilder(SUMMARY_COLUMNS);
+        var args = new ArrayList<>();
+        args.add(user.getId());
+        if (after != null) {
+            sql.append(" and (").append(key).append(descending ? ") < (" : ") > (");
+            if (sort == FileSort.SIZE) {
+                sql.append("?, ");
+                args.add(after.getSize());
+            } else if (sort == FileSort.UPLOADED) {
+                sql.append("?, ");
+                args.add(Timestamp.from(after.getUploadedAt()));
+            }
+            sql.append("?, ?)");
+            args.add(after.getName());
+            args.add(after.getId());
+        }
+        sql.append(" order by ").append(order).append(" limit ?");
+        args.add(limit);
+        return query(sql, args);
+    }
+
+    // Префикс ищется диапазоном [query, следующая строка) по индексу (user_id, name collate "C", id), а не через
+    // like 'query%': диапазон остаётся условием индекса и в общем плане подготовленного запроса.
+    // Подстрока ищется через ilike по триграммному индексу.
+    @Override
+    public List<FileSummary> searchSummaries(User user, String query, boolean substring, FileSummary after, int limit) {
+        var sql = new StringBuilder(SUMMARY_COLUMNS);
+        var args = new ArrayList<>();
+        args.add(user.getId());
+        if (substring) {
+            sql.append(" and name ilike ?");
+            args.add("%" + escapeLike(query) + "%");
+        } else {
+            sql.append(" and ").append(NAME_C).append(" >= ?");
+            args.add(query);
+            var upperBound = prefixUpperBound(query);
+            if (upperBound != null) {
+                sql.append(" and ").append(NAME_C).append(" < ?");
+                args.add(upperBound);
+            }
+        }
+        if (after != null) {
+            sql.append(" and (").append(NAME_C).append(", id) > (?, ?)");
+            args.add(after.getName());
+            args.add(after.getId());
+        }
+        sql.append(" order by ").append(NAME_C).append(", id limit ?");
+        args.add(limit);
+        return query(sql, args);
+    }
+
+    // Индексы для поиска не описать аннотациями JPA: нужны collate "C" и GIN с pg_trgm.
+    // Без pg_trgm поиск подстроки работает, но перебирает файлы пользователя.
+    // Прежние индексы без id в ключе заменены индексами с id (из File и этим), их больше не читает ни один запрос.
+    @EventListener(ApplicationReadyEvent.class)
+    public void createSearchIndexes() {
+        jdbcTemplate.execute("create index concurrently if not exists files_user_name_c_id_idx on files (user_id, " + NAME_C + ", id)");
+        for (String index : List.of("files_user_name_idx", "files_user_size_name_idx", "files_user_uploaded_at_name_idx",
+                "files_user_name_c_idx")) {
+            jdbcTemplate.execute("drop index concurrently if exists " + index);
+        }
+        try {
+            jdbcTemplate.execute("create extension if not exists pg_trgm");
+            jdbcTemplate.execute("create index concurrently if not exists files_name_trgm_idx on files using gin (name gin_trgm_ops)");
+        } catch (DataAccessException e) {
+            log.warn("can't create trigram index for file search: {}", e.getMessage());
+        }
+    }
+
+    private List<FileSummary> query(StringBuilder sql, List<Object> args) {
+        return jdbcTemplate.query(sql.toString(),
+                (rs, rowNum) -> new Summary(rs.getObject(1, UUID.class), rs.getString(2), rs.getLong(3), rs.getTimestamp(4).toInstant()),
+                args.toArray());
+    }
+
+    // Наименьшая строка больше всех строк с этим префиксом в порядке кодовых точек (он же порядок "C" для UTF-8).
+    // null — такой строки нет, префикс состоит из максимальных кодовых точек.
+    private static String prefixUpperBound(String prefix) {
+        var codePoints = prefix.codePoints().toArray();
+        for (var i = codePoints.length - 1; i >= 0; i--) {
+            var next = codePoints[i] + 1;
+            // Суррогаты не бывают отдельными символами в UTF-8
+            if (next >= Character.MIN_SURROGATE && next <= Character.MAX_SURROGATE) {
+                next = Character.MAX_SURROGATE + 1;
+            }
+            if (next <= Character.MAX_CODE_POINT) {
+                codePoints[i] = next;
+                return new String(codePoints, 0, i + 1);
+            }
+        }
+        return null;
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private static class Summary implements FileSummary {
+        private final UUID id;
+        private final String name;
+        private final long size;
+        private final Instant uploadedAt;
+
+        private Summary(UUID id, String name, long size, Instant uploadedAt) {
+            this.id = id;
+            this.name = name;
+            this.size = size;
+            this.uploadedAt = uploadedAt;
+        }
+
+        @Override
+        public UUID getId() {
+            return id;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public Instant getUploadedAt() {
+            return uploadedAt;
+        }
+    }
+}
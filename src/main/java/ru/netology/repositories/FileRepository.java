@@ -1,19 +1,31 @@
 package ru.netology.repositories;
 
-import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ru.netology.entities.File;
 import ru.netology.entities.User;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
 @Repository
-public interface FileRepository extends JpaRepository<File, UUID> {
+public interface FileRepository extends JpaRepository<File, UUID>, FileListRepository {
     Optional<File> findFileByNameAndUser(String filename, User user);
 
-    List<File> findAllByUser(User user, Pageable pageable);
+    // Все файлы пакетной операции одним запросом name in (...) по индексу (user_id, name)
+    List<File> findAllByUserAndNameIn(User user, Collection<String> names);
+
+    // Есть ли у пользователя файл с таким содержимым; ищется по индексу (user_id, size, name)
+    boolean existsByUserAndSizeAndContentHash(User user, long size, String contentHash);
+
+    // Переименование одним UPDATE, без загрузки сущности
+    @Modifying
+    @Query("update File f set f.name = :name where f.name = :filename and f.user = :user")
+    int renameByNameAndUser(@Param("filename") String filename, @Param("user") User user, @Param("name") String name);
 
 }
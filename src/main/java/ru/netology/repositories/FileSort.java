@@ -0,0 +1,38 @@
+package ru.netology.repositories;
+
+// Порядок /list. Следующие ключи везде имя файла и id: уникальность имени у пользователя база не гарантирует,
+// а с id ключ строки однозначен, и курсор не пропускает и не повторяет файлы с одинаковым именем.
+public enum FileSort {
+    NAME("name", null),
+    SIZE("size", "size"),
+    UPLOADED("uploaded", "uploaded_at");
+
+    private final String parameter;
+    private final String column;
+
+    FileSort(String parameter, String column) {
+        this.parameter = parameter;
+        this.column = column;
+    }
+
+    public static FileSort of(String parameter) {
+        if (parameter == null) {
+            return NAME;
+        }
+        for (var sort : values()) {
+            if (sort.parameter.equals(parameter)) {
+                return sort;
+            }
+        }
+        throw new IllegalArgumentException("sort must be one of name, size, uploaded");
+    }
+
+    public String getParameter() {
+        return parameter;
+    }
+
+    // Колонка перед name в ключе сортировки; null — сортировка только по имени
+    String getColumn() {
+        return column;
+    }
+}
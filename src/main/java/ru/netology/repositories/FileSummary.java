@@ -0,0 +1,15 @@
+package ru.netology.repositories;
+
+import java.time.Instant;
+import java.util.UUID;
+
+// Строка /list: из таблицы files читаются только id, имя, размер и время загрузки.
+public interface FileSummary {
+    UUID getId();
+
+    String getName();
+
+    long getSize();
+
+    Instant getUploadedAt();
+}
@@ -0,0 +1,38 @@
+package ru.netology.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.netology.entities.UploadSession;
+import ru.netology.entities.User;
+
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+public interface UploadSessionRepository extends JpaRepository<UploadSession, UUID> {
+    Optional<UploadSession> findByIdAndUser(UUID id, User user);
+
+    // select ... for update nowait: строка, заблокированная другим commit, сразу даёт PessimisticLockingFailureException.
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "javax.persistence.lock.timeout", value = "0"))
+    @Query("select s from UploadSession s where s.id = :id and s.user = :user")
+    Optional<UploadSession> findByIdAndUserForUpdate(@Param("id") UUID id, @Param("user") User user);
+
+    List<UploadSession> findAllByExpiresAtBefore(Instant instant);
+
+    @Transactional
+    @Modifying
+    @Query("update UploadSession s set s.expiresAt = :expiresAt where s.id = :id")
+    void extendExpiration(UUID id, Instant expiresAt);
+
+}
@@ -1,7 +1,12 @@
 package ru.netology.repositories;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 import ru.netology.entities.User;
 
 import java.util.Optional;
@@ -12,4 +17,48 @@ public interface UserRepository extends JpaRepository<User, Integer> {
 
     Optional<User> findUserByAuthToken(String authToken);
 
+    // Следующий номер в ленте изменений пользователя. Строка пользователя остаётся заблокированной до конца
+    // транзакции, поэтому изменения одного пользователя фиксируются в порядке своих номеров.
+    @Transactional(propagation = Propagation.MANDATORY)
+    @Query(value = "update users set change_seq = change_seq + 1 where id = :id returning change_seq", nativeQuery = true)
+    long nextChangeSequence(@Param("id") int id);
+
+    // Номера для count изменений одной транзакции одним UPDATE; возвращается последний из них.
+    @Transactional(propagation = Propagation.MANDATORY)
+    @Query(value = "update users set change_seq = change_seq + :count where id = :id returning change_seq", nativeQuery = true)
+    long nextChangeSequences(@Param("id") int id, @Param("count") int count);
+
+    // Кэшированный пользователь (AuthTokenCache) хранит устаревшее значение, поэтому номер читается из базы.
+    @Query("select u.changeSequence from User u where u.id = :id")
+    long findChangeSequence(@Param("id") int id);
+
+    // Объём файлов считается суммой один раз, пока его нет; дальше он только изменяется.
+    @Transactional
+    @Modifying
+    @Query(value = "update users set used_bytes = (select coalesce(sum(f.size), 0) from files f where f.user_id = :id) " +
+            "where id = :id and used_bytes is null", nativeQuery = true)
+    int initUsedBytes(@Param("id") int id);
+
+    @Query("select u.usedBytes as usedBytes, u.quotaBytes as quotaBytes from User u where u.id = :id")
+    StorageUsage findStorageUsage(@Param("id") int id);
+
+    // Проверка квоты и изменение объёма — один UPDATE: параллельные транзакции не превысят квоту вместе.
+    // Пока объём не посчитан, он остаётся null, и initUsedBytes учтёт файл в сумме.
+    @Transactional
+    @Modifying
+    @Query(value = "update users set used_bytes = used_bytes + :size " +
+            "where id = :id and (used_bytes is null or used_bytes + :size <= coalesce(quota_bytes, :defaultQuota))", nativeQuery = true)
+    int addUsedBytes(@Param("id") int id, @Param("size") long size, @Param("defaultQuota") long defaultQuota);
+
+    @Transactional
+    @Modifying
+    @Query(value = "update users set used_bytes = used_bytes - :size where id = :id", nativeQuery = true)
+    int subtractUsedBytes(@Param("id") int id, @Param("size") long size);
+
+    interface StorageUsage {
+        Long getUsedBytes();
+
+        Long getQuotaBytes();
+    }
+
 }
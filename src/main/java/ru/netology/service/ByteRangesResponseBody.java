@@ -0,0 +1,51 @@
+package ru.netology.service;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Тело ответа multipart/byteranges на запрос с несколькими диапазонами.
+public class ByteRangesResponseBody implements StreamingResponseBody {
+
+    private final MultipartFileResponseBody representation;
+    private final List<long[]> ranges;
+    private final List<byte[]> partHeaders = new ArrayList<>();
+    private final byte[] closing;
+
+    // ranges: пары {start, end} с включительной правой границей, как в Content-Range.
+    public ByteRangesResponseBody(String boundary, MediaType contentType, MultipartFileResponseBody representation, List<long[]> ranges) {
+        this.representation = representation;
+        this.ranges = ranges;
+        var length = representation.contentLength();
+        for (long[] range : ranges) {
+            partHeaders.add(("\r\n--" + boundary + "\r\n"
+                    + "Content-Type: " + contentType + "\r\n"
+                    + "Content-Range: bytes " + range[0] + "-" + range[1] + "/" + length + "\r\n"
+                    + "\r\n").getBytes(StandardCharsets.UTF_8));
+        }
+        this.closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    public long contentLength() {
+        long length = closing.length;
+        for (int i = 0; i < ranges.size(); i++) {
+            length += partHeaders.get(i).length + ranges.get(i)[1] - ranges.get(i)[0] + 1;
+        }
+        return length;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        for (int i = 0; i < ranges.size(); i++) {
+            outputStream.write(partHeaders.get(i));
+            representation.writeRange(outputStream, ranges.get(i)[0], ranges.get(i)[1] + 1);
+        }
+        outputStream.write(closing);
+        outputStream.flush();
+    }
+}
@@ -0,0 +1,276 @@
+package ru.netology.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.netology.dto.GetChangesResponse;
+import ru.netology.dto.GetChangesResponseItem;
+import ru.netology.entities.FileChange;
+import ru.netology.entities.User;
+import ru.netology.repositories.FileChangeRepository;
+import ru.netology.repositories.UserRepository;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Лента изменений файлов: загрузки, переименования и удаления с номерами, которые у каждого пользователя
+// растут на единицу. Клиент хранит номер последнего применённого изменения и получает только следующие —
+// через GET /changes или поток SSE, которому изменения отправляются сразу после коммита.
+// Изменения через другие экземпляры приложения поток замечает при периодической проверке.
+@Service
+public class ChangeFeed implements MeterBinder {
+
+    // Сколько изменений поток SSE читает из базы за раз
+    private static final int STREAM_BATCH = 500;
+    // Сколько пользователей проверяется одним запросом
+    private static final int REFRESH_BATCH = 1000;
+
+    private final FileChangeRepository fileChangeRepository;
+    private final UserRepository userRepository;
+    private final Duration retention;
+    private final Duration streamTimeout;
+    private final Map<Integer, Set<ChangeStream>> streams = new ConcurrentHashMap<>();
+    // Отправка в потоки SSE идёт в своих потоках: медленный клиент не задерживает запрос, который изменил файлы.
+    private final TaskExecutor senders;
+
+    public ChangeFeed(FileChangeRepository fileChangeRepository, UserRepository userRepository,
+                      @Value("${cloud.changes.retention}") Duration retention,
+                      @Value("${cloud.changes.stream-timeout}") Duration streamTimeout,
+                      @Qualifier("changeFeedExecutor") TaskExecutor senders) {
+        this.fileChangeRepository = fileChangeRepository;
+        this.userRepository = userRepository;
+        this.retention = retention;
+        this.streamTimeout = streamTimeout;
+        this.senders = senders;
+    }
+
+    // Вызывается в транзакции, которая изменила файлы: номер и запись фиксируются вместе с изменением.
+    public void record(User user, FileChange.Type type, String name, String newName, Long size) {
+        var change = new FileChange();
+        change.setUser(user);
+        change.setSequence(userRepository.nextChangeSequence(user.getId()));
+        change.setType(type);
+        change.setName(name);
+        change.setNewName(newName);
+        change.setSize(size);
+        change.setChangedAt(Instant.now());
+        fileChangeRepository.save(change);
+        notifyAfterCommit(user.getId());
+    }
+
+    // Изменения пакетной операции: номера берутся одним UPDATE, записи вставляются одним пакетом.
+    // У changes заполнены type, name, newName и size.
+    public void recordAll(User user, List<FileChange> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        var sequence = userRepository.nextChangeSequences(user.getId(), changes.size()) - changes.size();
+        var changedAt = Instant.now();
+        for (FileChange change : changes) {
+            change.setUser(user);
+            change.setSequence(++sequence);
+            change.setChangedAt(changedAt);
+        }
+        fileChangeRepository.insertAll(changes);
+        notifyAfterCommit(user.getId());
+    }
+
+    // Не больше limit изменений после since. reset — изменений после since уже нет (удалены по сроку хранения)
+    // или since больше последнего номера: клиент перечитывает /list и продолжает с sequence.
+    public GetChangesResponse changesSince(User user, long since, int limit) {
+        var response = new GetChangesResponse();
+        response.setChanges(List.of());
+        // Номер читается первым: все изменения до него уже зафиксированы и должны найтись в ленте.
+        var current = userRepository.findChangeSequence(user.getId());
+        if (current == since) {
+            response.setSequence(since);
+            return response;
+        }
+        var changes = current > since
+                ? fileChangeRepository.findByUserAndSequenceGreaterThanOrderBySequence(user, since, PageRequest.of(0, limit))
+                : List.<FileChange>of();
+        if (changes.isEmpty() || changes.get(0).getSequence() != since + 1) {
+            response.setReset(true);
+            response.setSequence(current);
+            return response;
+        }
+        var items = new ArrayList<GetChangesResponseItem>(changes.size());
+        for (FileChange change : changes) {
+            var item = new GetChangesResponseItem();
+            item.setSequence(change.getSequence());
+            item.setType(change.getType().name().toLowerCase());
+            item.setFilename(change.getName());
+            item.setName(change.getNewName());
+            item.setSize(change.getSize());
+            items.add(item);
+        }
+        response.setChanges(items);
+        response.setSequence(changes.get(changes.size() - 1).getSequence());
+        return response;
+    }
+
+    // Поток SSE с изменениями после since (null — только новые). Каждое изменение — событие change с id,
+    // равным его номеру, поэтому EventSource после переподключения продолжает с Last-Event-ID.
+    public SseEmitter subscribe(User user, Long since) {
+        var emitter = new SseEmitter(streamTimeout.toMillis());
+        var stream = new ChangeStream(user, since != null ? since : userRepository.findChangeSequence(user.getId()), emitter);
+        streams.compute(user.getId(), (userId, userStreams) -> {
+            var result = userStreams != null ? userStreams : ConcurrentHashMap.<ChangeStream>newKeySet();
+            result.add(stream);
+            return result;
+        });
+        emitter.onCompletion(() -> remove(stream));
+        emitter.onTimeout(() -> remove(stream));
+        emitter.onError(e -> remove(stream));
+        stream.changed.set(true);
+        dispatch(stream);
+        return emitter;
+    }
+
+    // Потокам, у пользователей которых появились изменения (например, через другой экземпляр), отправляются
+    // изменения, остальным — комментарий: так соединение не закрывают прокси и замечается отключившийся клиент.
+    @Scheduled(fixedDelayString = "${cloud.changes.stream-refresh-interval}")
+    public void refreshStreams() {
+        var userIds = new ArrayList<>(streams.keySet());
+        for (var from = 0; from < userIds.size(); from += REFRESH_BATCH) {
+            var batch = userIds.subList(from, Math.min(from + REFRESH_BATCH, userIds.size()));
+            var last = new HashMap<Integer, Long>();
+            fileChangeRepository.findLastSequences(batch).forEach(sequence -> last.put(sequence.getUserId(), sequence.getSequence()));
+            for (Integer userId : batch) {
+                for (ChangeStream stream : streams.getOrDefault(userId, Set.of())) {
+                    if (last.getOrDefault(userId, 0L) > stream.sequence) {
+                        stream.changed.set(true);
+                    } else {
+                        stream.heartbeat.set(true);
+                    }
+                    dispatch(stream);
+                }
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${cloud.changes.cleanup-interval}")
+    public void deleteExpiredChanges() {
+        fileChangeRepository.deleteChangedBefore(Instant.now().minus(retention));
+    }
+
+    public int streamCount() {
+        return streams.values().stream().mapToInt(Set::size).sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("cloud.changes.streams", this, ChangeFeed::streamCount)
+                .description("Open change feed streams")
+                .register(registry);
+    }
+
+    private void notifyAfterCommit(int userId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    notifyStreams(userId);
+                }
+            });
+        } else {
+            notifyStreams(userId);
+        }
+    }
+
+    private void notifyStreams(int userId) {
+        for (ChangeStream stream : streams.getOrDefault(userId, Set.of())) {
+            stream.changed.set(true);
+            dispatch(stream);
+        }
+    }
+
+    // Пока отправка ждёт в очереди, новые уведомления к ней присоединяются.
+    // Если очередь заполнена, флаги потока остаются выставленными и отправку повторит refreshStreams.
+    private void dispatch(ChangeStream stream) {
+        if (stream.scheduled.compareAndSet(false, true)) {
+            try {
+                senders.execute(() -> {
+                    stream.scheduled.set(false);
+                    send(stream);
+                });
+            } catch (TaskRejectedException e) {
+                stream.scheduled.set(false);
+            }
+        }
+    }
+
+    private void send(ChangeStream stream) {
+        synchronized (stream) {
+            try {
+                var sent = false;
+                while (stream.changed.getAndSet(false)) {
+                    var page = changesSince(stream.user, stream.sequence, STREAM_BATCH);
+                    if (page.isReset()) {
+                        stream.emitter.send(SseEmitter.event().id(Long.toString(page.getSequence())).name("reset")
+                                .data(page, MediaType.APPLICATION_JSON));
+                        sent = true;
+                    }
+                    for (GetChangesResponseItem change : page.getChanges()) {
+                        stream.emitter.send(SseEmitter.event().id(Long.toString(change.getSequence())).name("change")
+                                .data(change, MediaType.APPLICATION_JSON));
+                        sent = true;
+                    }
+                    stream.sequence = page.getSequence();
+                    if (page.getChanges().size() == STREAM_BATCH) {
+                        stream.changed.set(true);
+                    }
+                }
+                if (stream.heartbeat.getAndSet(false) && !sent) {
+                    stream.emitter.send(SseEmitter.event().comment(""));
+                }
+            } catch (IOException | IllegalStateException e) {
+                // Клиент отключился или поток уже завершён
+                remove(stream);
+                stream.emitter.completeWithError(e);
+            }
+        }
+    }
+
+    private void remove(ChangeStream stream) {
+        streams.computeIfPresent(stream.user.getId(), (userId, userStreams) -> {
+            userStreams.remove(stream);
+            return userStreams.isEmpty() ? null : userStreams;
+        });
+    }
+
+    private static class ChangeStream {
+        private final User user;
+        private final SseEmitter emitter;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicBoolean changed = new AtomicBoolean();
+        private final AtomicBoolean heartbeat = new AtomicBoolean();
+        // Номер последнего отправленного изменения
+        private volatile long sequence;
+
+        private ChangeStream(User user, long sequence, SseEmitter emitter) {
+            this.user = user;
+            this.sequence = sequence;
+            this.emitter = emitter;
+        }
+    }
+}
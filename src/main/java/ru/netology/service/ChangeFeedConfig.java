@@ -0,0 +1,23 @@
+package ru.netology.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class ChangeFeedConfig {
+
+    // Потоки, которые пишут события в потоки SSE. Пул ограничен и останавливается вместе с контекстом;
+    // отправка, не уместившаяся в очередь, выполнится при следующей периодической проверке потоков.
+    @Bean
+    public ThreadPoolTaskExecutor changeFeedExecutor(@Value("${cloud.changes.sender-threads}") int senderThreads,
+                                                     @Value("${cloud.changes.sender-queue-capacity}") int senderQueueCapacity) {
+        var executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(senderThreads);
+        executor.setMaxPoolSize(senderThreads);
+        executor.setQueueCapacity(senderQueueCapacity);
+        executor.setThreadNamePrefix("change-feed-");
+        return executor;
+    }
+}
@@ -0,0 +1,177 @@
+package ru.netology.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.netology.dto.GetListResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Кэш ответов /list. У каждого пользователя своя версия списка: загрузка, удаление и переименование
+// файла её меняют, и записи со старой версией больше не отдаются. Записи живут не дольше ttl —
+// так ограничена устарелость, если файлы менялись через другой экземпляр приложения.
+// ETag считается по содержимому ответа, поэтому 304 остаётся верным и после перезапуска, и на другом экземпляре.
+@Component
+public class FileListCache implements MeterBinder {
+
+    private final long ttlNanos;
+    private final int maxSize;
+    private final Map<String, Entry> entries;
+    // Версии берутся из одной последовательности, поэтому не повторяются у одного пользователя.
+    private final Map<Integer, Long> versions = new HashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public FileListCache(@Value("${cloud.list-cache.ttl}") Duration ttl,
+                         @Value("${cloud.list-cache.max-size}") int maxSize) {
+        this.ttlNanos = ttl.toNanos();
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > FileListCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // query — все параметры запроса, от которых зависит ответ
+    public CachedList get(Integer userId, String query, Supplier<GetListResponse> loader) {
+        if (ttlNanos <= 0 || maxSize <= 0) {
+            return new CachedList(loader.get());
+        }
+        var key = userId + "|" + query;
+        long loadVersion;
+        synchronized (this) {
+            loadVersion = versions.getOrDefault(userId, 0L);
+            var entry = entries.get(key);
+            if (entry != null) {
+                if (entry.version == loadVersion && entry.expiresAt - System.nanoTime() > 0) {
+                    hits.incrementAndGet();
+                    return entry.list;
+                }
+                entries.remove(key);
+                evictions.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        // Версия прочитана до запроса в базу: если файлы изменятся во время него, ответ не попадёт в кэш.
+        var list = new CachedList(loader.get());
+        synchronized (this) {
+            if (versions.getOrDefault(userId, 0L) == loadVersion) {
+                entries.put(key, new Entry(list, loadVersion, System.nanoTime() + ttlNanos));
+            }
+        }
+        return list;
+    }
+
+    // Меняет версию списка пользователя. Внутри транзакции — после её завершения: иначе запрос, начатый
+    // между сменой версии и коммитом, прочитал бы из базы старый список и закэшировал его с новой версией.
+    public void invalidate(Integer userId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    bump(userId);
+                }
+            });
+        } else {
+            bump(userId);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("cache.gets", this, FileListCache::getHitCount)
+                .tags("cache", "file-lists", "result", "hit")
+                .register(registry);
+        FunctionCounter.builder("cache.gets", this, FileListCache::getMissCount)
+                .tags("cache", "file-lists", "result", "miss")
+                .register(registry);
+        FunctionCounter.builder("cache.evictions", this, FileListCache::getEvictionCount)
+                .tags("cache", "file-lists")
+                .register(registry);
+        Gauge.builder("cache.size", this, FileListCache::size)
+                .tags("cache", "file-lists")
+                .register(registry);
+    }
+
+    private synchronized void bump(Integer userId) {
+        versions.put(userId, sequence.incrementAndGet());
+    }
+
+    public static class CachedList {
+        private final GetListResponse response;
+        private final String eTag;
+
+        private CachedList(GetListResponse response) {
+            this.response = response;
+            this.eTag = eTag(response);
+        }
+
+        public GetListResponse getResponse() {
+            return response;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        private static String eTag(GetListResponse response) {
+            var content = new StringBuilder();
+            for (var file : response.getFiles()) {
+                // Длина перед именем: имя может содержать любые символы
+                content.append(file.getFilename().length()).append(':').append(file.getFilename())
+                        .append(' ').append(file.getSize()).append('\n');
+            }
+            content.append(Objects.toString(response.getNext(), ""));
+            return "\"" + UUID.nameUUIDFromBytes(content.toString().getBytes(StandardCharsets.UTF_8)) + "\"";
+        }
+    }
+
+    private static class Entry {
+        private final CachedList list;
+        private final long version;
+        private final long expiresAt;
+
+        private Entry(CachedList list, long version, long expiresAt) {
+            this.list = list;
+            this.version = version;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -1,35 +1,81 @@
 package ru.netology.service;
 
-import org.springframework.data.domain.PageRequest;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.util.LinkedMultiValueMap;
-import org.springframework.util.MultiValueMap;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.MimeTypeUtils;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.netology.auth.TokenAuthenticator;
+import ru.netology.dto.GetChangesResponse;
 import ru.netology.dto.GetListResponse;
 import ru.netology.dto.GetListResponseItem;
+import ru.netology.dto.GetUsageResponse;
+import ru.netology.dto.PostBatchRenameRequestItem;
+import ru.netology.dto.PostBatchResponse;
+import ru.netology.dto.PostBatchResponseItem;
+import ru.netology.dto.PostInstantUploadChallenge;
+import ru.netology.dto.PostInstantUploadChallengeRange;
+import ru.netology.dto.PostInstantUploadResponse;
 import ru.netology.entities.File;
+import ru.netology.entities.FileChange;
 import ru.netology.entities.User;
 import ru.netology.repositories.FileRepository;
-import ru.netology.repositories.UserRepository;
+import ru.netology.repositories.FileSort;
+import ru.netology.repositories.FileSummary;
+import ru.netology.storage.ContentCodec;
+import ru.netology.storage.SpliceableGzip;
+import ru.netology.storage.StorageBackend;
+import ru.netology.storage.StoredContent;
 
 import javax.security.auth.message.AuthException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 @Service
 public class FileService {
 
+    private static final Pattern SHA256_HEX = Pattern.compile("[0-9a-fA-F]{64}");
+    // Больше диапазонов в одном запросе не обслуживаем, такой Range игнорируется.
+    private static final int MAX_RANGES = 16;
+    // Больше файлов в одной пакетной операции не принимаем: имена уходят параметрами одного запроса.
+    private static final int MAX_BATCH = 1000;
+
     private final FileRepository fileRepository;
-    private final UserRepository userRepository;
+    private final StorageBackend storageBackend;
+    private final TokenAuthenticator tokenAuthenticator;
+    private final TransferMetrics transferMetrics;
+    private final FileListCache fileListCache;
+    private final ChangeFeed changeFeed;
+    private final StorageQuota storageQuota;
+    private final InstantUploadChallenges instantUploadChallenges;
 
-    public FileService(FileRepository fileRepository, UserRepository userRepository) {
+    public FileService(FileRepository fileRepository, StorageBackend storageBackend, TokenAuthenticator tokenAuthenticator,
+                       TransferMetrics transferMetrics, FileListCache fileListCache, ChangeFeed changeFeed,
+                       StorageQuota storageQuota, InstantUploadChallenges instantUploadChallenges) {
         this.fileRepository = fileRepository;
-        this.userRepository = userRepository;
+        this.storageBackend = storageBackend;
+        this.tokenAuthenticator = tokenAuthenticator;
+        this.transferMetrics = transferMetrics;
+        this.fileListCache = fileListCache;
+        this.changeFeed = changeFeed;
+        this.storageQuota = storageQuota;
+        this.instantUploadChallenges = instantUploadChallenges;
     }
 
+    @Transactional(rollbackFor = Exception.class)
     public void uploadFile(String authToken, String hash, MultipartFile file, String filename) throws IOException, AuthException {
         if (hash == null) {
             throw new IllegalArgumentException("hash can't be null");
@@ -38,9 +84,7 @@ public class FileService {
         if (file == null) {
             throw new IllegalArgumentException("file can't be null");
         }
-        if (hash.isEmpty() || hash.isBlank()) {
-            throw new IllegalArgumentException("hash can't be empty");
-        }
+        checkHash(hash);
         if (filename.isEmpty() || filename.isBlank()) {
             throw new IllegalArgumentException("filename is empty");
         }
@@ -48,91 +92,618 @@ public class FileService {
             throw new IllegalArgumentException("file can't be empty");
         }
         var user = checkUserExistence(authToken);
+        var reservation = transferMetrics.metadataTimer().record(() -> storageQuota.reserve(user, file.getSize()));
+        // Содержимое не читается в память целиком, а передаётся в хранилище потоком.
+        try (reservation; var content = file.getInputStream()) {
+            storeFile(user, filename, hash, content, file.getSize());
+        } catch (IOException e) {
+            throw new IOException("can't get file bytes");
+        }
+    }
+
+    @Transactional(rollbackFor = Exception.class)
+    public File storeFile(User user, String filename, String hash, InputStream content, long size) throws IOException {
+        checkHash(hash);
+        checkFilenameIsFree(filename, user);
+        StoredContent storedContent;
+        var sample = Timer.start();
+        try (var transfer = transferMetrics.startUpload(size)) {
+            storedContent = storageBackend.store(transferMetrics.countUploaded(content), size);
+        } finally {
+            sample.stop(transferMetrics.contentWriteTimer());
+        }
+        if (!matchesContent(hash, storedContent.getSha256())) {
+            // Транзакция откатится, но содержимое в файловом хранилище нужно освободить явно.
+            storageBackend.delete(storedContent.getReference());
+            throw new IllegalArgumentException("hash doesn't match file content");
+        }
+        return saveFile(user, filename, hash, storedContent);
+    }
+
+    // Если такое содержимое уже хранится, файл создаётся ссылкой на него и клиенту не нужно передавать байты.
+    // Своё содержимое (у пользователя уже есть файл с ним) переиспользуется сразу. Для остального SHA-256 и размера
+    // мало: клиент сначала получает запрос доказательства (InstantUploadChallenges) и повторяет вызов с nonce и proof.
+    // Запрос выдаётся, даже если содержимого нет, поэтому ответ не выдаёт, хранит ли его кто-то.
+    // Если содержимое не переиспользовано, ничего не создаётся и клиент загружает файл обычным POST /file.
+    @Transactional(rollbackFor = Exception.class)
+    public PostInstantUploadResponse instantUpload(String authToken, String filename, String hash, String sha256, long size,
+                                                   String nonce, String proof) throws AuthException, IOException {
+        checkFilenameIsNull(filename);
+        if (filename.isEmpty() || filename.isBlank()) {
+            throw new IllegalArgumentException("filename is empty");
+        }
+        checkHash(hash);
+        var user = checkUserExistence(authToken);
+        checkFilenameIsFree(filename, user);
+        if (!matchesContent(hash, sha256)) {
+            throw new IllegalArgumentException("hash doesn't match sha256");
+        }
+        var response = new PostInstantUploadResponse();
+        Optional<InstantUploadChallenges.Challenge> challenge = Optional.empty();
+        if (nonce == null) {
+            var owned = transferMetrics.metadataTimer().record(() ->
+                    fileRepository.existsByUserAndSizeAndContentHash(user, size, sha256.toLowerCase(Locale.ROOT)));
+            if (!owned) {
+                response.setChallenge(challengeResponse(instantUploadChallenges.issue(user.getId(), sha256, size)));
+                return response;
+            }
+        } else {
+            challenge = instantUploadChallenges.take(nonce, user.getId(), sha256, size);
+            if (challenge.isEmpty()) {
+                throw new IllegalArgumentException("unknown or expired nonce");
+            }
+        }
+        var storedContent = transferMetrics.metadataTimer().record(() -> storageBackend.reuse(sha256, size));
+        if (storedContent.isPresent() && challenge.isPresent() && !proves(challenge.get(), storedContent.get(), proof)) {
+            // Ссылка уже добавлена: снимаем её, а клиент получает тот же ответ, что и без содержимого.
+            storageBackend.delete(storedContent.get().getReference());
+            storedContent = Optional.empty();
+        }
+        storedContent.ifPresent(content -> saveFile(user, filename, hash, content));
+        response.setUploaded(storedContent.isPresent());
+        return response;
+    }
+
+    private boolean proves(InstantUploadChallenges.Challenge challenge, StoredContent storedContent, String proof) throws IOException {
+        try (var content = ContentCodec.decode(storageBackend.open(storedContent.getReference()), storedContent.getEncoding())) {
+            return challenge.matches(content, proof);
+        }
+    }
+
+    private static PostInstantUploadChallenge challengeResponse(InstantUploadChallenges.Challenge challenge) {
+        var response = new PostInstantUploadChallenge();
+        response.setNonce(challenge.getNonce());
+        response.setRanges(challenge.getRanges().stream()
+                .map(range -> new PostInstantUploadChallengeRange(range[0], range[1]))
+                .collect(Collectors.toList()));
+        return response;
+    }
+
+    private File saveFile(User user, String filename, String hash, StoredContent storedContent) {
         var currentFile = new File();
         currentFile.setUser(user);
         currentFile.setId(UUID.randomUUID());
         currentFile.setHash(hash);
-        var optionalFile = fileRepository.findFileByNameAndUser(filename, user);
-        if (optionalFile.isPresent()) {
-            throw new IllegalArgumentException("file with provided filename already exists");
-        }
         currentFile.setName(filename);
-        try {
-            currentFile.setContent(file.getBytes());
-        } catch (IOException e) {
-            throw new IOException("can't get file bytes");
-        }
-        fileRepository.saveAndFlush(currentFile);
+        currentFile.setContentHash(storedContent.getSha256());
+        currentFile.setStorageRef(storedContent.getReference());
+        currentFile.setSize(storedContent.getSize());
+        currentFile.setEncoding(storedContent.getEncoding());
+        currentFile.setStoredSize(storedContent.getStoredSize());
+        // Точность timestamp в PostgreSQL — микросекунды: так время в курсоре /list совпадает с хранимым.
+        currentFile.setUploadedAt(Instant.now().truncatedTo(ChronoUnit.MICROS));
+        transferMetrics.metadataTimer().record(() -> {
+            fileRepository.saveAndFlush(currentFile);
+            storageQuota.charge(user, currentFile.getSize());
+            changeFeed.record(user, FileChange.Type.UPLOAD, filename, null, currentFile.getSize());
+        });
+        fileListCache.invalidate(user.getId());
+        return currentFile;
     }
 
-    public void deleteFile(String authToken, String filename) throws AuthException {
+    @Transactional(rollbackFor = Exception.class)
+    public void deleteFile(String authToken, String filename) throws AuthException, IOException {
         checkFilenameIsNull(filename);
         if (filename.isEmpty() || filename.isBlank()) {
             throw new IllegalArgumentException("filename is empty");
         }
         var user = checkUserExistence(authToken);
         var file = checkFileExistence(filename, user);
-        fileRepository.delete(file);
+        // Содержимое общее у всех файлов с одинаковыми байтами, хранилище снимает только одну ссылку.
+        // Ссылка снимается до изменения строки пользователя: загрузка блокирует строки в том же порядке,
+        // сначала blobs, потом users, и параллельные загрузка и удаление не взаимоблокируются.
+        var storageRef = file.getStorageRef();
+        if (storageRef != null) {
+            storageBackend.delete(storageRef);
+        }
+        transferMetrics.metadataTimer().record(() -> {
+            fileRepository.delete(file);
+            fileRepository.flush();
+            storageQuota.release(user, file.getSize());
+            changeFeed.record(user, FileChange.Type.DELETE, filename, null, null);
+        });
+        fileListCache.invalidate(user.getId());
     }
 
-    public ResponseEntity<MultiValueMap<String, Object>> getFile(String authToken, String filename) throws AuthException {
+    // Метаданные читаются в короткой транзакции, соединение возвращается в пул до того, как начнётся передача тела.
+    @Transactional(readOnly = true)
+    public ResponseEntity<StreamingResponseBody> getFile(String authToken, String filename, HttpHeaders requestHeaders) throws AuthException, IOException {
+        checkFilenameIsNull(filename);
+        if (filename.isEmpty() || filename.isBlank()) {
+            throw new IllegalArgumentException("filename is empty");
+        }
+        return getFile(checkUserExistence(authToken), filename, requestHeaders);
+    }
+
+    // Для вызывающего, который уже проверил токен: пользователь нужен ему и для допуска скачивания.
+    public ResponseEntity<StreamingResponseBody> getFile(User user, String filename, HttpHeaders requestHeaders) throws IOException {
         checkFilenameIsNull(filename);
         if (filename.isEmpty() || filename.isBlank()) {
             throw new IllegalArgumentException("filename is empty");
         }
-        var user = checkUserExistence(authToken);
         var file = checkFileExistence(filename, user);
-        var formData = new LinkedMultiValueMap<String, Object>();
-        formData.add("hash", file.getHash());
-        formData.add("file", file.getContent());
-        return ResponseEntity.status(HttpStatus.OK).contentType(MediaType.MULTIPART_FORM_DATA).body(formData);
+        // Хэш, посчитанный сервером, надёжнее клиентского; у файлов, загруженных раньше, его нет.
+        var tag = Objects.toString(file.getContentHash() != null ? file.getContentHash() : file.getHash(), "");
+        var identityETag = entityTag(tag);
+        var ranges = requestedRanges(requestHeaders, identityETag);
+        // Сжатое в хранилище содержимое отдаётся без распаковки, если клиент принимает такую кодировку.
+        // Диапазоны всегда считаются по несжатому телу.
+        var encoding = file.getEncoding();
+        var passthrough = encoding != null && file.getStoredSize() != null && ranges.isEmpty()
+                && acceptsEncoding(requestHeaders, encoding);
+        var eTag = passthrough ? encodedEntityTag(identityETag, encoding) : identityETag;
+        if (matchesAny(requestHeaders.getIfNoneMatch(), eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).varyBy(HttpHeaders.ACCEPT_ENCODING).build();
+        }
+        // gzip, сохранённый до того, как появилось окончание для вставки в ответ, отдаётся распакованным.
+        var spliceable = passthrough
+                ? SpliceableGzip.read(storageBackend, file.getStorageRef(), file.getStoredSize())
+                : Optional.<SpliceableGzip>empty();
+        if (passthrough && spliceable.isEmpty()) {
+            passthrough = false;
+            eTag = identityETag;
+        }
+        // Граница выводится из хэша, чтобы при одном ETag тело ответа совпадало побайтно
+        // и диапазоны из разных запросов можно было склеивать.
+        var boundary = boundaryFor(tag);
+        var contentType = new MediaType(MediaType.MULTIPART_FORM_DATA, Map.of("boundary", boundary));
+        var body = new MultipartFileResponseBody(boundary, file.getHash(), storageBackend, file.getStorageRef(),
+                encoding, file.getSize());
+        var length = body.contentLength();
+        if (passthrough) {
+            var encodedBody = new GzipFileResponseBody(body, storageBackend, file.getStorageRef(), spliceable.get(), file.getSize());
+            return ResponseEntity.status(HttpStatus.OK)
+                    .contentType(contentType)
+                    .contentLength(encodedBody.contentLength())
+                    .eTag(eTag)
+                    .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                    .header(HttpHeaders.CONTENT_ENCODING, encoding)
+                    .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                    .body(metered(encodedBody, encodedBody.contentLength()));
+        }
+        if (ranges.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.OK)
+                    .contentType(contentType)
+                    .contentLength(length)
+                    .eTag(eTag)
+                    .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                    .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                    .body(metered(body, length));
+        }
+        var satisfiable = new ArrayList<long[]>();
+        for (HttpRange range : ranges) {
+            try {
+                var rangeStart = range.getRangeStart(length);
+                var rangeEnd = range.getRangeEnd(length);
+                if (rangeStart <= rangeEnd) {
+                    satisfiable.add(new long[]{rangeStart, rangeEnd});
+                }
+            } catch (IllegalArgumentException e) {
+                // Диапазон начинается за концом тела: пропускаем, остальные ещё могут быть выполнимы.
+            }
+        }
+        if (satisfiable.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + length)
+                    .eTag(eTag)
+                    .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+        }
+        if (satisfiable.size() == 1) {
+            var range = satisfiable.get(0);
+            return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                    .contentType(contentType)
+                    .contentLength(range[1] - range[0] + 1)
+                    .eTag(eTag)
+                    .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                    .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes " + range[0] + "-" + range[1] + "/" + length)
+                    .body(metered(outputStream -> body.writeRange(outputStream, range[0], range[1] + 1), range[1] - range[0] + 1));
+        }
+        var rangesBoundary = MimeTypeUtils.generateMultipartBoundaryString();
+        var rangesBody = new ByteRangesResponseBody(rangesBoundary, contentType, body, satisfiable);
+        return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                .contentType(new MediaType("multipart", "byteranges", Map.of("boundary", rangesBoundary)))
+                .contentLength(rangesBody.contentLength())
+                .eTag(eTag)
+                .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .body(metered(rangesBody, rangesBody.contentLength()));
     }
 
+    @Transactional(rollbackFor = Exception.class)
     public void renameFile(String authToken, String filename, String name) throws AuthException {
         checkFilenameIsNull(filename);
         if (filename.isEmpty() || filename.isBlank()) {
             throw new IllegalArgumentException("filename is empty");
         }
         var user = checkUserExistence(authToken);
-        var file = checkFileExistence(filename, user);
-        file.setName(name);
-        fileRepository.saveAndFlush(file);
+        if (transferMetrics.metadataTimer().record(() -> fileRepository.renameByNameAndUser(filename, user, name)) == 0) {
+            throw new NoSuchElementException("file with provided filename not found");
+        }
+        transferMetrics.metadataTimer().record(() -> changeFeed.record(user, FileChange.Type.RENAME, filename, name, null));
+        fileListCache.invalidate(user.getId());
+    }
+
+    // Удаление нескольких файлов одной транзакцией: пользователь проверяется один раз, файлы находятся одним
+    // запросом name in (...), строки удаляются пакетом JDBC (hibernate.jdbc.batch_size). Результат — по каждому
+    // имени в порядке запроса; ненайденные и повторяющиеся имена не мешают удалить остальные.
+    @Transactional(rollbackFor = Exception.class)
+    public PostBatchResponse deleteFiles(String authToken, List<String> filenames) throws AuthException, IOException {
+        checkBatchSize(filenames);
+        var user = checkUserExistence(authToken);
+        var names = new HashSet<String>();
+        for (String filename : filenames) {
+            if (filename != null && !filename.isBlank()) {
+                names.add(filename);
+            }
+        }
+        var byName = findAllByName(user, names);
+        var results = new ArrayList<PostBatchResponseItem>(filenames.size());
+        var deleted = new ArrayList<File>();
+        var changes = new ArrayList<FileChange>();
+        var seen = new HashSet<String>();
+        for (String filename : filenames) {
+            if (filename == null || filename.isBlank()) {
+                results.add(batchResult(filename, "filename is empty"));
+            } else if (!seen.add(filename)) {
+                results.add(batchResult(filename, "filename is repeated in the batch"));
+            } else if (!byName.containsKey(filename)) {
+                results.add(batchResult(filename, "file with provided filename not found"));
+            } else {
+                for (File file : byName.get(filename)) {
+                    deleted.add(file);
+                    changes.add(change(FileChange.Type.DELETE, filename, null));
+                }
+                results.add(batchResult(filename, null));
+            }
+        }
+        if (!deleted.isEmpty()) {
+            var size = deleted.stream().mapToLong(File::getSize).sum();
+            // Как в deleteFile, ссылки снимаются до изменения строки пользователя.
+            var storageRefs = deleted.stream().map(File::getStorageRef).filter(Objects::nonNull).collect(Collectors.toList());
+            storageBackend.deleteAll(storageRefs);
+            transferMetrics.metadataTimer().record(() -> {
+                fileRepository.deleteAll(deleted);
+                fileRepository.flush();
+                storageQuota.release(user, size);
+                changeFeed.recordAll(user, changes);
+            });
+            fileListCache.invalidate(user.getId());
+        }
+        var response = new PostBatchResponse();
+        response.setResults(results);
+        return response;
+    }
+
+    // Переименование нескольких файлов одной транзакцией. Исходные и новые имена ищутся одним запросом, новые имена
+    // записываются пакетом UPDATE при flush. Имя, занятое существующим файлом, не считается свободным, даже если
+    // этот файл переименовывается в том же пакете.
+    @Transactional(rollbackFor = Exception.class)
+    public PostBatchResponse renameFiles(String authToken, List<PostBatchRenameRequestItem> files) throws AuthException {
+        checkBatchSize(files);
+        var user = checkUserExistence(authToken);
+        var names = new HashSet<String>();
+        for (PostBatchRenameRequestItem item : files) {
+            if (item != null && item.getFilename() != null && item.getName() != null) {
+                names.add(item.getFilename());
+                names.add(item.getName());
+            }
+        }
+        var byName = findAllByName(user, names);
+        var results = new ArrayList<PostBatchResponseItem>(files.size());
+        var changes = new ArrayList<FileChange>();
+        var sources = new HashSet<String>();
+        var targets = new HashSet<String>();
+        for (PostBatchRenameRequestItem item : files) {
+            var filename = item != null ? item.getFilename() : null;
+            if (filename == null || filename.isBlank()) {
+                results.add(batchResult(filename, "filename is empty"));
+            } else if (item.getName() == null || item.getName().isBlank()) {
+                results.add(batchResult(filename, "name is empty"));
+            } else if (!sources.add(filename)) {
+                results.add(batchResult(filename, "filename is repeated in the batch"));
+            } else if (!byName.containsKey(filename)) {
+                results.add(batchResult(filename, "file with provided filename not found"));
+            } else if (byName.containsKey(item.getName()) || !targets.add(item.getName())) {
+                results.add(batchResult(filename, "file with provided name already exists"));
+            } else {
+                byName.get(filename).forEach(file -> file.setName(item.getName()));
+                changes.add(change(FileChange.Type.RENAME, filename, item.getName()));
+                results.add(batchResult(filename, null));
+            }
+        }
+        if (!changes.isEmpty()) {
+            transferMetrics.metadataTimer().record(() -> {
+                fileRepository.flush();
+                changeFeed.recordAll(user, changes);
+            });
+            fileListCache.invalidate(user.getId());
+        }
+        var response = new PostBatchResponse();
+        response.setResults(results);
+        return response;
+    }
+
+    // Страница списка файлов в порядке sort (name, size, uploaded) и order (asc, desc). В ответе next —
+    // курсор для следующей страницы, его передают в after вместе с теми же sort и order; null — файлов больше нет.
+    // Ответ берётся из FileListCache; если список не менялся с ответа, ETag которого прислан в If-None-Match, — 304.
+    public ResponseEntity<GetListResponse> getList(String authToken, Integer limit, String sort, String order, String after,
+                                                   HttpHeaders requestHeaders) throws AuthException {
+        checkLimit(limit);
+        var fileSort = FileSort.of(sort);
+        if (order != null && !order.equals("asc") && !order.equals("desc")) {
+            throw new IllegalArgumentException("order must be asc or desc");
+        }
+        var descending = "desc".equals(order);
+        var cursor = after == null ? null : ListCursor.decode(after);
+        if (cursor != null && (cursor.getSort() != fileSort || cursor.isDescending() != descending)) {
+            throw new IllegalArgumentException("cursor doesn't match sort and order");
+        }
+        var user = checkUserExistence(authToken);
+        var query = limit + "|" + fileSort.getParameter() + "|" + descending + "|" + Objects.toString(after, "");
+        var list = fileListCache.get(user.getId(), query, () -> {
+            var files = transferMetrics.metadataTimer().record(() -> fileRepository.findSummaries(user, fileSort, descending, cursor, pageSize(limit)));
+            return listResponse(files, limit, fileSort, descending);
+        });
+        if (matchesAny(requestHeaders.getIfNoneMatch(), list.getETag())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(list.getETag()).build();
+        }
+        return ResponseEntity.ok().eTag(list.getETag()).body(list.getResponse());
+    }
+
+    // Поиск по имени: match = prefix (по умолчанию, с учётом регистра) или substring (без учёта регистра).
+    // Результаты идут по имени, страницы и курсор next — как у /list.
+    public GetListResponse searchFiles(String authToken, String query, String match, Integer limit, String after) throws AuthException {
+        checkLimit(limit);
+        if (query == null || query.isEmpty()) {
+            throw new IllegalArgumentException("query is empty");
+        }
+        if (match != null && !match.equals("prefix") && !match.equals("substring")) {
+            throw new IllegalArgumentException("match must be prefix or substring");
+        }
+        var substring = "substring".equals(match);
+        var cursor = after == null ? null : ListCursor.decode(after);
+        if (cursor != null && (cursor.getSort() != FileSort.NAME || cursor.isDescending())) {
+            throw new IllegalArgumentException("cursor doesn't match search");
+        }
+        var user = checkUserExistence(authToken);
+        var files = transferMetrics.metadataTimer().record(() -> fileRepository.searchSummaries(user, query, substring, cursor, pageSize(limit)));
+        return listResponse(files, limit, FileSort.NAME, false);
     }
 
-    public GetListResponse getList(String authToken, Integer limit) throws AuthException {
+    // Изменения файлов после since, не больше limit (ChangeFeed.changesSince).
+    public GetChangesResponse getChanges(String authToken, Long since, Integer limit) throws AuthException {
+        checkLimit(limit);
+        checkSince(since);
+        var user = checkUserExistence(authToken);
+        return transferMetrics.metadataTimer().record(() -> changeFeed.changesSince(user, since, limit));
+    }
+
+    // Поток SSE с изменениями после since или после Last-Event-ID, который EventSource присылает при переподключении.
+    public SseEmitter streamChanges(String authToken, Long since, String lastEventId) throws AuthException {
+        if (lastEventId != null) {
+            try {
+                since = Long.parseLong(lastEventId);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Last-Event-ID must be a change sequence");
+            }
+        }
+        if (since != null) {
+            checkSince(since);
+        }
+        var user = checkUserExistence(authToken);
+        return changeFeed.subscribe(user, since);
+    }
+
+    public GetUsageResponse getUsage(String authToken) throws AuthException {
+        var user = checkUserExistence(authToken);
+        return transferMetrics.metadataTimer().record(() -> storageQuota.usage(user));
+    }
+
+    public User checkUserExistence(String authToken) throws AuthException {
+        var optionalUser = transferMetrics.authTimer().record(() -> tokenAuthenticator.findUser(authToken.split(" ")[1]));
+        if (optionalUser.isEmpty()) {
+            throw new AuthException("user with provided auth token not found");
+        }
+        return optionalUser.get();
+    }
+
+    public File checkFileExistence(String filename, User user) {
+        var optionalFile = transferMetrics.metadataTimer().record(() -> fileRepository.findFileByNameAndUser(filename, user));
+        if (optionalFile.isEmpty()) {
+            throw new NoSuchElementException("file with provided filename not found");
+        }
+        return optionalFile.get();
+    }
+
+    private static void checkBatchSize(List<?> items) {
+        if (items == null || items.isEmpty()) {
+            throw new IllegalArgumentException("batch can't be empty");
+        }
+        if (items.size() > MAX_BATCH) {
+            throw new IllegalArgumentException("batch can't contain more than " + MAX_BATCH + " files");
+        }
+    }
+
+    private Map<String, List<File>> findAllByName(User user, Set<String> names) {
+        if (names.isEmpty()) {
+            return Map.of();
+        }
+        return transferMetrics.metadataTimer().record(() -> fileRepository.findAllByUserAndNameIn(user, names)).stream()
+                .collect(Collectors.groupingBy(File::getName));
+    }
+
+    private static PostBatchResponseItem batchResult(String filename, String message) {
+        var item = new PostBatchResponseItem();
+        item.setFilename(filename);
+        item.setSuccess(message == null);
+        item.setMessage(message);
+        return item;
+    }
+
+    private static FileChange change(FileChange.Type type, String name, String newName) {
+        var change = new FileChange();
+        change.setType(type);
+        change.setName(name);
+        change.setNewName(newName);
+        return change;
+    }
+
+    private static void checkLimit(Integer limit) {
         if (limit == null || limit <= 0) {
             throw new IllegalArgumentException("limit can't be less than or equals 0 or be null");
         }
-        var user = checkUserExistence(authToken);
-        var files = fileRepository.findAllByUser(user, PageRequest.of(0, limit));
+    }
+
+    private static void checkSince(Long since) {
+        if (since == null || since < 0) {
+            throw new IllegalArgumentException("since can't be less than 0 or be null");
+        }
+    }
+
+    // Лишняя строка только показывает, есть ли следующая страница.
+    private static int pageSize(int limit) {
+        return limit < Integer.MAX_VALUE ? limit + 1 : limit;
+    }
+
+    private static GetListResponse listResponse(List<FileSummary> files, int limit, FileSort sort, boolean descending) {
         List<GetListResponseItem> filesList = new ArrayList<>();
-        for (File file : files) {
+        for (FileSummary file : files.subList(0, Math.min(limit, files.size()))) {
             var getListResponseItem = new GetListResponseItem();
             var filename = file.getName();
-            var size = file.getContent().length;
+            var size = file.getSize();
             getListResponseItem.setFilename(filename);
             getListResponseItem.setSize(size);
             filesList.add(getListResponseItem);
         }
         var response = new GetListResponse();
         response.setFiles(filesList);
+        if (files.size() > limit) {
+            response.setNext(ListCursor.encode(sort, descending, files.get(limit - 1)));
+        }
         return response;
     }
 
-    public User checkUserExistence(String authToken) throws AuthException {
-        var optionalUser = userRepository.findUserByAuthToken(authToken.split(" ")[1]);
-        if (optionalUser.isEmpty()) {
-            throw new AuthException("user with provided auth token not found");
+    // Время и объём отдачи считаются, когда тело пишется в ответ, уже после выхода из getFile.
+    private StreamingResponseBody metered(StreamingResponseBody body, long length) {
+        return outputStream -> {
+            var sample = Timer.start();
+            try (var transfer = transferMetrics.startDownload(length)) {
+                body.writeTo(transferMetrics.countDownloaded(outputStream));
+            } finally {
+                sample.stop(transferMetrics.contentReadTimer());
+            }
+        };
+    }
+
+    private List<HttpRange> requestedRanges(HttpHeaders requestHeaders, String eTag) {
+        if (requestHeaders.getFirst(HttpHeaders.RANGE) == null) {
+            return List.of();
+        }
+        // If-Range с другим ETag (или с датой, которой у файлов нет) означает "отдай файл целиком".
+        var ifRange = requestHeaders.getFirst(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals(eTag)) {
+            return List.of();
+        }
+        try {
+            var ranges = requestHeaders.getRange();
+            return ranges.size() > MAX_RANGES ? List.of() : ranges;
+        } catch (IllegalArgumentException e) {
+            // Некорректный заголовок Range по RFC 7233 игнорируется.
+            return List.of();
         }
-        return optionalUser.get();
     }
 
-    public File checkFileExistence(String filename, User user) {
-        var optionalFile = fileRepository.findFileByNameAndUser(filename, user);
-        if (optionalFile.isEmpty()) {
-            throw new NoSuchElementException("file with provided filename not found");
+    private static boolean matchesAny(List<String> eTags, String eTag) {
+        for (String candidate : eTags) {
+            if (candidate.equals("*") || candidate.replaceFirst("^W/", "").equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Принимает ли клиент кодировку: учитываются "*" и q=0 из Accept-Encoding.
+    private static boolean acceptsEncoding(HttpHeaders requestHeaders, String encoding) {
+        for (String value : requestHeaders.getOrEmpty(HttpHeaders.ACCEPT_ENCODING)) {
+            for (String coding : value.split(",")) {
+                var parts = coding.split(";");
+                var name = parts[0].trim();
+                if (!name.equalsIgnoreCase(encoding) && !name.equals("*")) {
+                    continue;
+                }
+                var quality = 1.0;
+                for (var i = 1; i < parts.length; i++) {
+                    var parameter = parts[i].trim();
+                    if (parameter.startsWith("q=")) {
+                        try {
+                            quality = Double.parseDouble(parameter.substring(2));
+                        } catch (NumberFormatException e) {
+                            quality = 0;
+                        }
+                    }
+                }
+                return quality > 0;
+            }
+        }
+        return false;
+    }
+
+    // У сжатого представления другие байты, поэтому и ETag свой.
+    private static String encodedEntityTag(String eTag, String encoding) {
+        return eTag.substring(0, eTag.length() - 1) + "-" + encoding + "\"";
+    }
+
+    private static String entityTag(String hash) {
+        if (!hash.isEmpty() && hash.chars().allMatch(c -> c == 0x21 || (c >= 0x23 && c <= 0x7E))) {
+            return "\"" + hash + "\"";
+        }
+        return "\"" + UUID.nameUUIDFromBytes(hash.getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
+
+    private static String boundaryFor(String hash) {
+        return "cloud-data-" + UUID.nameUUIDFromBytes(hash.getBytes(StandardCharsets.UTF_8)).toString().replace("-", "");
+    }
+
+    // Клиентский hash — SHA-256 содержимого в hex, 64 символа в любом регистре. Строку в другом формате
+    // сверить с содержимым нельзя, поэтому такие загрузки отклоняются, а не сохраняются без проверки.
+    public static void checkHash(String hash) {
+        if (hash == null || !SHA256_HEX.matcher(hash).matches()) {
+            throw new IllegalArgumentException("hash must be a SHA-256 digest of 64 hex characters");
+        }
+    }
+
+    // Хранилище, не посчитавшее SHA-256, тоже не даёт проверить hash: загрузка отклоняется.
+    private static boolean matchesContent(String hash, String sha256) {
+        return sha256 != null && hash.equalsIgnoreCase(sha256);
+    }
+
+    public void checkFilenameIsFree(String filename, User user) {
+        var optionalFile = transferMetrics.metadataTimer().record(() -> fileRepository.findFileByNameAndUser(filename, user));
+        if (optionalFile.isPresent()) {
+            throw new IllegalArgumentException("file with provided filename already exists");
         }
-        return optionalFile.get();
     }
 
     public void checkFilenameIsNull(String filename) {
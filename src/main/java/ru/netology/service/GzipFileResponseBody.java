@@ -0,0 +1,95 @@
+package ru.netology.service;
+
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.netology.storage.SpliceableGzip;
+import ru.netology.storage.StorageBackend;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// То же тело multipart/form-data, но с Content-Encoding: gzip. Содержимое, которое уже хранится в gzip,
+// отдаётся без распаковки: один член gzip, в поток deflate которого между сжатыми заголовками частей
+// и окончанием вставлены хранимые сжатые данные (SpliceableGzip). CRC-32 тела собирается из CRC частей.
+// Несколько членов gzip подряд распаковывают не все клиенты, поэтому ответ — всегда один член.
+public class GzipFileResponseBody implements StreamingResponseBody {
+
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final StorageBackend storageBackend;
+    private final String storageRef;
+    private final SpliceableGzip stored;
+    private final byte[] head;
+    private final byte[] tail;
+    private final byte[] trailer;
+
+    public GzipFileResponseBody(MultipartFileResponseBody body, StorageBackend storageBackend, String storageRef,
+                                SpliceableGzip stored, long size) {
+        this.storageBackend = storageBackend;
+        this.storageRef = storageRef;
+        this.stored = stored;
+        var rawHead = body.head();
+        var rawTail = body.tail();
+        this.head = deflate(rawHead, false);
+        this.tail = deflate(rawTail, true);
+        var crc = SpliceableGzip.combineCrc(crc(rawHead), stored.crc(), size);
+        crc = SpliceableGzip.combineCrc(crc, crc(rawTail), rawTail.length);
+        this.trailer = trailer(crc, rawHead.length + size + rawTail.length);
+    }
+
+    public long contentLength() {
+        return HEADER.length + head.length + stored.deflatedLength() + tail.length + trailer.length;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        outputStream.write(HEADER);
+        outputStream.write(head);
+        storageBackend.transferTo(storageRef, stored.deflatedOffset(), stored.deflatedLength(), outputStream);
+        outputStream.write(tail);
+        outputStream.write(trailer);
+        outputStream.flush();
+    }
+
+    // Заголовки частей заканчиваются SYNC_FLUSH: следующие блоки deflate начинаются с границы байта.
+    private static byte[] deflate(byte[] bytes, boolean last) {
+        var deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(bytes);
+            var out = new ByteArrayOutputStream();
+            var buffer = new byte[512];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, count);
+                } while (count == buffer.length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static long crc(byte[] bytes) {
+        var crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    private static byte[] trailer(long crc, long size) {
+        var trailer = new byte[8];
+        for (var i = 0; i < 4; i++) {
+            trailer[i] = (byte) (crc >>> (8 * i));
+            trailer[4 + i] = (byte) (size >>> (8 * i));
+        }
+        return trailer;
+    }
+}
@@ -0,0 +1,152 @@
+package ru.netology.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.netology.storage.StorageBackend;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+// Запросы доказательства владения для мгновенной загрузки. SHA-256 и размер не секрет, поэтому чужое содержимое
+// по ним не выдаётся: клиент получает случайный nonce и диапазоны, выбранные сервером, и присылает
+// SHA-256(nonce || байты диапазонов по порядку). Посчитать его можно, только имея само содержимое.
+// Запрос живёт не дольше ttl и принимается один раз.
+@Component
+public class InstantUploadChallenges {
+
+    // Содержимое делится на столько частей, в каждой выбирается диапазон не длиннее RANGE_SIZE.
+    private static final int RANGE_COUNT = 4;
+    private static final int RANGE_SIZE = 4096;
+    private static final int NONCE_SIZE = 16;
+
+    private final SecureRandom random = new SecureRandom();
+    private final long ttlNanos;
+    private final int maxSize;
+    private final Map<String, Challenge> challenges;
+
+    public InstantUploadChallenges(@Value("${cloud.upload.instant-challenge-ttl}") Duration ttl,
+                                   @Value("${cloud.upload.instant-challenge-max-size}") int maxSize) {
+        this.ttlNanos = ttl.toNanos();
+        this.maxSize = maxSize;
+        this.challenges = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Challenge> eldest) {
+                return size() > InstantUploadChallenges.this.maxSize;
+            }
+        };
+    }
+
+    public Challenge issue(Integer userId, String sha256, long size) {
+        var nonceBytes = new byte[NONCE_SIZE];
+        random.nextBytes(nonceBytes);
+        var nonce = hex(nonceBytes);
+        var ranges = new ArrayList<long[]>();
+        if (size <= (long) RANGE_COUNT * RANGE_SIZE) {
+            ranges.add(new long[]{0, size});
+        } else {
+            var part = size / RANGE_COUNT;
+            for (var i = 0; i < RANGE_COUNT; i++) {
+                var offset = i * part + (long) (random.nextDouble() * (part - RANGE_SIZE + 1));
+                ranges.add(new long[]{offset, RANGE_SIZE});
+            }
+        }
+        var challenge = new Challenge(nonce, userId, sha256, size, ranges, System.nanoTime() + ttlNanos);
+        synchronized (this) {
+            challenges.put(nonce, challenge);
+        }
+        return challenge;
+    }
+
+    // Пусто, если запроса с таким nonce нет, он истёк или выдан на другое содержимое либо другому пользователю.
+    public Optional<Challenge> take(String nonce, Integer userId, String sha256, long size) {
+        Challenge challenge;
+        synchronized (this) {
+            challenge = challenges.remove(nonce);
+        }
+        if (challenge == null || challenge.expiresAt - System.nanoTime() <= 0 || !Objects.equals(challenge.userId, userId)
+                || !challenge.sha256.equalsIgnoreCase(sha256) || challenge.size != size) {
+            return Optional.empty();
+        }
+        return Optional.of(challenge);
+    }
+
+    public synchronized int size() {
+        return challenges.size();
+    }
+
+    private static String hex(byte[] bytes) {
+        var sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    public static class Challenge {
+        private final String nonce;
+        private final Integer userId;
+        private final String sha256;
+        private final long size;
+        private final List<long[]> ranges;
+        private final long expiresAt;
+
+        private Challenge(String nonce, Integer userId, String sha256, long size, List<long[]> ranges, long expiresAt) {
+            this.nonce = nonce;
+            this.userId = userId;
+            this.sha256 = sha256;
+            this.size = size;
+            this.ranges = ranges;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getNonce() {
+            return nonce;
+        }
+
+        // Пары {offset, length} по возрастанию offset, диапазоны не пересекаются.
+        public List<long[]> getRanges() {
+            return Collections.unmodifiableList(ranges);
+        }
+
+        // SHA-256(nonce || байты диапазонов) в hex. content — исходное содержимое с начала, читается за один проход.
+        public String expectedProof(InputStream content) throws IOException {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            digest.update(nonce.getBytes(StandardCharsets.US_ASCII));
+            var out = new DigestOutputStream(OutputStream.nullOutputStream(), digest);
+            var position = 0L;
+            for (var range : ranges) {
+                var written = StorageBackend.transferRange(content, range[0] - position, range[1], out);
+                if (written != range[1]) {
+                    throw new IOException("stored content is shorter than expected");
+                }
+                position = range[0] + range[1];
+            }
+            return hex(digest.digest());
+        }
+
+        public boolean matches(InputStream content, String proof) throws IOException {
+            return proof != null && MessageDigest.isEqual(expectedProof(content).getBytes(StandardCharsets.US_ASCII),
+                    proof.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+}
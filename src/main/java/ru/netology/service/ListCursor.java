@@ -0,0 +1,83 @@
+package ru.netology.service;
+
+import ru.netology.repositories.FileSort;
+import ru.netology.repositories.FileSummary;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.UUID;
+
+// Курсор /list: порядок и ключ последнего отданного файла. Для клиента это непрозрачная строка,
+// которую он передаёт в after, чтобы получить следующую страницу.
+class ListCursor implements FileSummary {
+
+    private static final String SEPARATOR = "|";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final FileSort sort;
+    private final boolean descending;
+    private final UUID id;
+    private final String name;
+    private final long size;
+    private final Instant uploadedAt;
+
+    private ListCursor(FileSort sort, boolean descending, UUID id, String name, long size, Instant uploadedAt) {
+        this.sort = sort;
+        this.descending = descending;
+        this.id = id;
+        this.name = name;
+        this.size = size;
+        this.uploadedAt = uploadedAt;
+    }
+
+    static String encode(FileSort sort, boolean descending, FileSummary last) {
+        // Имя последним: в нём может встретиться разделитель
+        var value = sort.getParameter() + SEPARATOR + (descending ? "desc" : "asc") + SEPARATOR
+                + last.getSize() + SEPARATOR + last.getUploadedAt() + SEPARATOR + last.getId() + SEPARATOR + last.getName();
+        return ENCODER.encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static ListCursor decode(String cursor) {
+        try {
+            var fields = new String(DECODER.decode(cursor), StandardCharsets.UTF_8).split("\\|", 6);
+            if (fields.length != 6 || !fields[1].equals("asc") && !fields[1].equals("desc")) {
+                throw new IllegalArgumentException("invalid cursor");
+            }
+            return new ListCursor(FileSort.of(fields[0]), fields[1].equals("desc"), UUID.fromString(fields[4]), fields[5],
+                    Long.parseLong(fields[2]), Instant.parse(fields[3]));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new IllegalArgumentException("invalid cursor");
+        }
+    }
+
+    FileSort getSort() {
+        return sort;
+    }
+
+    boolean isDescending() {
+        return descending;
+    }
+
+    @Override
+    public UUID getId() {
+        return id;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public Instant getUploadedAt() {
+        return uploadedAt;
+    }
+}
@@ -0,0 +1,77 @@
+package ru.netology.service;
+
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.netology.storage.ContentCodec;
+import ru.netology.storage.StorageBackend;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+// Тело ответа multipart/form-data с частями "hash" и "file". Содержимое файла
+// не собирается в память, а пишется в ответ прямо из хранилища; сжатое содержимое распаковывается на лету.
+public class MultipartFileResponseBody implements StreamingResponseBody {
+
+    private final StorageBackend storageBackend;
+    private final String storageRef;
+    private final String encoding;
+    private final long size;
+    private final byte[] head;
+    private final byte[] tail;
+
+    public MultipartFileResponseBody(String boundary, String hash, StorageBackend storageBackend, String storageRef,
+                                     String encoding, long size) {
+        this.storageBackend = storageBackend;
+        this.storageRef = storageRef;
+        this.encoding = encoding;
+        this.size = size;
+        var hashBytes = hash == null ? new byte[0] : hash.getBytes(StandardCharsets.UTF_8);
+        this.head = ("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"hash\"\r\n"
+                + "Content-Type: text/plain;charset=UTF-8\r\n"
+                + "Content-Length: " + hashBytes.length + "\r\n"
+                + "\r\n"
+                + (hash == null ? "" : hash) + "\r\n"
+                + "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"\r\n"
+                + "Content-Type: application/octet-stream\r\n"
+                + "Content-Length: " + size + "\r\n"
+                + "\r\n").getBytes(StandardCharsets.UTF_8);
+        this.tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    byte[] head() {
+        return head;
+    }
+
+    byte[] tail() {
+        return tail;
+    }
+
+    public long contentLength() {
+        return head.length + size + tail.length;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        writeRange(outputStream, 0, contentLength());
+    }
+
+    // Пишет байты тела в диапазоне [start, end), не трогая хранилище за пределами нужного куска.
+    public void writeRange(OutputStream outputStream, long start, long end) throws IOException {
+        if (start < head.length) {
+            outputStream.write(head, (int) start, (int) (Math.min(end, head.length) - start));
+        }
+        var contentStart = Math.max(start, head.length) - head.length;
+        var contentEnd = Math.min(end, head.length + size) - head.length;
+        if (contentEnd > contentStart) {
+            ContentCodec.transferDecoded(storageBackend, storageRef, encoding, contentStart, contentEnd - contentStart, outputStream);
+        }
+        var tailStart = Math.max(start, head.length + size) - head.length - size;
+        var tailEnd = end - head.length - size;
+        if (tailEnd > tailStart) {
+            outputStream.write(tail, (int) tailStart, (int) (tailEnd - tailStart));
+        }
+        outputStream.flush();
+    }
+}
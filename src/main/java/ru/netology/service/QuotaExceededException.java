@@ -0,0 +1,9 @@
+package ru.netology.service;
+
+// Файл не помещается в квоту пользователя.
+public class QuotaExceededException extends RuntimeException {
+
+    public QuotaExceededException(String message) {
+        super(message);
+    }
+}
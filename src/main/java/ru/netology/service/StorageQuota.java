@@ -0,0 +1,109 @@
+package ru.netology.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.unit.DataSize;
+import ru.netology.dto.GetUsageResponse;
+import ru.netology.entities.User;
+import ru.netology.repositories.UserRepository;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Квота на объём файлов пользователя. Занятый объём хранится в users.used_bytes и меняется в транзакции,
+// которая создаёт или удаляет файл, условным UPDATE — квота не превышается и при загрузках через
+// несколько экземпляров приложения. Загрузка до записи содержимого резервирует место (резервы — в памяти
+// экземпляра), поэтому параллельные загрузки, которые вместе не помещаются, отклоняются до передачи в хранилище.
+@Service
+public class StorageQuota {
+
+    private final UserRepository userRepository;
+    private final long defaultQuota;
+    private final Map<Integer, Long> reserved = new HashMap<>();
+
+    public StorageQuota(UserRepository userRepository, @Value("${cloud.quota.default}") DataSize defaultQuota) {
+        this.userRepository = userRepository;
+        this.defaultQuota = defaultQuota.toBytes();
+    }
+
+    // Место под файл до конца транзакции загрузки: к этому времени оно уже учтено в used_bytes.
+    public Reservation reserve(User user, long size) {
+        var usage = usage(user);
+        synchronized (this) {
+            var userReserved = reserved.getOrDefault(user.getId(), 0L);
+            checkFits(usage, userReserved + size);
+            reserved.put(user.getId(), userReserved + size);
+        }
+        return new Reservation(user.getId(), size);
+    }
+
+    // Проверка без резерва, например при создании сессии загрузки
+    public void check(User user, long size) {
+        checkFits(usage(user), size);
+    }
+
+    // В транзакции, которая создаёт файл
+    public void charge(User user, long size) {
+        if (userRepository.addUsedBytes(user.getId(), size, defaultQuota) == 0) {
+            throw new QuotaExceededException("storage quota exceeded");
+        }
+    }
+
+    // В транзакции, которая удаляет файл
+    public void release(User user, long size) {
+        userRepository.subtractUsedBytes(user.getId(), size);
+    }
+
+    // Один запрос по первичному ключу; сумма по файлам считается только в первый раз.
+    public GetUsageResponse usage(User user) {
+        userRepository.initUsedBytes(user.getId());
+        var usage = userRepository.findStorageUsage(user.getId());
+        var response = new GetUsageResponse();
+        response.setUsed(usage.getUsedBytes() != null ? usage.getUsedBytes() : 0);
+        response.setQuota(usage.getQuotaBytes() != null ? usage.getQuotaBytes() : defaultQuota);
+        return response;
+    }
+
+    private static void checkFits(GetUsageResponse usage, long size) {
+        if (usage.getUsed() + size > usage.getQuota()) {
+            throw new QuotaExceededException("storage quota exceeded: " + usage.getUsed() + " of " + usage.getQuota()
+                    + " bytes used, " + size + " more requested");
+        }
+    }
+
+    private synchronized void unreserve(int userId, long size) {
+        var userReserved = reserved.getOrDefault(userId, 0L) - size;
+        if (userReserved > 0) {
+            reserved.put(userId, userReserved);
+        } else {
+            reserved.remove(userId);
+        }
+    }
+
+    public class Reservation implements AutoCloseable {
+        private final int userId;
+        private final long size;
+
+        private Reservation(int userId, long size) {
+            this.userId = userId;
+            this.size = size;
+        }
+
+        // Внутри транзакции резерв снимается после её завершения, когда объём уже виден в used_bytes.
+        @Override
+        public void close() {
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        unreserve(userId, size);
+                    }
+                });
+            } else {
+                unreserve(userId, size);
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package ru.netology.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+// Ограничивает передачи содержимого: суммарный размер идущих загрузок и скачиваний не больше
+// max-bytes-in-flight, у одного пользователя не больше max-transfers-per-user передач.
+// Не уместившаяся передача ждёт в очереди из queue-capacity мест не дольше queue-timeout и получает отказ:
+// лучше быстро ответить 503, чем исчерпать кучу. Ожидание — незавершённый CompletableFuture, поток им не занят.
+@Component
+public class TransferAdmission implements MeterBinder {
+
+    private final long maxBytesInFlight;
+    private final int maxTransfersPerUser;
+    private final Duration queueTimeout;
+    private final int queueCapacity;
+    private final Duration retryAfter;
+    private final TaskScheduler taskScheduler;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Integer, Integer> transfersByUser = new HashMap<>();
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+    private final AtomicLong rejected = new AtomicLong();
+    private long bytesInFlight;
+
+    public TransferAdmission(@Value("${cloud.admission.max-bytes-in-flight}") DataSize maxBytesInFlight,
+                             @Value("${cloud.admission.max-transfers-per-user}") int maxTransfersPerUser,
+                             @Value("${cloud.admission.queue-timeout}") Duration queueTimeout,
+                             @Value("${cloud.admission.queue-capacity}") int queueCapacity,
+                             @Value("${cloud.admission.retry-after}") Duration retryAfter,
+                             TaskScheduler taskScheduler) {
+        this.maxBytesInFlight = maxBytesInFlight.toBytes();
+        this.maxTransfersPerUser = maxTransfersPerUser;
+        this.queueTimeout = queueTimeout;
+        this.queueCapacity = queueCapacity;
+        this.retryAfter = retryAfter;
+        this.taskScheduler = taskScheduler;
+    }
+
+    // Передача больше всего бюджета допускается, когда других передач нет, иначе она не прошла бы никогда.
+    // Результат завершается разрешением или TransferRejectedException; уместившейся передаче — сразу.
+    public CompletableFuture<Permit> acquire(int userId, long bytes) {
+        lock.lock();
+        try {
+            if (admits(userId, bytes)) {
+                return CompletableFuture.completedFuture(reserve(userId, bytes));
+            }
+            if (waiters.size() >= queueCapacity || queueTimeout.isZero()) {
+                return CompletableFuture.failedFuture(reject());
+            }
+            var waiter = new Waiter(userId, bytes);
+            waiters.addLast(waiter);
+            taskScheduler.schedule(() -> expire(waiter), Instant.now().plus(queueTimeout));
+            return waiter.permit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("cloud.admission.bytes.in-flight", this, admission -> admission.locked(() -> admission.bytesInFlight))
+                .description("Bytes reserved by admitted transfers")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("cloud.admission.waiting", this, admission -> admission.locked(admission.waiters::size))
+                .description("Transfers waiting for admission")
+                .register(registry);
+        FunctionCounter.builder("cloud.admission.rejected", rejected, AtomicLong::get)
+                .description("Transfers rejected with 503")
+                .register(registry);
+    }
+
+    private boolean admits(int userId, long bytes) {
+        if (transfersByUser.getOrDefault(userId, 0) >= maxTransfersPerUser) {
+            return false;
+        }
+        return bytesInFlight == 0 || bytesInFlight + bytes <= maxBytesInFlight;
+    }
+
+    private Permit reserve(int userId, long bytes) {
+        bytesInFlight += bytes;
+        transfersByUser.merge(userId, 1, Integer::sum);
+        return new Permit(userId, bytes);
+    }
+
+    private TransferRejectedException reject() {
+        rejected.incrementAndGet();
+        return new TransferRejectedException("server is busy, retry later", retryAfter);
+    }
+
+    private void expire(Waiter waiter) {
+        lock.lock();
+        try {
+            if (!waiters.remove(waiter)) {
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        waiter.permit.completeExceptionally(reject());
+    }
+
+    // Освободившиеся байты получают ожидающие по порядку очереди; тот, кому не хватает места, не держит остальных.
+    // Разрешения выдаются вне блокировки: продолжения CompletableFuture выполняются в этом же потоке.
+    private void release(int userId, long bytes) {
+        List<Map.Entry<Waiter, Permit>> admitted = new ArrayList<>();
+        lock.lock();
+        try {
+            bytesInFlight -= bytes;
+            transfersByUser.computeIfPresent(userId, (key, count) -> count > 1 ? count - 1 : null);
+            var iterator = waiters.iterator();
+            while (iterator.hasNext()) {
+                var waiter = iterator.next();
+                if (admits(waiter.userId, waiter.bytes)) {
+                    iterator.remove();
+                    admitted.add(Map.entry(waiter, reserve(waiter.userId, waiter.bytes)));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (var entry : admitted) {
+            entry.getKey().permit.complete(entry.getValue());
+        }
+    }
+
+    private double locked(LongSupplier value) {
+        lock.lock();
+        try {
+            return value.getAsLong();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class Waiter {
+        private final int userId;
+        private final long bytes;
+        private final CompletableFuture<Permit> permit = new CompletableFuture<>();
+
+        private Waiter(int userId, long bytes) {
+            this.userId = userId;
+            this.bytes = bytes;
+        }
+    }
+
+    public class Permit implements AutoCloseable {
+        private final int userId;
+        private final long bytes;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Permit(int userId, long bytes) {
+            this.userId = userId;
+            this.bytes = bytes;
+        }
+
+        // Повторное закрытие ничего не делает: разрешение снимается и по завершении запроса, и при ошибке async.
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                release(userId, bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package ru.netology.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Метрики FileService: время этапов запроса (проверка токена, запросы к метаданным, запись и чтение содержимого),
+// переданные байты и передачи, которые идут прямо сейчас. Время запросов целиком
+// пишет Spring Boot в http.server.requests.
+@Component
+public class TransferMetrics {
+
+    public static final String UPLOAD = "upload";
+    public static final String DOWNLOAD = "download";
+
+    private final Timer authTimer;
+    private final Timer metadataTimer;
+    private final Timer contentWriteTimer;
+    private final Timer contentReadTimer;
+    private final Direction upload;
+    private final Direction download;
+
+    public TransferMetrics(MeterRegistry registry) {
+        this.authTimer = phaseTimer(registry, "auth");
+        this.metadataTimer = phaseTimer(registry, "metadata");
+        this.contentWriteTimer = phaseTimer(registry, "content.write");
+        this.contentReadTimer = phaseTimer(registry, "content.read");
+        this.upload = new Direction(registry, UPLOAD);
+        this.download = new Direction(registry, DOWNLOAD);
+    }
+
+    public Timer authTimer() {
+        return authTimer;
+    }
+
+    public Timer metadataTimer() {
+        return metadataTimer;
+    }
+
+    public Timer contentWriteTimer() {
+        return contentWriteTimer;
+    }
+
+    public Timer contentReadTimer() {
+        return contentReadTimer;
+    }
+
+    // Учитывает передачу в активных до закрытия возвращённого объекта.
+    public Transfer startUpload(long size) {
+        return upload.start(size);
+    }
+
+    public Transfer startDownload(long size) {
+        return download.start(size);
+    }
+
+    public InputStream countUploaded(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                var b = super.read();
+                if (b != -1) {
+                    upload.bytes.increment();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                var read = super.read(b, off, len);
+                if (read > 0) {
+                    upload.bytes.increment(read);
+                }
+                return read;
+            }
+        };
+    }
+
+    public OutputStream countDownloaded(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                download.bytes.increment();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                download.bytes.increment(len);
+            }
+        };
+    }
+
+    private static Timer phaseTimer(MeterRegistry registry, String phase) {
+        return Timer.builder("cloud.file.phase")
+                .description("Time spent in a phase of a file request")
+                .tag("phase", phase)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    public interface Transfer extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static class Direction {
+        private final Counter bytes;
+        private final AtomicLong active = new AtomicLong();
+        private final AtomicLong activeBytes = new AtomicLong();
+
+        private Direction(MeterRegistry registry, String direction) {
+            this.bytes = Counter.builder("cloud.transfer.bytes")
+                    .description("Bytes of file content transferred")
+                    .baseUnit("bytes")
+                    .tag("direction", direction)
+                    .register(registry);
+            Gauge.builder("cloud.transfer.active", active, AtomicLong::get)
+                    .description("Transfers in progress")
+                    .tag("direction", direction)
+                    .register(registry);
+            Gauge.builder("cloud.transfer.active.bytes", activeBytes, AtomicLong::get)
+                    .description("Total size of transfers in progress")
+                    .baseUnit("bytes")
+                    .tag("direction", direction)
+                    .register(registry);
+        }
+
+        private Transfer start(long size) {
+            active.incrementAndGet();
+            activeBytes.addAndGet(size);
+            return () -> {
+                active.decrementAndGet();
+                activeBytes.addAndGet(-size);
+            };
+        }
+    }
+}
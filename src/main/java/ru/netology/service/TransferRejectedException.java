@@ -0,0 +1,18 @@
+package ru.netology.service;
+
+import java.time.Duration;
+
+// Передача не допущена: сервер уже обслуживает столько байт или передач пользователя, сколько разрешено.
+public class TransferRejectedException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public TransferRejectedException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,307 @@
+package ru.netology.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.unit.DataSize;
+import ru.netology.dto.UploadSessionResponse;
+import ru.netology.entities.UploadSession;
+import ru.netology.entities.User;
+import ru.netology.repositories.UploadSessionRepository;
+import ru.netology.storage.StorageBackend;
+
+import javax.security.auth.message.AuthException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+// Загрузка файла частями: сессия создаётся заранее, части приходят в любом порядке
+// и параллельно, а файл появляется только после commit.
+@Service
+public class UploadSessionService {
+
+    private static final String CHUNK_PREFIX = "chunk-";
+
+    private final UploadSessionRepository uploadSessionRepository;
+    private final FileService fileService;
+    private final StorageQuota storageQuota;
+    private final Path sessionsDir;
+    private final Duration sessionTtl;
+    private final long maxFileSize;
+    private final long maxChunkSize;
+    private final int maxChunkCount;
+
+    public UploadSessionService(UploadSessionRepository uploadSessionRepository, FileService fileService, StorageQuota storageQuota,
+                                @Value("${cloud.upload.session-dir}") Path sessionsDir,
+                                @Value("${cloud.upload.session-ttl}") Duration sessionTtl,
+                                @Value("${cloud.upload.max-file-size}") DataSize maxFileSize,
+                                @Value("${cloud.upload.max-chunk-size}") DataSize maxChunkSize,
+                                @Value("${cloud.upload.max-chunk-count}") int maxChunkCount) throws IOException {
+        this.uploadSessionRepository = uploadSessionRepository;
+        this.fileService = fileService;
+        this.storageQuota = storageQuota;
+        this.sessionsDir = Files.createDirectories(sessionsDir);
+        this.sessionTtl = sessionTtl;
+        this.maxFileSize = maxFileSize.toBytes();
+        this.maxChunkSize = maxChunkSize.toBytes();
+        this.maxChunkCount = maxChunkCount;
+    }
+
+    public UploadSessionResponse createSession(String authToken, String filename, String hash, long size, int chunkSize) throws AuthException, IOException {
+        fileService.checkFilenameIsNull(filename);
+        if (filename.isEmpty() || filename.isBlank()) {
+            throw new IllegalArgumentException("filename is empty");
+        }
+        FileService.checkHash(hash);
+        if (size <= 0 || size > maxFileSize) {
+            throw new IllegalArgumentException("size must be between 1 and " + maxFileSize);
+        }
+        if (chunkSize <= 0 || chunkSize > maxChunkSize) {
+            throw new IllegalArgumentException("chunkSize must be between 1 and " + maxChunkSize);
+        }
+        // Число частей ограничено: по ним проверяется полнота сессии и собирается файл.
+        if ((size + chunkSize - 1) / chunkSize > maxChunkCount) {
+            throw new IllegalArgumentException("chunkSize must be at least " + (size + maxChunkCount - 1) / maxChunkCount
+                    + " for a file of " + size + " bytes");
+        }
+        var user = fileService.checkUserExistence(authToken);
+        fileService.checkFilenameIsFree(filename, user);
+        // Место резервируется только при commit, здесь отклоняются файлы, которые уже не помещаются.
+        storageQuota.check(user, size);
+        var session = new UploadSession();
+        session.setId(UUID.randomUUID());
+        session.setUser(user);
+        session.setFilename(filename);
+        session.setHash(hash);
+        session.setSize(size);
+        session.setChunkSize(chunkSize);
+        session.setExpiresAt(Instant.now().plus(sessionTtl));
+        Files.createDirectories(sessionDir(session.getId()));
+        uploadSessionRepository.saveAndFlush(session);
+        return toResponse(session);
+    }
+
+    public UploadSessionResponse getSession(String authToken, UUID sessionId) throws AuthException, IOException {
+        var session = checkSessionExistence(authToken, sessionId);
+        return toResponse(session);
+    }
+
+    public void uploadChunk(String authToken, UUID sessionId, int index, InputStream content) throws AuthException, IOException {
+        var session = checkSessionExistence(authToken, sessionId);
+        if (index < 0 || index >= session.getChunkCount()) {
+            throw new IllegalArgumentException("chunk index must be between 0 and " + (session.getChunkCount() - 1));
+        }
+        var expectedLength = session.getChunkLength(index);
+        var dir = sessionDir(sessionId);
+        // Часть сначала пишется во временный файл и переименовывается только целиком,
+        // поэтому оборванная передача не выглядит полученной, а повтор просто перезаписывает часть.
+        var tmp = Files.createTempFile(dir, CHUNK_PREFIX, ".part");
+        try {
+            long written;
+            try (var out = Files.newOutputStream(tmp)) {
+                written = copy(content, out, expectedLength + 1);
+            }
+            if (written != expectedLength) {
+                throw new IllegalArgumentException("chunk " + index + " must be " + expectedLength + " bytes long");
+            }
+            Files.move(tmp, dir.resolve(CHUNK_PREFIX + index), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        uploadSessionRepository.extendExpiration(sessionId, Instant.now().plus(sessionTtl));
+    }
+
+    // Строка сессии блокируется до конца транзакции, в которой создаётся файл и удаляется сессия. Параллельный commit
+    // той же сессии не ждёт, а сразу получает ошибку, поэтому файл не сохраняется и квота не списывается дважды.
+    @Transactional(rollbackFor = Exception.class)
+    public void commit(String authToken, UUID sessionId) throws AuthException, IOException {
+        var user = fileService.checkUserExistence(authToken);
+        UploadSession session;
+        try {
+            session = uploadSessionRepository.findByIdAndUserForUpdate(sessionId, user)
+                    .filter(found -> !found.getExpiresAt().isBefore(Instant.now()))
+                    .orElseThrow(() -> new NoSuchElementException("upload session not found"));
+        } catch (PessimisticLockingFailureException e) {
+            throw new IllegalArgumentException("upload session is already being committed");
+        }
+        var missing = missingChunks(session);
+        if (!missing.isEmpty()) {
+            throw new IllegalArgumentException("chunks are missing: " + missing);
+        }
+        var dir = sessionDir(sessionId);
+        try (var reservation = storageQuota.reserve(session.getUser(), session.getSize());
+             var content = new SequenceInputStream(new ChunkEnumeration(dir, session.getChunkCount()))) {
+            fileService.storeFile(session.getUser(), session.getFilename(), session.getHash(), content, session.getSize());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        deleteSession(session);
+    }
+
+    public void abort(String authToken, UUID sessionId) throws AuthException, IOException {
+        deleteSession(checkSessionExistence(authToken, sessionId));
+    }
+
+    @Scheduled(fixedDelayString = "${cloud.upload.cleanup-interval}")
+    public void removeExpiredSessions() throws IOException {
+        for (UploadSession session : uploadSessionRepository.findAllByExpiresAtBefore(Instant.now())) {
+            deleteSession(session);
+        }
+        // Каталоги, для которых записи уже нет (например, после падения между удалением строки и файлов).
+        var threshold = Instant.now().minus(sessionTtl);
+        try (var dirs = Files.list(sessionsDir)) {
+            for (Path dir : (Iterable<Path>) dirs::iterator) {
+                var sessionId = parseSessionId(dir.getFileName().toString());
+                if (Files.getLastModifiedTime(dir).toInstant().isBefore(threshold)
+                        && (sessionId == null || !uploadSessionRepository.existsById(sessionId))) {
+                    FileSystemUtils.deleteRecursively(dir);
+                }
+            }
+        }
+    }
+
+    private UploadSession checkSessionExistence(String authToken, UUID sessionId) throws AuthException {
+        var user = fileService.checkUserExistence(authToken);
+        var optionalSession = uploadSessionRepository.findByIdAndUser(sessionId, user);
+        if (optionalSession.isEmpty() || optionalSession.get().getExpiresAt().isBefore(Instant.now())) {
+            throw new NoSuchElementException("upload session not found");
+        }
+        return optionalSession.get();
+    }
+
+    // Внутри транзакции части удаляются после коммита: при откате сессия остаётся, и commit можно повторить.
+    private void deleteSession(UploadSession session) throws IOException {
+        uploadSessionRepository.delete(session);
+        var dir = sessionDir(session.getId());
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    try {
+                        FileSystemUtils.deleteRecursively(dir);
+                    } catch (IOException e) {
+                        // Каталог без записи удалит removeExpiredSessions
+                    }
+                }
+            });
+        } else {
+            FileSystemUtils.deleteRecursively(dir);
+        }
+    }
+
+    // Читается каталог сессии, а не проверяется каждая возможная часть: время зависит от числа полученных частей.
+    private List<Integer> receivedChunks(UploadSession session) throws IOException {
+        var received = new ArrayList<Integer>();
+        try (var chunks = Files.list(sessionDir(session.getId()))) {
+            for (Path chunk : (Iterable<Path>) chunks::iterator) {
+                var index = parseChunkIndex(chunk.getFileName().toString());
+                if (index >= 0 && index < session.getChunkCount()) {
+                    received.add(index);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return received;
+        }
+        Collections.sort(received);
+        return received;
+    }
+
+    private List<Integer> missingChunks(UploadSession session) throws IOException {
+        var received = new HashSet<>(receivedChunks(session));
+        var missing = new ArrayList<Integer>();
+        for (int i = 0; i < session.getChunkCount(); i++) {
+            if (!received.contains(i)) {
+                missing.add(i);
+            }
+        }
+        return missing;
+    }
+
+    private UploadSessionResponse toResponse(UploadSession session) throws IOException {
+        var response = new UploadSessionResponse();
+        response.setSessionId(session.getId().toString());
+        response.setFilename(session.getFilename());
+        response.setSize(session.getSize());
+        response.setChunkSize(session.getChunkSize());
+        response.setChunkCount(session.getChunkCount());
+        response.setReceivedChunks(receivedChunks(session));
+        response.setExpiresAt(session.getExpiresAt());
+        return response;
+    }
+
+    private Path sessionDir(UUID sessionId) {
+        return sessionsDir.resolve(sessionId.toString());
+    }
+
+    // -1 для временных файлов недописанных частей
+    private static int parseChunkIndex(String name) {
+        if (!name.startsWith(CHUNK_PREFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(CHUNK_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static UUID parseSessionId(String name) {
+        try {
+            return UUID.fromString(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // Копирует не больше limit байт; лишние байты в запросе означают, что часть длиннее ожидаемой.
+    private static long copy(InputStream in, OutputStream out, long limit) throws IOException {
+        var buffer = new byte[StorageBackend.BUFFER_SIZE];
+        long total = 0;
+        int read;
+        while (total < limit && (read = in.read(buffer, 0, (int) Math.min(buffer.length, limit - total))) != -1) {
+            out.write(buffer, 0, read);
+            total += read;
+        }
+        return total;
+    }
+
+    // Открывает части по очереди, чтобы при commit одновременно был открыт только один файл.
+    private static class ChunkEnumeration implements Enumeration<InputStream> {
+        private final Path dir;
+        private final int count;
+        private int next;
+
+        ChunkEnumeration(Path dir, int count) {
+            this.dir = dir;
+            this.count = count;
+        }
+
+        @Override
+        public boolean hasMoreElements() {
+            return next < count;
+        }
+
+        @Override
+        public InputStream nextElement() {
+            try {
+                return Files.newInputStream(dir.resolve(CHUNK_PREFIX + next++));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -1,19 +1,21 @@
 package ru.netology.service;
 
 import org.springframework.stereotype.Service;
+import ru.netology.auth.TokenAuthenticator;
 import ru.netology.dto.PostLoginResponse;
 import ru.netology.repositories.UserRepository;
 
 import javax.security.auth.login.LoginException;
-import java.util.UUID;
 
 @Service
 public class UserService {
 
     private final UserRepository userRepository;
+    private final TokenAuthenticator tokenAuthenticator;
 
-    public UserService(UserRepository userRepository) {
+    public UserService(UserRepository userRepository, TokenAuthenticator tokenAuthenticator) {
         this.userRepository = userRepository;
+        this.tokenAuthenticator = tokenAuthenticator;
     }
 
     public PostLoginResponse login(String login, String password) throws LoginException {
@@ -21,25 +23,12 @@ public class UserService {
         if (optionalUser.isEmpty()) {
             throw new LoginException("login and/or password is incorrect");
         }
-        var user = optionalUser.get();
-        var token = UUID.randomUUID().toString();
-        while (userRepository.findUserByAuthToken(token).isPresent()) {
-            token = UUID.randomUUID().toString();
-        }
-        user.setAuthToken(token);
-        userRepository.saveAndFlush(user);
         var postLoginResponse = new PostLoginResponse();
-        postLoginResponse.setAuthToken(user.getAuthToken());
+        postLoginResponse.setAuthToken(tokenAuthenticator.issueToken(optionalUser.get()));
         return postLoginResponse;
     }
 
     public void logout(String authToken) {
-        var optionalUser = userRepository.findUserByAuthToken(authToken.split(" ")[1]);
-        if (optionalUser.isEmpty()) {
-            return;
-        }
-        var user = optionalUser.get();
-        user.setAuthToken(null);
-        userRepository.saveAndFlush(user);
+        tokenAuthenticator.revokeToken(authToken.split(" ")[1]);
     }
 }
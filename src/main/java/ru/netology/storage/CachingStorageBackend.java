@@ -0,0 +1,193 @@
+package ru.netology.storage;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Optional;
+
+// Кэширует часто скачиваемое содержимое в OffHeapContentCache. Ключ — ссылка на содержимое в хранилище:
+// по одной ссылке всегда лежат одни и те же байты (в том виде, в каком они хранятся, то есть сжатыми),
+// поэтому переименование и загрузка файла с новым содержимым кэш не затрагивают, а удаление
+// содержимого из хранилища удаляет его и из кэша.
+@Component
+@Qualifier(DeduplicatingStorageBackend.DELEGATE)
+public class CachingStorageBackend implements StorageBackend, MeterBinder {
+
+    static final String DELEGATE = "contentStorageBackend";
+    // Сколько промахов помнит политика допуска
+    private static final int MAX_CANDIDATES = 100_000;
+
+    private final StorageBackend delegate;
+    private final OffHeapContentCache cache;
+
+    public CachingStorageBackend(@Qualifier(DELEGATE) StorageBackend delegate,
+                                 @Value("${cloud.storage.cache.capacity}") DataSize capacity,
+                                 @Value("${cloud.storage.cache.max-entry-size}") DataSize maxEntrySize) {
+        this.delegate = delegate;
+        this.cache = capacity.toBytes() > 0 ? new OffHeapContentCache(capacity.toBytes(), maxEntrySize.toBytes(), MAX_CANDIDATES) : null;
+    }
+
+    @Override
+    public StoredContent store(InputStream content, long size) throws IOException {
+        return delegate.store(content, size);
+    }
+
+    @Override
+    public InputStream open(String reference) throws IOException {
+        if (cache == null) {
+            return delegate.open(reference);
+        }
+        var entry = cache.acquire(reference);
+        if (entry != null) {
+            return entry.openStream();
+        }
+        var writer = cache.startWrite(reference);
+        var content = delegate.open(reference);
+        return writer == null ? content : new CachingInputStream(content, writer);
+    }
+
+    @Override
+    public long transferTo(String reference, OutputStream out) throws IOException {
+        if (cache == null) {
+            return delegate.transferTo(reference, out);
+        }
+        return transferTo(reference, 0, Long.MAX_VALUE, out);
+    }
+
+    // Промах заполняет кэш, только если диапазон начинается с начала содержимого: тогда, дочитав его,
+    // проверяем, что содержимое кончилось. Иначе читается только диапазон, как без кэша.
+    @Override
+    public long transferTo(String reference, long offset, long length, OutputStream out) throws IOException {
+        if (cache == null) {
+            return delegate.transferTo(reference, offset, length, out);
+        }
+        var entry = cache.acquire(reference);
+        if (entry != null) {
+            try {
+                return entry.transferTo(offset, length, out);
+            } finally {
+                cache.release(entry);
+            }
+        }
+        var writer = offset == 0 ? cache.startWrite(reference) : null;
+        if (writer == null) {
+            return delegate.transferTo(reference, offset, length, out);
+        }
+        try (var content = new CachingInputStream(delegate.open(reference), writer)) {
+            var written = StorageBackend.transferRange(content, 0, length, out);
+            if (written == length) {
+                content.read();
+            }
+            return written;
+        }
+    }
+
+    @Override
+    public void delete(String reference) throws IOException {
+        delegate.delete(reference);
+        if (cache != null) {
+            cache.invalidate(reference);
+        }
+    }
+
+    @Override
+    public boolean isTransactional() {
+        return delegate.isTransactional();
+    }
+
+    @Override
+    public Optional<StoredContent> reuse(String sha256, long size) {
+        return delegate.reuse(sha256, size);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (cache == null) {
+            return;
+        }
+        FunctionCounter.builder("cache.gets", cache, OffHeapContentCache::hits)
+                .tags("cache", "content", "result", "hit")
+                .register(registry);
+        FunctionCounter.builder("cache.gets", cache, OffHeapContentCache::misses)
+                .tags("cache", "content", "result", "miss")
+                .register(registry);
+        FunctionCounter.builder("cache.evictions", cache, OffHeapContentCache::evictions)
+                .tags("cache", "content")
+                .register(registry);
+        Gauge.builder("cache.size", cache, OffHeapContentCache::size)
+                .tags("cache", "content")
+                .register(registry);
+        Gauge.builder("cache.used", cache, OffHeapContentCache::usedBytes)
+                .tags("cache", "content")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    // Копирует прочитанное в запись кэша; запись сохраняется, когда поток дочитан до конца.
+    private static class CachingInputStream extends FilterInputStream {
+        private final OffHeapContentCache.Writer writer;
+
+        private CachingInputStream(InputStream in, OffHeapContentCache.Writer writer) {
+            super(in);
+            this.writer = writer;
+        }
+
+        @Override
+        public int read() throws IOException {
+            var b = in.read();
+            if (b == -1) {
+                writer.commit();
+            } else {
+                writer.write(new byte[]{(byte) b}, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            var read = in.read(b, off, len);
+            if (read == -1) {
+                writer.commit();
+            } else {
+                writer.write(b, off, read);
+            }
+            return read;
+        }
+
+        // Пропущенные байты тоже нужны записи кэша, поэтому они читаются.
+        @Override
+        public long skip(long n) throws IOException {
+            var buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(n, 0))];
+            long skipped = 0;
+            while (skipped < n) {
+                var read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (read == -1) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.abort();
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package ru.netology.storage;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+// Сжимает содержимое перед записью в хранилище. Решение принимается для каждого файла по первому блоку:
+// уже сжатые форматы (архивы, видео, изображения) хранятся как есть и не тратят процессор на повторное сжатие.
+@Component
+public class ContentCodec {
+
+    public static final String NONE = "none";
+    public static final String GZIP = "gzip";
+
+    private static final int PROBE_SIZE = StorageBackend.BUFFER_SIZE;
+
+    private final String codec;
+    private final int level;
+    private final double minRatio;
+    private final Executor digestExecutor;
+
+    public ContentCodec(@Value("${cloud.storage.compression.codec}") String codec,
+                        @Value("${cloud.storage.compression.level}") int level,
+                        @Value("${cloud.storage.compression.min-ratio}") double minRatio,
+                        @Qualifier(StorageConfig.DIGEST_EXECUTOR) Executor digestExecutor) {
+        if (!NONE.equals(codec) && !GZIP.equals(codec)) {
+            throw new IllegalArgumentException("unsupported cloud.storage.compression.codec: " + codec);
+        }
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("cloud.storage.compression.level must be between 1 and 9");
+        }
+        this.codec = codec;
+        this.level = level;
+        this.minRatio = minRatio;
+        this.digestExecutor = digestExecutor;
+    }
+
+    // Хэш и размер считаются по исходным байтам, до сжатия.
+    public EncodedContent encode(InputStream content) throws IOException {
+        if (NONE.equals(codec)) {
+            return new EncodedContent(ContentDigestInputStream.of(content, digestExecutor), null);
+        }
+        var probe = content.readNBytes(PROBE_SIZE);
+        var raw = new ContentDigestInputStream(new SequenceInputStream(new ByteArrayInputStream(probe), content), digestExecutor);
+        if (probe.length == 0 || !compressible(probe)) {
+            return new EncodedContent(raw, null);
+        }
+        return new EncodedContent(raw, GZIP);
+    }
+
+    // Поток исходного содержимого поверх сохранённых байт.
+    public static InputStream decode(InputStream stored, String encoding) throws IOException {
+        if (encoding == null) {
+            return stored;
+        }
+        if (GZIP.equals(encoding)) {
+            return new GZIPInputStream(stored, StorageBackend.BUFFER_SIZE);
+        }
+        throw new IllegalArgumentException("unsupported content encoding: " + encoding);
+    }
+
+    // Как StorageBackend.transferTo, но offset и length относятся к исходному содержимому.
+    public static long transferDecoded(StorageBackend storageBackend, String reference, String encoding,
+                                       long offset, long length, OutputStream out) throws IOException {
+        if (encoding == null) {
+            return storageBackend.transferTo(reference, offset, length, out);
+        }
+        try (var content = decode(storageBackend.open(reference), encoding)) {
+            return StorageBackend.transferRange(content, offset, length, out);
+        }
+    }
+
+    private boolean compressible(byte[] probe) {
+        var deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(probe);
+            deflater.finish();
+            var buffer = new byte[probe.length];
+            long compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(buffer);
+                if (compressed > probe.length * minRatio) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public class EncodedContent implements Closeable {
+        private final ContentDigestInputStream raw;
+        private final InputStream stored;
+        private final String encoding;
+
+        private EncodedContent(ContentDigestInputStream raw, String encoding) {
+            this.raw = raw;
+            this.encoding = encoding;
+            this.stored = encoding == null ? raw : new GzipCompressingInputStream(raw, level);
+        }
+
+        // Байты, которые нужно записать в хранилище
+        public InputStream getStored() {
+            return stored;
+        }
+
+        // null — содержимое хранится как есть
+        public String getEncoding() {
+            return encoding;
+        }
+
+        public ContentDigestInputStream getRaw() {
+            return raw;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                stored.close();
+            } finally {
+                raw.close();
+            }
+        }
+    }
+}
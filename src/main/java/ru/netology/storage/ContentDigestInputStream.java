@@ -0,0 +1,236 @@
+package ru.netology.storage;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Считает SHA-256 прочитанных байт в пуле hashers: пока читающий поток пишет очередной блок
+// в хранилище, предыдущие блоки хэшируются параллельно. Второго прохода по данным нет.
+// Поток пула занят, только пока есть нехэшированные блоки, поэтому пула по числу ядер хватает на все загрузки.
+public class ContentDigestInputStream extends FilterInputStream {
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final int BLOCK_SIZE = StorageBackend.BUFFER_SIZE;
+    // Сколько блоков может ждать хэширования, прежде чем чтение остановится.
+    private static final int QUEUE_BLOCKS = 8;
+
+    private static final Block END = new Block(new byte[0]);
+    private static final Block ABORT = new Block(new byte[0]);
+
+    private final Executor hashers;
+    private final MessageDigest messageDigest = newDigest();
+    private final Queue<Block> filled = new ConcurrentLinkedQueue<>();
+    private final Semaphore queued = new Semaphore(QUEUE_BLOCKS);
+    // Сколько блоков отдано и ещё не обработано; переход из 0 запускает обработку в пуле.
+    private final AtomicInteger pending = new AtomicInteger();
+    private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(QUEUE_BLOCKS + 2);
+    private final CompletableFuture<byte[]> digest = new CompletableFuture<>();
+    private Block current = new Block(new byte[BLOCK_SIZE]);
+    private long length;
+    private boolean finished;
+    private boolean closed;
+    private volatile boolean aborted;
+
+    public ContentDigestInputStream(InputStream in, Executor hashers) {
+        super(in);
+        this.hashers = hashers;
+    }
+
+    // Для хранилища, которое получает поток уже с подсчётом хэша: не оборачивать второй раз.
+    public static ContentDigestInputStream of(InputStream in, Executor hashers) {
+        return in instanceof ContentDigestInputStream ? (ContentDigestInputStream) in : new ContentDigestInputStream(in, hashers);
+    }
+
+    @Override
+    public int read() throws IOException {
+        var b = in.read();
+        if (b == -1) {
+            finish();
+        } else {
+            length++;
+            current.bytes[current.length++] = (byte) b;
+            if (current.length == BLOCK_SIZE) {
+                submitCurrent();
+            }
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        var read = in.read(b, off, len);
+        if (read == -1) {
+            finish();
+            return -1;
+        }
+        length += read;
+        var position = off;
+        var remaining = read;
+        while (remaining > 0) {
+            var n = Math.min(remaining, BLOCK_SIZE - current.length);
+            System.arraycopy(b, position, current.bytes, current.length, n);
+            current.length += n;
+            position += n;
+            remaining -= n;
+            if (current.length == BLOCK_SIZE) {
+                submitCurrent();
+            }
+        }
+        return read;
+    }
+
+    // Пропущенные байты тоже должны попасть в хэш, поэтому они читаются.
+    @Override
+    public long skip(long n) throws IOException {
+        var buffer = new byte[(int) Math.min(BLOCK_SIZE, Math.max(n, 0))];
+        long skipped = 0;
+        while (skipped < n) {
+            var read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    // Сколько байт прочитано
+    public long getLength() {
+        return length;
+    }
+
+    // SHA-256 всего содержимого в hex. Поток должен быть дочитан до конца: если после
+    // записанных в хранилище байт остались ещё, хэш не соответствовал бы сохранённому.
+    public String hexDigest() throws IOException {
+        if (!finished && read() != -1) {
+            throw new IOException("content is longer than declared size");
+        }
+        try {
+            var bytes = digest.get();
+            if (bytes == null) {
+                throw new IOException("content stream closed before its end");
+            }
+            return Hex.toHex(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while computing content digest");
+        } catch (ExecutionException e) {
+            throw new IOException("can't compute content digest", e.getCause());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            if (!finished) {
+                finished = true;
+                // Хэшировать недочитанное содержимое незачем: оставшиеся блоки пропускаются.
+                aborted = true;
+                put(ABORT);
+            }
+        }
+        super.close();
+    }
+
+    private void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (current.length > 0) {
+            put(current);
+        }
+        put(END);
+    }
+
+    private void submitCurrent() throws IOException {
+        put(current);
+        var bytes = free.poll();
+        current = new Block(bytes != null ? bytes : new byte[BLOCK_SIZE]);
+    }
+
+    // Блоки данных ждут места в очереди: чтение не уходит дальше хэширования больше чем на QUEUE_BLOCKS блоков.
+    // END и ABORT ставятся без ожидания, чтобы close не блокировался.
+    private void put(Block block) throws IOException {
+        if (block != END && block != ABORT) {
+            try {
+                queued.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while computing content digest");
+            }
+        }
+        filled.add(block);
+        if (pending.getAndIncrement() == 0) {
+            try {
+                hashers.execute(this::drain);
+            } catch (RuntimeException e) {
+                // Пул переполнен (TaskRejectedException): хэш уже не посчитать.
+                digest.completeExceptionally(e);
+                throw e;
+            }
+        }
+    }
+
+    // Обрабатывает блоки по порядку, пока они есть; одновременно работает не больше одного drain на поток.
+    private void drain() {
+        do {
+            var block = filled.poll();
+            if (block == END) {
+                digest.complete(messageDigest.digest());
+            } else if (block == ABORT) {
+                digest.complete(null);
+            } else {
+                if (!aborted) {
+                    messageDigest.update(block.bytes, 0, block.length);
+                }
+                free.offer(block.bytes);
+                queued.release();
+            }
+        } while (pending.decrementAndGet() > 0);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Block {
+        private final byte[] bytes;
+        private int length;
+
+        private Block(byte[] bytes) {
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package ru.netology.storage;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+@Component
+@Qualifier(CachingStorageBackend.DELEGATE)
+@ConditionalOnProperty(name = "cloud.storage.backend", havingValue = "database", matchIfMissing = true)
+public class DatabaseStorageBackend implements StorageBackend {
+
+    // Драйвер PostgreSQL читает bytea целиком, поэтому содержимое выбирается кусками такого размера.
+    static final int READ_CHUNK_SIZE = 1024 * 1024;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public DatabaseStorageBackend(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public StoredContent store(InputStream content, long size) {
+        var reference = UUID.randomUUID().toString();
+        jdbcTemplate.update("insert into file_contents (id, content) values (?, ?)", ps -> {
+            ps.setString(1, reference);
+            var buffered = new BufferedInputStream(content, BUFFER_SIZE);
+            if (size == UNKNOWN_SIZE) {
+                // Драйвер сам буферизует поток неизвестной длины перед отправкой.
+                ps.setBinaryStream(2, buffered);
+            } else {
+                ps.setBinaryStream(2, buffered, size);
+            }
+        });
+        return new StoredContent(reference, size == UNKNOWN_SIZE ? contentLength(reference) : size);
+    }
+
+    @Override
+    public InputStream open(String reference) {
+        var size = contentLength(reference);
+        return new ChunkedContentInputStream(reference, 0, size);
+    }
+
+    @Override
+    public long transferTo(String reference, long offset, long length, OutputStream out) throws IOException {
+        var size = contentLength(reference);
+        var end = offset + Math.max(0, Math.min(length, size - offset));
+        try (var content = new ChunkedContentInputStream(reference, offset, end)) {
+            return content.transferTo(out);
+        }
+    }
+
+    @Override
+    public void delete(String reference) {
+        jdbcTemplate.update("delete from file_contents where id = ?", reference);
+    }
+
+    @Override
+    public boolean isTransactional() {
+        return true;
+    }
+
+    private long contentLength(String reference) {
+        var lengths = jdbcTemplate.queryForList("select octet_length(content) from file_contents where id = ?",
+                Long.class, reference);
+        if (lengths.isEmpty()) {
+            throw new NoSuchElementException("file content not found");
+        }
+        return lengths.get(0);
+    }
+
+    private byte[] readChunk(String reference, long offset, int length) {
+        return jdbcTemplate.queryForObject("select substring(content from ? for ?) from file_contents where id = ?",
+                byte[].class, Math.toIntExact(offset + 1), length, reference);
+    }
+
+    // Читает содержимое в диапазоне [offset, end) кусками по READ_CHUNK_SIZE.
+    private class ChunkedContentInputStream extends InputStream {
+        private final String reference;
+        private final long end;
+        private long offset;
+        private byte[] chunk = new byte[0];
+        private int position;
+
+        ChunkedContentInputStream(String reference, long offset, long end) {
+            this.reference = reference;
+            this.offset = offset;
+            this.end = end;
+        }
+
+        @Override
+        public int read() {
+            if (!fill()) {
+                return -1;
+            }
+            return chunk[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            var count = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            if (n <= 0) {
+                return 0;
+            }
+            var buffered = chunk.length - position;
+            if (n <= buffered) {
+                position += (int) n;
+                return n;
+            }
+            var skipped = Math.min(n - buffered, end - offset);
+            offset += skipped;
+            position = chunk.length;
+            return buffered + skipped;
+        }
+
+        private boolean fill() {
+            if (position < chunk.length) {
+                return true;
+            }
+            if (offset >= end) {
+                return false;
+            }
+            chunk = readChunk(reference, offset, (int) Math.min(READ_CHUNK_SIZE, end - offset));
+            if (chunk == null || chunk.length == 0) {
+                throw new NoSuchElementException("file content not found");
+            }
+            offset += chunk.length;
+            position = 0;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package ru.netology.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+// Хранит одинаковое содержимое один раз. Ключ — SHA-256, посчитанный при записи (ContentDigestInputStream),
+// каждая строка files держит одну ссылку на blob, а содержимое удаляется из хранилища,
+// когда счётчик ссылок доходит до нуля. Чтение идёт напрямую в хранилище по storage_ref.
+// Изменения счётчика блокируют строку blobs до конца транзакции, а содержимое нетранзакционного хранилища
+// удаляется только после коммита: снятие последней ссылки ещё может откатиться, а загрузка того же содержимого,
+// дождавшись блокировки, создаст новую запись со своей копией.
+@Component
+@Primary
+public class DeduplicatingStorageBackend implements StorageBackend {
+
+    static final String DELEGATE = "cachedContentStorageBackend";
+    private static final Logger log = LoggerFactory.getLogger(DeduplicatingStorageBackend.class);
+    // stored_size нет у записей, созданных до появления сжатия: там содержимое хранится как есть.
+    private static final String BLOB_COLUMNS = "storage_ref, encoding, coalesce(stored_size, size)";
+
+    private final StorageBackend delegate;
+    private final JdbcTemplate jdbcTemplate;
+    private final ContentCodec contentCodec;
+
+    public DeduplicatingStorageBackend(@Qualifier(DELEGATE) StorageBackend delegate, JdbcTemplate jdbcTemplate,
+                                       ContentCodec contentCodec) {
+        this.delegate = delegate;
+        this.jdbcTemplate = jdbcTemplate;
+        this.contentCodec = contentCodec;
+    }
+
+    @Override
+    public StoredContent store(InputStream content, long size) throws IOException {
+        StoredContent stored;
+        String hash;
+        long rawSize;
+        String encoding;
+        try (var encoded = contentCodec.encode(content)) {
+            encoding = encoded.getEncoding();
+            // Размер сжатого содержимого заранее неизвестен.
+            stored = delegate.store(encoded.getStored(), encoding == null ? size : UNKNOWN_SIZE);
+            hash = encoded.getRaw().hexDigest();
+            rawSize = encoded.getRaw().getLength();
+        }
+        // Вставка и увеличение счётчика одним запросом: параллельные загрузки одного содержимого не конфликтуют.
+        // Если blob уже был, его кодировка могла быть другой — файл получает ту, что записана в blobs.
+        var existing = jdbcTemplate.queryForObject("insert into blobs (hash, storage_ref, size, ref_count, encoding, stored_size) "
+                        + "values (?, ?, ?, 1, ?, ?) on conflict (hash) do update set ref_count = blobs.ref_count + 1 "
+                        + "returning " + BLOB_COLUMNS,
+                (rs, rowNum) -> new StoredContent(rs.getString(1), rawSize, hash, rs.getString(2), rs.getLong(3)),
+                hash, stored.getReference(), rawSize, encoding, stored.getSize());
+        if (!stored.getReference().equals(existing.getReference())) {
+            // Такое содержимое уже было, только что записанная копия не нужна.
+            delegate.delete(stored.getReference());
+        } else {
+            // Запись blobs создана этой транзакцией: после отката на копию никто не ссылается.
+            deleteOnRollback(stored.getReference());
+        }
+        return existing;
+    }
+
+    @Override
+    public InputStream open(String reference) throws IOException {
+        return delegate.open(reference);
+    }
+
+    @Override
+    public long transferTo(String reference, OutputStream out) throws IOException {
+        return delegate.transferTo(reference, out);
+    }
+
+    @Override
+    public long transferTo(String reference, long offset, long length, OutputStream out) throws IOException {
+        return delegate.transferTo(reference, offset, length, out);
+    }
+
+    // Снимает одну ссылку. Содержимое удаляется, только если ссылок больше нет.
+    @Override
+    public void delete(String reference) throws IOException {
+        var remaining = jdbcTemplate.queryForList("update blobs set ref_count = ref_count - 1 where storage_ref = ? returning ref_count",
+                Long.class, reference);
+        if (!remaining.isEmpty() && remaining.get(0) > 0) {
+            return;
+        }
+        if (remaining.isEmpty() || jdbcTemplate.update("delete from blobs where storage_ref = ? and ref_count <= 0", reference) > 0) {
+            deleteAfterCommit(List.of(reference));
+        }
+    }
+
+    // Счётчики всех blob пакета уменьшаются одним UPDATE, а blob без ссылок удаляются одним DELETE.
+    @Override
+    public void deleteAll(Collection<String> references) throws IOException {
+        if (references.isEmpty()) {
+            return;
+        }
+        var remaining = new HashMap<String, Long>();
+        jdbcTemplate.query(con -> {
+            var ps = con.prepareStatement("update blobs b set ref_count = b.ref_count - d.n "
+                    + "from (select ref, count(*) n from unnest(?) ref group by ref) d "
+                    + "where b.storage_ref = d.ref returning b.storage_ref, b.ref_count");
+            ps.setArray(1, con.createArrayOf("text", references.toArray()));
+            return ps;
+        }, rs -> {
+            remaining.put(rs.getString(1), rs.getLong(2));
+        });
+        var unreferenced = new LinkedHashSet<String>();
+        for (String reference : references) {
+            // Без записи в blobs содержимое удаляется сразу, как в delete
+            if (!remaining.containsKey(reference)) {
+                unreferenced.add(reference);
+            }
+        }
+        var released = remaining.entrySet().stream()
+                .filter(entry -> entry.getValue() <= 0)
+                .map(Map.Entry::getKey)
+                .toArray();
+        if (released.length > 0) {
+            unreferenced.addAll(jdbcTemplate.query(con -> {
+                var ps = con.prepareStatement("delete from blobs where storage_ref = any(?) and ref_count <= 0 returning storage_ref");
+                ps.setArray(1, con.createArrayOf("text", released));
+                return ps;
+            }, (rs, rowNum) -> rs.getString(1)));
+        }
+        deleteAfterCommit(unreferenced);
+    }
+
+    // ref_count > 0: blob, у которого только что снята последняя ссылка, удаляется в той же транзакции.
+    @Override
+    public Optional<StoredContent> reuse(String sha256, long size) {
+        var hash = sha256.toLowerCase();
+        var references = jdbcTemplate.query("update blobs set ref_count = ref_count + 1 "
+                        + "where hash = ? and size = ? and ref_count > 0 returning " + BLOB_COLUMNS,
+                (rs, rowNum) -> new StoredContent(rs.getString(1), size, hash, rs.getString(2), rs.getLong(3)), hash, size);
+        return references.stream().findFirst();
+    }
+
+    private void deleteAfterCommit(Collection<String> references) throws IOException {
+        if (delegate.isTransactional() || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            for (String reference : references) {
+                delegate.delete(reference);
+            }
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                references.forEach(DeduplicatingStorageBackend.this::deleteQuietly);
+            }
+        });
+    }
+
+    private void deleteOnRollback(String reference) {
+        if (delegate.isTransactional() || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_ROLLED_BACK) {
+                    deleteQuietly(reference);
+                }
+            }
+        });
+    }
+
+    // Транзакция уже завершена: неудалённое содержимое остаётся лишним файлом, но ни на что не влияет.
+    private void deleteQuietly(String reference) {
+        try {
+            delegate.delete(reference);
+        } catch (IOException | RuntimeException e) {
+            log.warn("can't delete unreferenced content {}: {}", reference, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package ru.netology.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+
+// Отдаёт содержимое исходного потока в формате gzip по мере чтения, не собирая его в память.
+// Сжатые данные заканчиваются SYNC_FLUSH и отдельным пустым последним блоком, чтобы их можно было
+// вставить в другой поток deflate (SpliceableGzip).
+class GzipCompressingInputStream extends InputStream {
+
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final CRC32 crc = new CRC32();
+    private final Deflater deflater;
+    private final InputStream gzip;
+
+    GzipCompressingInputStream(InputStream in, int level) {
+        this.deflater = new Deflater(level, true);
+        var deflated = new DeflatedInputStream(new CheckedInputStream(in, crc));
+        this.gzip = new SequenceInputStream(new Enumeration<>() {
+            private int part;
+
+            @Override
+            public boolean hasMoreElements() {
+                return part < 3;
+            }
+
+            // Трейлер создаётся, только когда сжатые данные дочитаны и CRC посчитан.
+            @Override
+            public InputStream nextElement() {
+                switch (part++) {
+                    case 0:
+                        return new ByteArrayInputStream(HEADER);
+                    case 1:
+                        return deflated;
+                    case 2:
+                        return new ByteArrayInputStream(trailer());
+                    default:
+                        throw new NoSuchElementException();
+                }
+            }
+        });
+    }
+
+    @Override
+    public int read() throws IOException {
+        return gzip.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        return gzip.read(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            gzip.close();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private byte[] trailer() {
+        var crcValue = crc.getValue();
+        var size = deflater.getBytesRead();
+        var trailer = new byte[8];
+        for (var i = 0; i < 4; i++) {
+            trailer[i] = (byte) (crcValue >>> (8 * i));
+            trailer[4 + i] = (byte) (size >>> (8 * i));
+        }
+        return trailer;
+    }
+
+    private class DeflatedInputStream extends InputStream {
+        private final InputStream in;
+        private final byte[] input = new byte[StorageBackend.BUFFER_SIZE];
+        private final byte[] output = new byte[StorageBackend.BUFFER_SIZE];
+        private int position;
+        private int limit;
+        private boolean inputDone;
+        private boolean flushed;
+        private boolean finished;
+
+        private DeflatedInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            var b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (position == limit) {
+                if (finished) {
+                    return -1;
+                }
+                fill();
+            }
+            var count = Math.min(len, limit - position);
+            System.arraycopy(output, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private void fill() throws IOException {
+            position = 0;
+            limit = 0;
+            if (!inputDone && deflater.needsInput()) {
+                var count = in.read(input);
+                if (count == -1) {
+                    inputDone = true;
+                } else {
+                    deflater.setInput(input, 0, count);
+                }
+                return;
+            }
+            if (!inputDone) {
+                limit = deflater.deflate(output, 0, output.length, Deflater.NO_FLUSH);
+            } else if (!flushed) {
+                // Буфер заполнен целиком — у deflater могли остаться данные, SYNC_FLUSH повторяется.
+                limit = deflater.deflate(output, 0, output.length, Deflater.SYNC_FLUSH);
+                flushed = limit < output.length;
+            } else {
+                System.arraycopy(SpliceableGzip.FINAL_BLOCK, 0, output, 0, SpliceableGzip.FINAL_BLOCK.length);
+                limit = SpliceableGzip.FINAL_BLOCK.length;
+                finished = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package ru.netology.storage;
+
+final class Hex {
+
+    private Hex() {
+    }
+
+    static String toHex(byte[] bytes) {
+        var sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
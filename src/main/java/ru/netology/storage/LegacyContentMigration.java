@@ -0,0 +1,145 @@
+package ru.netology.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+// Файлы, загруженные до появления StorageBackend, хранят байты в колонке files.content и не имеют storage_ref.
+// При старте, до того как приложение начнёт принимать запросы, их содержимое один раз переносится в хранилище.
+// Каждый файл переносится своей транзакцией под блокировкой строки, поэтому перенос, прерванный на середине,
+// продолжается при следующем старте, а несколько экземпляров не переносят один файл дважды.
+// Затем содержимое, записанное до появления blobs, регистрируется в DeduplicatingStorageBackend.
+@Component
+public class LegacyContentMigration implements SmartInitializingSingleton {
+
+    private static final Logger log = LoggerFactory.getLogger(LegacyContentMigration.class);
+    private static final int BATCH_SIZE = 100;
+
+    private final StorageBackend storageBackend;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Executor digestExecutor;
+
+    public LegacyContentMigration(StorageBackend storageBackend, JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                                  @Qualifier(StorageConfig.DIGEST_EXECUTOR) Executor digestExecutor) {
+        this.storageBackend = storageBackend;
+        this.digestExecutor = digestExecutor;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        migrateContent();
+        registerBlobs();
+    }
+
+    private void migrateContent() {
+        // В базе, созданной после удаления колонки из сущности, её нет.
+        var columns = jdbcTemplate.queryForObject("select count(*) from information_schema.columns "
+                + "where table_schema = current_schema() and table_name = 'files' and column_name = 'content'", Long.class);
+        if (columns == null || columns == 0) {
+            return;
+        }
+        var migrated = 0;
+        while (true) {
+            var ids = jdbcTemplate.queryForList("select id from files where storage_ref is null and content is not null limit ?",
+                    UUID.class, BATCH_SIZE);
+            if (ids.isEmpty()) {
+                break;
+            }
+            for (UUID id : ids) {
+                if (Boolean.TRUE.equals(transactionTemplate.execute(status -> migrate(id)))) {
+                    migrated++;
+                }
+            }
+        }
+        if (migrated > 0) {
+            log.info("moved content of {} files from files.content to the storage backend", migrated);
+        }
+    }
+
+    private boolean migrate(UUID id) {
+        var contents = jdbcTemplate.queryForList("select content from files where id = ? and storage_ref is null "
+                + "and content is not null for update", byte[].class, id);
+        if (contents.isEmpty()) {
+            // Перенесён другим экземпляром
+            return false;
+        }
+        var content = contents.get(0);
+        StoredContent stored;
+        try {
+            stored = storageBackend.store(new ByteArrayInputStream(content), content.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        jdbcTemplate.update("update files set storage_ref = ?, content_hash = ?, size = ?, encoding = ?, stored_size = ?, "
+                        + "content = null where id = ?",
+                stored.getReference(), stored.getSha256(), stored.getSize(), stored.getEncoding(), stored.getStoredSize(), id);
+        // До переноса размер файла был 0: если объём пользователя уже посчитан, файл в нём не учтён.
+        jdbcTemplate.update("update users set used_bytes = used_bytes + ? "
+                + "where id = (select user_id from files where id = ?) and used_bytes is not null", stored.getSize(), id);
+        return true;
+    }
+
+    // Файлы, записанные до появления blobs, ссылаются на содержимое, у которого нет записи в blobs.
+    // storage_ref не годится ключом: в базе это случайный UUID, поэтому SHA-256 считается чтением содержимого.
+    // Такое содержимое тогда не сжималось, а content_hash ещё не было — хэш клиента не проверялся.
+    private void registerBlobs() {
+        var references = jdbcTemplate.queryForList("select distinct f.storage_ref from files f where f.storage_ref is not null "
+                + "and not exists (select 1 from blobs b where b.storage_ref = f.storage_ref)", String.class);
+        var registered = 0;
+        for (String reference : references) {
+            if (Boolean.TRUE.equals(transactionTemplate.execute(status -> register(reference)))) {
+                registered++;
+            }
+        }
+        if (registered > 0) {
+            log.info("registered {} stored contents written before deduplication", registered);
+        }
+    }
+
+    private boolean register(String reference) {
+        var files = jdbcTemplate.queryForList("select id from files where storage_ref = ? for update", UUID.class, reference);
+        var blobs = jdbcTemplate.queryForObject("select count(*) from blobs where storage_ref = ?", Long.class, reference);
+        if (files.isEmpty() || blobs == null || blobs > 0) {
+            // Удалён или зарегистрирован другим экземпляром
+            return false;
+        }
+        String hash;
+        long size;
+        try (var content = ContentDigestInputStream.of(storageBackend.open(reference), digestExecutor)) {
+            size = content.transferTo(OutputStream.nullOutputStream());
+            hash = content.hexDigest();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        var blobReference = jdbcTemplate.queryForObject("insert into blobs (hash, storage_ref, size, ref_count, stored_size) "
+                        + "values (?, ?, ?, ?, ?) on conflict (hash) do update set ref_count = blobs.ref_count + excluded.ref_count "
+                        + "returning storage_ref",
+                String.class, hash, reference, size, files.size(), size);
+        jdbcTemplate.update("update files set content_hash = ? where storage_ref = ? and content_hash is null", hash, reference);
+        if (!reference.equals(blobReference)) {
+            // Такое содержимое уже записано: файлы переходят на ту копию, а эта больше не нужна.
+            jdbcTemplate.update("update files f set storage_ref = b.storage_ref, encoding = b.encoding, stored_size = b.stored_size "
+                    + "from blobs b where b.hash = ? and f.storage_ref = ?", hash, reference);
+            try {
+                storageBackend.delete(reference);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return true;
+    }
+}
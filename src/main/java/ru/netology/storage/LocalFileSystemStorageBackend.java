@@ -0,0 +1,116 @@
+package ru.netology.storage;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+// Каждая запись — отдельный файл со случайным именем, поэтому параллельные запись и удаление одинакового
+// содержимого не трогают файлы друг друга. Одинаковое содержимое находит DeduplicatingStorageBackend.
+@Component
+@Qualifier(CachingStorageBackend.DELEGATE)
+@ConditionalOnProperty(name = "cloud.storage.backend", havingValue = "filesystem")
+public class LocalFileSystemStorageBackend implements StorageBackend {
+
+    private final Path root;
+    private final Path tmp;
+    private final Executor digestExecutor;
+
+    public LocalFileSystemStorageBackend(@Value("${cloud.storage.root}") Path root,
+                                         @Qualifier(StorageConfig.DIGEST_EXECUTOR) Executor digestExecutor) throws IOException {
+        this.root = root;
+        this.digestExecutor = digestExecutor;
+        this.tmp = Files.createDirectories(root.resolve("tmp"));
+    }
+
+    @Override
+    public StoredContent store(InputStream content, long size) throws IOException {
+        var tmpFile = Files.createTempFile(tmp, "upload", ".part");
+        try (var digesting = ContentDigestInputStream.of(content, digestExecutor)) {
+            long written;
+            try (var out = Files.newOutputStream(tmpFile)) {
+                written = copy(digesting, out);
+            }
+            var reference = UUID.randomUUID().toString().replace("-", "");
+            var target = resolve(reference);
+            Files.createDirectories(target.getParent());
+            Files.move(tmpFile, target, StandardCopyOption.ATOMIC_MOVE);
+            return new StoredContent(reference, written, digesting.hexDigest());
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    @Override
+    public InputStream open(String reference) throws IOException {
+        try {
+            return Files.newInputStream(resolve(reference));
+        } catch (NoSuchFileException e) {
+            throw new NoSuchElementException("file content not found");
+        }
+    }
+
+    // Байты копирует ядро через FileChannel.transferTo, не поднимая файл в кучу.
+    @Override
+    public long transferTo(String reference, OutputStream out) throws IOException {
+        return transferTo(reference, 0, Long.MAX_VALUE, out);
+    }
+
+    @Override
+    public long transferTo(String reference, long offset, long length, OutputStream out) throws IOException {
+        try (var channel = FileChannel.open(resolve(reference), StandardOpenOption.READ)) {
+            var target = Channels.newChannel(out);
+            var count = Math.max(0, Math.min(length, channel.size() - offset));
+            long transferred = 0;
+            while (transferred < count) {
+                var n = channel.transferTo(offset + transferred, count - transferred, target);
+                // Файл укоротили во время отдачи: дальше transferTo возвращал бы 0 бесконечно.
+                if (n == 0 && offset + transferred >= channel.size()) {
+                    throw new IOException("content ended after " + transferred + " of " + count + " bytes");
+                }
+                transferred += n;
+            }
+            return count;
+        } catch (NoSuchFileException e) {
+            throw new NoSuchElementException("file content not found");
+        }
+    }
+
+    @Override
+    public void delete(String reference) throws IOException {
+        Files.deleteIfExists(resolve(reference));
+    }
+
+    // Двухуровневое разбиение по префиксу имени, чтобы в одном каталоге не скапливались все файлы.
+    Path resolve(String reference) {
+        if (reference.length() < 4 || !reference.chars().allMatch(c -> Character.digit(c, 16) >= 0)) {
+            throw new IllegalArgumentException("invalid content reference");
+        }
+        return root.resolve(reference.substring(0, 2)).resolve(reference.substring(2, 4)).resolve(reference);
+    }
+
+    private static long copy(InputStream in, OutputStream out) throws IOException {
+        var buffer = new byte[BUFFER_SIZE];
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            total += read;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,326 @@
+package ru.netology.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Кэш содержимого вне кучи: память выделяется один раз большими direct-буферами и делится на блоки
+// по BLOCK_SIZE, запись кэша — список блоков. Вытеснение LRU. Читатели закрепляют запись (pin),
+// и её блоки освобождаются, только когда последний читатель закончил, поэтому байты копируются в ответ без блокировки.
+// В кэш попадает только содержимое, которое запросили повторно: разовые скачивания больших файлов
+// не вытесняют горячие.
+class OffHeapContentCache {
+
+    static final int BLOCK_SIZE = StorageBackend.BUFFER_SIZE;
+    // Один direct-буфер не больше 1 ГБ
+    private static final int BLOCKS_PER_SLAB = (1 << 30) / BLOCK_SIZE;
+
+    private final ByteBuffer[] slabs;
+    private final long maxEntrySize;
+    private final int maxCandidates;
+    private final ArrayDeque<Integer> freeBlocks = new ArrayDeque<>();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Ключи, которые один раз не нашлись в кэше: при следующем промахе содержимое будет закэшировано.
+    private final LinkedHashMap<String, Boolean> candidates;
+    private final Map<String, Writer> writers = new HashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private long usedBytes;
+
+    OffHeapContentCache(long capacity, long maxEntrySize, int maxCandidates) {
+        var blocks = (int) Math.min(Integer.MAX_VALUE, capacity / BLOCK_SIZE);
+        this.slabs = new ByteBuffer[(blocks + BLOCKS_PER_SLAB - 1) / BLOCKS_PER_SLAB];
+        for (var i = 0; i < slabs.length; i++) {
+            slabs[i] = ByteBuffer.allocateDirect(Math.min(BLOCKS_PER_SLAB, blocks - i * BLOCKS_PER_SLAB) * BLOCK_SIZE);
+        }
+        for (var i = 0; i < blocks; i++) {
+            freeBlocks.add(i);
+        }
+        this.maxEntrySize = Math.min(maxEntrySize, (long) blocks * BLOCK_SIZE);
+        this.maxCandidates = maxCandidates;
+        this.candidates = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > OffHeapContentCache.this.maxCandidates;
+            }
+        };
+    }
+
+    // Закреплённая запись или null. Запись нужно отпустить через release().
+    synchronized Entry acquire(String key) {
+        var entry = entries.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        entry.pins++;
+        return entry;
+    }
+
+    synchronized void release(Entry entry) {
+        entry.pins--;
+        if (entry.pins == 0 && entry.removed) {
+            free(entry.blocks, entry.blockCount);
+        }
+    }
+
+    // Запись для содержимого после промаха или null, если содержимое не допускается в кэш:
+    // его ещё не запрашивали, или его уже пишет другой поток.
+    synchronized Writer startWrite(String key) {
+        if (maxEntrySize == 0 || writers.containsKey(key) || entries.containsKey(key)) {
+            return null;
+        }
+        if (candidates.remove(key) == null) {
+            candidates.put(key, Boolean.TRUE);
+            return null;
+        }
+        var writer = new Writer(key);
+        writers.put(key, writer);
+        return writer;
+    }
+
+    synchronized void invalidate(String key) {
+        candidates.remove(key);
+        var writer = writers.get(key);
+        if (writer != null) {
+            writer.invalidated = true;
+        }
+        var entry = entries.remove(key);
+        if (entry != null) {
+            remove(entry);
+        }
+    }
+
+    long hits() {
+        return hits.get();
+    }
+
+    long misses() {
+        return misses.get();
+    }
+
+    long evictions() {
+        return evictions.get();
+    }
+
+    synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized int allocateBlock() {
+        while (freeBlocks.isEmpty()) {
+            var eldest = entries.values().iterator();
+            if (!eldest.hasNext()) {
+                return -1;
+            }
+            var entry = eldest.next();
+            eldest.remove();
+            evictions.incrementAndGet();
+            remove(entry);
+            // Блоки закреплённой записи освободятся, когда её дочитают; дальше вытесняются следующие.
+        }
+        return freeBlocks.poll();
+    }
+
+    private synchronized boolean commit(Writer writer) {
+        writers.remove(writer.key);
+        if (writer.invalidated) {
+            free(writer.blocks, writer.blockCount);
+            return false;
+        }
+        var entry = new Entry(writer.blocks, writer.blockCount, writer.length);
+        entries.put(writer.key, entry);
+        usedBytes += entry.length;
+        return true;
+    }
+
+    private synchronized void abort(Writer writer) {
+        writers.remove(writer.key);
+        free(writer.blocks, writer.blockCount);
+    }
+
+    private void remove(Entry entry) {
+        entry.removed = true;
+        usedBytes -= entry.length;
+        if (entry.pins == 0) {
+            free(entry.blocks, entry.blockCount);
+        }
+    }
+
+    private void free(int[] blocks, int count) {
+        for (var i = 0; i < count; i++) {
+            freeBlocks.add(blocks[i]);
+        }
+    }
+
+    // Своя копия позиции и лимита у каждого вызова: читатели и писатель работают с одними буферами параллельно.
+    private ByteBuffer block(int block) {
+        var buffer = slabs[block / BLOCKS_PER_SLAB].duplicate();
+        var start = (block % BLOCKS_PER_SLAB) * BLOCK_SIZE;
+        buffer.limit(start + BLOCK_SIZE).position(start);
+        return buffer;
+    }
+
+    class Entry {
+        private final int[] blocks;
+        private final int blockCount;
+        private final long length;
+        // Изменяются под блокировкой кэша
+        private int pins;
+        private boolean removed;
+
+        private Entry(int[] blocks, int blockCount, long length) {
+            this.blocks = blocks;
+            this.blockCount = blockCount;
+            this.length = length;
+        }
+
+        long getLength() {
+            return length;
+        }
+
+        // Как StorageBackend.transferTo с диапазоном
+        long transferTo(long offset, long length, OutputStream out) throws IOException {
+            var end = offset + Math.max(0, Math.min(length, this.length - offset));
+            var buffer = new byte[BLOCK_SIZE];
+            var position = offset;
+            while (position < end) {
+                var n = read(position, buffer, 0, (int) Math.min(BLOCK_SIZE, end - position));
+                out.write(buffer, 0, n);
+                position += n;
+            }
+            return end - offset;
+        }
+
+        InputStream openStream() {
+            return new InputStream() {
+                private long position;
+                private boolean closed;
+
+                @Override
+                public int read() {
+                    var b = new byte[1];
+                    return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    if (position >= length) {
+                        return -1;
+                    }
+                    var n = Entry.this.read(position, b, off, (int) Math.min(len, length - position));
+                    position += n;
+                    return n;
+                }
+
+                @Override
+                public long skip(long n) {
+                    var skipped = Math.max(0, Math.min(n, length - position));
+                    position += skipped;
+                    return skipped;
+                }
+
+                @Override
+                public void close() {
+                    if (!closed) {
+                        closed = true;
+                        release(Entry.this);
+                    }
+                }
+            };
+        }
+
+        // Читает не дальше конца блока, в котором лежит position
+        private int read(long position, byte[] b, int off, int len) {
+            var inBlock = (int) (position % BLOCK_SIZE);
+            var n = Math.min(len, BLOCK_SIZE - inBlock);
+            var buffer = block(blocks[(int) (position / BLOCK_SIZE)]);
+            buffer.position(buffer.position() + inBlock);
+            buffer.get(b, off, n);
+            return n;
+        }
+    }
+
+    // Заполняет новую запись по мере чтения содержимого из хранилища. Используется одним потоком.
+    class Writer {
+        private final String key;
+        private int[] blocks = new int[4];
+        private int blockCount;
+        private long length;
+        private boolean failed;
+        private boolean finished;
+        // Изменяется под блокировкой кэша
+        private boolean invalidated;
+
+        private Writer(String key) {
+            this.key = key;
+        }
+
+        // Содержимое больше max-entry-size или не нашлось места — запись отменяется, чтение продолжается без кэша.
+        void write(byte[] b, int off, int len) {
+            if (failed || finished) {
+                return;
+            }
+            if (length + len > maxEntrySize) {
+                fail();
+                return;
+            }
+            while (len > 0) {
+                var inBlock = (int) (length % BLOCK_SIZE);
+                if (inBlock == 0) {
+                    var block = allocateBlock();
+                    if (block == -1) {
+                        fail();
+                        return;
+                    }
+                    if (blockCount == blocks.length) {
+                        blocks = Arrays.copyOf(blocks, blockCount * 2);
+                    }
+                    blocks[blockCount++] = block;
+                }
+                var n = Math.min(len, BLOCK_SIZE - inBlock);
+                var buffer = block(blocks[blockCount - 1]);
+                buffer.position(buffer.position() + inBlock);
+                buffer.put(b, off, n);
+                off += n;
+                len -= n;
+                length += n;
+            }
+        }
+
+        // Содержимое дочитано до конца
+        boolean commit() {
+            if (failed || finished) {
+                return false;
+            }
+            finished = true;
+            return OffHeapContentCache.this.commit(this);
+        }
+
+        // Содержимое прочитано не до конца: запись не нужна
+        void abort() {
+            if (!failed && !finished) {
+                finished = true;
+                OffHeapContentCache.this.abort(this);
+            }
+        }
+
+        private void fail() {
+            failed = true;
+            OffHeapContentCache.this.abort(this);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package ru.netology.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Optional;
+
+// Хранимый gzip, сжатые данные которого можно вставить в середину другого потока deflate без распаковки.
+// Такой gzip пишет GzipCompressingInputStream: данные заканчиваются SYNC_FLUSH (пустой несжатый блок 00 00 ff ff
+// на границе байта), за ним — пустой последний блок и трейлер. Всё между заголовком и пустым последним блоком —
+// целые блоки deflate без признака последнего. У gzip, сохранённого раньше, такого окончания нет.
+public class SpliceableGzip {
+
+    public static final int HEADER_SIZE = 10;
+    static final byte[] SYNC_FLUSH_MARKER = {0, 0, (byte) 0xff, (byte) 0xff};
+    // Пустой блок с фиксированными кодами Хаффмана и признаком последнего: BFINAL = 1, BTYPE = 01, код конца блока.
+    static final byte[] FINAL_BLOCK = {0x03, 0x00};
+    private static final int TRAILER_SIZE = 8;
+    private static final int END_SIZE = SYNC_FLUSH_MARKER.length + FINAL_BLOCK.length + TRAILER_SIZE;
+
+    private final long storedSize;
+    private final long crc;
+
+    private SpliceableGzip(long storedSize, long crc) {
+        this.storedSize = storedSize;
+        this.crc = crc;
+    }
+
+    // Пусто, если содержимое сохранено без нужного окончания: тогда его можно отдать только распаковав.
+    public static Optional<SpliceableGzip> read(StorageBackend storageBackend, String reference, long storedSize) throws IOException {
+        if (storedSize < HEADER_SIZE + END_SIZE) {
+            return Optional.empty();
+        }
+        var out = new ByteArrayOutputStream(END_SIZE);
+        storageBackend.transferTo(reference, storedSize - END_SIZE, END_SIZE, out);
+        var end = out.toByteArray();
+        if (end.length != END_SIZE
+                || !Arrays.equals(end, 0, SYNC_FLUSH_MARKER.length, SYNC_FLUSH_MARKER, 0, SYNC_FLUSH_MARKER.length)
+                || !Arrays.equals(end, SYNC_FLUSH_MARKER.length, SYNC_FLUSH_MARKER.length + FINAL_BLOCK.length, FINAL_BLOCK, 0, FINAL_BLOCK.length)) {
+            return Optional.empty();
+        }
+        var crc = 0L;
+        for (var i = 0; i < 4; i++) {
+            crc |= (end[END_SIZE - TRAILER_SIZE + i] & 0xffL) << (8 * i);
+        }
+        return Optional.of(new SpliceableGzip(storedSize, crc));
+    }
+
+    // Смещение и длина сжатых данных вместе с SYNC_FLUSH, но без пустого последнего блока и трейлера
+    public long deflatedOffset() {
+        return HEADER_SIZE;
+    }
+
+    public long deflatedLength() {
+        return storedSize - HEADER_SIZE - FINAL_BLOCK.length - TRAILER_SIZE;
+    }
+
+    // CRC-32 исходного содержимого из трейлера
+    public long crc() {
+        return crc;
+    }
+
+    // CRC-32 склеенных данных по CRC частей (crc32_combine из zlib): crc2 и length2 относятся ко второй части.
+    public static long combineCrc(long crc1, long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+        var even = new long[32];
+        var odd = new long[32];
+        // Оператор сдвига на один нулевой бит
+        odd[0] = 0xedb88320L;
+        var row = 1L;
+        for (var n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        // На два и на четыре нулевых бита
+        square(even, odd);
+        square(odd, even);
+        // Сдвиг crc1 на length2 нулевых байт: каждый шаг удваивает число бит
+        do {
+            square(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = times(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+            square(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = times(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+        return crc1 ^ crc2;
+    }
+
+    private static long times(long[] matrix, long vector) {
+        var sum = 0L;
+        for (var i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void square(long[] square, long[] matrix) {
+        for (var n = 0; n < 32; n++) {
+            square[n] = times(matrix, matrix[n]);
+        }
+    }
+}
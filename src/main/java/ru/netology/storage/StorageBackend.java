@@ -0,0 +1,75 @@
+package ru.netology.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Optional;
+
+public interface StorageBackend {
+
+    // Размер буфера, которым содержимое файлов передаётся в хранилище и обратно.
+    int BUFFER_SIZE = 64 * 1024;
+
+    // Размер UNKNOWN_SIZE означает, что длина заранее неизвестна (например, у сжимаемого на лету содержимого).
+    long UNKNOWN_SIZE = -1;
+
+    StoredContent store(InputStream content, long size) throws IOException;
+
+    InputStream open(String reference) throws IOException;
+
+    default long transferTo(String reference, OutputStream out) throws IOException {
+        try (var content = open(reference)) {
+            return content.transferTo(out);
+        }
+    }
+
+    // Записывает не больше length байт, начиная с offset. Возвращает количество записанных байт.
+    default long transferTo(String reference, long offset, long length, OutputStream out) throws IOException {
+        try (var content = open(reference)) {
+            return transferRange(content, offset, length, out);
+        }
+    }
+
+    static long transferRange(InputStream content, long offset, long length, OutputStream out) throws IOException {
+        var skipped = 0L;
+        while (skipped < offset) {
+            var n = content.skip(offset - skipped);
+            if (n <= 0) {
+                return 0;
+            }
+            skipped += n;
+        }
+        var buffer = new byte[BUFFER_SIZE];
+        long written = 0;
+        while (written < length) {
+            var read = content.read(buffer, 0, (int) Math.min(buffer.length, length - written));
+            if (read == -1) {
+                break;
+            }
+            out.write(buffer, 0, read);
+            written += read;
+        }
+        return written;
+    }
+
+    void delete(String reference) throws IOException;
+
+    // Удаление в хранилище, которое живёт в той же базе, откатывается вместе с транзакцией.
+    default boolean isTransactional() {
+        return false;
+    }
+
+    // Снимает по ссылке на каждый элемент references, повторяющийся элемент — несколько ссылок.
+    default void deleteAll(Collection<String> references) throws IOException {
+        for (String reference : references) {
+            delete(reference);
+        }
+    }
+
+    // Добавляет ссылку на уже хранящееся содержимое с таким SHA-256 и размером, не передавая байты.
+    // Хранилища без дедупликации содержимое по хэшу не ищут.
+    default Optional<StoredContent> reuse(String sha256, long size) {
+        return Optional.empty();
+    }
+}
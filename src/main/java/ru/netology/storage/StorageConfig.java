@@ -0,0 +1,27 @@
+package ru.netology.storage;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class StorageConfig {
+
+    static final String DIGEST_EXECUTOR = "contentDigestExecutor";
+
+    // Потоки, которые считают SHA-256 загружаемого содержимого (ContentDigestInputStream). Хэширование
+    // занимает процессор, поэтому потоков столько же, сколько ядер; поток занят, только пока у загрузки есть
+    // нехэшированные блоки, а очередь держит не больше одной задачи на загрузку.
+    // Загрузка, не уместившаяся в очередь, получает 503 (TaskRejectedException).
+    @Bean(DIGEST_EXECUTOR)
+    public ThreadPoolTaskExecutor contentDigestExecutor(@Value("${cloud.storage.digest.queue-capacity}") int queueCapacity) {
+        var threads = Runtime.getRuntime().availableProcessors();
+        var executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("content-digest-");
+        return executor;
+    }
+}
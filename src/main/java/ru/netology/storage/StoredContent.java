@@ -0,0 +1,47 @@
+package ru.netology.storage;
+
+public class StoredContent {
+    private final String reference;
+    private final long size;
+    // SHA-256 содержимого, посчитанный сервером; null, если хранилище его не считает
+    private final String sha256;
+    // Кодировка, в которой содержимое лежит в хранилище (null — как есть), и его размер там
+    private final String encoding;
+    private final long storedSize;
+
+    public StoredContent(String reference, long size) {
+        this(reference, size, null);
+    }
+
+    public StoredContent(String reference, long size, String sha256) {
+        this(reference, size, sha256, null, size);
+    }
+
+    public StoredContent(String reference, long size, String sha256, String encoding, long storedSize) {
+        this.reference = reference;
+        this.size = size;
+        this.sha256 = sha256;
+        this.encoding = encoding;
+        this.storedSize = storedSize;
+    }
+
+    public String getReference() {
+        return reference;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public long getStoredSize() {
+        return storedSize;
+    }
+}
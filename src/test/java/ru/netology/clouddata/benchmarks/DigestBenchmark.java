@@ -0,0 +1,119 @@
+package ru.netology.clouddata.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.netology.storage.ContentDigestInputStream;
+import ru.netology.storage.StorageBackend;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Пропускная способность SHA-256 на одном ядре и стоимость подсчёта хэша при загрузке.
+// digest — чистый MessageDigest по блокам разного размера, copy* — копирование 16 МБ в "хранилище",
+// запись в которое стоит writeCost единиц работы на блок (имитация I/O).
+// Результат в операциях/с, байт/с = score * 16 МБ.
+// Запуск: java -cp target/test-classes:target/classes:<classpath> org.openjdk.jmh.Main DigestBenchmark
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DigestBenchmark {
+
+    private static final int CONTENT_SIZE = 16 * 1024 * 1024;
+
+    @State(Scope.Thread)
+    public static class DigestState {
+        @Param({"8192", "65536", "1048576"})
+        public int blockSize;
+
+        private byte[] content;
+        private MessageDigest digest;
+
+        @Setup
+        public void setUp() throws NoSuchAlgorithmException {
+            content = content();
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class CopyState {
+        @Param({"0", "20000"})
+        public long writeCost;
+
+        private byte[] content;
+        private MessageDigest digest;
+
+        @Setup
+        public void setUp() throws NoSuchAlgorithmException {
+            content = content();
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+    }
+
+    @Benchmark
+    public byte[] digest(DigestState state) {
+        var content = state.content;
+        for (var offset = 0; offset < content.length; offset += state.blockSize) {
+            state.digest.update(content, offset, Math.min(state.blockSize, content.length - offset));
+        }
+        return state.digest.digest();
+    }
+
+    @Benchmark
+    public long copyWithoutDigest(CopyState state, Blackhole blackhole) throws IOException {
+        return copy(new ByteArrayInputStream(state.content), state.writeCost, blackhole);
+    }
+
+    @Benchmark
+    public byte[] copyWithInlineDigest(CopyState state, Blackhole blackhole) throws IOException {
+        var in = new DigestInputStream(new ByteArrayInputStream(state.content), state.digest);
+        copy(in, state.writeCost, blackhole);
+        return state.digest.digest();
+    }
+
+    @Benchmark
+    public String copyWithOverlappedDigest(CopyState state, Blackhole blackhole) throws IOException {
+        try (var in = new ContentDigestInputStream(new ByteArrayInputStream(state.content), InMemoryStorageBackend.HASHERS)) {
+            copy(in, state.writeCost, blackhole);
+            return in.hexDigest();
+        }
+    }
+
+    private static byte[] content() {
+        var content = new byte[CONTENT_SIZE];
+        new Random(1).nextBytes(content);
+        return content;
+    }
+
+    private static long copy(InputStream in, long writeCost, Blackhole blackhole) throws IOException {
+        var out = new OutputStream() {
+            @Override
+            public void write(int b) {
+                blackhole.consume(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                Blackhole.consumeCPU(writeCost);
+                blackhole.consume(b);
+            }
+        };
+        var buffer = new byte[StorageBackend.BUFFER_SIZE];
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            total += read;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,216 @@
+package ru.netology.clouddata.benchmarks;
+
+import ru.netology.entities.File;
+import ru.netology.entities.FileChange;
+import ru.netology.entities.User;
+import ru.netology.repositories.FileChangeRepository;
+import ru.netology.repositories.FileRepository;
+import ru.netology.repositories.FileSort;
+import ru.netology.repositories.FileSummary;
+import ru.netology.repositories.UserRepository;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+// Репозитории в памяти для бенчмарков сервисов: реализованы только методы, которые вызывают
+// FileService, ChangeFeed, UserService и DatabaseTokenAuthenticator, остальные бросают UnsupportedOperationException.
+public final class InMemoryRepositories {
+
+    private InMemoryRepositories() {
+    }
+
+    public static FileRepository fileRepository() {
+        var files = new HashMap<User, TreeMap<String, File>>();
+        return repository(FileRepository.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "findFileByNameAndUser":
+                    return Optional.ofNullable(filesOf(files, (User) args[1]).get((String) args[0]));
+                case "saveAndFlush":
+                case "save": {
+                    var file = (File) args[0];
+                    filesOf(files, file.getUser()).put(file.getName(), file);
+                    return file;
+                }
+                case "delete": {
+                    var file = (File) args[0];
+                    filesOf(files, file.getUser()).remove(file.getName());
+                    return null;
+                }
+                case "flush":
+                    return null;
+                case "renameByNameAndUser": {
+                    var userFiles = filesOf(files, (User) args[1]);
+                    var file = userFiles.remove((String) args[0]);
+                    if (file == null) {
+                        return 0;
+                    }
+                    file.setName((String) args[2]);
+                    userFiles.put(file.getName(), file);
+                    return 1;
+                }
+                case "findSummaries": {
+                    var order = summaryOrder((FileSort) args[1], (Boolean) args[2]);
+                    var after = (FileSummary) args[3];
+                    return filesOf(files, (User) args[0]).values().stream()
+                            .<FileSummary>map(file -> new Summary(file.getId(), file.getName(), file.getSize(), file.getUploadedAt()))
+                            .filter(summary -> after == null || order.compare(summary, after) > 0)
+                            .sorted(order)
+                            .limit((Integer) args[4])
+                            .collect(Collectors.toList());
+                }
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    public static FileChangeRepository fileChangeRepository() {
+        var changes = new ArrayList<FileChange>();
+        return repository(FileChangeRepository.class, (proxy, method, args) -> {
+            if (method.getName().equals("save")) {
+                changes.add((FileChange) args[0]);
+                return args[0];
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    public static UserRepository userRepository(List<User> users) {
+        var byToken = new HashMap<String, User>();
+        var tokens = new HashMap<User, String>();
+        var changeSequences = new HashMap<Integer, Long>();
+        var usedBytes = new HashMap<Integer, Long>();
+        return repository(UserRepository.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "findByLoginAndPasswordHash":
+                    return users.stream()
+                            .filter(user -> user.getLogin().equals(args[0]) && user.getPasswordHash().equals(args[1]))
+                            .findFirst();
+                case "findUserByAuthToken":
+                    return Optional.ofNullable(byToken.get((String) args[0]));
+                case "saveAndFlush":
+                case "save": {
+                    var user = (User) args[0];
+                    var previous = tokens.remove(user);
+                    if (previous != null) {
+                        byToken.remove(previous);
+                    }
+                    if (user.getAuthToken() != null) {
+                        tokens.put(user, user.getAuthToken());
+                        byToken.put(user.getAuthToken(), user);
+                    }
+                    return user;
+                }
+                case "nextChangeSequence":
+                    return changeSequences.merge((Integer) args[0], 1L, Long::sum);
+                case "findChangeSequence":
+                    return changeSequences.getOrDefault((Integer) args[0], 0L);
+                case "initUsedBytes":
+                    return 0;
+                case "findStorageUsage": {
+                    var used = usedBytes.getOrDefault((Integer) args[0], 0L);
+                    return new UserRepository.StorageUsage() {
+                        @Override
+                        public Long getUsedBytes() {
+                            return used;
+                        }
+
+                        @Override
+                        public Long getQuotaBytes() {
+                            return null;
+                        }
+                    };
+                }
+                case "addUsedBytes":
+                    usedBytes.merge((Integer) args[0], (Long) args[1], Long::sum);
+                    return 1;
+                case "subtractUsedBytes":
+                    usedBytes.merge((Integer) args[0], -(Long) args[1], Long::sum);
+                    return 1;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static Comparator<FileSummary> summaryOrder(FileSort sort, boolean descending) {
+        var byName = Comparator.comparing(FileSummary::getName);
+        Comparator<FileSummary> order;
+        switch (sort) {
+            case SIZE:
+                order = Comparator.comparingLong(FileSummary::getSize).thenComparing(byName);
+                break;
+            case UPLOADED:
+                order = Comparator.comparing(FileSummary::getUploadedAt).thenComparing(byName);
+                break;
+            default:
+                order = byName;
+        }
+        order = order.thenComparing(FileSummary::getId);
+        return descending ? order.reversed() : order;
+    }
+
+    private static TreeMap<String, File> filesOf(Map<User, TreeMap<String, File>> files, User user) {
+        return files.computeIfAbsent(user, key -> new TreeMap<>());
+    }
+
+    private static <T> T repository(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return type.getSimpleName() + " in memory";
+                }
+            }
+            return handler.invoke(proxy, method, args);
+        }));
+    }
+
+    private static class Summary implements FileSummary {
+        private final UUID id;
+        private final String name;
+        private final long size;
+        private final Instant uploadedAt;
+
+        private Summary(UUID id, String name, long size, Instant uploadedAt) {
+            this.id = id;
+            this.name = name;
+            this.size = size;
+            this.uploadedAt = uploadedAt;
+        }
+
+        @Override
+        public UUID getId() {
+            return id;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public Instant getUploadedAt() {
+            return uploadedAt;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package ru.netology.clouddata.benchmarks;
+
+import ru.netology.storage.ContentDigestInputStream;
+import ru.netology.storage.StorageBackend;
+import ru.netology.storage.StoredContent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Хранилище для бенчмарков: байты читаются и отбрасываются, запоминается только размер,
+// при чтении отдаются нули. Аллокации хранилища не смешиваются с аллокациями сервиса.
+// SHA-256 считается, как в DeduplicatingStorageBackend: без него сервис не примет загрузку.
+public class InMemoryStorageBackend implements StorageBackend {
+
+    private static final byte[] ZEROES = new byte[BUFFER_SIZE];
+    // Как contentDigestExecutor приложения: по потоку на ядро
+    static final ExecutorService HASHERS = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), task -> {
+        var thread = new Thread(task, "content-digest");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<String, Long> sizes = new ConcurrentHashMap<>();
+    private final byte[] scratch = new byte[BUFFER_SIZE];
+
+    @Override
+    public StoredContent store(InputStream content, long size) throws IOException {
+        long stored = 0;
+        String sha256;
+        try (var digesting = ContentDigestInputStream.of(content, HASHERS)) {
+            int read;
+            while ((read = digesting.read(scratch)) != -1) {
+                stored += read;
+            }
+            sha256 = digesting.hexDigest();
+        }
+        var reference = UUID.randomUUID().toString();
+        sizes.put(reference, stored);
+        return new StoredContent(reference, stored, sha256);
+    }
+
+    @Override
+    public InputStream open(String reference) {
+        var size = sizeOf(reference);
+        return new InputStream() {
+            private long remaining = size;
+
+            @Override
+            public int read() {
+                if (remaining == 0) {
+                    return -1;
+                }
+                remaining--;
+                return 0;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (remaining == 0) {
+                    return -1;
+                }
+                var count = (int) Math.min(len, remaining);
+                System.arraycopy(ZEROES, 0, b, off, Math.min(count, ZEROES.length));
+                remaining -= Math.min(count, ZEROES.length);
+                return Math.min(count, ZEROES.length);
+            }
+        };
+    }
+
+    @Override
+    public long transferTo(String reference, long offset, long length, OutputStream out) throws IOException {
+        var count = Math.max(0, Math.min(length, sizeOf(reference) - offset));
+        var written = 0L;
+        while (written < count) {
+            var n = (int) Math.min(ZEROES.length, count - written);
+            out.write(ZEROES, 0, n);
+            written += n;
+        }
+        return written;
+    }
+
+    @Override
+    public void delete(String reference) {
+        sizes.remove(reference);
+    }
+
+    private long sizeOf(String reference) {
+        var size = sizes.get(reference);
+        if (size == null) {
+            throw new NoSuchElementException("file content not found");
+        }
+        return size;
+    }
+}
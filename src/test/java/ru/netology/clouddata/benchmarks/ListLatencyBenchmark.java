@@ -0,0 +1,161 @@
+package ru.netology.clouddata.benchmarks;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import ru.netology.dto.PostLoginRequest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+// Замер времени /list при росте размеров хранимых файлов.
+// Запускается вручную против поднятого приложения:
+// java -cp target/test-classes:target/classes:<classpath> ru.netology.clouddata.benchmarks.ListLatencyBenchmark
+// Параметры: -Dbench.url, -Dbench.login, -Dbench.password, -Dbench.files, -Dbench.iterations, -Dbench.sizes (в байтах через запятую)
+public class ListLatencyBenchmark {
+
+    private static final Gson GSON = new Gson();
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final String url;
+    private String authToken;
+
+    public ListLatencyBenchmark(String url) {
+        this.url = url;
+    }
+
+    public static void main(String[] args) throws Exception {
+        var benchmark = new ListLatencyBenchmark(System.getProperty("bench.url", "http://localhost:8080"));
+        var files = Integer.getInteger("bench.files", 100);
+        var iterations = Integer.getInteger("bench.iterations", 50);
+        var sizes = Arrays.stream(System.getProperty("bench.sizes", "1024,1048576,10485760,52428800").split(","))
+                .mapToLong(Long::parseLong)
+                .toArray();
+
+        benchmark.login(System.getProperty("bench.login", "u"), System.getProperty("bench.password", "p"));
+        System.out.printf("%12s %8s %10s %10s %10s%n", "file size", "files", "avg ms", "p50 ms", "max ms");
+        for (var size : sizes) {
+            var names = benchmark.upload(files, size);
+            try {
+                var times = benchmark.measureList(files, iterations);
+                System.out.printf("%12d %8d %10.2f %10.2f %10.2f%n", size, files,
+                        Arrays.stream(times).average().orElse(0), times[times.length / 2], times[times.length - 1]);
+            } finally {
+                benchmark.delete(names);
+            }
+        }
+        benchmark.logout();
+    }
+
+    private void login(String login, String password) throws IOException, InterruptedException {
+        var loginRequest = new PostLoginRequest();
+        loginRequest.setLogin(login);
+        loginRequest.setPassword(password);
+        var request = HttpRequest.newBuilder(URI.create(url + "/login"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(GSON.toJson(loginRequest)))
+                .build();
+        var response = send(request, HttpResponse.BodyHandlers.ofString());
+        authToken = "Bearer " + GSON.fromJson(response.body(), JsonObject.class).get("auth-token").getAsString();
+    }
+
+    private void logout() throws IOException, InterruptedException {
+        send(authorized("/logout").POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.discarding());
+    }
+
+    private List<String> upload(int files, long size) throws IOException, InterruptedException {
+        var names = new ArrayList<String>();
+        for (var i = 0; i < files; i++) {
+            var name = "list-bench-" + UUID.randomUUID();
+            var boundary = "bench" + UUID.randomUUID().toString().replace("-", "");
+            var head = ("--" + boundary + "\r\n"
+                    + "Content-Disposition: form-data; name=\"hash\"\r\n\r\n" + name + "\r\n"
+                    + "--" + boundary + "\r\n"
+                    + "Content-Disposition: form-data; name=\"file\"; filename=\"" + name + "\"\r\n"
+                    + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+            var tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+            var request = authorized("/file?filename=" + name)
+                    .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                    .POST(HttpRequest.BodyPublishers.ofByteArrays(() -> body(head, size, tail)))
+                    .build();
+            send(request, HttpResponse.BodyHandlers.discarding());
+            names.add(name);
+        }
+        return names;
+    }
+
+    private double[] measureList(int limit, int iterations) throws IOException, InterruptedException {
+        var request = authorized("/list?limit=" + limit).GET().build();
+        // прогрев
+        for (var i = 0; i < 5; i++) {
+            send(request, HttpResponse.BodyHandlers.discarding());
+        }
+        var times = new double[iterations];
+        for (var i = 0; i < iterations; i++) {
+            var start = System.nanoTime();
+            send(request, HttpResponse.BodyHandlers.ofString());
+            times[i] = (System.nanoTime() - start) / 1_000_000.0;
+        }
+        Arrays.sort(times);
+        return times;
+    }
+
+    private void delete(List<String> names) throws IOException, InterruptedException {
+        for (var name : names) {
+            send(authorized("/file?filename=" + name).DELETE().build(), HttpResponse.BodyHandlers.discarding());
+        }
+    }
+
+    private HttpRequest.Builder authorized(String path) {
+        return HttpRequest.newBuilder(URI.create(url + path)).header("auth-token", authToken);
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException, InterruptedException {
+        var response = client.send(request, handler);
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException(request.method() + " " + request.uri() + " -> " + response.statusCode());
+        }
+        return response;
+    }
+
+    // Тело multipart-запроса генерируется кусками, чтобы не держать файл в памяти
+    private static Iterator<byte[]> body(byte[] head, long size, byte[] tail) {
+        return new Iterator<>() {
+            private long written = -1;
+
+            @Override
+            public boolean hasNext() {
+                return written <= size;
+            }
+
+            @Override
+            public byte[] next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (written < 0) {
+                    written = 0;
+                    return head;
+                }
+                if (written == size) {
+                    written++;
+                    return tail;
+                }
+                var chunk = new byte[(int) Math.min(CHUNK_SIZE, size - written)];
+                Arrays.fill(chunk, (byte) written);
+                written += chunk.length;
+                return chunk;
+            }
+        };
+    }
+}
@@ -0,0 +1,382 @@
+package ru.netology.clouddata.benchmarks;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.netology.CloudDataApplication;
+import ru.netology.dto.PostLoginRequest;
+import ru.netology.dto.PutFileRequest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Нагрузочный прогон всего приложения: поднимает PostgreSQL (встроенный, из io.zonky.test) и приложение
+// в этом же процессе, затем load.concurrency пользователей по кругу выполняют
+// login → upload → list → download → rename → delete через HTTP.
+// Для каждого эндпоинта считаются пропускная способность и задержки p50/p99/p999, результат пишется в JSON.
+// Запуск: mvn -Pload-test test -Dload.jvm="-Xmx1g -Dload.concurrency=16 -Dload.duration=PT2M"
+// Параметры: -Dload.concurrency, -Dload.duration, -Dload.warmup, -Dload.sizes (размер:вес через запятую),
+// -Dload.list-limit, -Dload.output; -Dload.jdbc-url, -Dload.jdbc-user, -Dload.jdbc-password — вместо встроенного
+// PostgreSQL использовать уже запущенный. Свойства приложения (cloud.storage.backend и т.п.) передаются как обычно через -D.
+public class LoadTest {
+
+    private static final Gson GSON = new Gson();
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final String PASSWORD = "load-password";
+    private static final List<String> ENDPOINTS = List.of("login", "upload", "list", "download", "rename", "delete");
+
+    // Случайные байты, из которых собирается содержимое файлов: одинаковые файлы схлопнулись бы дедупликацией,
+    // а однородные сжались бы, поэтому каждый файл начинается с уникального префикса и не сжимается.
+    private static final byte[] RANDOM_POOL = new byte[1024 * 1024];
+
+    static {
+        new Random(1).nextBytes(RANDOM_POOL);
+    }
+
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final String url;
+    private final long[] sizes;
+    private final int[] weights;
+    private final int listLimit;
+    private final Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+    private final AtomicLong fileCounter = new AtomicLong();
+    private volatile boolean running = true;
+
+    public LoadTest(String url, long[] sizes, int[] weights, int listLimit) {
+        this.url = url;
+        this.sizes = sizes;
+        this.weights = weights;
+        this.listLimit = listLimit;
+        for (var name : ENDPOINTS) {
+            endpoints.put(name, new Endpoint());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        var concurrency = Integer.getInteger("load.concurrency", 8);
+        var duration = Duration.parse(System.getProperty("load.duration", "PT1M"));
+        var warmup = Duration.parse(System.getProperty("load.warmup", "PT10S"));
+        var listLimit = Integer.getInteger("load.list-limit", 100);
+        var mix = System.getProperty("load.sizes", "1024:60,102400:30,1048576:9,16777216:1").split(",");
+        var sizes = Arrays.stream(mix).mapToLong(item -> Long.parseLong(item.split(":")[0])).toArray();
+        var weights = Arrays.stream(mix).mapToInt(item -> Integer.parseInt(item.split(":")[1])).toArray();
+        var output = Path.of(System.getProperty("load.output",
+                "target/load-test/load-" + Instant.now().toString().replace(":", "-") + ".json"));
+
+        var jdbcUrl = System.getProperty("load.jdbc-url");
+        try (var postgres = jdbcUrl == null ? EmbeddedPostgres.builder().start() : null) {
+            // Аргументами командной строки, чтобы перекрыть application.properties
+            var application = new SpringApplicationBuilder(CloudDataApplication.class)
+                    .run(applicationProperties(postgres, jdbcUrl).entrySet().stream()
+                            .map(property -> "--" + property.getKey() + "=" + property.getValue())
+                            .toArray(String[]::new));
+            try {
+                var port = ((ServletWebServerApplicationContext) application).getWebServer().getPort();
+                createUsers(application, concurrency);
+                var loadTest = new LoadTest("http://localhost:" + port, sizes, weights, listLimit);
+                var result = loadTest.run(concurrency, warmup, duration);
+                result.put("config", config(application, concurrency, duration, warmup, mix, listLimit));
+                Files.createDirectories(output.toAbsolutePath().getParent());
+                Files.writeString(output, new GsonBuilder().setPrettyPrinting().create().toJson(result));
+                System.out.println("results written to " + output.toAbsolutePath());
+            } finally {
+                application.close();
+            }
+        }
+    }
+
+    private static Map<String, Object> applicationProperties(EmbeddedPostgres postgres, String jdbcUrl) {
+        var properties = new LinkedHashMap<String, Object>();
+        if (postgres != null) {
+            properties.put("spring.datasource.url", postgres.getJdbcUrl("postgres", "postgres"));
+            properties.put("spring.datasource.username", "postgres");
+            properties.put("spring.datasource.password", "");
+        } else {
+            properties.put("spring.datasource.url", jdbcUrl);
+            properties.put("spring.datasource.username", System.getProperty("load.jdbc-user", "postgres"));
+            properties.put("spring.datasource.password", System.getProperty("load.jdbc-password", ""));
+        }
+        properties.put("server.port", 0);
+        properties.put("spring.jpa.show-sql", false);
+        properties.put("logging.level.root", "WARN");
+        // Потоки асинхронной отдачи файлов ещё живы при остановке — предупреждения об этом только мешают отчёту.
+        properties.put("logging.level.org.apache.catalina.loader", "ERROR");
+        return properties;
+    }
+
+    private static void createUsers(ConfigurableApplicationContext application, int count) {
+        var jdbcTemplate = application.getBean(JdbcTemplate.class);
+        for (var i = 0; i < count; i++) {
+            jdbcTemplate.update("insert into users (login, password_hash) values (?, ?) on conflict (login) do nothing",
+                    login(i), PASSWORD);
+        }
+    }
+
+    private static Map<String, Object> config(ConfigurableApplicationContext application, int concurrency, Duration duration,
+                                              Duration warmup, String[] mix, int listLimit) {
+        var environment = application.getEnvironment();
+        var config = new LinkedHashMap<String, Object>();
+        config.put("concurrency", concurrency);
+        config.put("durationSeconds", duration.toSeconds());
+        config.put("warmupSeconds", warmup.toSeconds());
+        config.put("sizes", List.of(mix));
+        config.put("listLimit", listLimit);
+        config.put("storageBackend", environment.getProperty("cloud.storage.backend"));
+        config.put("compression", environment.getProperty("cloud.storage.compression.codec"));
+        config.put("authMode", environment.getProperty("cloud.auth.mode"));
+        config.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+        config.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+        return config;
+    }
+
+    private static String login(int worker) {
+        return "load-user-" + worker;
+    }
+
+    private Map<String, Object> run(int concurrency, Duration warmup, Duration duration) throws InterruptedException {
+        var workers = Executors.newFixedThreadPool(concurrency);
+        for (var i = 0; i < concurrency; i++) {
+            var worker = i;
+            workers.execute(() -> work(worker));
+        }
+        Thread.sleep(warmup.toMillis());
+        // Прогрев не учитывается
+        endpoints.values().forEach(Endpoint::reset);
+        var start = System.nanoTime();
+        Thread.sleep(duration.toMillis());
+        var elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        var results = new LinkedHashMap<String, Object>();
+        endpoints.forEach((name, endpoint) -> results.put(name, endpoint.summary(elapsedSeconds)));
+        running = false;
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.MINUTES);
+
+        System.out.printf("%-10s %10s %8s %10s %10s %10s %10s %10s%n",
+                "endpoint", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        results.forEach((name, value) -> {
+            @SuppressWarnings("unchecked")
+            var summary = (Map<String, Object>) value;
+            System.out.printf("%-10s %10d %8d %10.1f %10.2f %10.2f %10.2f %10.2f%n", name, summary.get("requests"),
+                    summary.get("errors"), summary.get("throughputPerSecond"), summary.get("p50Ms"), summary.get("p99Ms"),
+                    summary.get("p999Ms"), summary.get("maxMs"));
+        });
+        var report = new LinkedHashMap<String, Object>();
+        report.put("startedAt", Instant.now().minusNanos(System.nanoTime() - start).toString());
+        report.put("elapsedSeconds", elapsedSeconds);
+        report.put("endpoints", results);
+        return report;
+    }
+
+    // Один пользователь: каждый круг создаёт новый файл и удаляет его, поэтому объём данных не растёт.
+    private void work(int worker) {
+        while (running) {
+            try {
+                var authToken = loginUser(worker);
+                if (authToken == null) {
+                    continue;
+                }
+                var name = "load-" + worker + "-" + fileCounter.incrementAndGet();
+                if (!upload(authToken, name, nextSize())) {
+                    continue;
+                }
+                call("list", authorized(authToken, "/list?limit=" + listLimit).GET().build());
+                call("download", authorized(authToken, "/file?filename=" + name).GET().build());
+                var renameRequest = new PutFileRequest();
+                renameRequest.setName(name + "-renamed");
+                var renamed = call("rename", authorized(authToken, "/file?filename=" + name)
+                        .header("Content-Type", "application/json")
+                        .PUT(HttpRequest.BodyPublishers.ofString(GSON.toJson(renameRequest)))
+                        .build()) != null;
+                call("delete", authorized(authToken, "/file?filename=" + (renamed ? name + "-renamed" : name)).DELETE().build());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private String loginUser(int worker) throws InterruptedException {
+        var loginRequest = new PostLoginRequest();
+        loginRequest.setLogin(login(worker));
+        loginRequest.setPassword(PASSWORD);
+        var response = call("login", HttpRequest.newBuilder(URI.create(url + "/login"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(GSON.toJson(loginRequest)))
+                .build());
+        if (response == null) {
+            return null;
+        }
+        return "Bearer " + GSON.fromJson(response, JsonObject.class).get("auth-token").getAsString();
+    }
+
+    private boolean upload(String authToken, String name, long size) throws InterruptedException {
+        var boundary = "load" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+        var head = ("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"hash\"\r\n\r\n" + sha256(name, size) + "\r\n"
+                + "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + name + "\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+        var tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+        var request = authorized(authToken, "/file?filename=" + name)
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofByteArrays(() -> body(head, name, size, tail)))
+                .build();
+        return call("upload", request) != null;
+    }
+
+    // SHA-256 того же содержимого, что отдаёт body: считается до отправки и в задержку загрузки не входит.
+    private static String sha256(String name, long size) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        var content = body(new byte[0], name, size, new byte[0]);
+        while (content.hasNext()) {
+            digest.update(content.next());
+        }
+        var sb = new StringBuilder();
+        for (var b : digest.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private long nextSize() {
+        var total = Arrays.stream(weights).sum();
+        var point = ThreadLocalRandom.current().nextInt(total);
+        for (var i = 0; i < sizes.length; i++) {
+            point -= weights[i];
+            if (point < 0) {
+                return sizes[i];
+            }
+        }
+        return sizes[sizes.length - 1];
+    }
+
+    private HttpRequest.Builder authorized(String authToken, String path) {
+        return HttpRequest.newBuilder(URI.create(url + path)).header("auth-token", authToken);
+    }
+
+    // Возвращает тело ответа или null, если запрос не удался; ошибки считаются отдельно от задержек.
+    private String call(String endpoint, HttpRequest request) throws InterruptedException {
+        var statistics = endpoints.get(endpoint);
+        var start = System.nanoTime();
+        try {
+            if (endpoint.equals("download")) {
+                var discarded = client.send(request, HttpResponse.BodyHandlers.discarding());
+                statistics.record(System.nanoTime() - start, discarded.statusCode());
+                return discarded.statusCode() == 200 ? "" : null;
+            }
+            var response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            statistics.record(System.nanoTime() - start, response.statusCode());
+            return response.statusCode() == 200 ? response.body() : null;
+        } catch (IOException e) {
+            statistics.record(System.nanoTime() - start, -1);
+            return null;
+        }
+    }
+
+    // Тело multipart-запроса генерируется кусками, чтобы не держать файл в памяти
+    private static Iterator<byte[]> body(byte[] head, String name, long size, byte[] tail) {
+        var prefix = name.getBytes(StandardCharsets.UTF_8);
+        var offset = Math.floorMod(name.hashCode(), RANDOM_POOL.length);
+        return new Iterator<>() {
+            private long written = -1;
+
+            @Override
+            public boolean hasNext() {
+                return written <= size;
+            }
+
+            @Override
+            public byte[] next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (written < 0) {
+                    written = 0;
+                    return head;
+                }
+                if (written == size) {
+                    written++;
+                    return tail;
+                }
+                var chunk = new byte[(int) Math.min(CHUNK_SIZE, size - written)];
+                for (var i = 0; i < chunk.length; i++) {
+                    chunk[i] = RANDOM_POOL[(int) ((offset + written + i) % RANDOM_POOL.length)];
+                }
+                if (written == 0) {
+                    System.arraycopy(prefix, 0, chunk, 0, Math.min(prefix.length, chunk.length));
+                }
+                written += chunk.length;
+                return chunk;
+            }
+        };
+    }
+
+    private static class Endpoint {
+        // Задержки в микросекундах, до часа
+        private volatile ConcurrentHistogram latencies = newHistogram();
+        private final AtomicLong errors = new AtomicLong();
+
+        private void record(long nanos, int status) {
+            if (status < 200 || status >= 300) {
+                errors.incrementAndGet();
+                return;
+            }
+            latencies.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(nanos), latencies.getHighestTrackableValue()));
+        }
+
+        private void reset() {
+            latencies = newHistogram();
+            errors.set(0);
+        }
+
+        private Map<String, Object> summary(double elapsedSeconds) {
+            var histogram = latencies.copy();
+            var summary = new LinkedHashMap<String, Object>();
+            summary.put("requests", histogram.getTotalCount());
+            summary.put("errors", errors.get());
+            summary.put("throughputPerSecond", histogram.getTotalCount() / elapsedSeconds);
+            summary.put("meanMs", histogram.getMean() / 1000);
+            summary.put("p50Ms", histogram.getValueAtPercentile(50) / 1000.0);
+            summary.put("p99Ms", histogram.getValueAtPercentile(99) / 1000.0);
+            summary.put("p999Ms", histogram.getValueAtPercentile(99.9) / 1000.0);
+            summary.put("maxMs", histogram.getMaxValue() / 1000.0);
+            return summary;
+        }
+
+        private static ConcurrentHistogram newHistogram() {
+            return new ConcurrentHistogram(TimeUnit.HOURS.toMicros(1), 3);
+        }
+    }
+}
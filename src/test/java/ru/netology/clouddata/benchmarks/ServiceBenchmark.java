@@ -0,0 +1,223 @@
+package ru.netology.clouddata.benchmarks;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.unit.DataSize;
+import ru.netology.auth.AuthTokenCache;
+import ru.netology.auth.DatabaseTokenAuthenticator;
+import ru.netology.dto.GetListResponse;
+import ru.netology.dto.PostLoginResponse;
+import ru.netology.entities.User;
+import ru.netology.service.ChangeFeed;
+import ru.netology.service.FileListCache;
+import ru.netology.service.FileService;
+import ru.netology.service.InstantUploadChallenges;
+import ru.netology.service.StorageQuota;
+import ru.netology.service.TransferMetrics;
+import ru.netology.service.UserService;
+
+import javax.security.auth.login.LoginException;
+import javax.security.auth.message.AuthException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Горячие пути FileService и UserService без базы: репозитории и хранилище в памяти
+// (InMemoryRepositories, InMemoryStorageBackend), поэтому замер показывает стоимость самого сервиса.
+// Аллокации на операцию — профайлер gc (gc.alloc.rate.norm).
+// Запуск: mvn -Pbenchmarks test, другие параметры JMH — через -Djmh.args="ServiceBenchmark.getList -p listLength=1000 -prof gc"
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceBenchmark {
+
+    private static final String LOGIN = "user";
+    private static final String PASSWORD = "password";
+
+    @State(Scope.Thread)
+    public static class UploadState {
+        @Param({"1024", "1048576", "16777216"})
+        public int fileSize;
+
+        private MockMultipartFile file;
+        private String hash;
+        private Fixture fixture;
+        private long counter;
+
+        @Setup(Level.Trial)
+        public void createFile() {
+            var content = new byte[fileSize];
+            file = new MockMultipartFile("file", "file", MediaType.APPLICATION_OCTET_STREAM_VALUE, content);
+            hash = sha256(content);
+        }
+
+        // Загруженные файлы копятся в репозитории, поэтому он пересоздаётся на каждой итерации.
+        @Setup(Level.Iteration)
+        public void setUp() throws LoginException {
+            fixture = new Fixture();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class DownloadState {
+        @Param({"1024", "1048576", "16777216"})
+        public int fileSize;
+
+        private Fixture fixture;
+
+        @Setup
+        public void setUp() throws Exception {
+            fixture = new Fixture();
+            fixture.upload("file", fileSize);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ListState {
+        @Param({"10", "1000", "10000"})
+        public int listLength;
+
+        // false — каждый вызов идёт в репозиторий, как без FileListCache
+        @Param({"true", "false"})
+        public boolean listCache;
+
+        private Fixture fixture;
+
+        @Setup
+        public void setUp() throws Exception {
+            fixture = new Fixture(listCache);
+            for (var i = 0; i < listLength; i++) {
+                fixture.upload("file-" + i, 1);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class RenameState {
+        private Fixture fixture;
+        private boolean renamed;
+
+        @Setup
+        public void setUp() throws Exception {
+            fixture = new Fixture();
+            fixture.upload("file", 1);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class AuthState {
+        private Fixture fixture;
+
+        @Setup
+        public void setUp() throws LoginException {
+            fixture = new Fixture();
+        }
+    }
+
+    @Benchmark
+    public void uploadFile(UploadState state) throws IOException, AuthException {
+        state.fixture.fileService.uploadFile(state.fixture.authToken, state.hash, state.file, "file-" + state.counter++);
+    }
+
+    @Benchmark
+    public void getFile(DownloadState state, Blackhole blackhole) throws IOException, AuthException {
+        var response = state.fixture.fileService.getFile(state.fixture.authToken, "file", new HttpHeaders());
+        response.getBody().writeTo(new BlackholeOutputStream(blackhole));
+    }
+
+    @Benchmark
+    public ResponseEntity<GetListResponse> getList(ListState state) throws AuthException {
+        return state.fixture.fileService.getList(state.fixture.authToken, state.listLength, null, null, null, new HttpHeaders());
+    }
+
+    @Benchmark
+    public void renameFile(RenameState state) throws AuthException {
+        var from = state.renamed ? "renamed" : "file";
+        var to = state.renamed ? "file" : "renamed";
+        state.fixture.fileService.renameFile(state.fixture.authToken, from, to);
+        state.renamed = !state.renamed;
+    }
+
+    @Benchmark
+    public PostLoginResponse login(AuthState state) throws LoginException {
+        return state.fixture.userService.login(LOGIN, PASSWORD);
+    }
+
+    @Benchmark
+    public User checkUserExistence(AuthState state) throws AuthException {
+        return state.fixture.fileService.checkUserExistence(state.fixture.authToken);
+    }
+
+    private static class Fixture {
+        private final FileService fileService;
+        private final UserService userService;
+        private final String authToken;
+
+        private Fixture() throws LoginException {
+            this(true);
+        }
+
+        private Fixture(boolean listCache) throws LoginException {
+            var user = new User();
+            user.setId(1);
+            user.setLogin(LOGIN);
+            user.setPasswordHash(PASSWORD);
+            var userRepository = InMemoryRepositories.userRepository(List.of(user));
+            var tokenAuthenticator = new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 10_000));
+            fileService = new FileService(InMemoryRepositories.fileRepository(), new InMemoryStorageBackend(), tokenAuthenticator, new TransferMetrics(new SimpleMeterRegistry()),
+                    new FileListCache(listCache ? Duration.ofMinutes(1) : Duration.ZERO, 10_000),
+                    new ChangeFeed(InMemoryRepositories.fileChangeRepository(), userRepository, Duration.ofDays(30), Duration.ofMinutes(30), new SyncTaskExecutor()),
+                    new StorageQuota(userRepository, DataSize.ofGigabytes(10)), new InstantUploadChallenges(Duration.ofMinutes(5), 10_000));
+            userService = new UserService(userRepository, tokenAuthenticator);
+            authToken = "Bearer " + userService.login(LOGIN, PASSWORD).getAuthToken();
+        }
+
+        private void upload(String filename, int size) throws IOException, AuthException {
+            var content = new byte[size];
+            var file = new MockMultipartFile("file", filename, MediaType.APPLICATION_OCTET_STREAM_VALUE, content);
+            fileService.uploadFile(authToken, sha256(content), file, filename);
+        }
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            var sb = new StringBuilder();
+            for (var b : MessageDigest.getInstance("SHA-256").digest(content)) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class BlackholeOutputStream extends OutputStream {
+        private final Blackhole blackhole;
+
+        private BlackholeOutputStream(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(int b) {
+            blackhole.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            blackhole.consume(b);
+        }
+    }
+}
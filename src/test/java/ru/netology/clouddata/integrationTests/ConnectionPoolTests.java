@@ -0,0 +1,200 @@
+package ru.netology.clouddata.integrationTests;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.netology.CloudDataApplication;
+import ru.netology.dto.PostLoginRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Приложение целиком со встроенным PostgreSQL (io.zonky.test) и маленьким пулом соединений:
+// медленных передач или потоков /changes/stream открывается больше, чем соединений в пуле,
+// а /list и /login должны отвечать.
+public class ConnectionPoolTests {
+    private static final Gson GSON = new Gson();
+    private static final String LOGIN = "pool-user";
+    private static final String PASSWORD = "pool-password";
+    private static final int POOL_SIZE = 6;
+    private static final int SLOW_CLIENTS = POOL_SIZE * 2;
+
+    private static EmbeddedPostgres postgres;
+    private static ConfigurableApplicationContext application;
+    private static String url;
+
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+    @BeforeAll
+    static void start() throws IOException {
+        postgres = EmbeddedPostgres.builder().start();
+        application = new SpringApplicationBuilder(CloudDataApplication.class).run(
+                "--spring.datasource.url=" + postgres.getJdbcUrl("postgres", "postgres"),
+                "--spring.datasource.username=postgres",
+                "--spring.datasource.password=",
+                "--spring.datasource.hikari.maximum-pool-size=" + POOL_SIZE,
+                // Не дождавшийся соединения запрос быстро получит 500, а не повиснет на 30 секунд.
+                "--spring.datasource.hikari.connection-timeout=2000",
+                "--cloud.transfer.threads=4",
+                "--cloud.transfer.queue-capacity=4",
+                "--cloud.transfer.reserved-connections=2",
+                "--cloud.admission.max-transfers-per-user=" + SLOW_CLIENTS,
+                // Содержимое на диске: отдача не ходит в БД, и занятое запросом соединение не освободится,
+                // пока клиент не дочитает ответ.
+                "--cloud.storage.backend=filesystem",
+                "--cloud.storage.root=" + Files.createTempDirectory("storage"),
+                "--cloud.storage.cache.capacity=0",
+                "--cloud.upload.session-dir=" + Files.createTempDirectory("upload-sessions"),
+                "--server.port=0",
+                "--spring.jpa.show-sql=false",
+                "--logging.level.root=WARN");
+        url = "http://localhost:" + ((ServletWebServerApplicationContext) application).getWebServer().getPort();
+        application.getBean(JdbcTemplate.class).update("insert into users (login, password_hash) values (?, ?)", LOGIN, PASSWORD);
+    }
+
+    @AfterAll
+    static void stop() throws IOException {
+        application.close();
+        postgres.close();
+    }
+
+    @Test
+    public void list_slowDownloadsExceedPool_metadataAnswers_Test() throws Exception {
+        var authToken = login();
+        var content = new byte[8 * 1024 * 1024];
+        new Random(1).nextBytes(content);
+        assertEquals(200, upload(authToken, "slow.bin", content));
+
+        var slowClients = new ArrayList<Socket>();
+        try {
+            for (var i = 0; i < SLOW_CLIENTS; i++) {
+                slowClients.add(slowDownload(authToken, "slow.bin"));
+            }
+            Thread.sleep(3000);
+
+            var list = client.send(authorized(authToken, "/list?limit=10").GET().build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, list.statusCode());
+            login();
+        } finally {
+            for (var socket : slowClients) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void list_changeStreamsExceedPool_metadataAnswers_Test() throws Exception {
+        var authToken = login();
+        assertEquals(200, upload(authToken, "watched.txt", "watched".getBytes(StandardCharsets.UTF_8)));
+
+        var streams = new ArrayList<Socket>();
+        try {
+            for (var i = 0; i < SLOW_CLIENTS; i++) {
+                streams.add(openSocket("GET /changes/stream HTTP/1.1\r\n"
+                        + "Host: localhost\r\n"
+                        + "auth-token: " + authToken + "\r\n\r\n"));
+            }
+            Thread.sleep(3000);
+
+            // Изменение рассылается во все потоки, каждая отправка читает ленту из БД.
+            var rename = client.send(authorized(authToken, "/file?filename=watched.txt")
+                    .header("Content-Type", "application/json")
+                    .PUT(HttpRequest.BodyPublishers.ofString("{\"name\":\"watched-renamed.txt\"}"))
+                    .build(), HttpResponse.BodyHandlers.discarding());
+            assertEquals(200, rename.statusCode());
+            var list = client.send(authorized(authToken, "/list?limit=10").GET().build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, list.statusCode());
+            login();
+        } finally {
+            for (var socket : streams) {
+                socket.close();
+            }
+        }
+    }
+
+    private String login() throws IOException, InterruptedException {
+        var loginRequest = new PostLoginRequest();
+        loginRequest.setLogin(LOGIN);
+        loginRequest.setPassword(PASSWORD);
+        var response = client.send(HttpRequest.newBuilder(URI.create(url + "/login"))
+                .timeout(Duration.ofSeconds(10))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(GSON.toJson(loginRequest)))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        return "Bearer " + GSON.fromJson(response.body(), JsonObject.class).get("auth-token").getAsString();
+    }
+
+    private int upload(String authToken, String filename, byte[] content) throws IOException, InterruptedException {
+        var boundary = "pool-test-boundary";
+        var body = new ByteArrayOutputStream();
+        body.writeBytes(("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"hash\"\r\n\r\n" + sha256(content) + "\r\n"
+                + "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + filename + "\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        body.writeBytes(content);
+        body.writeBytes(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        var request = authorized(authToken, "/file?filename=" + filename)
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    // Клиент отправляет запрос и не читает ответ: отдача упирается в буферы сокета и стоит.
+    private Socket slowDownload(String authToken, String filename) throws IOException {
+        return openSocket("GET /file?filename=" + filename + " HTTP/1.1\r\n"
+                + "Host: localhost\r\n"
+                + "auth-token: " + authToken + "\r\n\r\n");
+    }
+
+    private Socket openSocket(String request) throws IOException {
+        var socket = new Socket();
+        socket.setReceiveBufferSize(4096);
+        socket.connect(new InetSocketAddress("localhost", URI.create(url).getPort()));
+        socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+        socket.getOutputStream().flush();
+        return socket;
+    }
+
+    private HttpRequest.Builder authorized(String authToken, String path) {
+        return HttpRequest.newBuilder(URI.create(url + path))
+                .timeout(Duration.ofSeconds(10))
+                .header("auth-token", authToken);
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            var sb = new StringBuilder();
+            for (var b : MessageDigest.getInstance("SHA-256").digest(content)) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
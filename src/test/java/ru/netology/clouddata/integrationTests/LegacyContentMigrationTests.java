@@ -0,0 +1,162 @@
+package ru.netology.clouddata.integrationTests;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.netology.CloudDataApplication;
+import ru.netology.dto.PostLoginRequest;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// База в схеме до появления StorageBackend: содержимое в files.content, storage_ref нет.
+// После старта приложения такие файлы скачиваются, а их размер виден в /list и /usage.
+// Файлы, записанные в хранилище до появления blobs, получают записи blobs с настоящим SHA-256 содержимого.
+public class LegacyContentMigrationTests {
+    private static final Gson GSON = new Gson();
+    private static final String LOGIN = "legacy-user";
+    private static final String PASSWORD = "legacy-password";
+    private static final byte[] TEXT = "legacy text file\n".repeat(10_000).getBytes(StandardCharsets.UTF_8);
+    private static final byte[] BINARY = new byte[300_000];
+    private static final byte[] STORED = "stored before deduplication\n".repeat(1_000).getBytes(StandardCharsets.UTF_8);
+
+    private static EmbeddedPostgres postgres;
+    private static ConfigurableApplicationContext application;
+    private static String url;
+
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+    @BeforeAll
+    static void start() throws IOException, SQLException {
+        new Random(2).nextBytes(BINARY);
+        postgres = EmbeddedPostgres.builder().start();
+        var legacy = new JdbcTemplate(postgres.getPostgresDatabase());
+        legacy.execute("create table users (id serial primary key, login varchar(255) unique, password_hash varchar(255), "
+                + "auth_token varchar(255) unique)");
+        legacy.execute("create table files (id uuid primary key, name varchar(255), hash varchar(255), content bytea, "
+                + "storage_ref varchar(255), size int8 not null default 0, user_id int not null references users (id))");
+        legacy.execute("create table file_contents (id varchar(255) primary key, content bytea)");
+        legacy.update("insert into users (login, password_hash) values (?, ?)", LOGIN, PASSWORD);
+        legacy.update("insert into files (id, name, hash, content, user_id) values (?, 'legacy.txt', 'text-hash', ?, 1)",
+                UUID.randomUUID(), TEXT);
+        legacy.update("insert into files (id, name, hash, content, user_id) values (?, 'legacy.bin', 'binary-hash', ?, 1)",
+                UUID.randomUUID(), BINARY);
+        // Одинаковое содержимое, записанное DatabaseStorageBackend дважды под разными ссылками
+        for (var name : new String[]{"stored-1.txt", "stored-2.txt"}) {
+            var reference = UUID.randomUUID().toString();
+            legacy.update("insert into file_contents (id, content) values (?, ?)", reference, STORED);
+            legacy.update("insert into files (id, name, hash, storage_ref, size, user_id) values (?, ?, 'client-hash', ?, ?, 1)",
+                    UUID.randomUUID(), name, reference, STORED.length);
+        }
+
+        application = new SpringApplicationBuilder(CloudDataApplication.class).run(
+                "--spring.datasource.url=" + postgres.getJdbcUrl("postgres", "postgres"),
+                "--spring.datasource.username=postgres",
+                "--spring.datasource.password=",
+                "--spring.datasource.hikari.maximum-pool-size=8",
+                "--cloud.transfer.threads=4",
+                "--cloud.transfer.reserved-connections=2",
+                "--cloud.upload.session-dir=" + Files.createTempDirectory("upload-sessions"),
+                "--server.port=0",
+                "--spring.jpa.show-sql=false",
+                "--logging.level.root=WARN");
+        url = "http://localhost:" + ((ServletWebServerApplicationContext) application).getWebServer().getPort();
+    }
+
+    @AfterAll
+    static void stop() throws IOException {
+        application.close();
+        postgres.close();
+    }
+
+    @Test
+    public void getFile_legacyContent_downloadsOriginalBytes_Test() throws Exception {
+        var authToken = login();
+
+        assertArrayEquals(TEXT, download(authToken, "legacy.txt"));
+        assertArrayEquals(BINARY, download(authToken, "legacy.bin"));
+        var usage = client.send(authorized(authToken, "/usage").GET().build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(TEXT.length + BINARY.length + 2L * STORED.length, GSON.fromJson(usage.body(), JsonObject.class).get("used").getAsLong());
+        var legacyContent = application.getBean(JdbcTemplate.class)
+                .queryForObject("select count(*) from files where content is not null or storage_ref is null", Long.class);
+        assertEquals(0, legacyContent);
+    }
+
+    @Test
+    public void postInstantUpload_contentStoredBeforeDeduplication_reusesSingleCopy_Test() throws Exception {
+        var authToken = login();
+        var hash = String.format("%064x", new BigInteger(1, MessageDigest.getInstance("SHA-256").digest(STORED)));
+        var jdbcTemplate = application.getBean(JdbcTemplate.class);
+
+        assertEquals(2, jdbcTemplate.queryForObject("select ref_count from blobs where hash = ?", Long.class, hash));
+        // Вторая копия удалена, оба файла ссылаются на оставшуюся
+        assertEquals(1, jdbcTemplate.queryForObject("select count(distinct storage_ref) from files where name like 'stored-%'", Long.class));
+        assertEquals(1, jdbcTemplate.queryForObject("select count(*) from file_contents where content = ?", Long.class, (Object) STORED));
+        var request = new JsonObject();
+        request.addProperty("hash", hash);
+        request.addProperty("sha256", hash);
+        request.addProperty("size", STORED.length);
+        var response = client.send(authorized(authToken, "/file/instant?filename=stored-3.txt")
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(GSON.toJson(request)))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        assertArrayEquals(STORED, download(authToken, "stored-3.txt"));
+        assertArrayEquals(STORED, download(authToken, "stored-1.txt"));
+        var deleted = client.send(authorized(authToken, "/file?filename=stored-3.txt").DELETE().build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, deleted.statusCode());
+        assertEquals(2, jdbcTemplate.queryForObject("select ref_count from blobs where hash = ?", Long.class, hash));
+    }
+
+    // Тело ответа — multipart/form-data: содержимое файла в части "file" между заголовками части и границей.
+    private byte[] download(String authToken, String filename) throws IOException, InterruptedException {
+        var response = client.send(authorized(authToken, "/file?filename=" + filename).GET().build(), HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(200, response.statusCode());
+        var boundary = response.headers().firstValue("Content-Type").orElseThrow().split("boundary=")[1];
+        var body = response.body();
+        var text = new String(body, StandardCharsets.ISO_8859_1);
+        var fileStart = text.indexOf("\r\n\r\n", text.indexOf("name=\"file\"")) + 4;
+        var fileEnd = text.lastIndexOf("\r\n--" + boundary + "--");
+        return Arrays.copyOfRange(body, fileStart, fileEnd);
+    }
+
+    private String login() throws IOException, InterruptedException {
+        var loginRequest = new PostLoginRequest();
+        loginRequest.setLogin(LOGIN);
+        loginRequest.setPassword(PASSWORD);
+        var response = client.send(HttpRequest.newBuilder(URI.create(url + "/login"))
+                .timeout(Duration.ofSeconds(10))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(GSON.toJson(loginRequest)))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        return "Bearer " + GSON.fromJson(response.body(), JsonObject.class).get("auth-token").getAsString();
+    }
+
+    private HttpRequest.Builder authorized(String authToken, String path) {
+        return HttpRequest.newBuilder(URI.create(url + path))
+                .timeout(Duration.ofSeconds(10))
+                .header("auth-token", authToken);
+    }
+}
@@ -0,0 +1,112 @@
+package ru.netology.clouddata.unitTests;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import ru.netology.entities.User;
+import ru.netology.auth.AuthTokenCache;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AuthTokenCacheTests {
+    @Test
+    public void get_repeatedToken_loadsOnce_Test() {
+        var cache = new AuthTokenCache(Duration.ofMinutes(5), 100);
+        var user = new User();
+        var loads = new AtomicInteger();
+
+        for (var i = 0; i < 3; i++) {
+            assertSame(user, cache.get("token", token -> {
+                loads.incrementAndGet();
+                return Optional.of(user);
+            }).orElseThrow());
+        }
+
+        assertEquals(1, loads.get());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void get_unknownToken_notCached_Test() {
+        var cache = new AuthTokenCache(Duration.ofMinutes(5), 100);
+        var loads = new AtomicInteger();
+
+        cache.get("token", token -> {
+            loads.incrementAndGet();
+            return Optional.empty();
+        });
+        cache.get("token", token -> {
+            loads.incrementAndGet();
+            return Optional.empty();
+        });
+
+        assertEquals(2, loads.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void get_expiredEntry_loadsAgain_Test() {
+        var cache = new AuthTokenCache(Duration.ofNanos(1), 100);
+        var loads = new AtomicInteger();
+
+        cache.get("token", token -> {
+            loads.incrementAndGet();
+            return Optional.of(new User());
+        });
+        cache.get("token", token -> {
+            loads.incrementAndGet();
+            return Optional.of(new User());
+        });
+
+        assertEquals(2, loads.get());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void get_overMaxSize_evictsLeastRecentlyUsed_Test() {
+        var cache = new AuthTokenCache(Duration.ofMinutes(5), 2);
+        var loads = new AtomicInteger();
+
+        for (var token : new String[]{"a", "b", "a", "c", "a", "b"}) {
+            cache.get(token, value -> {
+                loads.incrementAndGet();
+                return Optional.of(new User());
+            });
+        }
+
+        // "b" вытеснен при добавлении "c", "a" оставался недавно использованным
+        assertEquals(4, loads.get());
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.getEvictionCount());
+    }
+
+    @Test
+    public void invalidate_duringLoad_loadedUserNotCached_Test() {
+        var cache = new AuthTokenCache(Duration.ofMinutes(5), 100);
+
+        cache.get("token", token -> {
+            cache.invalidate(token);
+            return Optional.of(new User());
+        });
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void bindTo_registersCacheMeters_Test() {
+        var cache = new AuthTokenCache(Duration.ofMinutes(5), 100);
+        var registry = new SimpleMeterRegistry();
+        cache.bindTo(registry);
+
+        cache.get("token", token -> Optional.of(new User()));
+        cache.get("token", token -> Optional.of(new User()));
+
+        assertEquals(1.0, registry.get("cache.gets").tags("cache", "auth-tokens", "result", "hit").functionCounter().count());
+        assertEquals(1.0, registry.get("cache.gets").tags("cache", "auth-tokens", "result", "miss").functionCounter().count());
+        assertEquals(1.0, registry.get("cache.size").tags("cache", "auth-tokens").gauge().value());
+    }
+}
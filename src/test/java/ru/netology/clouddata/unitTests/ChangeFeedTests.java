@@ -0,0 +1,183 @@
+package ru.netology.clouddata.unitTests;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageRequest;
+import ru.netology.entities.FileChange;
+import ru.netology.entities.User;
+import ru.netology.repositories.FileChangeRepository;
+import ru.netology.repositories.UserRepository;
+import ru.netology.service.ChangeFeed;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.never;
+
+public class ChangeFeedTests {
+    @Test
+    public void record_change_savedWithNextSequence_Test() {
+        var user = new User();
+        user.setId(7);
+        var fileChangeRepository = Mockito.mock(FileChangeRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var changeFeed = new ChangeFeed(fileChangeRepository, userRepository, Duration.ofDays(30), Duration.ofMinutes(30), new SyncTaskExecutor());
+
+        Mockito.when(userRepository.nextChangeSequence(7)).thenReturn(42L);
+
+        changeFeed.record(user, FileChange.Type.RENAME, "old", "new", null);
+
+        var change = ArgumentCaptor.forClass(FileChange.class);
+        Mockito.verify(fileChangeRepository, Mockito.times(1)).save(change.capture());
+        assertSame(user, change.getValue().getUser());
+        assertEquals(42L, change.getValue().getSequence());
+        assertEquals(FileChange.Type.RENAME, change.getValue().getType());
+        assertEquals("old", change.getValue().getName());
+        assertEquals("new", change.getValue().getNewName());
+        assertNotNull(change.getValue().getChangedAt());
+    }
+
+    @Test
+    public void recordAll_changes_insertedWithConsecutiveSequences_Test() {
+        var user = new User();
+        user.setId(7);
+        var fileChangeRepository = Mockito.mock(FileChangeRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var changeFeed = new ChangeFeed(fileChangeRepository, userRepository, Duration.ofDays(30), Duration.ofMinutes(30), new SyncTaskExecutor());
+        var changes = List.of(change(0, FileChange.Type.DELETE, "a", null, null), change(0, FileChange.Type.DELETE, "b", null, null),
+                change(0, FileChange.Type.DELETE, "c", null, null));
+
+        Mockito.when(userRepository.nextChangeSequences(7, 3)).thenReturn(12L);
+
+        changeFeed.recordAll(user, changes);
+
+        Mockito.verify(fileChangeRepository, Mockito.times(1)).insertAll(changes);
+        Mockito.verify(userRepository, never()).nextChangeSequence(Mockito.anyInt());
+        assertEquals(10L, changes.get(0).getSequence());
+        assertEquals(12L, changes.get(2).getSequence());
+        assertSame(user, changes.get(1).getUser());
+        assertNotNull(changes.get(1).getChangedAt());
+    }
+
+    @Test
+    public void changesSince_upToDate_returnsNoChangesWithoutReadingLog_Test() {
+        var user = new User();
+        user.setId(7);
+        var fileChangeRepository = Mockito.mock(FileChangeRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var changeFeed = new ChangeFeed(fileChangeRepository, userRepository, Duration.ofDays(30), Duration.ofMinutes(30), new SyncTaskExecutor());
+
+        Mockito.when(userRepository.findChangeSequence(7)).thenReturn(5L);
+
+        var actual = changeFeed.changesSince(user, 5, 100);
+
+        assertTrue(actual.getChanges().isEmpty());
+        assertEquals(5L, actual.getSequence());
+        assertFalse(actual.isReset());
+        Mockito.verifyNoInteractions(fileChangeRepository);
+    }
+
+    @Test
+    public void changesSince_newerChanges_returnsThemInOrder_Test() {
+        var user = new User();
+        user.setId(7);
+        var fileChangeRepository = Mockito.mock(FileChangeRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var changeFeed = new ChangeFeed(fileChangeRepository, userRepository, Duration.ofDays(30), Duration.ofMinutes(30), new SyncTaskExecutor());
+
+        Mockito.when(userRepository.findChangeSequence(7)).thenReturn(8L);
+        Mockito.when(fileChangeRepository.findByUserAndSequenceGreaterThanOrderBySequence(user, 5, PageRequest.of(0, 2)))
+                .thenReturn(List.of(change(6, FileChange.Type.UPLOAD, "a", null, 10L), change(7, FileChange.Type.RENAME, "a", "b", null)));
+
+        var actual = changeFeed.changesSince(user, 5, 2);
+
+        assertFalse(actual.isReset());
+        assertEquals(7L, actual.getSequence());
+        assertEquals(2, actual.getChanges().size());
+        assertEquals("upload", actual.getChanges().get(0).getType());
+        assertEquals(10L, actual.getChanges().get(0).getSize());
+        assertEquals("rename", actual.getChanges().get(1).getType());
+        assertEquals("a", actual.getChanges().get(1).getFilename());
+        assertEquals("b", actual.getChanges().get(1).getName());
+    }
+
+    @Test
+    public void changesSince_expiredChanges_returnsReset_Test() {
+        var user = new User();
+        user.setId(7);
+        var fileChangeRepository = Mockito.mock(FileChangeRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var changeFeed = new ChangeFeed(fileChangeRepository, userRepository, Duration.ofDays(30), Duration.ofMinutes(30), new SyncTaskExecutor());
+
+        Mockito.when(userRepository.findChangeSequence(7)).thenReturn(10L);
+        Mockito.when(fileChangeRepository.findByUserAndSequenceGreaterThanOrderBySequence(user, 2, PageRequest.of(0, 100)))
+                .thenReturn(List.of(change(9, FileChange.Type.DELETE, "a", null, null)));
+
+        var actual = changeFeed.changesSince(user, 2, 100);
+
+        assertTrue(actual.isReset());
+        assertTrue(actual.getChanges().isEmpty());
+        assertEquals(10L, actual.getSequence());
+    }
+
+    @Test
+    public void changesSince_sinceAheadOfLog_returnsReset_Test() {
+        var user = new User();
+        user.setId(7);
+        var fileChangeRepository = Mockito.mock(FileChangeRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var changeFeed = new ChangeFeed(fileChangeRepository, userRepository, Duration.ofDays(30), Duration.ofMinutes(30), new SyncTaskExecutor());
+
+        Mockito.when(userRepository.findChangeSequence(7)).thenReturn(3L);
+
+        var actual = changeFeed.changesSince(user, 20, 100);
+
+        assertTrue(actual.isReset());
+        assertEquals(3L, actual.getSequence());
+        Mockito.verify(fileChangeRepository, never()).findByUserAndSequenceGreaterThanOrderBySequence(Mockito.any(), Mockito.anyLong(), Mockito.any());
+    }
+
+    // Очередь отправок заполнена: подписка не падает, а изменения уходят при следующей проверке потоков.
+    @Test
+    public void subscribe_sendersQueueFull_sentOnNextRefresh_Test() {
+        var user = new User();
+        user.setId(7);
+        var fileChangeRepository = Mockito.mock(FileChangeRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var full = new AtomicBoolean(true);
+        TaskExecutor senders = task -> {
+            if (full.get()) {
+                throw new TaskRejectedException("queue is full");
+            }
+            task.run();
+        };
+        var changeFeed = new ChangeFeed(fileChangeRepository, userRepository, Duration.ofDays(30), Duration.ofMinutes(30), senders);
+
+        Mockito.when(userRepository.findChangeSequence(7)).thenReturn(5L);
+
+        assertDoesNotThrow(() -> changeFeed.subscribe(user, 5L));
+        assertEquals(1, changeFeed.streamCount());
+        Mockito.verify(userRepository, never()).findChangeSequence(7);
+
+        full.set(false);
+        changeFeed.refreshStreams();
+
+        Mockito.verify(userRepository, Mockito.times(1)).findChangeSequence(7);
+    }
+
+    private static FileChange change(long sequence, FileChange.Type type, String name, String newName, Long size) {
+        var change = new FileChange();
+        change.setSequence(sequence);
+        change.setType(type);
+        change.setName(name);
+        change.setNewName(newName);
+        change.setSize(size);
+        return change;
+    }
+}
@@ -1,30 +1,48 @@
 package ru.netology.clouddata.unitTests;
 
 import com.google.gson.Gson;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.util.unit.DataSize;
 import org.springframework.validation.FieldError;
 import org.springframework.web.bind.MethodArgumentNotValidException;
-import org.springframework.web.multipart.MultipartFile;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.mock.web.MockMultipartHttpServletRequest;
+import org.springframework.web.multipart.support.MissingServletRequestPartException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.netology.controller.Controller;
+import ru.netology.controller.UploadSessionController;
 import ru.netology.controller.exception.ExceptionHandlerAdvice;
 import ru.netology.dto.*;
+import ru.netology.entities.User;
 import ru.netology.service.FileService;
+import ru.netology.service.TransferAdmission;
+import ru.netology.service.TransferRejectedException;
+import ru.netology.service.UploadSessionService;
 import ru.netology.service.UserService;
 
 import javax.security.auth.login.LoginException;
 import javax.security.auth.message.AuthException;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class ControllerTests {
     @Test
@@ -35,7 +53,7 @@ public class ControllerTests {
         postLoginRequest.setLogin("existingUser");
         postLoginRequest.setPassword("password");
         var userService = Mockito.mock(UserService.class);
-        var controller = new Controller(userService, null);
+        var controller = new Controller(userService, null, null);
 
         Mockito.when(userService.login(postLoginRequest.getLogin(), postLoginRequest.getPassword())).thenReturn(postLoginResponse);
 
@@ -49,7 +67,7 @@ public class ControllerTests {
     @Test
     public void onLoginError_returnsErrorIdAndMessageWith400_Test() {
         var exception = new LoginException("login and/or password is incorrect");
-        var exceptionHandler = new ExceptionHandlerAdvice();
+        var exceptionHandler = new ExceptionHandlerAdvice(Duration.ofSeconds(5));
         var gson = new Gson();
         var err = new GeneralErrorResponse();
         err.setMessage(exception.getMessage());
@@ -67,7 +85,7 @@ public class ControllerTests {
         var exception = Mockito.mock(MethodArgumentNotValidException.class);
         var fieldError = Mockito.mock(FieldError.class);
         var exceptionMessage = "login can't be empty";
-        var exceptionHandler = new ExceptionHandlerAdvice();
+        var exceptionHandler = new ExceptionHandlerAdvice(Duration.ofSeconds(5));
         var gson = new Gson();
         var err = new GeneralErrorResponse();
         err.setMessage(exceptionMessage);
@@ -87,7 +105,7 @@ public class ControllerTests {
     public void logout_Test() {
         var authToken = "auth-token";
         var userService = Mockito.mock(UserService.class);
-        var controller = new Controller(userService, null);
+        var controller = new Controller(userService, null, null);
 
         controller.logout(authToken);
 
@@ -95,24 +113,45 @@ public class ControllerTests {
     }
 
     @Test
-    public void uploadFile_Test() throws LoginException, IOException, IllegalArgumentException {
+    public void uploadFile_Test() throws Exception {
         var authToken = "auth-token";
         var filename = "filename";
         var hash = "hash";
         var fileService = Mockito.mock(FileService.class);
-        var file = Mockito.mock(MultipartFile.class);
-        var controller = new Controller(null, fileService);
-
-        controller.uploadFile(authToken, hash, file, filename);
+        var file = new MockMultipartFile("file", filename, null, new byte[]{1, 2, 3});
+        var request = new MockMultipartHttpServletRequest();
+        request.addFile(file);
+        request.addParameter("hash", hash);
+        request.addParameter("filename", filename);
+        var controller = new Controller(null, fileService, null);
+
+        var upload = controller.uploadFile(authToken, request);
+        Mockito.verify(fileService, Mockito.times(1)).checkUserExistence(authToken);
+        Mockito.verify(fileService, Mockito.never()).uploadFile(authToken, hash, file, filename);
+        upload.call();
 
         Mockito.verify(fileService, Mockito.times(1)).uploadFile(authToken, hash, file, filename);
     }
 
+    @Test
+    public void uploadFile_missingFilePart_throwsMissingServletRequestPartException_Test() throws AuthException {
+        var authToken = "auth-token";
+        var fileService = Mockito.mock(FileService.class);
+        var request = new MockMultipartHttpServletRequest();
+        request.addParameter("hash", "hash");
+        request.addParameter("filename", "filename");
+        var controller = new Controller(null, fileService, null);
+
+        var upload = controller.uploadFile(authToken, request);
+
+        assertThrows(MissingServletRequestPartException.class, upload::call);
+    }
+
     @Test
     public void authenticationError_returnsErrorIdAndMessageWith401_Test() {
         var exception = new AuthException("user with provided auth token not found");
         var status = HttpStatus.UNAUTHORIZED;
-        var exceptionHandler = new ExceptionHandlerAdvice();
+        var exceptionHandler = new ExceptionHandlerAdvice(Duration.ofSeconds(5));
         var gson = new Gson();
         var err = new GeneralErrorResponse();
         err.setMessage(exception.getMessage());
@@ -130,7 +169,7 @@ public class ControllerTests {
     public void onFileValidationError_returnsErrorIdAndMessageWith400_Test() {
         var exception = new IllegalArgumentException("filename can`t be empty");
         var status = HttpStatus.BAD_REQUEST;
-        var exceptionHandler = new ExceptionHandlerAdvice();
+        var exceptionHandler = new ExceptionHandlerAdvice(Duration.ofSeconds(5));
         var gson = new Gson();
         var err = new GeneralErrorResponse();
         err.setMessage(exception.getMessage());
@@ -148,7 +187,7 @@ public class ControllerTests {
     public void getFileBytesError_returnsErrorIdAndMessageWith400_Test() {
         var exception = new IOException("can`t get file bytes");
         var status = HttpStatus.BAD_REQUEST;
-        var exceptionHandler = new ExceptionHandlerAdvice();
+        var exceptionHandler = new ExceptionHandlerAdvice(Duration.ofSeconds(5));
         var gson = new Gson();
         var err = new GeneralErrorResponse();
         err.setMessage(exception.getMessage());
@@ -163,22 +202,40 @@ public class ControllerTests {
     }
 
     @Test
-    public void deleteFile_Test() throws AuthException {
+    public void deleteFile_Test() throws AuthException, IOException {
         var authToken = "auth-token";
         var filename = "filename";
         var fileService = Mockito.mock(FileService.class);
-        var controller = new Controller(null, fileService);
+        var controller = new Controller(null, fileService, null);
 
         controller.deleteFile(authToken, filename);
 
         Mockito.verify(fileService, Mockito.times(1)).deleteFile(authToken, filename);
     }
 
+    @Test
+    public void onTransferRejected_returnsErrorIdAndRetryAfterWith503_Test() {
+        var exception = new TransferRejectedException("server is busy, retry later", Duration.ofSeconds(5));
+        var exceptionHandler = new ExceptionHandlerAdvice(Duration.ofSeconds(5));
+        var gson = new Gson();
+        var err = new GeneralErrorResponse();
+        err.setMessage(exception.getMessage());
+        err.setId(7);
+        var ex = gson.toJson(err);
+
+        var actual = exceptionHandler.onTransferRejected(exception);
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, actual.getStatusCode());
+        assertEquals("5", actual.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        assertEquals(MediaType.APPLICATION_JSON, actual.getHeaders().getContentType());
+        assertEquals(ex, actual.getBody());
+    }
+
     @Test
     public void getFileFromRepository_returnsErrorIdAndMessageWith500_Test() {
         var exception = new NoSuchElementException("file with provided filename not found");
         var status = HttpStatus.INTERNAL_SERVER_ERROR;
-        var exceptionHandler = new ExceptionHandlerAdvice();
+        var exceptionHandler = new ExceptionHandlerAdvice(Duration.ofSeconds(5));
         var gson = new Gson();
         var err = new GeneralErrorResponse();
         err.setMessage(exception.getMessage());
@@ -193,22 +250,79 @@ public class ControllerTests {
     }
 
     @Test
-    public void getFile_existingFile_returnsHashAndContentWith200_Test() throws AuthException {
+    public void getFile_existingFile_returnsHashAndContentWith200_Test() throws AuthException, IOException {
         var authToken = "auth-token";
         var filename = "existingFilename";
         var fileService = Mockito.mock(FileService.class);
-        var controller = new Controller(null, fileService);
-        var formData = new LinkedMultiValueMap<String, Object>();
-        formData.add("hash", "123");
-        formData.add("file", 123);
-
-        Mockito.when(fileService.getFile(authToken, filename)).thenReturn(ResponseEntity.status(HttpStatus.OK).contentType(MediaType.MULTIPART_FORM_DATA).body(formData));
+        var registry = new SimpleMeterRegistry();
+        var transferAdmission = newTransferAdmission();
+        transferAdmission.bindTo(registry);
+        var controller = new Controller(null, fileService, transferAdmission);
+        StreamingResponseBody body = outputStream -> outputStream.write(123);
+
+        var headers = new HttpHeaders();
+        var user = new User();
+        user.setId(1);
+
+        Mockito.when(fileService.checkUserExistence(authToken)).thenReturn(user);
+        Mockito.when(fileService.getFile(user, filename, headers)).thenReturn(ResponseEntity.status(HttpStatus.OK).contentType(MediaType.MULTIPART_FORM_DATA).contentLength(1).body(body));
+
+        var expected = ResponseEntity.status(HttpStatus.OK).contentType(MediaType.MULTIPART_FORM_DATA).contentLength(1).body(body);
+        var actual = controller.getFile(authToken, filename, headers, new MockHttpServletRequest());
+
+        assertEquals(expected, actual.getNow(null));
+        assertEquals(1, registry.get("cloud.admission.bytes.in-flight").gauge().value());
+        // Токен проверяется один раз, пользователь из этой проверки нужен и для допуска
+        Mockito.verify(fileService, Mockito.times(1)).checkUserExistence(authToken);
+        Mockito.verify(fileService, Mockito.times(1)).getFile(user, filename, headers);
+    }
 
-        var expected = ResponseEntity.status(HttpStatus.OK).contentType(MediaType.MULTIPART_FORM_DATA).body(formData);
-        var actual = controller.getFile(authToken, filename);
+    // Ответ без тела не занимает допуск, даже если сам файл больше всего бюджета.
+    @Test
+    public void getFile_notModified_admitsNothing_Test() throws AuthException, IOException {
+        var authToken = "auth-token";
+        var filename = "existingFilename";
+        var fileService = Mockito.mock(FileService.class);
+        var registry = new SimpleMeterRegistry();
+        var transferAdmission = newTransferAdmission();
+        transferAdmission.bindTo(registry);
+        var controller = new Controller(null, fileService, transferAdmission);
+
+        var headers = new HttpHeaders();
+        var user = new User();
+        user.setId(1);
+        ResponseEntity<StreamingResponseBody> notModified = ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag("\"tag\"").build();
+        Mockito.when(fileService.checkUserExistence(authToken)).thenReturn(user);
+        Mockito.when(fileService.getFile(user, filename, headers)).thenReturn(notModified);
+
+        var actual = controller.getFile(authToken, filename, headers, new MockHttpServletRequest());
+
+        assertEquals(HttpStatus.NOT_MODIFIED, actual.getNow(null).getStatusCode());
+        assertEquals(0, registry.get("cloud.admission.bytes.in-flight").gauge().value());
+    }
 
-        assertEquals(expected, actual);
-        Mockito.verify(fileService, Mockito.times(1)).getFile(authToken, filename);
+    // Скачивание, которому не хватило бюджета, не держит поток: ответ приходит, когда байты освободились.
+    @Test
+    public void getFile_budgetExhausted_respondsWhenBytesReleased_Test() throws Exception {
+        var authToken = "auth-token";
+        var filename = "existingFilename";
+        var fileService = Mockito.mock(FileService.class);
+        var transferAdmission = newTransferAdmission();
+        var controller = new Controller(null, fileService, transferAdmission);
+        StreamingResponseBody body = outputStream -> outputStream.write(new byte[80]);
+        var headers = new HttpHeaders();
+        var user = new User();
+        user.setId(1);
+
+        Mockito.when(fileService.checkUserExistence(authToken)).thenReturn(user);
+        Mockito.when(fileService.getFile(user, filename, headers)).thenReturn(ResponseEntity.ok().contentLength(80).body(body));
+        var other = transferAdmission.acquire(2, 80).getNow(null);
+
+        var actual = controller.getFile(authToken, filename, headers, new MockHttpServletRequest());
+
+        assertFalse(actual.isDone());
+        other.close();
+        assertEquals(HttpStatus.OK, actual.get(5, TimeUnit.SECONDS).getStatusCode());
     }
 
     @Test
@@ -219,7 +333,7 @@ public class ControllerTests {
         var name = "newName";
         putFileRequest.setName(name);
         var fileService = Mockito.mock(FileService.class);
-        var controller = new Controller(null, fileService);
+        var controller = new Controller(null, fileService, null);
 
         controller.putFile(authToken, filename, putFileRequest);
 
@@ -231,23 +345,138 @@ public class ControllerTests {
         var authToken = "auth-token";
         var limit = 4;
         var fileService = Mockito.mock(FileService.class);
-        var controller = new Controller(null, fileService);
+        var controller = new Controller(null, fileService, null);
         var getListResponse = new GetListResponse();
         var getListResponseItem = new GetListResponseItem();
-        getListResponseItem.setSize(2);
+        getListResponseItem.setSize(2L);
         getListResponseItem.setFilename("test");
         List<GetListResponseItem> files = new ArrayList<>();
         files.add(getListResponseItem);
         getListResponse.setFiles(files);
 
-        Mockito.when(fileService.getList(authToken, limit)).thenReturn(getListResponse);
+        var headers = new HttpHeaders();
+
+        Mockito.when(fileService.getList(authToken, limit, null, null, null, headers)).thenReturn(ResponseEntity.ok(getListResponse));
 
         var expected = getListResponse;
-        var actual = controller.getList(authToken, limit);
+        var actual = controller.getList(authToken, limit, null, null, null, headers);
 
-        assertEquals(expected, actual);
-        Mockito.verify(fileService, Mockito.times(1)).getList(authToken, limit);
+        assertEquals(expected, actual.getBody());
+        Mockito.verify(fileService, Mockito.times(1)).getList(authToken, limit, null, null, null, headers);
+    }
+
+    @Test
+    public void searchFiles_Test() throws AuthException {
+        var authToken = "auth-token";
+        var limit = 4;
+        var fileService = Mockito.mock(FileService.class);
+        var controller = new Controller(null, fileService, null);
+        var response = new GetListResponse();
+
+        Mockito.when(fileService.searchFiles(authToken, "rep", "substring", limit, null)).thenReturn(response);
+
+        var actual = controller.searchFiles(authToken, "rep", "substring", limit, null);
+
+        assertSame(response, actual);
+        Mockito.verify(fileService, Mockito.times(1)).searchFiles(authToken, "rep", "substring", limit, null);
+    }
+
+    @Test
+    public void getChanges_Test() throws AuthException {
+        var authToken = "auth-token";
+        var fileService = Mockito.mock(FileService.class);
+        var controller = new Controller(null, fileService, null);
+        var response = new GetChangesResponse();
+
+        Mockito.when(fileService.getChanges(authToken, 5L, 100)).thenReturn(response);
+
+        var actual = controller.getChanges(authToken, 5L, 100);
+
+        assertSame(response, actual);
+        Mockito.verify(fileService, Mockito.times(1)).getChanges(authToken, 5L, 100);
+    }
+
+    @Test
+    public void deleteFiles_Test() throws AuthException, IOException {
+        var authToken = "auth-token";
+        var fileService = Mockito.mock(FileService.class);
+        var controller = new Controller(null, fileService, null);
+        var request = new PostBatchDeleteRequest();
+        request.setFilenames(List.of("first", "second"));
+        var response = new PostBatchResponse();
+
+        Mockito.when(fileService.deleteFiles(authToken, List.of("first", "second"))).thenReturn(response);
+
+        var actual = controller.deleteFiles(authToken, request);
+
+        assertSame(response, actual);
+        Mockito.verify(fileService, Mockito.times(1)).deleteFiles(authToken, List.of("first", "second"));
+    }
+
+    @Test
+    public void renameFiles_Test() throws AuthException {
+        var authToken = "auth-token";
+        var fileService = Mockito.mock(FileService.class);
+        var controller = new Controller(null, fileService, null);
+        var item = new PostBatchRenameRequestItem();
+        item.setFilename("file");
+        item.setName("renamed");
+        var request = new PostBatchRenameRequest();
+        request.setFiles(List.of(item));
+        var response = new PostBatchResponse();
+
+        Mockito.when(fileService.renameFiles(authToken, List.of(item))).thenReturn(response);
+
+        var actual = controller.renameFiles(authToken, request);
+
+        assertSame(response, actual);
+        Mockito.verify(fileService, Mockito.times(1)).renameFiles(authToken, List.of(item));
     }
 
+    @Test
+    public void getUsage_Test() throws AuthException {
+        var authToken = "auth-token";
+        var fileService = Mockito.mock(FileService.class);
+        var controller = new Controller(null, fileService, null);
+        var response = new GetUsageResponse();
+
+        Mockito.when(fileService.getUsage(authToken)).thenReturn(response);
+
+        var actual = controller.getUsage(authToken);
+
+        assertSame(response, actual);
+        Mockito.verify(fileService, Mockito.times(1)).getUsage(authToken);
+    }
+
+    @Test
+    public void uploadChunk_Test() throws Exception {
+        var authToken = "auth-token";
+        var sessionId = UUID.randomUUID();
+        var content = new ByteArrayInputStream(new byte[]{1, 2, 3});
+        var uploadSessionService = Mockito.mock(UploadSessionService.class);
+        var controller = new UploadSessionController(uploadSessionService);
 
+        controller.uploadChunk(authToken, sessionId, 2, content).call();
+
+        Mockito.verify(uploadSessionService, Mockito.times(1)).uploadChunk(authToken, sessionId, 2, content);
+    }
+
+    @Test
+    public void commit_Test() throws Exception {
+        var authToken = "auth-token";
+        var sessionId = UUID.randomUUID();
+        var uploadSessionService = Mockito.mock(UploadSessionService.class);
+        var controller = new UploadSessionController(uploadSessionService);
+
+        controller.commit(authToken, sessionId).call();
+
+        Mockito.verify(uploadSessionService, Mockito.times(1)).commit(authToken, sessionId);
+    }
+
+    private static TransferAdmission newTransferAdmission() {
+        var taskScheduler = new ThreadPoolTaskScheduler();
+        taskScheduler.setDaemon(true);
+        taskScheduler.initialize();
+        return new TransferAdmission(DataSize.ofBytes(100), 4, Duration.ofSeconds(5), 16, Duration.ofSeconds(5), taskScheduler);
+    }
 }
@@ -0,0 +1,147 @@
+package ru.netology.clouddata.unitTests;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.netology.dto.GetListResponse;
+import ru.netology.dto.GetListResponseItem;
+import ru.netology.service.FileListCache;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileListCacheTests {
+    @Test
+    public void get_repeatedQuery_loadsOnce_Test() {
+        var cache = new FileListCache(Duration.ofMinutes(1), 100);
+        var loads = new AtomicInteger();
+
+        for (var i = 0; i < 3; i++) {
+            cache.get(1, "query", () -> {
+                loads.incrementAndGet();
+                return list("file");
+            });
+        }
+
+        assertEquals(1, loads.get());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void invalidate_user_reloadsOnlyItsLists_Test() {
+        var cache = new FileListCache(Duration.ofMinutes(1), 100);
+        var loads = new AtomicInteger();
+
+        cache.get(1, "query", () -> list("a"));
+        cache.get(2, "query", () -> list("b"));
+        cache.invalidate(1);
+        cache.get(1, "query", () -> {
+            loads.incrementAndGet();
+            return list("a");
+        });
+        cache.get(2, "query", () -> {
+            loads.incrementAndGet();
+            return list("b");
+        });
+
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void invalidate_duringLoad_loadedListNotCached_Test() {
+        var cache = new FileListCache(Duration.ofMinutes(1), 100);
+
+        cache.get(1, "query", () -> {
+            cache.invalidate(1);
+            return list("file");
+        });
+
+        assertEquals(0, cache.size());
+    }
+
+    // Пока транзакция не завершилась, в базе ещё старый список: версия меняется только после коммита.
+    @Test
+    public void invalidate_inTransaction_appliedAfterCompletion_Test() {
+        var cache = new FileListCache(Duration.ofMinutes(1), 100);
+        var loads = new AtomicInteger();
+        cache.get(1, "query", () -> list("file"));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            cache.invalidate(1);
+            cache.get(1, "query", () -> {
+                loads.incrementAndGet();
+                return list("file");
+            });
+            assertEquals(0, loads.get());
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        cache.get(1, "query", () -> {
+            loads.incrementAndGet();
+            return list("renamed");
+        });
+
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void get_sameContent_sameETag_Test() {
+        var cache = new FileListCache(Duration.ofMinutes(1), 100);
+
+        var first = cache.get(1, "query", () -> list("file"));
+        cache.invalidate(1);
+        var same = cache.get(1, "query", () -> list("file"));
+        cache.invalidate(1);
+        var changed = cache.get(1, "query", () -> list("renamed"));
+
+        assertEquals(first.getETag(), same.getETag());
+        assertNotEquals(first.getETag(), changed.getETag());
+    }
+
+    @Test
+    public void get_disabled_loadsEveryTime_Test() {
+        var cache = new FileListCache(Duration.ZERO, 100);
+        var loads = new AtomicInteger();
+
+        for (var i = 0; i < 2; i++) {
+            cache.get(1, "query", () -> {
+                loads.incrementAndGet();
+                return list("file");
+            });
+        }
+
+        assertEquals(2, loads.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void bindTo_registersCacheMeters_Test() {
+        var cache = new FileListCache(Duration.ofMinutes(1), 100);
+        var registry = new SimpleMeterRegistry();
+        cache.bindTo(registry);
+
+        cache.get(1, "query", () -> list("file"));
+        cache.get(1, "query", () -> list("file"));
+
+        assertEquals(1.0, registry.get("cache.gets").tags("cache", "file-lists", "result", "hit").functionCounter().count());
+        assertEquals(1.0, registry.get("cache.gets").tags("cache", "file-lists", "result", "miss").functionCounter().count());
+        assertEquals(1.0, registry.get("cache.size").tags("cache", "file-lists").gauge().value());
+    }
+
+    private static GetListResponse list(String filename) {
+        var item = new GetListResponseItem();
+        item.setFilename(filename);
+        item.setSize(1L);
+        var response = new GetListResponse();
+        response.setFiles(List.of(item));
+        return response;
+    }
+}
@@ -1,31 +1,69 @@
 package ru.netology.clouddata.unitTests;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.Assert;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
-import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
-import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.web.multipart.MultipartFile;
+import ru.netology.auth.AuthTokenCache;
+import ru.netology.auth.DatabaseTokenAuthenticator;
+import ru.netology.auth.TokenAuthenticator;
 import ru.netology.dto.GetListResponse;
 import ru.netology.dto.GetListResponseItem;
+import ru.netology.dto.PostBatchRenameRequestItem;
 import ru.netology.dto.PostLoginResponse;
 import ru.netology.entities.File;
+import ru.netology.entities.FileChange;
 import ru.netology.entities.User;
 import ru.netology.repositories.FileRepository;
+import ru.netology.repositories.FileSort;
+import ru.netology.repositories.FileSummary;
 import ru.netology.repositories.UserRepository;
+import ru.netology.service.ChangeFeed;
+import ru.netology.service.FileListCache;
 import ru.netology.service.FileService;
+import ru.netology.service.InstantUploadChallenges;
+import ru.netology.service.QuotaExceededException;
+import ru.netology.service.StorageQuota;
+import ru.netology.service.TransferMetrics;
 import ru.netology.service.UserService;
+import ru.netology.storage.ContentCodec;
+import ru.netology.storage.StorageBackend;
+import ru.netology.storage.StoredContent;
 
 import javax.security.auth.login.LoginException;
 import javax.security.auth.message.AuthException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.matches;
@@ -45,7 +83,7 @@ public class ServiceTests {
         user.setPasswordHash(password);
         var optionalUser = Optional.of(user);
         var userRepository = Mockito.mock(UserRepository.class);
-        var userService = new UserService(userRepository);
+        var userService = new UserService(userRepository, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)));
 
         Mockito.when(userRepository.findByLoginAndPasswordHash(login, password)).thenReturn(optionalUser);
 
@@ -63,7 +101,7 @@ public class ServiceTests {
         var password = "password";
         Optional<User> optionalUser = Optional.empty();
         var userRepository = Mockito.mock(UserRepository.class);
-        var userService = new UserService(userRepository);
+        var userService = new UserService(userRepository, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)));
 
         Mockito.when(userRepository.findByLoginAndPasswordHash(login, password)).thenReturn(optionalUser);
 
@@ -77,7 +115,7 @@ public class ServiceTests {
         var user = new User();
         var optionalUser = Optional.of(user);
         var userRepository = Mockito.mock(UserRepository.class);
-        var userService = new UserService(userRepository);
+        var userService = new UserService(userRepository, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)));
 
         Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(optionalUser);
 
@@ -94,7 +132,7 @@ public class ServiceTests {
         var user = new User();
         Optional<User> optionalUser = Optional.empty();
         var userRepository = Mockito.mock(UserRepository.class);
-        var userService = new UserService(userRepository);
+        var userService = new UserService(userRepository, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)));
 
         Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(optionalUser);
 
@@ -104,25 +142,203 @@ public class ServiceTests {
         Mockito.verify(userRepository, never()).saveAndFlush(user);
     }
 
+    @Test
+    public void logout_cachedToken_nextRequestGoesToRepository_Test() throws AuthException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var user = new User();
+        var userRepository = Mockito.mock(UserRepository.class);
+        var authTokenCache = new AuthTokenCache(Duration.ofMinutes(5), 100);
+        var userService = new UserService(userRepository, new DatabaseTokenAuthenticator(userRepository, authTokenCache));
+        var fileService = new FileService(Mockito.mock(FileRepository.class), Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, authTokenCache), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+
+        fileService.checkUserExistence(BearerauthToken);
+        fileService.checkUserExistence(BearerauthToken);
+        Mockito.verify(userRepository, Mockito.times(1)).findUserByAuthToken(authToken);
+
+        userService.logout(BearerauthToken);
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.empty());
+
+        assertThrows(AuthException.class, () -> fileService.checkUserExistence(BearerauthToken));
+        assertEquals(0, authTokenCache.size());
+    }
+
+    @Test
+    public void login_userWithCachedToken_invalidatesPreviousToken_Test() throws LoginException, AuthException {
+        var login = "existingUser";
+        var password = "password";
+        var previousToken = "previous-token";
+        var user = new User();
+        user.setAuthToken(previousToken);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var authTokenCache = new AuthTokenCache(Duration.ofMinutes(5), 100);
+        var userService = new UserService(userRepository, new DatabaseTokenAuthenticator(userRepository, authTokenCache));
+        var fileService = new FileService(Mockito.mock(FileRepository.class), Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, authTokenCache), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+
+        Mockito.when(userRepository.findUserByAuthToken(previousToken)).thenReturn(Optional.of(user));
+        Mockito.when(userRepository.findByLoginAndPasswordHash(login, password)).thenReturn(Optional.of(user));
+        fileService.checkUserExistence("Bearer " + previousToken);
+
+        userService.login(login, password);
+        Mockito.when(userRepository.findUserByAuthToken(previousToken)).thenReturn(Optional.empty());
+
+        assertThrows(AuthException.class, () -> fileService.checkUserExistence("Bearer " + previousToken));
+    }
+
     @Test
     public void uploadFile_validArguments_Test() throws AuthException, IOException {
         var BearerauthToken = "Bearer auth-token";
         var authToken = "auth-token";
         var filename = "filename";
-        var hash = "hash";
+        var hash = "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73";
         var file = Mockito.mock(MultipartFile.class);
         var user = new User();
         var optionalUser = Optional.of(user);
         var fileRepository = Mockito.mock(FileRepository.class);
         var userRepository = Mockito.mock(UserRepository.class);
-        var fileService = new FileService(fileRepository, userRepository);
+        var storageBackend = Mockito.mock(StorageBackend.class);
+        var fileService = new FileService(fileRepository, storageBackend, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
 
         Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(optionalUser);
+        Mockito.when(storageBackend.store(Mockito.any(), Mockito.anyLong())).thenReturn(new StoredContent("ref", 0, hash));
 
         fileService.uploadFile(BearerauthToken, hash, file, filename);
 
         Mockito.verify(userRepository, Mockito.times(1)).findUserByAuthToken(authToken);
         Mockito.verify(fileRepository, Mockito.times(1)).findFileByNameAndUser(filename, user);
+        Mockito.verify(storageBackend, Mockito.times(1)).store(Mockito.any(), Mockito.anyLong());
+        Mockito.verify(fileRepository, Mockito.times(1)).saveAndFlush(Mockito.argThat(f -> "ref".equals(f.getStorageRef())));
+    }
+
+    @Test
+    public void uploadFile_sha256HashMismatch_releasesContentAndThrowsIllegalArgumentException_Test() throws IOException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var filename = "filename";
+        var hash = "0000000000000000000000000000000000000000000000000000000000000000";
+        var file = Mockito.mock(MultipartFile.class);
+        var user = new User();
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var storageBackend = Mockito.mock(StorageBackend.class);
+        var fileService = new FileService(fileRepository, storageBackend, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+
+        Mockito.when(file.getSize()).thenReturn(7L);
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(storageBackend.store(Mockito.any(), Mockito.anyLong()))
+                .thenReturn(new StoredContent("ref", 7, "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73"));
+
+        assertThrows(IllegalArgumentException.class, () -> fileService.uploadFile(BearerauthToken, hash, file, filename));
+        Mockito.verify(storageBackend, Mockito.times(1)).delete("ref");
+        Mockito.verify(fileRepository, never()).saveAndFlush(Mockito.any());
+    }
+
+    @Test
+    public void uploadFile_sha256HashMatches_storesServerHash_Test() throws AuthException, IOException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var filename = "filename";
+        var sha256 = "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73";
+        var file = Mockito.mock(MultipartFile.class);
+        var user = new User();
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var storageBackend = Mockito.mock(StorageBackend.class);
+        var fileService = new FileService(fileRepository, storageBackend, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+
+        Mockito.when(file.getSize()).thenReturn(7L);
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(storageBackend.store(Mockito.any(), Mockito.anyLong())).thenReturn(new StoredContent("ref", 7, sha256));
+
+        fileService.uploadFile(BearerauthToken, sha256.toUpperCase(), file, filename);
+
+        Mockito.verify(storageBackend, never()).delete(Mockito.any());
+        Mockito.verify(fileRepository, Mockito.times(1)).saveAndFlush(Mockito.argThat(f -> sha256.equals(f.getContentHash())));
+    }
+
+    // hash не в формате SHA-256 сверить с содержимым нельзя: загрузка отклоняется до чтения файла.
+    @Test
+    public void uploadFile_malformedHash_throwsIllegalArgumentExceptionWithoutStoring_Test() {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var file = Mockito.mock(MultipartFile.class);
+        var user = new User();
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var storageBackend = Mockito.mock(StorageBackend.class);
+        var fileService = new FileService(fileRepository, storageBackend, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+
+        Mockito.when(file.getSize()).thenReturn(7L);
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+
+        // Не hex, MD5, на символ короче, с пробелом в конце
+        for (var hash : List.of("hash", "d41d8cd98f00b204e9800998ecf8427e", "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f7",
+                "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73 ")) {
+            var exception = assertThrows(IllegalArgumentException.class, () -> fileService.uploadFile(BearerauthToken, hash, file, "filename"));
+            assertEquals("hash must be a SHA-256 digest of 64 hex characters", exception.getMessage());
+            assertThrows(IllegalArgumentException.class, () -> fileService.storeFile(user, "filename", hash, InputStream.nullInputStream(), 0));
+            assertThrows(IllegalArgumentException.class, () -> fileService.instantUpload(BearerauthToken, "filename", hash, hash, 7, null, null));
+        }
+        Mockito.verifyNoInteractions(storageBackend);
+        Mockito.verify(fileRepository, never()).saveAndFlush(Mockito.any());
+    }
+
+    @Test
+    public void uploadFile_storageWithoutSha256_releasesContentAndThrowsIllegalArgumentException_Test() throws IOException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var hash = "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73";
+        var file = Mockito.mock(MultipartFile.class);
+        var user = new User();
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var storageBackend = Mockito.mock(StorageBackend.class);
+        var fileService = new FileService(fileRepository, storageBackend, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+
+        Mockito.when(file.getSize()).thenReturn(7L);
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(storageBackend.store(Mockito.any(), Mockito.anyLong())).thenReturn(new StoredContent("ref", 7));
+
+        assertThrows(IllegalArgumentException.class, () -> fileService.uploadFile(BearerauthToken, hash, file, "filename"));
+        Mockito.verify(storageBackend, Mockito.times(1)).delete("ref");
+        Mockito.verify(fileRepository, never()).saveAndFlush(Mockito.any());
+    }
+
+    @Test
+    public void uploadFile_largerThanHeap_streamsContent_Test() throws AuthException, IOException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var filename = "largeFile";
+        var hash = "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73";
+        var size = Runtime.getRuntime().maxMemory() + StorageBackend.BUFFER_SIZE;
+        var file = Mockito.mock(MultipartFile.class);
+        var user = new User();
+        var optionalUser = Optional.of(user);
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var storageBackend = Mockito.mock(StorageBackend.class);
+        var fileService = new FileService(fileRepository, storageBackend, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+        var written = new AtomicLong();
+
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(optionalUser);
+        Mockito.when(file.getSize()).thenReturn(size);
+        Mockito.when(file.getInputStream()).thenReturn(new GeneratedInputStream(size));
+        Mockito.doAnswer(invocation -> {
+            InputStream content = invocation.getArgument(0);
+            var buffer = new byte[StorageBackend.BUFFER_SIZE];
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                written.addAndGet(read);
+            }
+            return new StoredContent("ref", written.get(), hash);
+        }).when(storageBackend).store(Mockito.notNull(), Mockito.eq(size));
+
+        fileService.uploadFile(BearerauthToken, hash, file, filename);
+
+        assertEquals(size, written.get());
+        Mockito.verify(file, never()).getBytes();
         Mockito.verify(fileRepository, Mockito.times(1)).saveAndFlush(Mockito.notNull());
     }
 
@@ -131,13 +347,13 @@ public class ServiceTests {
         var BearerauthToken = "Bearer auth-token";
         var authToken = "auth-token";
         var filename = "filename";
-        var hash = "hash";
+        var hash = "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73";
         var file = Mockito.mock(MultipartFile.class);
         Optional<User> optionalUser = Optional.empty();
         var user = Mockito.mock(User.class);
         var fileRepository = Mockito.mock(FileRepository.class);
         var userRepository = Mockito.mock(UserRepository.class);
-        var fileService = new FileService(fileRepository, userRepository);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
 
         Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(optionalUser);
 
@@ -151,13 +367,13 @@ public class ServiceTests {
     public void uploadFile_emptyFilename_throwsIllegalException_Test() {
         var authToken = "Bearer auth-token";
         var filename = "";
-        var hash = "hash";
+        var hash = "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73";
         var file = Mockito.mock(MultipartFile.class);
         var user = new User();
         var optionalUser = Optional.of(user);
         var fileRepository = Mockito.mock(FileRepository.class);
         var userRepository = Mockito.mock(UserRepository.class);
-        var fileService = new FileService(fileRepository, userRepository);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
 
         Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(optionalUser);
 
@@ -172,15 +388,15 @@ public class ServiceTests {
         var BearerauthToken = "Bearer auth-token";
         var authToken = "auth-token";
         var filename = "filename";
-        var hash = "hash";
+        var hash = "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73";
         var file = Mockito.mock(MultipartFile.class);
         var user = new User();
         var optionalUser = Optional.of(user);
         var fileRepository = Mockito.mock(FileRepository.class);
         var userRepository = Mockito.mock(UserRepository.class);
-        var fileService = new FileService(fileRepository, userRepository);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
 
-        Mockito.when(file.getBytes()).thenThrow(new IOException());
+        Mockito.when(file.getInputStream()).thenThrow(new IOException());
         Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(optionalUser);
 
         assertThrows(IOException.class, () -> fileService.uploadFile(BearerauthToken, hash, file, filename));
@@ -193,7 +409,7 @@ public class ServiceTests {
         var BearerauthToken = "Bearer auth-token";
         var authToken = "auth-token";
         var filename = "sameFilename";
-        var hash = "hash";
+        var hash = "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73";
         var currentFile = Mockito.mock(MultipartFile.class);
         var user = new User();
         var file = new File();
@@ -201,7 +417,7 @@ public class ServiceTests {
         var optionalUser = Optional.of(user);
         var fileRepository = Mockito.mock(FileRepository.class);
         var userRepository = Mockito.mock(UserRepository.class);
-        var fileService = new FileService(fileRepository, userRepository);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
 
         Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(optionalUser);
         Mockito.when(fileRepository.findFileByNameAndUser(filename, user)).thenReturn(optionalFile);
@@ -213,7 +429,53 @@ public class ServiceTests {
     }
 
     @Test
-    public void deleteFile_existingFile_Test() throws AuthException {
+    public void uploadFile_overQuota_throwsQuotaExceededExceptionWithoutStoring_Test() {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var file = Mockito.mock(MultipartFile.class);
+        var user = new User();
+        var userRepository = Mockito.mock(UserRepository.class);
+        var storageBackend = Mockito.mock(StorageBackend.class);
+        var storageQuota = Mockito.mock(StorageQuota.class);
+        var fileService = new FileService(Mockito.mock(FileRepository.class), storageBackend, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), storageQuota, new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+
+        Mockito.when(file.getSize()).thenReturn(7L);
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(storageQuota.reserve(user, 7L)).thenThrow(new QuotaExceededException("storage quota exceeded"));
+
+        assertThrows(QuotaExceededException.class, () -> fileService.uploadFile(BearerauthToken, "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73", file, "filename"));
+        Mockito.verifyNoInteractions(storageBackend);
+    }
+
+    @Test
+    public void uploadAndDeleteFile_changeUsedBytes_Test() throws AuthException, IOException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var file = Mockito.mock(MultipartFile.class);
+        var user = new User();
+        var stored = new File();
+        stored.setSize(7);
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var storageBackend = Mockito.mock(StorageBackend.class);
+        var storageQuota = Mockito.mock(StorageQuota.class);
+        var fileService = new FileService(fileRepository, storageBackend, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), storageQuota, new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+
+        Mockito.when(file.getSize()).thenReturn(7L);
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(storageBackend.store(Mockito.any(), Mockito.anyLong())).thenReturn(new StoredContent("ref", 7, "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73"));
+        Mockito.when(fileRepository.findFileByNameAndUser("stored", user)).thenReturn(Optional.of(stored));
+
+        fileService.uploadFile(BearerauthToken, "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73", file, "filename");
+        fileService.deleteFile(BearerauthToken, "stored");
+
+        Mockito.verify(storageQuota, Mockito.times(1)).reserve(user, 7L);
+        Mockito.verify(storageQuota, Mockito.times(1)).charge(user, 7L);
+        Mockito.verify(storageQuota, Mockito.times(1)).release(user, 7L);
+    }
+
+    @Test
+    public void deleteFile_existingFile_Test() throws AuthException, IOException {
         var BearerauthToken = "Bearer auth-token";
         var authToken = "auth-token";
         var filename = "existingFilename";
@@ -223,7 +485,7 @@ public class ServiceTests {
         var optionalUser = Optional.of(user);
         var fileRepository = Mockito.mock(FileRepository.class);
         var userRepository = Mockito.mock(UserRepository.class);
-        var fileService = new FileService(fileRepository, userRepository);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
 
         Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(optionalUser);
         Mockito.when(fileRepository.findFileByNameAndUser(filename, user)).thenReturn(optionalFile);
@@ -235,6 +497,210 @@ public class ServiceTests {
         Mockito.verify(fileRepository, Mockito.times(1)).delete(file);
     }
 
+    @Test
+    public void instantUpload_ownContent_createsFileWithoutChallenge_Test() throws AuthException, IOException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var filename = "filename";
+        var sha256 = "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73";
+        var user = new User();
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var storageBackend = Mockito.mock(StorageBackend.class);
+        var fileService = new FileService(fileRepository, storageBackend, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(fileRepository.findFileByNameAndUser(filename, user)).thenReturn(Optional.empty());
+        Mockito.when(fileRepository.existsByUserAndSizeAndContentHash(user, 7, sha256)).thenReturn(true);
+        Mockito.when(storageBackend.reuse(sha256, 7)).thenReturn(Optional.of(new StoredContent("ref", 7)));
+
+        var actual = fileService.instantUpload(BearerauthToken, filename, sha256, sha256, 7, null, null);
+
+        assertTrue(actual.isUploaded());
+        assertNull(actual.getChallenge());
+        Mockito.verify(fileRepository, Mockito.times(1)).saveAndFlush(Mockito.argThat(file ->
+                file.getName().equals(filename) && file.getStorageRef().equals("ref") && file.getSize() == 7 && file.getUser() == user));
+        Mockito.verify(storageBackend, never()).store(Mockito.any(), Mockito.anyLong());
+    }
+
+    // SHA-256 и размера недостаточно, чтобы получить чужое содержимое: сначала выдаётся запрос доказательства.
+    @Test
+    public void instantUpload_foreignContentWithoutProof_returnsChallenge_Test() throws AuthException, IOException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var filename = "filename";
+        var sha256 = "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73";
+        var user = new User();
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var storageBackend = Mockito.mock(StorageBackend.class);
+        var fileService = new FileService(fileRepository, storageBackend, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(fileRepository.findFileByNameAndUser(filename, user)).thenReturn(Optional.empty());
+        Mockito.when(storageBackend.reuse(sha256, 7)).thenReturn(Optional.of(new StoredContent("ref", 7)));
+
+        var actual = fileService.instantUpload(BearerauthToken, filename, sha256, sha256, 7, null, null);
+
+        assertFalse(actual.isUploaded());
+        assertNotNull(actual.getChallenge().getNonce());
+        assertEquals(1, actual.getChallenge().getRanges().size());
+        assertEquals(7, actual.getChallenge().getRanges().get(0).getLength());
+        Mockito.verify(storageBackend, never()).reuse(Mockito.any(), Mockito.anyLong());
+        Mockito.verify(fileRepository, never()).saveAndFlush(Mockito.any());
+    }
+
+    @Test
+    public void instantUpload_correctProof_createsFile_Test() throws AuthException, IOException, NoSuchAlgorithmException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var filename = "filename";
+        var content = new byte[100_000];
+        new Random(1).nextBytes(content);
+        var sha256 = "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73";
+        var user = new User();
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var storageBackend = Mockito.mock(StorageBackend.class);
+        var fileService = new FileService(fileRepository, storageBackend, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(fileRepository.findFileByNameAndUser(filename, user)).thenReturn(Optional.empty());
+        Mockito.when(storageBackend.reuse(sha256, content.length)).thenReturn(Optional.of(new StoredContent("ref", content.length, sha256, null, content.length)));
+        Mockito.when(storageBackend.open("ref")).thenReturn(new ByteArrayInputStream(content));
+
+        var challenge = fileService.instantUpload(BearerauthToken, filename, sha256, sha256, content.length, null, null).getChallenge();
+        assertEquals(4, challenge.getRanges().size());
+        var digest = MessageDigest.getInstance("SHA-256");
+        digest.update(challenge.getNonce().getBytes(StandardCharsets.US_ASCII));
+        for (var range : challenge.getRanges()) {
+            digest.update(content, (int) range.getOffset(), (int) range.getLength());
+        }
+        var proof = new StringBuilder();
+        for (var b : digest.digest()) {
+            proof.append(String.format("%02x", b));
+        }
+        var actual = fileService.instantUpload(BearerauthToken, filename, sha256, sha256, content.length, challenge.getNonce(), proof.toString());
+
+        assertTrue(actual.isUploaded());
+        Mockito.verify(fileRepository, Mockito.times(1)).saveAndFlush(Mockito.argThat(file -> file.getStorageRef().equals("ref")));
+        Mockito.verify(storageBackend, never()).delete(Mockito.any());
+        // Запрос принимается один раз
+        assertThrows(IllegalArgumentException.class, () -> fileService.instantUpload(BearerauthToken, "other", sha256, sha256, content.length, challenge.getNonce(), proof.toString()));
+    }
+
+    @Test
+    public void instantUpload_wrongProof_releasesReferenceAndCreatesNothing_Test() throws AuthException, IOException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var filename = "filename";
+        var sha256 = "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73";
+        var user = new User();
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var storageBackend = Mockito.mock(StorageBackend.class);
+        var fileService = new FileService(fileRepository, storageBackend, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(fileRepository.findFileByNameAndUser(filename, user)).thenReturn(Optional.empty());
+        Mockito.when(storageBackend.reuse(sha256, 7)).thenReturn(Optional.of(new StoredContent("ref", 7, sha256, null, 7)));
+        Mockito.when(storageBackend.open("ref")).thenReturn(new ByteArrayInputStream("content".getBytes(StandardCharsets.UTF_8)));
+
+        var challenge = fileService.instantUpload(BearerauthToken, filename, sha256, sha256, 7, null, null).getChallenge();
+        var actual = fileService.instantUpload(BearerauthToken, filename, sha256, sha256, 7, challenge.getNonce(), "00".repeat(32));
+
+        assertFalse(actual.isUploaded());
+        Mockito.verify(storageBackend, Mockito.times(1)).delete("ref");
+        Mockito.verify(fileRepository, never()).saveAndFlush(Mockito.any());
+    }
+
+    @Test
+    public void instantUpload_unknownContent_createsNothing_Test() throws AuthException, IOException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var filename = "filename";
+        var sha256 = "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73";
+        var user = new User();
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var storageBackend = Mockito.mock(StorageBackend.class);
+        var fileService = new FileService(fileRepository, storageBackend, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(fileRepository.findFileByNameAndUser(filename, user)).thenReturn(Optional.empty());
+        Mockito.when(storageBackend.reuse(sha256, 7)).thenReturn(Optional.empty());
+
+        var challenge = fileService.instantUpload(BearerauthToken, filename, sha256, sha256, 7, null, null).getChallenge();
+        var actual = fileService.instantUpload(BearerauthToken, filename, sha256, sha256, 7, challenge.getNonce(), "00".repeat(32));
+
+        assertFalse(actual.isUploaded());
+        Mockito.verify(fileRepository, never()).saveAndFlush(Mockito.any());
+    }
+
+    @Test
+    public void instantUpload_unknownNonce_throwsIllegalArgumentException_Test() {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var filename = "filename";
+        var sha256 = "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73";
+        var user = new User();
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var storageBackend = Mockito.mock(StorageBackend.class);
+        var fileService = new FileService(fileRepository, storageBackend, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(fileRepository.findFileByNameAndUser(filename, user)).thenReturn(Optional.empty());
+
+        assertThrows(IllegalArgumentException.class, () -> fileService.instantUpload(BearerauthToken, filename, sha256, sha256, 7, "nonce", "00".repeat(32)));
+        Mockito.verify(storageBackend, never()).reuse(Mockito.any(), Mockito.anyLong());
+    }
+
+    @Test
+    public void instantUpload_existingFilename_throwsIllegalArgumentException_Test() {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var filename = "existingFilename";
+        var user = new User();
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var storageBackend = Mockito.mock(StorageBackend.class);
+        var fileService = new FileService(fileRepository, storageBackend, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(fileRepository.findFileByNameAndUser(filename, user)).thenReturn(Optional.of(new File()));
+
+        assertThrows(IllegalArgumentException.class, () -> fileService.instantUpload(BearerauthToken, filename, "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73", "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73", 7, null, null));
+        Mockito.verify(storageBackend, never()).reuse(Mockito.any(), Mockito.anyLong());
+    }
+
+    // Ссылка на содержимое снимается до удаления строки: строки blobs и users блокируются в том же порядке, что при загрузке.
+    @Test
+    public void deleteFile_existingFile_releasesContentReference_Test() throws AuthException, IOException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var filename = "existingFilename";
+        var user = new User();
+        var file = new File();
+        file.setStorageRef("ref");
+        var optionalFile = Optional.of(file);
+        var optionalUser = Optional.of(user);
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var storageBackend = Mockito.mock(StorageBackend.class);
+        var fileService = new FileService(fileRepository, storageBackend, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(optionalUser);
+        Mockito.when(fileRepository.findFileByNameAndUser(filename, user)).thenReturn(optionalFile);
+
+        fileService.deleteFile(BearerauthToken, filename);
+
+        var order = Mockito.inOrder(fileRepository, storageBackend);
+        order.verify(storageBackend, Mockito.times(1)).delete("ref");
+        order.verify(fileRepository).delete(file);
+        order.verify(fileRepository).flush();
+    }
+
     @Test
     public void deleteFile_notExistingFile_throwsNoSuchElementException_Test() {
         var BearerauthToken = "Bearer auth-token";
@@ -245,7 +711,7 @@ public class ServiceTests {
         var optionalUser = Optional.of(user);
         var fileRepository = Mockito.mock(FileRepository.class);
         var userRepository = Mockito.mock(UserRepository.class);
-        var fileService = new FileService(fileRepository, userRepository);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
 
         Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(optionalUser);
         Mockito.when(fileRepository.findFileByNameAndUser(filename, user)).thenReturn(optionalFile);
@@ -264,7 +730,7 @@ public class ServiceTests {
         Optional<User> optionalUser = Optional.empty();
         var fileRepository = Mockito.mock(FileRepository.class);
         var userRepository = Mockito.mock(UserRepository.class);
-        var fileService = new FileService(fileRepository, userRepository);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
 
         Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(optionalUser);
 
@@ -283,7 +749,7 @@ public class ServiceTests {
         var optionalUser = Optional.of(user);
         var fileRepository = Mockito.mock(FileRepository.class);
         var userRepository = Mockito.mock(UserRepository.class);
-        var fileService = new FileService(fileRepository, userRepository);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
 
         Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(optionalUser);
         Mockito.when(fileRepository.findFileByNameAndUser(filename, user)).thenReturn(optionalFile);
@@ -295,33 +761,355 @@ public class ServiceTests {
     }
 
     @Test
-    public void getFile_existingFile_returnsHashAndСontent_Test() throws AuthException {
+    public void getFile_serverContentHash_usedAsETag_Test() throws AuthException, IOException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var filename = "existingFilename";
+        var user = new User();
+        var file = new File();
+        file.setHash("client-hash");
+        file.setContentHash("ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73");
+        file.setStorageRef("ref");
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(fileRepository.findFileByNameAndUser(filename, user)).thenReturn(Optional.of(file));
+
+        var actual = fileService.getFile(BearerauthToken, filename, new HttpHeaders());
+
+        assertEquals("\"ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73\"", actual.getHeaders().getETag());
+    }
+
+    @Test
+    public void getFile_existingFile_returnsHashAndСontent_Test() throws AuthException, IOException {
         var BearerauthToken = "Bearer auth-token";
         var authToken = "auth-token";
         var filename = "existingFilename";
+        var content = new byte[]{1, 2, 3};
         var user = new User();
         var file = new File();
+        file.setHash("hash");
+        file.setStorageRef("ref");
+        file.setSize(content.length);
         var optionalFile = Optional.of(file);
         var optionalUser = Optional.of(user);
         var fileRepository = Mockito.mock(FileRepository.class);
         var userRepository = Mockito.mock(UserRepository.class);
-        var fileService = new FileService(fileRepository, userRepository);
-        var formData = new LinkedMultiValueMap<String, Object>();
-        var currentFile = optionalFile.get();
-        formData.add("hash", currentFile.getHash());
-        formData.add("file", currentFile.getContent());
+        var storageBackend = Mockito.mock(StorageBackend.class);
+        var fileService = new FileService(fileRepository, storageBackend, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
 
         Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(optionalUser);
         Mockito.when(fileRepository.findFileByNameAndUser(filename, user)).thenReturn(optionalFile);
-
-        var expected = ResponseEntity.status(HttpStatus.OK).contentType(MediaType.MULTIPART_FORM_DATA).body(formData);
-        var actual = fileService.getFile(BearerauthToken, filename);
-
-        assertEquals(expected, actual);
+        Mockito.when(storageBackend.transferTo(Mockito.eq("ref"), Mockito.eq(0L), Mockito.eq(3L), Mockito.notNull())).thenAnswer(invocation -> {
+            OutputStream out = invocation.getArgument(3);
+            out.write(content);
+            return (long) content.length;
+        });
+
+        var actual = fileService.getFile(BearerauthToken, filename, new HttpHeaders());
+        var out = new ByteArrayOutputStream();
+        actual.getBody().writeTo(out);
+        var contentType = actual.getHeaders().getContentType();
+        var boundary = contentType.getParameter("boundary");
+        var expectedBody = "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"hash\"\r\n"
+                + "Content-Type: text/plain;charset=UTF-8\r\n"
+                + "Content-Length: 4\r\n"
+                + "\r\n"
+                + "hash\r\n"
+                + "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"\r\n"
+                + "Content-Type: application/octet-stream\r\n"
+                + "Content-Length: 3\r\n"
+                + "\r\n"
+                + "\u0001\u0002\u0003\r\n"
+                + "--" + boundary + "--\r\n";
+
+        assertEquals(HttpStatus.OK, actual.getStatusCode());
+        assertTrue(MediaType.MULTIPART_FORM_DATA.includes(contentType));
+        assertEquals(expectedBody, out.toString(StandardCharsets.UTF_8));
+        assertEquals(out.size(), actual.getHeaders().getContentLength());
+        Mockito.verify(storageBackend, never()).open(Mockito.any());
         Mockito.verify(userRepository, Mockito.times(1)).findUserByAuthToken(authToken);
         Mockito.verify(fileRepository, Mockito.times(1)).findFileByNameAndUser(filename, user);
     }
 
+    @Test
+    public void getFile_gzipStoredContent_passedThroughOnlyWhenAccepted_Test() throws AuthException, IOException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var filename = "existingFilename";
+        var content = "line of text\n".repeat(1000).getBytes(StandardCharsets.UTF_8);
+        byte[] gzipped;
+        try (var encoded = new ContentCodec(ContentCodec.GZIP, 1, 0.9, Runnable::run).encode(new ByteArrayInputStream(content))) {
+            gzipped = encoded.getStored().readAllBytes();
+        }
+        var user = new User();
+        var file = new File();
+        file.setHash("hash");
+        file.setStorageRef("ref");
+        file.setSize(content.length);
+        file.setEncoding(ContentCodec.GZIP);
+        file.setStoredSize((long) gzipped.length);
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var storageBackend = gzipStorageBackend(gzipped);
+        var fileService = new FileService(fileRepository, storageBackend, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+        var headers = new HttpHeaders();
+        headers.set(HttpHeaders.ACCEPT_ENCODING, "br;q=1.0, gzip;q=0.8");
+
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(fileRepository.findFileByNameAndUser(filename, user)).thenReturn(Optional.of(file));
+
+        var identity = fileService.getFile(BearerauthToken, filename, new HttpHeaders());
+        var identityBody = new ByteArrayOutputStream();
+        identity.getBody().writeTo(identityBody);
+        var encoded = fileService.getFile(BearerauthToken, filename, headers);
+        var encodedBody = new ByteArrayOutputStream();
+        encoded.getBody().writeTo(encodedBody);
+
+        assertNull(identity.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(identityBody.size(), identity.getHeaders().getContentLength());
+        assertTrue(identityBody.toString(StandardCharsets.UTF_8).contains(new String(content, StandardCharsets.UTF_8)));
+        assertEquals(ContentCodec.GZIP, encoded.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(List.of(HttpHeaders.ACCEPT_ENCODING), encoded.getHeaders().getVary());
+        assertEquals("\"hash-gzip\"", encoded.getHeaders().getETag());
+        assertEquals(encodedBody.size(), encoded.getHeaders().getContentLength());
+        assertTrue(encodedBody.size() < identityBody.size() / 10);
+        assertArrayEquals(identityBody.toByteArray(), gunzipSingleMember(encodedBody.toByteArray()));
+    }
+
+    // gzip, сохранённый без окончания для вставки, нельзя отдать одним членом — отдаётся распакованным.
+    @Test
+    public void getFile_legacyGzipStoredContent_servedDecoded_Test() throws AuthException, IOException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var filename = "existingFilename";
+        var content = "line of text\n".repeat(1000).getBytes(StandardCharsets.UTF_8);
+        var gzipped = new ByteArrayOutputStream();
+        try (var gzip = new GZIPOutputStream(gzipped)) {
+            gzip.write(content);
+        }
+        var user = new User();
+        var file = new File();
+        file.setHash("hash");
+        file.setStorageRef("ref");
+        file.setSize(content.length);
+        file.setEncoding(ContentCodec.GZIP);
+        file.setStoredSize((long) gzipped.size());
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var storageBackend = gzipStorageBackend(gzipped.toByteArray());
+        var fileService = new FileService(fileRepository, storageBackend, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+        var headers = new HttpHeaders();
+        headers.set(HttpHeaders.ACCEPT_ENCODING, "gzip");
+
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(fileRepository.findFileByNameAndUser(filename, user)).thenReturn(Optional.of(file));
+
+        var actual = fileService.getFile(BearerauthToken, filename, headers);
+        var body = new ByteArrayOutputStream();
+        actual.getBody().writeTo(body);
+
+        assertNull(actual.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals("\"hash\"", actual.getHeaders().getETag());
+        assertEquals(body.size(), actual.getHeaders().getContentLength());
+        assertTrue(body.toString(StandardCharsets.UTF_8).contains(new String(content, StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void getFile_existingFile_recordsDownloadMetrics_Test() throws AuthException, IOException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var filename = "existingFilename";
+        var user = new User();
+        var file = new File();
+        file.setHash("hash");
+        file.setStorageRef("ref");
+        file.setSize(10);
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var registry = new SimpleMeterRegistry();
+        var fileService = new FileService(fileRepository, contentStorageBackend("0123456789"), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(registry), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(fileRepository.findFileByNameAndUser(filename, user)).thenReturn(Optional.of(file));
+
+        var actual = fileService.getFile(BearerauthToken, filename, new HttpHeaders());
+        var out = new ByteArrayOutputStream();
+        actual.getBody().writeTo(out);
+
+        assertEquals(out.size(), registry.get("cloud.transfer.bytes").tag("direction", TransferMetrics.DOWNLOAD).counter().count());
+        assertEquals(0, registry.get("cloud.transfer.active").tag("direction", TransferMetrics.DOWNLOAD).gauge().value());
+        assertEquals(1, registry.get("cloud.file.phase").tag("phase", "auth").timer().count());
+        assertEquals(1, registry.get("cloud.file.phase").tag("phase", "metadata").timer().count());
+        assertEquals(1, registry.get("cloud.file.phase").tag("phase", "content.read").timer().count());
+    }
+
+    @Test
+    public void getFile_matchingIfNoneMatch_returns304WithoutContent_Test() throws AuthException, IOException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var filename = "existingFilename";
+        var user = new User();
+        var file = new File();
+        file.setHash("hash");
+        file.setStorageRef("ref");
+        file.setSize(3);
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var storageBackend = Mockito.mock(StorageBackend.class);
+        var fileService = new FileService(fileRepository, storageBackend, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+        var headers = new HttpHeaders();
+        headers.setIfNoneMatch("\"hash\"");
+
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(fileRepository.findFileByNameAndUser(filename, user)).thenReturn(Optional.of(file));
+
+        var actual = fileService.getFile(BearerauthToken, filename, headers);
+
+        assertEquals(HttpStatus.NOT_MODIFIED, actual.getStatusCode());
+        assertEquals("\"hash\"", actual.getHeaders().getETag());
+        assertNull(actual.getBody());
+        Mockito.verifyNoInteractions(storageBackend);
+    }
+
+    @Test
+    public void getFile_singleRange_returns206WithRequestedBytes_Test() throws AuthException, IOException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var filename = "existingFilename";
+        var user = new User();
+        var file = new File();
+        file.setHash("hash");
+        file.setStorageRef("ref");
+        file.setSize(10);
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var storageBackend = contentStorageBackend("0123456789");
+        var fileService = new FileService(fileRepository, storageBackend, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(fileRepository.findFileByNameAndUser(filename, user)).thenReturn(Optional.of(file));
+
+        var full = new ByteArrayOutputStream();
+        fileService.getFile(BearerauthToken, filename, new HttpHeaders()).getBody().writeTo(full);
+        var representation = full.toString(StandardCharsets.UTF_8);
+        var start = representation.indexOf("0123456789") + 2;
+        var end = start + 5;
+        var headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, "bytes=" + start + "-" + end);
+        headers.set(HttpHeaders.IF_RANGE, "\"hash\"");
+
+        var actual = fileService.getFile(BearerauthToken, filename, headers);
+        var out = new ByteArrayOutputStream();
+        actual.getBody().writeTo(out);
+
+        assertEquals(HttpStatus.PARTIAL_CONTENT, actual.getStatusCode());
+        assertEquals("bytes " + start + "-" + end + "/" + full.size(), actual.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        assertEquals(6, actual.getHeaders().getContentLength());
+        assertEquals("234567", out.toString(StandardCharsets.UTF_8));
+        Mockito.verify(storageBackend, Mockito.times(1)).transferTo(Mockito.eq("ref"), Mockito.eq(2L), Mockito.eq(6L), Mockito.notNull());
+    }
+
+    @Test
+    public void getFile_multipleRanges_returnsMultipartByteranges_Test() throws AuthException, IOException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var filename = "existingFilename";
+        var user = new User();
+        var file = new File();
+        file.setHash("hash");
+        file.setStorageRef("ref");
+        file.setSize(10);
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var storageBackend = contentStorageBackend("0123456789");
+        var fileService = new FileService(fileRepository, storageBackend, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+        var headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, "bytes=0-1,-4");
+
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(fileRepository.findFileByNameAndUser(filename, user)).thenReturn(Optional.of(file));
+
+        var full = fileService.getFile(BearerauthToken, filename, new HttpHeaders());
+        var length = full.getHeaders().getContentLength();
+        var contentType = full.getHeaders().getContentType();
+        var actual = fileService.getFile(BearerauthToken, filename, headers);
+        var out = new ByteArrayOutputStream();
+        actual.getBody().writeTo(out);
+        var boundary = actual.getHeaders().getContentType().getParameter("boundary");
+        var expectedBody = "\r\n--" + boundary + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-Range: bytes 0-1/" + length + "\r\n"
+                + "\r\n"
+                + "--"
+                + "\r\n--" + boundary + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-Range: bytes " + (length - 4) + "-" + (length - 1) + "/" + length + "\r\n"
+                + "\r\n"
+                + "--\r\n"
+                + "\r\n--" + boundary + "--\r\n";
+
+        assertEquals(HttpStatus.PARTIAL_CONTENT, actual.getStatusCode());
+        assertEquals("byteranges", actual.getHeaders().getContentType().getSubtype());
+        assertEquals(expectedBody, out.toString(StandardCharsets.UTF_8));
+        assertEquals(out.size(), actual.getHeaders().getContentLength());
+    }
+
+    @Test
+    public void getFile_staleIfRange_returnsWholeFile_Test() throws AuthException, IOException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var filename = "existingFilename";
+        var user = new User();
+        var file = new File();
+        file.setHash("hash");
+        file.setStorageRef("ref");
+        file.setSize(10);
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+        var headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, "bytes=0-1");
+        headers.set(HttpHeaders.IF_RANGE, "\"otherHash\"");
+
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(fileRepository.findFileByNameAndUser(filename, user)).thenReturn(Optional.of(file));
+
+        var actual = fileService.getFile(BearerauthToken, filename, headers);
+
+        assertEquals(HttpStatus.OK, actual.getStatusCode());
+        assertNull(actual.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+    }
+
+    @Test
+    public void getFile_unsatisfiableRange_returns416_Test() throws AuthException, IOException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var filename = "existingFilename";
+        var user = new User();
+        var file = new File();
+        file.setHash("hash");
+        file.setStorageRef("ref");
+        file.setSize(10);
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+        var headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, "bytes=100000-");
+
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(fileRepository.findFileByNameAndUser(filename, user)).thenReturn(Optional.of(file));
+
+        var actual = fileService.getFile(BearerauthToken, filename, headers);
+
+        assertEquals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, actual.getStatusCode());
+        assertTrue(actual.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE).startsWith("bytes */"));
+    }
+
     @Test
     public void getFile_notExistingUser_throwsAuthException_Test() {
         var BearerauthToken = "Bearer auth-token";
@@ -329,12 +1117,12 @@ public class ServiceTests {
         var filename = "filename";
         var fileRepository = Mockito.mock(FileRepository.class);
         var userRepository = Mockito.mock(UserRepository.class);
-        var fileService = new FileService(fileRepository, userRepository);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
         Optional<User> optionalUser = Optional.empty();
 
         Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(optionalUser);
 
-        assertThrows(AuthException.class, () -> fileService.getFile(BearerauthToken, filename));
+        assertThrows(AuthException.class, () -> fileService.getFile(BearerauthToken, filename, new HttpHeaders()));
         Mockito.verify(userRepository, Mockito.times(1)).findUserByAuthToken(authToken);
         Mockito.verify(fileRepository, never()).findFileByNameAndUser(Mockito.notNull(), Mockito.notNull());
     }
@@ -345,7 +1133,7 @@ public class ServiceTests {
         var filename = "";
         var fileRepository = Mockito.mock(FileRepository.class);
         var userRepository = Mockito.mock(UserRepository.class);
-        var fileService = new FileService(fileRepository, userRepository);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
         var user = new User();
         var optionalUser = Optional.of(user);
         Optional<File> optionalFile = Optional.empty();
@@ -353,7 +1141,7 @@ public class ServiceTests {
         Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(optionalUser);
         Mockito.when(fileRepository.findFileByNameAndUser(filename, user)).thenReturn(optionalFile);
 
-        assertThrows(IllegalArgumentException.class, () -> fileService.getFile(authToken, filename));
+        assertThrows(IllegalArgumentException.class, () -> fileService.getFile(authToken, filename, new HttpHeaders()));
         Mockito.verify(userRepository, never()).findUserByAuthToken(authToken);
         Mockito.verify(fileRepository, never()).findFileByNameAndUser(filename, user);
     }
@@ -368,12 +1156,12 @@ public class ServiceTests {
         var optionalUser = Optional.of(user);
         var fileRepository = Mockito.mock(FileRepository.class);
         var userRepository = Mockito.mock(UserRepository.class);
-        var fileService = new FileService(fileRepository, userRepository);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
 
         Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(optionalUser);
         Mockito.when(fileRepository.findFileByNameAndUser(filename, user)).thenReturn(optionalFile);
 
-        assertThrows(NoSuchElementException.class, () -> fileService.getFile(BearerauthToken, filename));
+        assertThrows(NoSuchElementException.class, () -> fileService.getFile(BearerauthToken, filename, new HttpHeaders()));
         Mockito.verify(userRepository, Mockito.times(1)).findUserByAuthToken(authToken);
         Mockito.verify(fileRepository, Mockito.times(1)).findFileByNameAndUser(filename, user);
     }
@@ -385,23 +1173,136 @@ public class ServiceTests {
         var filename = "existingFilename";
         var name = "newName";
         var user = new User();
-        var file = new File();
-        file.setName(filename);
-        var optionalFile = Optional.of(file);
         var optionalUser = Optional.of(user);
         var fileRepository = Mockito.mock(FileRepository.class);
         var userRepository = Mockito.mock(UserRepository.class);
-        var fileService = new FileService(fileRepository, userRepository);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
 
         Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(optionalUser);
-        Mockito.when(fileRepository.findFileByNameAndUser(filename, user)).thenReturn(optionalFile);
+        Mockito.when(fileRepository.renameByNameAndUser(filename, user, name)).thenReturn(1);
 
         fileService.renameFile(BearerauthToken, filename, name);
 
-        assertEquals(name, file.getName());
         Mockito.verify(userRepository, Mockito.times(1)).findUserByAuthToken(authToken);
-        Mockito.verify(fileRepository, Mockito.times(1)).findFileByNameAndUser(filename, user);
-        Mockito.verify(fileRepository, Mockito.times(1)).saveAndFlush(file);
+        Mockito.verify(fileRepository, Mockito.times(1)).renameByNameAndUser(filename, user, name);
+        Mockito.verify(fileRepository, never()).findFileByNameAndUser(Mockito.any(), Mockito.any());
+        Mockito.verify(fileRepository, never()).saveAndFlush(Mockito.any());
+    }
+
+    @Test
+    public void renameFile_existingFile_recordsChange_Test() throws AuthException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var user = new User();
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var changeFeed = Mockito.mock(ChangeFeed.class);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), changeFeed, Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(fileRepository.renameByNameAndUser("file", user, "renamed")).thenReturn(1);
+        Mockito.when(fileRepository.renameByNameAndUser("missing", user, "renamed")).thenReturn(0);
+
+        fileService.renameFile(BearerauthToken, "file", "renamed");
+        assertThrows(NoSuchElementException.class, () -> fileService.renameFile(BearerauthToken, "missing", "renamed"));
+
+        Mockito.verify(changeFeed, Mockito.times(1)).record(user, FileChange.Type.RENAME, "file", "renamed", null);
+        Mockito.verifyNoMoreInteractions(changeFeed);
+    }
+
+    @Test
+    public void deleteFiles_severalFiles_deletesFoundFilesInOneQuery_Test() throws AuthException, IOException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var user = new User();
+        var first = new File();
+        first.setName("first");
+        first.setSize(3);
+        first.setStorageRef("ref-1");
+        var second = new File();
+        second.setName("second");
+        second.setSize(4);
+        second.setStorageRef("ref-2");
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var storageBackend = Mockito.mock(StorageBackend.class);
+        var changeFeed = Mockito.mock(ChangeFeed.class);
+        var storageQuota = Mockito.mock(StorageQuota.class);
+        var fileService = new FileService(fileRepository, storageBackend, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), changeFeed, storageQuota, new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(fileRepository.findAllByUserAndNameIn(user, Set.of("first", "second", "missing"))).thenReturn(List.of(first, second));
+
+        var actual = fileService.deleteFiles(BearerauthToken, Arrays.asList("first", "missing", "second", "first", " "));
+
+        var results = actual.getResults();
+        assertEquals(5, results.size());
+        assertTrue(results.get(0).isSuccess());
+        assertEquals("file with provided filename not found", results.get(1).getMessage());
+        assertTrue(results.get(2).isSuccess());
+        assertEquals("filename is repeated in the batch", results.get(3).getMessage());
+        assertEquals("filename is empty", results.get(4).getMessage());
+        Mockito.verify(fileRepository, Mockito.times(1)).findAllByUserAndNameIn(Mockito.eq(user), Mockito.any());
+        Mockito.verify(fileRepository, Mockito.times(1)).deleteAll(List.of(first, second));
+        Mockito.verify(fileRepository, never()).findFileByNameAndUser(Mockito.any(), Mockito.any());
+        Mockito.verify(storageQuota, Mockito.times(1)).release(user, 7);
+        Mockito.verify(storageBackend, Mockito.times(1)).deleteAll(List.of("ref-1", "ref-2"));
+        Mockito.verify(changeFeed, Mockito.times(1)).recordAll(Mockito.eq(user), Mockito.argThat(changes -> changes.size() == 2));
+    }
+
+    @Test
+    public void renameFiles_severalFiles_renamesFreeNamesOnly_Test() throws AuthException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var user = new User();
+        var first = new File();
+        first.setName("first");
+        var second = new File();
+        second.setName("second");
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var changeFeed = Mockito.mock(ChangeFeed.class);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), changeFeed, Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(fileRepository.findAllByUserAndNameIn(Mockito.eq(user), Mockito.any())).thenReturn(List.of(first, second));
+
+        var actual = fileService.renameFiles(BearerauthToken, List.of(
+                renameItem("first", "renamed"), renameItem("second", "first"), renameItem("missing", "other"), renameItem("second", "")));
+
+        var results = actual.getResults();
+        assertTrue(results.get(0).isSuccess());
+        assertEquals("file with provided name already exists", results.get(1).getMessage());
+        assertEquals("file with provided filename not found", results.get(2).getMessage());
+        assertEquals("name is empty", results.get(3).getMessage());
+        assertEquals("renamed", first.getName());
+        assertEquals("second", second.getName());
+        Mockito.verify(fileRepository, Mockito.times(1)).findAllByUserAndNameIn(Mockito.eq(user), Mockito.any());
+        Mockito.verify(fileRepository, Mockito.times(1)).flush();
+        Mockito.verify(changeFeed, Mockito.times(1)).recordAll(Mockito.eq(user), Mockito.argThat(changes -> changes.size() == 1
+                && changes.get(0).getType() == FileChange.Type.RENAME && "renamed".equals(changes.get(0).getNewName())));
+    }
+
+    @Test
+    public void deleteFiles_tooManyFiles_throwsIllegalException_Test() {
+        var fileService = new FileService(Mockito.mock(FileRepository.class), Mockito.mock(StorageBackend.class), Mockito.mock(TokenAuthenticator.class), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+
+        assertThrows(IllegalArgumentException.class, () -> fileService.deleteFiles("Bearer auth-token", List.of()));
+        assertThrows(IllegalArgumentException.class, () -> fileService.deleteFiles("Bearer auth-token", Collections.nCopies(1001, "file")));
+    }
+
+    @Test
+    public void getChanges_notValidArguments_throwsIllegalException_Test() {
+        var BearerauthToken = "Bearer auth-token";
+        var userRepository = Mockito.mock(UserRepository.class);
+        var changeFeed = Mockito.mock(ChangeFeed.class);
+        var fileService = new FileService(Mockito.mock(FileRepository.class), Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), changeFeed, Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+
+        assertThrows(IllegalArgumentException.class, () -> fileService.getChanges(BearerauthToken, -1L, 10));
+        assertThrows(IllegalArgumentException.class, () -> fileService.getChanges(BearerauthToken, null, 10));
+        assertThrows(IllegalArgumentException.class, () -> fileService.getChanges(BearerauthToken, 0L, 0));
+        assertThrows(IllegalArgumentException.class, () -> fileService.streamChanges(BearerauthToken, null, "not a number"));
+        Mockito.verifyNoInteractions(userRepository, changeFeed);
     }
 
     @Test
@@ -411,18 +1312,17 @@ public class ServiceTests {
         var filename = "filename";
         var name = "newName";
         var user = new User();
-        Optional<File> optionalFile = Optional.empty();
         var optionalUser = Optional.of(user);
         var fileRepository = Mockito.mock(FileRepository.class);
         var userRepository = Mockito.mock(UserRepository.class);
-        var fileService = new FileService(fileRepository, userRepository);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
 
         Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(optionalUser);
-        Mockito.when(fileRepository.findFileByNameAndUser(filename, user)).thenReturn(optionalFile);
+        Mockito.when(fileRepository.renameByNameAndUser(filename, user, name)).thenReturn(0);
 
         assertThrows(NoSuchElementException.class, () -> fileService.renameFile(BearerauthToken, filename, name));
         Mockito.verify(userRepository, Mockito.times(1)).findUserByAuthToken(authToken);
-        Mockito.verify(fileRepository, Mockito.times(1)).findFileByNameAndUser(filename, user);
+        Mockito.verify(fileRepository, Mockito.times(1)).renameByNameAndUser(filename, user, name);
         Mockito.verify(fileRepository, never()).saveAndFlush(Mockito.notNull());
     }
 
@@ -434,14 +1334,14 @@ public class ServiceTests {
         var name = "newName";
         var fileRepository = Mockito.mock(FileRepository.class);
         var userRepository = Mockito.mock(UserRepository.class);
-        var fileService = new FileService(fileRepository, userRepository);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
         Optional<User> optionalUser = Optional.empty();
 
         Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(optionalUser);
 
         Assert.assertThrows(AuthException.class, () -> fileService.renameFile(BearerauthToken, filename, name));
         Mockito.verify(userRepository, Mockito.times(1)).findUserByAuthToken(authToken);
-        Mockito.verify(fileRepository, never()).findFileByNameAndUser(Mockito.notNull(), Mockito.notNull());
+        Mockito.verify(fileRepository, never()).renameByNameAndUser(Mockito.any(), Mockito.any(), Mockito.any());
         Mockito.verify(fileRepository, never()).saveAndFlush(Mockito.notNull());
     }
 
@@ -454,13 +1354,13 @@ public class ServiceTests {
         var optionalUser = Optional.of(user);
         var fileRepository = Mockito.mock(FileRepository.class);
         var userRepository = Mockito.mock(UserRepository.class);
-        var fileService = new FileService(fileRepository, userRepository);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
 
         Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(optionalUser);
 
         assertThrows(IllegalArgumentException.class, () -> fileService.renameFile(authToken, filename, name));
         Mockito.verify(userRepository, never()).findUserByAuthToken(authToken);
-        Mockito.verify(fileRepository, never()).findFileByNameAndUser(filename, user);
+        Mockito.verify(fileRepository, never()).renameByNameAndUser(filename, user, name);
         Mockito.verify(fileRepository, never()).saveAndFlush(Mockito.notNull());
     }
 
@@ -473,22 +1373,213 @@ public class ServiceTests {
         var optionalUser = Optional.of(user);
         var fileRepository = Mockito.mock(FileRepository.class);
         var userRepository = Mockito.mock(UserRepository.class);
-        var fileService = new FileService(fileRepository, userRepository);
-        List<File> files = new ArrayList<>();
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+        List<FileSummary> files = new ArrayList<>();
         List<GetListResponseItem> list = new ArrayList<>();
         var response = new GetListResponse();
         response.setFiles(list);
 
         Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(optionalUser);
-        Mockito.when(fileRepository.findAllByUser(user, PageRequest.of(0, limit))).thenReturn(files);
+        Mockito.when(fileRepository.findSummaries(user, FileSort.NAME, false, null, limit + 1)).thenReturn(files);
 
         var expected = response;
-        var actual = fileService.getList(BearerauthToken, limit);
+        var actual = fileService.getList(BearerauthToken, limit, null, null, null, new HttpHeaders()).getBody();
 
         assertSame(expected.getClass(), actual.getClass());
         assertEquals(expected.getFiles(), actual.getFiles());
         Mockito.verify(userRepository, Mockito.times(1)).findUserByAuthToken(authToken);
-        Mockito.verify(fileRepository, Mockito.times(1)).findAllByUser(user, PageRequest.of(0, limit));
+        Mockito.verify(fileRepository, Mockito.times(1)).findSummaries(user, FileSort.NAME, false, null, limit + 1);
+    }
+
+    @Test
+    public void getList_storedSizes_returnsNamesAndSizes_Test() throws AuthException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var limit = 4;
+        var user = new User();
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var storageBackend = Mockito.mock(StorageBackend.class);
+        var fileService = new FileService(fileRepository, storageBackend, new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+        var summary = Mockito.mock(FileSummary.class);
+
+        Mockito.when(summary.getName()).thenReturn("large");
+        // Больше Integer.MAX_VALUE: размер в ответе не обрезается
+        Mockito.when(summary.getSize()).thenReturn(5L * 1024 * 1024 * 1024);
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(fileRepository.findSummaries(user, FileSort.NAME, false, null, limit + 1)).thenReturn(List.of(summary));
+
+        var actual = fileService.getList(BearerauthToken, limit, null, null, null, new HttpHeaders()).getBody();
+
+        assertEquals(1, actual.getFiles().size());
+        assertEquals("large", actual.getFiles().get(0).getFilename());
+        assertEquals(5L * 1024 * 1024 * 1024, actual.getFiles().get(0).getSize());
+        Mockito.verify(fileRepository, never()).findFileByNameAndUser(Mockito.any(), Mockito.any());
+        Mockito.verifyNoInteractions(storageBackend);
+    }
+
+    @Test
+    public void getList_morePages_returnsCursorForNextPage_Test() throws AuthException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var user = new User();
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+        var uploadedAt = Instant.parse("2026-01-02T03:04:05.123456Z");
+        var first = Mockito.mock(FileSummary.class);
+        var second = Mockito.mock(FileSummary.class);
+        var third = Mockito.mock(FileSummary.class);
+
+        Mockito.when(first.getName()).thenReturn("a");
+        var secondId = UUID.randomUUID();
+        Mockito.when(second.getId()).thenReturn(secondId);
+        Mockito.when(second.getName()).thenReturn("b|c");
+        Mockito.when(second.getSize()).thenReturn(20L);
+        Mockito.when(second.getUploadedAt()).thenReturn(uploadedAt);
+        Mockito.when(third.getName()).thenReturn("d");
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(fileRepository.findSummaries(user, FileSort.SIZE, true, null, 3)).thenReturn(List.of(first, second, third));
+        Mockito.when(fileRepository.findSummaries(Mockito.eq(user), Mockito.eq(FileSort.SIZE), Mockito.eq(true), Mockito.notNull(), Mockito.eq(3))).thenReturn(List.of(third));
+
+        var page = fileService.getList(BearerauthToken, 2, "size", "desc", null, new HttpHeaders()).getBody();
+        var nextPage = fileService.getList(BearerauthToken, 2, "size", "desc", page.getNext(), new HttpHeaders()).getBody();
+
+        assertEquals(List.of("a", "b|c"), page.getFiles().stream().map(GetListResponseItem::getFilename).collect(Collectors.toList()));
+        assertEquals(List.of("d"), nextPage.getFiles().stream().map(GetListResponseItem::getFilename).collect(Collectors.toList()));
+        assertNull(nextPage.getNext());
+        var after = ArgumentCaptor.forClass(FileSummary.class);
+        Mockito.verify(fileRepository, Mockito.times(2)).findSummaries(Mockito.eq(user), Mockito.eq(FileSort.SIZE), Mockito.eq(true), after.capture(), Mockito.eq(3));
+        var cursor = after.getAllValues().get(1);
+        assertEquals(secondId, cursor.getId());
+        assertEquals("b|c", cursor.getName());
+        assertEquals(20L, cursor.getSize());
+        assertEquals(uploadedAt, cursor.getUploadedAt());
+    }
+
+    @Test
+    public void getList_cursorOfOtherSort_throwsIllegalException_Test() throws AuthException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var user = new User();
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+        var first = Mockito.mock(FileSummary.class);
+        var second = Mockito.mock(FileSummary.class);
+
+        Mockito.when(first.getId()).thenReturn(UUID.randomUUID());
+        Mockito.when(first.getName()).thenReturn("a");
+        Mockito.when(first.getUploadedAt()).thenReturn(Instant.EPOCH);
+        Mockito.when(second.getName()).thenReturn("b");
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(fileRepository.findSummaries(user, FileSort.NAME, false, null, 2)).thenReturn(List.of(first, second));
+
+        var next = fileService.getList(BearerauthToken, 1, null, null, null, new HttpHeaders()).getBody().getNext();
+
+        assertThrows(IllegalArgumentException.class, () -> fileService.getList(BearerauthToken, 1, "size", null, next, new HttpHeaders()));
+        assertThrows(IllegalArgumentException.class, () -> fileService.getList(BearerauthToken, 1, null, "desc", next, new HttpHeaders()));
+        assertThrows(IllegalArgumentException.class, () -> fileService.getList(BearerauthToken, 1, null, null, "not a cursor", new HttpHeaders()));
+        assertThrows(IllegalArgumentException.class, () -> fileService.getList(BearerauthToken, 1, "date", null, null, new HttpHeaders()));
+    }
+
+    @Test
+    public void getList_unchangedList_returnsNotModifiedFromCache_Test() throws AuthException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var user = new User();
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+        var summary = Mockito.mock(FileSummary.class);
+
+        Mockito.when(summary.getName()).thenReturn("file");
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(fileRepository.findSummaries(user, FileSort.NAME, false, null, 5)).thenReturn(List.of(summary));
+
+        var first = fileService.getList(BearerauthToken, 4, null, null, null, new HttpHeaders());
+        var headers = new HttpHeaders();
+        headers.setIfNoneMatch(first.getHeaders().getETag());
+        var second = fileService.getList(BearerauthToken, 4, null, null, null, headers);
+
+        assertEquals(HttpStatus.OK, first.getStatusCode());
+        assertNotNull(first.getHeaders().getETag());
+        assertEquals(HttpStatus.NOT_MODIFIED, second.getStatusCode());
+        assertEquals(first.getHeaders().getETag(), second.getHeaders().getETag());
+        assertNull(second.getBody());
+        Mockito.verify(fileRepository, Mockito.times(1)).findSummaries(user, FileSort.NAME, false, null, 5);
+    }
+
+    @Test
+    public void getList_afterRename_reloadsList_Test() throws AuthException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var user = new User();
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+        var before = Mockito.mock(FileSummary.class);
+        var after = Mockito.mock(FileSummary.class);
+
+        Mockito.when(before.getName()).thenReturn("file");
+        Mockito.when(after.getName()).thenReturn("renamed");
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(fileRepository.findSummaries(user, FileSort.NAME, false, null, 5)).thenReturn(List.of(before), List.of(after));
+        Mockito.when(fileRepository.renameByNameAndUser("file", user, "renamed")).thenReturn(1);
+
+        var first = fileService.getList(BearerauthToken, 4, null, null, null, new HttpHeaders());
+        fileService.renameFile(BearerauthToken, "file", "renamed");
+        var headers = new HttpHeaders();
+        headers.setIfNoneMatch(first.getHeaders().getETag());
+        var second = fileService.getList(BearerauthToken, 4, null, null, null, headers);
+
+        assertEquals(HttpStatus.OK, second.getStatusCode());
+        assertEquals("renamed", second.getBody().getFiles().get(0).getFilename());
+        assertNotEquals(first.getHeaders().getETag(), second.getHeaders().getETag());
+        Mockito.verify(fileRepository, Mockito.times(2)).findSummaries(user, FileSort.NAME, false, null, 5);
+    }
+
+    @Test
+    public void searchFiles_prefix_pagesByNameAfterCursor_Test() throws AuthException {
+        var BearerauthToken = "Bearer auth-token";
+        var authToken = "auth-token";
+        var user = new User();
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+        var first = Mockito.mock(FileSummary.class);
+        var second = Mockito.mock(FileSummary.class);
+
+        Mockito.when(first.getId()).thenReturn(UUID.randomUUID());
+        Mockito.when(first.getName()).thenReturn("report-1");
+        Mockito.when(first.getUploadedAt()).thenReturn(Instant.EPOCH);
+        Mockito.when(second.getName()).thenReturn("report-2");
+        Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(Optional.of(user));
+        Mockito.when(fileRepository.searchSummaries(user, "report", false, null, 2)).thenReturn(List.of(first, second));
+        Mockito.when(fileRepository.searchSummaries(Mockito.eq(user), Mockito.eq("report"), Mockito.eq(false),
+                Mockito.argThat(after -> after != null && after.getName().equals("report-1") && after.getId().equals(first.getId())), Mockito.eq(2)))
+                .thenReturn(List.of(second));
+
+        var page = fileService.searchFiles(BearerauthToken, "report", null, 1, null);
+        var nextPage = fileService.searchFiles(BearerauthToken, "report", "prefix", 1, page.getNext());
+
+        assertEquals("report-1", page.getFiles().get(0).getFilename());
+        assertEquals("report-2", nextPage.getFiles().get(0).getFilename());
+        assertNull(nextPage.getNext());
+    }
+
+    @Test
+    public void searchFiles_notValidArguments_throwsIllegalException_Test() {
+        var BearerauthToken = "Bearer auth-token";
+        var fileRepository = Mockito.mock(FileRepository.class);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
+
+        assertThrows(IllegalArgumentException.class, () -> fileService.searchFiles(BearerauthToken, "", null, 10, null));
+        assertThrows(IllegalArgumentException.class, () -> fileService.searchFiles(BearerauthToken, null, null, 10, null));
+        assertThrows(IllegalArgumentException.class, () -> fileService.searchFiles(BearerauthToken, "a", "regex", 10, null));
+        assertThrows(IllegalArgumentException.class, () -> fileService.searchFiles(BearerauthToken, "a", null, 0, null));
+        Mockito.verifyNoInteractions(fileRepository, userRepository);
     }
 
     @Test
@@ -498,14 +1589,14 @@ public class ServiceTests {
         var limit = 4;
         var fileRepository = Mockito.mock(FileRepository.class);
         var userRepository = Mockito.mock(UserRepository.class);
-        var fileService = new FileService(fileRepository, userRepository);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
         Optional<User> optionalUser = Optional.empty();
 
         Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(optionalUser);
 
-        assertThrows(AuthException.class, () -> fileService.getList(BearerauthToken, limit));
+        assertThrows(AuthException.class, () -> fileService.getList(BearerauthToken, limit, null, null, null, new HttpHeaders()));
         Mockito.verify(userRepository, Mockito.times(1)).findUserByAuthToken(authToken);
-        Mockito.verify(fileRepository, never()).findAllByUser(Mockito.notNull(), Mockito.notNull());
+        Mockito.verify(fileRepository, never()).findSummaries(Mockito.any(), Mockito.any(), Mockito.anyBoolean(), Mockito.any(), Mockito.anyInt());
     }
 
     @Test
@@ -516,12 +1607,103 @@ public class ServiceTests {
         var optionalUser = Optional.of(user);
         var fileRepository = Mockito.mock(FileRepository.class);
         var userRepository = Mockito.mock(UserRepository.class);
-        var fileService = new FileService(fileRepository, userRepository);
+        var fileService = new FileService(fileRepository, Mockito.mock(StorageBackend.class), new DatabaseTokenAuthenticator(userRepository, new AuthTokenCache(Duration.ofMinutes(5), 100)), new TransferMetrics(new SimpleMeterRegistry()), new FileListCache(Duration.ofMinutes(1), 100), Mockito.mock(ChangeFeed.class), Mockito.mock(StorageQuota.class), new InstantUploadChallenges(Duration.ofMinutes(5), 100));
 
         Mockito.when(userRepository.findUserByAuthToken(authToken)).thenReturn(optionalUser);
 
-        assertThrows(IllegalArgumentException.class, () -> fileService.getList(authToken, limit));
+        assertThrows(IllegalArgumentException.class, () -> fileService.getList(authToken, limit, null, null, null, new HttpHeaders()));
         Mockito.verify(userRepository, never()).findUserByAuthToken(authToken);
-        Mockito.verify(fileRepository, never()).findAllByUser(Mockito.notNull(), Mockito.notNull());
+        Mockito.verify(fileRepository, never()).findSummaries(Mockito.any(), Mockito.any(), Mockito.anyBoolean(), Mockito.any(), Mockito.anyInt());
+    }
+
+    private static StorageBackend contentStorageBackend(String content) throws IOException {
+        var bytes = content.getBytes(StandardCharsets.UTF_8);
+        var storageBackend = Mockito.mock(StorageBackend.class);
+        Mockito.when(storageBackend.transferTo(Mockito.anyString(), Mockito.anyLong(), Mockito.anyLong(), Mockito.notNull())).thenAnswer(invocation -> {
+            long offset = invocation.getArgument(1);
+            long length = invocation.getArgument(2);
+            OutputStream out = invocation.getArgument(3);
+            var count = (int) Math.min(length, bytes.length - offset);
+            out.write(bytes, (int) offset, count);
+            return (long) count;
+        });
+        return storageBackend;
+    }
+
+    private static PostBatchRenameRequestItem renameItem(String filename, String name) {
+        var item = new PostBatchRenameRequestItem();
+        item.setFilename(filename);
+        item.setName(name);
+        return item;
+    }
+
+    private static class GeneratedInputStream extends InputStream {
+        private long remaining;
+
+        GeneratedInputStream(long size) {
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() {
+            if (remaining == 0) {
+                return -1;
+            }
+            remaining--;
+            return (int) (remaining & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining == 0) {
+                return -1;
+            }
+            var count = (int) Math.min(len, remaining);
+            remaining -= count;
+            return count;
+        }
+    }
+
+    private static StorageBackend gzipStorageBackend(byte[] stored) throws IOException {
+        var storageBackend = Mockito.mock(StorageBackend.class);
+        Mockito.when(storageBackend.open("ref")).thenAnswer(invocation -> new ByteArrayInputStream(stored));
+        Mockito.when(storageBackend.transferTo(Mockito.eq("ref"), Mockito.anyLong(), Mockito.anyLong(), Mockito.notNull())).thenAnswer(invocation -> {
+            var offset = (int) (long) invocation.<Long>getArgument(1);
+            var length = (int) Math.min(invocation.<Long>getArgument(2), stored.length - offset);
+            invocation.<OutputStream>getArgument(3).write(stored, offset, length);
+            return (long) length;
+        });
+        return storageBackend;
+    }
+
+    // Распаковывает ровно один член gzip, как клиенты, которые не ищут следующих членов,
+    // и проверяет, что после него остался только трейлер с верными CRC-32 и размером.
+    private static byte[] gunzipSingleMember(byte[] gzip) throws IOException {
+        assertEquals(0x1f, gzip[0] & 0xff);
+        assertEquals(0x8b, gzip[1] & 0xff);
+        var inflater = new Inflater(true);
+        try {
+            inflater.setInput(gzip, 10, gzip.length - 10);
+            var out = new ByteArrayOutputStream();
+            var buffer = new byte[8192];
+            while (!inflater.finished()) {
+                var count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("truncated deflate stream");
+                }
+                out.write(buffer, 0, count);
+            }
+            assertEquals(8, inflater.getRemaining());
+            var trailer = ByteBuffer.wrap(gzip, gzip.length - 8, 8).order(ByteOrder.LITTLE_ENDIAN);
+            var crc = new CRC32();
+            crc.update(out.toByteArray());
+            assertEquals(crc.getValue(), trailer.getInt() & 0xffffffffL);
+            assertEquals(out.size(), trailer.getInt());
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
     }
 }
@@ -0,0 +1,148 @@
+package ru.netology.clouddata.unitTests;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import ru.netology.auth.AuthTokenCache;
+import ru.netology.auth.SignedTokenAuthenticator;
+import ru.netology.entities.RevokedToken;
+import ru.netology.entities.User;
+import ru.netology.repositories.RevokedTokenRepository;
+import ru.netology.repositories.UserRepository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.never;
+
+public class SignedTokenAuthenticatorTests {
+
+    private static final String KEY = Base64.getEncoder().encodeToString(new byte[32]);
+    private static final String OTHER_KEY = Base64.getEncoder().encodeToString("another-32-byte-signing-key-0000".getBytes());
+
+    @Test
+    public void findUser_issuedToken_returnsUserWithoutLookup_Test() {
+        var userRepository = Mockito.mock(UserRepository.class);
+        var authenticator = new SignedTokenAuthenticator(userRepository, Mockito.mock(RevokedTokenRepository.class), newAuthTokenCache(), KEY, Duration.ofHours(1));
+        var user = user(42);
+
+        Mockito.when(userRepository.findById(42)).thenReturn(Optional.of(user));
+
+        var token = authenticator.issueToken(user);
+
+        assertFalse(token.contains(" "));
+        assertSame(user, authenticator.findUser(token).orElseThrow());
+        Mockito.verify(userRepository, never()).findUserByAuthToken(Mockito.any());
+        Mockito.verify(userRepository, never()).saveAndFlush(Mockito.any());
+    }
+
+    @Test
+    public void findUser_tamperedOrForeignToken_returnsEmpty_Test() {
+        var revokedTokenRepository = Mockito.mock(RevokedTokenRepository.class);
+        var authenticator = new SignedTokenAuthenticator(Mockito.mock(UserRepository.class), revokedTokenRepository, newAuthTokenCache(), KEY, Duration.ofHours(1));
+        var foreign = new SignedTokenAuthenticator(Mockito.mock(UserRepository.class), revokedTokenRepository, newAuthTokenCache(), OTHER_KEY, Duration.ofHours(1));
+        var token = authenticator.issueToken(user(1));
+        var payload = Base64.getUrlDecoder().decode(token.substring(0, token.indexOf('.')));
+        payload[3] = 2;
+        var tampered = Base64.getUrlEncoder().withoutPadding().encodeToString(payload) + token.substring(token.indexOf('.'));
+
+        assertTrue(authenticator.findUser(tampered).isEmpty());
+        assertTrue(authenticator.findUser(foreign.issueToken(user(1))).isEmpty());
+        assertTrue(authenticator.findUser("not-a-token").isEmpty());
+        assertTrue(authenticator.findUser("%%%.%%%").isEmpty());
+    }
+
+    @Test
+    public void findUser_expiredToken_returnsEmpty_Test() {
+        var authenticator = new SignedTokenAuthenticator(Mockito.mock(UserRepository.class), Mockito.mock(RevokedTokenRepository.class), newAuthTokenCache(), KEY, Duration.ZERO);
+
+        assertTrue(authenticator.findUser(authenticator.issueToken(user(1))).isEmpty());
+    }
+
+    @Test
+    public void revokeToken_issuedToken_rejectedAndPersisted_Test() {
+        var userRepository = Mockito.mock(UserRepository.class);
+        var revokedTokenRepository = Mockito.mock(RevokedTokenRepository.class);
+        var authenticator = new SignedTokenAuthenticator(userRepository, revokedTokenRepository, newAuthTokenCache(), KEY, Duration.ofHours(1));
+        var user = user(7);
+        var revoked = authenticator.issueToken(user);
+        var other = authenticator.issueToken(user);
+
+        Mockito.when(userRepository.findById(7)).thenReturn(Optional.of(user));
+
+        authenticator.revokeToken(revoked);
+
+        assertTrue(authenticator.findUser(revoked).isEmpty());
+        assertTrue(authenticator.findUser(other).isPresent());
+        Mockito.verify(revokedTokenRepository, Mockito.times(1)).saveAndFlush(Mockito.any(RevokedToken.class));
+    }
+
+    @Test
+    public void refreshRevocations_revokedByAnotherInstance_rejected_Test() {
+        var userRepository = Mockito.mock(UserRepository.class);
+        var revokedTokenRepository = Mockito.mock(RevokedTokenRepository.class);
+        var stored = new ArrayList<RevokedToken>();
+        Mockito.when(revokedTokenRepository.saveAndFlush(Mockito.any(RevokedToken.class))).thenAnswer(invocation -> {
+            stored.add(invocation.getArgument(0));
+            return invocation.getArgument(0);
+        });
+        Mockito.when(revokedTokenRepository.findAllByExpiresAtAfter(Mockito.any(Instant.class))).thenAnswer(invocation -> List.copyOf(stored));
+        var first = new SignedTokenAuthenticator(userRepository, revokedTokenRepository, newAuthTokenCache(), KEY, Duration.ofHours(1));
+        var second = new SignedTokenAuthenticator(userRepository, revokedTokenRepository, newAuthTokenCache(), KEY, Duration.ofHours(1));
+        var token = first.issueToken(user(3));
+
+        Mockito.when(userRepository.findById(3)).thenReturn(Optional.of(user(3)));
+        assertTrue(second.findUser(token).isPresent());
+
+        first.revokeToken(token);
+        second.refreshRevocations();
+
+        assertTrue(second.findUser(token).isEmpty());
+    }
+
+    @Test
+    public void findUser_deletedUser_returnsEmpty_Test() {
+        var userRepository = Mockito.mock(UserRepository.class);
+        var authenticator = new SignedTokenAuthenticator(userRepository, Mockito.mock(RevokedTokenRepository.class), newAuthTokenCache(), KEY, Duration.ofHours(1));
+        var token = authenticator.issueToken(user(5));
+
+        Mockito.when(userRepository.findById(5)).thenReturn(Optional.empty());
+
+        assertTrue(authenticator.findUser(token).isEmpty());
+    }
+
+    @Test
+    public void findUser_repeatedRequests_userLoadedOnce_Test() {
+        var userRepository = Mockito.mock(UserRepository.class);
+        var authenticator = new SignedTokenAuthenticator(userRepository, Mockito.mock(RevokedTokenRepository.class), newAuthTokenCache(), KEY, Duration.ofHours(1));
+        var token = authenticator.issueToken(user(6));
+
+        Mockito.when(userRepository.findById(6)).thenReturn(Optional.of(user(6)));
+
+        assertTrue(authenticator.findUser(token).isPresent());
+        assertTrue(authenticator.findUser(token).isPresent());
+        Mockito.verify(userRepository, Mockito.times(1)).findById(6);
+    }
+
+    @Test
+    public void constructor_shortKey_throwsIllegalArgumentException_Test() {
+        var shortKey = Base64.getEncoder().encodeToString(new byte[16]);
+
+        assertThrows(IllegalArgumentException.class, () -> new SignedTokenAuthenticator(
+                Mockito.mock(UserRepository.class), Mockito.mock(RevokedTokenRepository.class), newAuthTokenCache(), shortKey, Duration.ofHours(1)));
+    }
+
+    private static AuthTokenCache newAuthTokenCache() {
+        return new AuthTokenCache(Duration.ofMinutes(5), 100);
+    }
+
+    private static User user(int id) {
+        var user = new User();
+        user.setId(id);
+        return user;
+    }
+}
@@ -0,0 +1,567 @@
+package ru.netology.clouddata.unitTests;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.unit.DataSize;
+import ru.netology.storage.CachingStorageBackend;
+import ru.netology.storage.ContentCodec;
+import ru.netology.storage.ContentDigestInputStream;
+import ru.netology.storage.DeduplicatingStorageBackend;
+import ru.netology.storage.LocalFileSystemStorageBackend;
+import ru.netology.storage.StorageBackend;
+import ru.netology.storage.StoredContent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StorageBackendTests {
+    private static final ExecutorService HASHERS = Executors.newFixedThreadPool(2);
+    private static final ContentCodec CODEC = new ContentCodec(ContentCodec.GZIP, 1, 0.9, HASHERS);
+
+    @TempDir
+    Path root;
+
+    @Test
+    public void store_localFileSystem_storesContentInFanOutDirectories_Test() throws IOException {
+        var content = "content".getBytes(StandardCharsets.UTF_8);
+        var storageBackend = new LocalFileSystemStorageBackend(root, HASHERS);
+
+        var actual = storageBackend.store(new ByteArrayInputStream(content), content.length);
+
+        var reference = actual.getReference();
+        assertEquals("ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73", actual.getSha256());
+        assertEquals(content.length, actual.getSize());
+        assertTrue(Files.exists(root.resolve(reference.substring(0, 2)).resolve(reference.substring(2, 4)).resolve(reference)));
+        try (var in = storageBackend.open(reference)) {
+            assertArrayEquals(content, in.readAllBytes());
+        }
+    }
+
+    // Удаление одной копии не задевает другую, даже если содержимое одинаковое.
+    @Test
+    public void store_localFileSystem_sameContentTwice_storesSeparateCopies_Test() throws IOException {
+        var content = "content".getBytes(StandardCharsets.UTF_8);
+        var storageBackend = new LocalFileSystemStorageBackend(root, HASHERS);
+
+        var first = storageBackend.store(new ByteArrayInputStream(content), content.length);
+        var second = storageBackend.store(new ByteArrayInputStream(content), content.length);
+        storageBackend.delete(first.getReference());
+
+        assertNotEquals(first.getReference(), second.getReference());
+        try (var in = storageBackend.open(second.getReference())) {
+            assertArrayEquals(content, in.readAllBytes());
+        }
+        try (var tmp = Files.list(root.resolve("tmp"))) {
+            assertEquals(0, tmp.count());
+        }
+    }
+
+    @Test
+    public void transferTo_localFileSystem_writesWholeContent_Test() throws IOException {
+        var content = new byte[3 * StorageBackend.BUFFER_SIZE + 7];
+        new Random(42).nextBytes(content);
+        var storageBackend = new LocalFileSystemStorageBackend(root, HASHERS);
+        var reference = storageBackend.store(new ByteArrayInputStream(content), content.length).getReference();
+        var out = new ByteArrayOutputStream();
+
+        var actual = storageBackend.transferTo(reference, out);
+
+        assertEquals(content.length, actual);
+        assertArrayEquals(content, out.toByteArray());
+    }
+
+    @Test
+    public void transferTo_localFileSystem_range_writesOnlyRequestedBytes_Test() throws IOException {
+        var content = "0123456789".getBytes(StandardCharsets.UTF_8);
+        var storageBackend = new LocalFileSystemStorageBackend(root, HASHERS);
+        var reference = storageBackend.store(new ByteArrayInputStream(content), content.length).getReference();
+        var out = new ByteArrayOutputStream();
+
+        var actual = storageBackend.transferTo(reference, 7, 100, out);
+
+        assertEquals(3, actual);
+        assertEquals("789", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void transferTo_localFileSystem_truncatedDuringTransfer_throwsIOException_Test() throws IOException {
+        var content = new byte[10 * StorageBackend.BUFFER_SIZE];
+        var storageBackend = new LocalFileSystemStorageBackend(root, HASHERS);
+        var reference = storageBackend.store(new ByteArrayInputStream(content), content.length).getReference();
+        Path file;
+        try (var files = Files.walk(root)) {
+            file = files.filter(path -> path.getFileName().toString().equals(reference)).findFirst().orElseThrow();
+        }
+        var out = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                super.write(b, off, len);
+                try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.truncate(size());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+
+        assertThrows(IOException.class, () -> storageBackend.transferTo(reference, out));
+    }
+
+    @Test
+    public void delete_localFileSystem_removesContent_Test() throws IOException {
+        var content = "content".getBytes(StandardCharsets.UTF_8);
+        var storageBackend = new LocalFileSystemStorageBackend(root, HASHERS);
+        var reference = storageBackend.store(new ByteArrayInputStream(content), content.length).getReference();
+
+        storageBackend.delete(reference);
+
+        assertThrows(NoSuchElementException.class, () -> storageBackend.open(reference));
+    }
+
+    @Test
+    public void open_localFileSystem_invalidReference_throwsIllegalArgumentException_Test() throws IOException {
+        var storageBackend = new LocalFileSystemStorageBackend(root, HASHERS);
+
+        assertThrows(IllegalArgumentException.class, () -> storageBackend.open("../../etc/passwd"));
+    }
+
+    @Test
+    public void store_deduplicating_knownContent_dropsNewCopyAndReturnsExistingReference_Test() throws IOException {
+        var content = "content".getBytes(StandardCharsets.UTF_8);
+        var delegate = Mockito.mock(StorageBackend.class);
+        var jdbcTemplate = Mockito.mock(JdbcTemplate.class);
+        var storageBackend = new DeduplicatingStorageBackend(delegate, jdbcTemplate, CODEC);
+
+        Mockito.when(delegate.store(Mockito.any(), Mockito.anyLong())).thenAnswer(invocation -> {
+            invocation.<InputStream>getArgument(0).readAllBytes();
+            return new StoredContent("new-ref", content.length);
+        });
+        Mockito.when(jdbcTemplate.queryForObject(Mockito.startsWith("insert into blobs"), Mockito.<RowMapper<StoredContent>>any(),
+                Mockito.eq("ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73"), Mockito.eq("new-ref"), Mockito.eq((long) content.length),
+                Mockito.isNull(), Mockito.eq((long) content.length)))
+                .thenReturn(new StoredContent("existing-ref", content.length, "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73"));
+
+        var actual = storageBackend.store(new ByteArrayInputStream(content), content.length);
+
+        assertEquals("existing-ref", actual.getReference());
+        assertEquals(content.length, actual.getSize());
+        Mockito.verify(delegate, Mockito.times(1)).delete("new-ref");
+    }
+
+    @Test
+    public void store_deduplicating_newContent_keepsCopy_Test() throws IOException {
+        var content = "content".getBytes(StandardCharsets.UTF_8);
+        var delegate = Mockito.mock(StorageBackend.class);
+        var jdbcTemplate = Mockito.mock(JdbcTemplate.class);
+        var storageBackend = new DeduplicatingStorageBackend(delegate, jdbcTemplate, CODEC);
+
+        Mockito.when(delegate.store(Mockito.any(), Mockito.anyLong())).thenAnswer(invocation -> {
+            invocation.<InputStream>getArgument(0).readAllBytes();
+            return new StoredContent("new-ref", content.length);
+        });
+        Mockito.when(jdbcTemplate.queryForObject(Mockito.startsWith("insert into blobs"), Mockito.<RowMapper<StoredContent>>any(),
+                Mockito.<Object>any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(new StoredContent("new-ref", content.length, "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73"));
+
+        var actual = storageBackend.store(new ByteArrayInputStream(content), content.length);
+
+        assertEquals("new-ref", actual.getReference());
+        assertEquals("ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73", actual.getSha256());
+        Mockito.verify(delegate, Mockito.never()).delete(Mockito.any());
+    }
+
+    @Test
+    public void delete_deduplicating_otherReferencesLeft_keepsContent_Test() throws IOException {
+        var delegate = Mockito.mock(StorageBackend.class);
+        var jdbcTemplate = Mockito.mock(JdbcTemplate.class);
+        var storageBackend = new DeduplicatingStorageBackend(delegate, jdbcTemplate, CODEC);
+
+        Mockito.when(jdbcTemplate.queryForList(Mockito.startsWith("update blobs"), Mockito.eq(Long.class), Mockito.eq("ref")))
+                .thenReturn(List.of(1L));
+
+        storageBackend.delete("ref");
+
+        Mockito.verify(delegate, Mockito.never()).delete(Mockito.any());
+        Mockito.verify(jdbcTemplate, Mockito.never()).update(Mockito.startsWith("delete from blobs"), Mockito.<Object>any());
+    }
+
+    @Test
+    public void delete_deduplicating_lastReference_deletesContent_Test() throws IOException {
+        var delegate = Mockito.mock(StorageBackend.class);
+        var jdbcTemplate = Mockito.mock(JdbcTemplate.class);
+        var storageBackend = new DeduplicatingStorageBackend(delegate, jdbcTemplate, CODEC);
+
+        Mockito.when(jdbcTemplate.queryForList(Mockito.startsWith("update blobs"), Mockito.eq(Long.class), Mockito.eq("ref")))
+                .thenReturn(List.of(0L));
+        Mockito.when(jdbcTemplate.update(Mockito.startsWith("delete from blobs"), Mockito.eq("ref"))).thenReturn(1);
+
+        storageBackend.delete("ref");
+
+        Mockito.verify(delegate, Mockito.times(1)).delete("ref");
+    }
+
+    // Пока транзакция не закоммичена, снятие последней ссылки может откатиться, а параллельная загрузка —
+    // получить ту же запись blobs: содержимое удаляется только после коммита.
+    @Test
+    public void delete_deduplicating_lastReferenceInTransaction_deletesContentAfterCommit_Test() throws IOException {
+        var delegate = Mockito.mock(StorageBackend.class);
+        var jdbcTemplate = Mockito.mock(JdbcTemplate.class);
+        var storageBackend = new DeduplicatingStorageBackend(delegate, jdbcTemplate, CODEC);
+
+        Mockito.when(jdbcTemplate.queryForList(Mockito.startsWith("update blobs"), Mockito.eq(Long.class), Mockito.any()))
+                .thenReturn(List.of(0L));
+        Mockito.when(jdbcTemplate.update(Mockito.startsWith("delete from blobs"), Mockito.<Object>any())).thenReturn(1);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            storageBackend.delete("committed");
+            Mockito.verify(delegate, Mockito.never()).delete(Mockito.any());
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            storageBackend.delete("rolled-back");
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        Mockito.verify(delegate, Mockito.times(1)).delete("committed");
+        Mockito.verify(delegate, Mockito.never()).delete("rolled-back");
+    }
+
+    @Test
+    public void store_deduplicating_newContentRolledBack_deletesCopy_Test() throws IOException {
+        var content = "content".getBytes(StandardCharsets.UTF_8);
+        var delegate = Mockito.mock(StorageBackend.class);
+        var jdbcTemplate = Mockito.mock(JdbcTemplate.class);
+        var storageBackend = new DeduplicatingStorageBackend(delegate, jdbcTemplate, CODEC);
+
+        Mockito.when(delegate.store(Mockito.any(), Mockito.anyLong())).thenAnswer(invocation -> {
+            invocation.<InputStream>getArgument(0).readAllBytes();
+            return new StoredContent("new-ref", content.length);
+        });
+        Mockito.when(jdbcTemplate.queryForObject(Mockito.startsWith("insert into blobs"), Mockito.<RowMapper<StoredContent>>any(),
+                Mockito.<Object>any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(new StoredContent("new-ref", content.length, "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73"));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            storageBackend.store(new ByteArrayInputStream(content), content.length);
+            Mockito.verify(delegate, Mockito.never()).delete(Mockito.any());
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        Mockito.verify(delegate, Mockito.times(1)).delete("new-ref");
+    }
+
+    // Повторяющаяся ссылка снимается несколько раз, содержимое без записи в blobs удаляется сразу.
+    @Test
+    public void deleteAll_deduplicating_deletesOnlyUnreferencedContent_Test() throws Exception {
+        var delegate = Mockito.mock(StorageBackend.class);
+        var jdbcTemplate = Mockito.mock(JdbcTemplate.class);
+        var storageBackend = new DeduplicatingStorageBackend(delegate, jdbcTemplate, CODEC);
+        var shared = blobRow("shared", 1);
+        var last = blobRow("last", 0);
+
+        Mockito.doAnswer(invocation -> {
+            RowCallbackHandler handler = invocation.getArgument(1);
+            handler.processRow(shared);
+            handler.processRow(last);
+            return null;
+        }).when(jdbcTemplate).query(Mockito.any(PreparedStatementCreator.class), Mockito.any(RowCallbackHandler.class));
+        Mockito.when(jdbcTemplate.query(Mockito.any(PreparedStatementCreator.class), Mockito.<RowMapper<String>>any()))
+                .thenReturn(List.of("last"));
+
+        storageBackend.deleteAll(List.of("shared", "shared", "last", "legacy"));
+
+        Mockito.verify(delegate, Mockito.times(1)).delete("last");
+        Mockito.verify(delegate, Mockito.times(1)).delete("legacy");
+        Mockito.verify(delegate, Mockito.never()).delete("shared");
+    }
+
+    @Test
+    public void reuse_deduplicating_knownContent_addsReference_Test() {
+        var jdbcTemplate = Mockito.mock(JdbcTemplate.class);
+        var storageBackend = new DeduplicatingStorageBackend(Mockito.mock(StorageBackend.class), jdbcTemplate, CODEC);
+        var sha256 = "ED7002B439E9AC845F22357D822BAC1444730FBDB6016D3EC9432297B9EC9F73";
+
+        Mockito.when(jdbcTemplate.query(Mockito.startsWith("update blobs set ref_count = ref_count + 1"), Mockito.<RowMapper<StoredContent>>any(),
+                Mockito.eq(sha256.toLowerCase()), Mockito.eq(7L))).thenReturn(List.of(new StoredContent("ref", 7, sha256.toLowerCase())));
+
+        var actual = storageBackend.reuse(sha256, 7).orElseThrow();
+
+        assertEquals("ref", actual.getReference());
+        assertEquals(7, actual.getSize());
+        assertTrue(storageBackend.reuse(sha256, 8).isEmpty());
+    }
+
+    @Test
+    public void contentDigest_mixedReads_matchesMessageDigest_Test() throws Exception {
+        var content = new byte[5 * StorageBackend.BUFFER_SIZE + 123];
+        new Random(7).nextBytes(content);
+        var expected = MessageDigest.getInstance("SHA-256").digest(content);
+
+        try (var in = new ContentDigestInputStream(new ByteArrayInputStream(content), HASHERS)) {
+            assertEquals(content[0] & 0xFF, in.read());
+            assertEquals(1000, in.skip(1000));
+            var buffer = new byte[3 * StorageBackend.BUFFER_SIZE];
+            while (in.read(buffer, 0, buffer.length) != -1) {
+                // дочитываем
+            }
+            var actual = in.hexDigest();
+
+            var sb = new StringBuilder();
+            for (byte b : expected) {
+                sb.append(String.format("%02x", b));
+            }
+            assertEquals(sb.toString(), actual);
+        }
+    }
+
+    // Поток пула не закреплён за загрузкой: одного потока хватает на несколько загрузок, читаемых одновременно.
+    @Test
+    public void contentDigest_singleHasherThread_digestsConcurrentStreams_Test() throws Exception {
+        var hasher = Executors.newSingleThreadExecutor();
+        var readers = Executors.newFixedThreadPool(4);
+        try {
+            var content = new byte[20 * StorageBackend.BUFFER_SIZE];
+            new Random(8).nextBytes(content);
+            var expected = String.format("%064x", new BigInteger(1, MessageDigest.getInstance("SHA-256").digest(content)));
+            var streams = new ArrayList<Callable<String>>();
+            for (var i = 0; i < 4; i++) {
+                streams.add(() -> {
+                    try (var in = new ContentDigestInputStream(new ByteArrayInputStream(content), hasher)) {
+                        in.transferTo(OutputStream.nullOutputStream());
+                        return in.hexDigest();
+                    }
+                });
+            }
+
+            for (var digest : readers.invokeAll(streams, 10, TimeUnit.SECONDS)) {
+                assertEquals(expected, digest.get());
+            }
+        } finally {
+            readers.shutdownNow();
+            hasher.shutdownNow();
+        }
+    }
+
+    @Test
+    public void contentDigest_unreadTail_throwsIOException_Test() throws IOException {
+        var content = "content".getBytes(StandardCharsets.UTF_8);
+
+        try (var in = new ContentDigestInputStream(new ByteArrayInputStream(content), HASHERS)) {
+            in.read(new byte[3]);
+
+            assertThrows(IOException.class, in::hexDigest);
+        }
+    }
+
+    @Test
+    public void contentDigest_closedBeforeEnd_throwsIOException_Test() throws IOException {
+        var content = new byte[2 * StorageBackend.BUFFER_SIZE];
+        var in = new ContentDigestInputStream(new ByteArrayInputStream(content), HASHERS);
+        in.read(new byte[StorageBackend.BUFFER_SIZE + 1]);
+
+        in.close();
+
+        assertThrows(IOException.class, in::hexDigest);
+    }
+
+    @Test
+    public void store_deduplicating_compressibleContent_storesGzipWithUnknownSize_Test() throws IOException {
+        var content = "line of text\n".repeat(20_000).getBytes(StandardCharsets.UTF_8);
+        var delegate = Mockito.mock(StorageBackend.class);
+        var jdbcTemplate = Mockito.mock(JdbcTemplate.class);
+        var storageBackend = new DeduplicatingStorageBackend(delegate, jdbcTemplate, CODEC);
+        var stored = new ByteArrayOutputStream();
+
+        Mockito.when(delegate.store(Mockito.any(), Mockito.eq(StorageBackend.UNKNOWN_SIZE))).thenAnswer(invocation -> {
+            invocation.<InputStream>getArgument(0).transferTo(stored);
+            return new StoredContent("new-ref", stored.size());
+        });
+        Mockito.when(jdbcTemplate.queryForObject(Mockito.startsWith("insert into blobs"), Mockito.<RowMapper<StoredContent>>any(),
+                Mockito.<Object>any(), Mockito.any(), Mockito.eq((long) content.length), Mockito.eq(ContentCodec.GZIP), Mockito.any()))
+                .thenAnswer(invocation -> new StoredContent("new-ref", content.length, invocation.getArgument(2),
+                        ContentCodec.GZIP, invocation.<Long>getArgument(6)));
+
+        var actual = storageBackend.store(new ByteArrayInputStream(content), content.length);
+
+        assertEquals(ContentCodec.GZIP, actual.getEncoding());
+        assertEquals(content.length, actual.getSize());
+        assertEquals(stored.size(), actual.getStoredSize());
+        assertTrue(stored.size() < content.length / 10);
+        assertArrayEquals(content, new GZIPInputStream(new ByteArrayInputStream(stored.toByteArray())).readAllBytes());
+    }
+
+    @Test
+    public void encode_incompressibleContent_keepsContentAsIs_Test() throws IOException {
+        var content = new byte[3 * StorageBackend.BUFFER_SIZE];
+        new Random(7).nextBytes(content);
+
+        try (var encoded = CODEC.encode(new ByteArrayInputStream(content))) {
+            assertNull(encoded.getEncoding());
+            assertArrayEquals(content, encoded.getStored().readAllBytes());
+            assertEquals(content.length, encoded.getRaw().getLength());
+        }
+    }
+
+    @Test
+    public void transferDecoded_gzipContent_writesRequestedRangeOfOriginal_Test() throws IOException {
+        var content = "0123456789".repeat(30_000).getBytes(StandardCharsets.UTF_8);
+        var storageBackend = new LocalFileSystemStorageBackend(root, HASHERS);
+        StoredContent stored;
+        try (var encoded = CODEC.encode(new ByteArrayInputStream(content))) {
+            assertEquals(ContentCodec.GZIP, encoded.getEncoding());
+            stored = storageBackend.store(encoded.getStored(), StorageBackend.UNKNOWN_SIZE);
+        }
+        var out = new ByteArrayOutputStream();
+
+        var written = ContentCodec.transferDecoded(storageBackend, stored.getReference(), ContentCodec.GZIP, 100_005, 7, out);
+
+        assertEquals(7, written);
+        assertEquals("5678901", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void transferTo_caching_repeatedContent_servedFromCacheAfterSecondRead_Test() throws IOException {
+        var content = randomBytes(200_000);
+        var storageBackend = Mockito.spy(new LocalFileSystemStorageBackend(root, HASHERS));
+        var reference = storageBackend.store(new ByteArrayInputStream(content), content.length).getReference();
+        var cachingBackend = new CachingStorageBackend(storageBackend, DataSize.ofMegabytes(1), DataSize.ofKilobytes(512));
+        var registry = new SimpleMeterRegistry();
+        cachingBackend.bindTo(registry);
+
+        for (var i = 0; i < 4; i++) {
+            var out = new ByteArrayOutputStream();
+            assertEquals(content.length, cachingBackend.transferTo(reference, out));
+            assertArrayEquals(content, out.toByteArray());
+        }
+        var range = new ByteArrayOutputStream();
+        cachingBackend.transferTo(reference, 70_000, 100, range);
+        try (var in = cachingBackend.open(reference)) {
+            assertArrayEquals(content, in.readAllBytes());
+        }
+
+        assertArrayEquals(Arrays.copyOfRange(content, 70_000, 70_100), range.toByteArray());
+        // Первый промах только запоминается, второй заполняет кэш, дальше — попадания
+        Mockito.verify(storageBackend, Mockito.times(1)).transferTo(Mockito.eq(reference), Mockito.eq(0L), Mockito.anyLong(), Mockito.any());
+        Mockito.verify(storageBackend, Mockito.times(1)).open(reference);
+        assertEquals(4, registry.get("cache.gets").tag("result", "hit").functionCounter().count());
+        assertEquals(2, registry.get("cache.gets").tag("result", "miss").functionCounter().count());
+        assertEquals(content.length, registry.get("cache.used").gauge().value());
+    }
+
+    @Test
+    public void transferTo_caching_contentLargerThanMaxEntrySize_isNotCached_Test() throws IOException {
+        var content = randomBytes(300_000);
+        var storageBackend = Mockito.spy(new LocalFileSystemStorageBackend(root, HASHERS));
+        var reference = storageBackend.store(new ByteArrayInputStream(content), content.length).getReference();
+        var cachingBackend = new CachingStorageBackend(storageBackend, DataSize.ofMegabytes(1), DataSize.ofKilobytes(256));
+        var registry = new SimpleMeterRegistry();
+        cachingBackend.bindTo(registry);
+
+        for (var i = 0; i < 3; i++) {
+            var out = new ByteArrayOutputStream();
+            cachingBackend.transferTo(reference, out);
+            assertArrayEquals(content, out.toByteArray());
+        }
+
+        assertEquals(0, registry.get("cache.gets").tag("result", "hit").functionCounter().count());
+        assertEquals(0, registry.get("cache.size").gauge().value());
+        assertEquals(0, registry.get("cache.used").gauge().value());
+    }
+
+    @Test
+    public void transferTo_caching_full_evictsLeastRecentlyUsed_Test() throws IOException {
+        // Кэш на два блока, каждое содержимое занимает блок
+        var storageBackend = new LocalFileSystemStorageBackend(root, HASHERS);
+        var cachingBackend = new CachingStorageBackend(storageBackend, DataSize.ofKilobytes(128), DataSize.ofKilobytes(64));
+        var registry = new SimpleMeterRegistry();
+        cachingBackend.bindTo(registry);
+        var first = storageBackend.store(new ByteArrayInputStream(randomBytes(1000)), 1000).getReference();
+        var second = storageBackend.store(new ByteArrayInputStream(randomBytes(1001)), 1001).getReference();
+        var third = storageBackend.store(new ByteArrayInputStream(randomBytes(1002)), 1002).getReference();
+
+        for (var reference : List.of(first, first, second, second, first, third, third)) {
+            cachingBackend.transferTo(reference, OutputStream.nullOutputStream());
+        }
+        var hits = registry.get("cache.gets").tag("result", "hit").functionCounter().count();
+        cachingBackend.transferTo(first, OutputStream.nullOutputStream());
+        cachingBackend.transferTo(third, OutputStream.nullOutputStream());
+        cachingBackend.transferTo(second, OutputStream.nullOutputStream());
+
+        assertEquals(1, registry.get("cache.evictions").functionCounter().count());
+        assertEquals(hits + 2, registry.get("cache.gets").tag("result", "hit").functionCounter().count());
+    }
+
+    @Test
+    public void delete_caching_removesContentFromCache_Test() throws IOException {
+        var content = randomBytes(1000);
+        var storageBackend = new LocalFileSystemStorageBackend(root, HASHERS);
+        var reference = storageBackend.store(new ByteArrayInputStream(content), content.length).getReference();
+        var cachingBackend = new CachingStorageBackend(storageBackend, DataSize.ofMegabytes(1), DataSize.ofKilobytes(512));
+        var registry = new SimpleMeterRegistry();
+        cachingBackend.bindTo(registry);
+        cachingBackend.transferTo(reference, OutputStream.nullOutputStream());
+        cachingBackend.transferTo(reference, OutputStream.nullOutputStream());
+
+        cachingBackend.delete(reference);
+
+        assertEquals(0, registry.get("cache.size").gauge().value());
+        assertThrows(NoSuchElementException.class, () -> cachingBackend.transferTo(reference, OutputStream.nullOutputStream()));
+    }
+
+    private static byte[] randomBytes(int length) {
+        var bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static ResultSet blobRow(String reference, long refCount) throws SQLException {
+        var row = Mockito.mock(ResultSet.class);
+        Mockito.when(row.getString(1)).thenReturn(reference);
+        Mockito.when(row.getLong(2)).thenReturn(refCount);
+        return row;
+    }
+}
@@ -0,0 +1,108 @@
+package ru.netology.clouddata.unitTests;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.unit.DataSize;
+import ru.netology.entities.User;
+import ru.netology.repositories.UserRepository;
+import ru.netology.service.QuotaExceededException;
+import ru.netology.service.StorageQuota;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StorageQuotaTests {
+    @Test
+    public void usage_notCountedYet_countsOnceAndUsesDefaultQuota_Test() {
+        var user = user(7);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var storageQuota = new StorageQuota(userRepository, DataSize.ofBytes(100));
+
+        var usage = usage(40L, null);
+        Mockito.when(userRepository.findStorageUsage(7)).thenReturn(usage);
+
+        var actual = storageQuota.usage(user);
+
+        assertEquals(40, actual.getUsed());
+        assertEquals(100, actual.getQuota());
+        Mockito.verify(userRepository, Mockito.times(1)).initUsedBytes(7);
+    }
+
+    @Test
+    public void reserve_overQuota_throwsQuotaExceededException_Test() {
+        var user = user(7);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var storageQuota = new StorageQuota(userRepository, DataSize.ofBytes(100));
+
+        var usage = usage(40L, 50L);
+        Mockito.when(userRepository.findStorageUsage(7)).thenReturn(usage);
+
+        assertThrows(QuotaExceededException.class, () -> storageQuota.reserve(user, 11));
+        assertDoesNotThrow(() -> storageQuota.reserve(user, 10));
+    }
+
+    // Пока первая загрузка не завершилась, её размер ещё не в used_bytes, но уже занят резервом.
+    @Test
+    public void reserve_parallelUploads_countsReservedBytes_Test() {
+        var user = user(7);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var storageQuota = new StorageQuota(userRepository, DataSize.ofBytes(100));
+
+        var usage = usage(0L, null);
+        Mockito.when(userRepository.findStorageUsage(Mockito.anyInt())).thenReturn(usage);
+
+        var first = storageQuota.reserve(user, 60);
+        assertThrows(QuotaExceededException.class, () -> storageQuota.reserve(user, 60));
+        assertDoesNotThrow(() -> storageQuota.reserve(user(8), 60));
+        first.close();
+        assertDoesNotThrow(() -> storageQuota.reserve(user, 60));
+    }
+
+    @Test
+    public void reservation_closedInTransaction_releasedAfterCompletion_Test() {
+        var user = user(7);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var storageQuota = new StorageQuota(userRepository, DataSize.ofBytes(100));
+
+        var usage = usage(0L, null);
+        Mockito.when(userRepository.findStorageUsage(7)).thenReturn(usage);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            storageQuota.reserve(user, 60).close();
+            assertThrows(QuotaExceededException.class, () -> storageQuota.reserve(user, 60));
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertDoesNotThrow(() -> storageQuota.reserve(user, 60));
+    }
+
+    @Test
+    public void charge_notApplied_throwsQuotaExceededException_Test() {
+        var user = user(7);
+        var userRepository = Mockito.mock(UserRepository.class);
+        var storageQuota = new StorageQuota(userRepository, DataSize.ofBytes(100));
+
+        Mockito.when(userRepository.addUsedBytes(7, 10, 100)).thenReturn(1);
+        Mockito.when(userRepository.addUsedBytes(7, 200, 100)).thenReturn(0);
+
+        storageQuota.charge(user, 10);
+        assertThrows(QuotaExceededException.class, () -> storageQuota.charge(user, 200));
+    }
+
+    private static User user(int id) {
+        var user = new User();
+        user.setId(id);
+        return user;
+    }
+
+    private static UserRepository.StorageUsage usage(Long usedBytes, Long quotaBytes) {
+        var usage = Mockito.mock(UserRepository.StorageUsage.class);
+        Mockito.when(usage.getUsedBytes()).thenReturn(usedBytes);
+        Mockito.when(usage.getQuotaBytes()).thenReturn(quotaBytes);
+        return usage;
+    }
+}
@@ -0,0 +1,124 @@
+package ru.netology.clouddata.unitTests;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.util.unit.DataSize;
+import ru.netology.service.TransferAdmission;
+import ru.netology.service.TransferRejectedException;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TransferAdmissionTests {
+    private final ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+
+    @BeforeEach
+    void start() {
+        taskScheduler.initialize();
+    }
+
+    @AfterEach
+    void shutdown() {
+        taskScheduler.shutdown();
+    }
+
+    @Test
+    public void acquire_budgetExhausted_rejectsAfterQueueTimeout_Test() throws Exception {
+        var admission = newTransferAdmission(DataSize.ofBytes(100), 4, Duration.ofMillis(50), 16);
+
+        var permit = admission.acquire(1, 80).getNow(null);
+        var waiting = admission.acquire(2, 30);
+
+        assertFalse(waiting.isDone());
+        var exception = assertThrows(ExecutionException.class, () -> waiting.get(5, TimeUnit.SECONDS));
+        assertTrue(exception.getCause() instanceof TransferRejectedException);
+        assertEquals(Duration.ofSeconds(5), ((TransferRejectedException) exception.getCause()).getRetryAfter());
+        permit.close();
+        assertTrue(admission.acquire(2, 30).isDone());
+    }
+
+    @Test
+    public void acquire_perUserLimit_queuesOnlyThatUser_Test() {
+        var admission = newTransferAdmission(DataSize.ofMegabytes(1), 2, Duration.ofSeconds(10), 16);
+
+        admission.acquire(1, 1);
+        admission.acquire(1, 1);
+
+        assertFalse(admission.acquire(1, 1).isDone());
+        assertNotNull(admission.acquire(2, 1).getNow(null));
+    }
+
+    // Ожидание не занимает поток: вызывающий сразу получает незавершённый результат, а разрешение приходит при release.
+    @Test
+    public void acquire_waitingTransfer_admittedWhenBytesReleased_Test() throws Exception {
+        var admission = newTransferAdmission(DataSize.ofBytes(100), 4, Duration.ofSeconds(10), 16);
+        var permit = admission.acquire(1, 80).getNow(null);
+
+        var waiting = admission.acquire(2, 30);
+        Thread.sleep(100);
+        assertFalse(waiting.isDone());
+        permit.close();
+        // повторное закрытие не освобождает байты второй раз
+        permit.close();
+
+        waiting.get(5, TimeUnit.SECONDS).close();
+    }
+
+    // Ожидающий, которому не хватает места, не держит тех, кто за ним в очереди.
+    @Test
+    public void acquire_releasedBytes_admitWaitersThatFit_Test() throws Exception {
+        var admission = newTransferAdmission(DataSize.ofBytes(100), 4, Duration.ofSeconds(10), 16);
+        var first = admission.acquire(1, 60).getNow(null);
+        var second = admission.acquire(2, 40).getNow(null);
+
+        var large = admission.acquire(3, 80);
+        var small = admission.acquire(4, 30);
+        second.close();
+
+        assertNotNull(small.get(5, TimeUnit.SECONDS));
+        assertFalse(large.isDone());
+        first.close();
+        small.get().close();
+        assertNotNull(large.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void acquire_queueFull_rejectsImmediately_Test() {
+        var admission = newTransferAdmission(DataSize.ofBytes(100), 4, Duration.ofSeconds(10), 1);
+        admission.acquire(1, 100);
+
+        var waiting = admission.acquire(2, 1);
+        var rejected = admission.acquire(3, 1);
+
+        assertFalse(waiting.isDone());
+        assertTrue(rejected.isCompletedExceptionally());
+    }
+
+    @Test
+    public void acquire_transferLargerThanBudget_admittedWhenAlone_Test() throws Exception {
+        var admission = newTransferAdmission(DataSize.ofBytes(100), 4, Duration.ofMillis(50), 16);
+        var registry = new SimpleMeterRegistry();
+        admission.bindTo(registry);
+
+        var permit = admission.acquire(1, 1000).getNow(null);
+
+        assertEquals(1000, registry.get("cloud.admission.bytes.in-flight").gauge().value());
+        var waiting = admission.acquire(2, 1);
+        assertEquals(1, registry.get("cloud.admission.waiting").gauge().value());
+        assertThrows(ExecutionException.class, () -> waiting.get(5, TimeUnit.SECONDS));
+        assertEquals(0, registry.get("cloud.admission.waiting").gauge().value());
+        assertEquals(1, registry.get("cloud.admission.rejected").functionCounter().count());
+        permit.close();
+        assertEquals(0, registry.get("cloud.admission.bytes.in-flight").gauge().value());
+    }
+
+    private TransferAdmission newTransferAdmission(DataSize maxBytesInFlight, int maxTransfersPerUser, Duration queueTimeout, int queueCapacity) {
+        return new TransferAdmission(maxBytesInFlight, maxTransfersPerUser, queueTimeout, queueCapacity, Duration.ofSeconds(5), taskScheduler);
+    }
+}
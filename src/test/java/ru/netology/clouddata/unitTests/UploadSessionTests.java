@@ -0,0 +1,273 @@
+package ru.netology.clouddata.unitTests;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.unit.DataSize;
+import ru.netology.entities.UploadSession;
+import ru.netology.entities.User;
+import ru.netology.repositories.UploadSessionRepository;
+import ru.netology.service.FileService;
+import ru.netology.service.StorageQuota;
+import ru.netology.service.UploadSessionService;
+
+import javax.security.auth.message.AuthException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.never;
+
+public class UploadSessionTests {
+    private static final String HASH = "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73";
+
+    @TempDir
+    Path sessionsDir;
+
+    @Test
+    public void createSession_validArguments_returnsEmptySession_Test() throws AuthException, IOException {
+        var authToken = "Bearer auth-token";
+        var user = new User();
+        var uploadSessionRepository = Mockito.mock(UploadSessionRepository.class);
+        var fileService = Mockito.mock(FileService.class);
+        var uploadSessionService = newUploadSessionService(uploadSessionRepository, fileService);
+
+        Mockito.when(fileService.checkUserExistence(authToken)).thenReturn(user);
+
+        var actual = uploadSessionService.createSession(authToken, "filename", HASH, 10, 4);
+
+        assertEquals(3, actual.getChunkCount());
+        assertEquals(List.of(), actual.getReceivedChunks());
+        assertTrue(Files.isDirectory(sessionsDir.resolve(actual.getSessionId())));
+        Mockito.verify(fileService, Mockito.times(1)).checkFilenameIsFree("filename", user);
+        Mockito.verify(uploadSessionRepository, Mockito.times(1)).saveAndFlush(Mockito.notNull());
+    }
+
+    @Test
+    public void createSession_tooLargeChunk_throwsIllegalArgumentException_Test() {
+        var authToken = "Bearer auth-token";
+        var uploadSessionRepository = Mockito.mock(UploadSessionRepository.class);
+        var fileService = Mockito.mock(FileService.class);
+        var uploadSessionService = newUploadSessionService(uploadSessionRepository, fileService);
+
+        assertThrows(IllegalArgumentException.class, () -> uploadSessionService.createSession(authToken, "filename", HASH, 10, 1024 * 1024 + 1));
+        Mockito.verify(uploadSessionRepository, never()).saveAndFlush(Mockito.notNull());
+    }
+
+    @Test
+    public void createSession_malformedHash_throwsIllegalArgumentException_Test() throws AuthException {
+        var authToken = "Bearer auth-token";
+        var uploadSessionRepository = Mockito.mock(UploadSessionRepository.class);
+        var fileService = Mockito.mock(FileService.class);
+        var uploadSessionService = newUploadSessionService(uploadSessionRepository, fileService);
+
+        assertThrows(IllegalArgumentException.class, () -> uploadSessionService.createSession(authToken, "filename", "hash", 10, 4));
+        Mockito.verify(fileService, never()).checkUserExistence(authToken);
+        Mockito.verify(uploadSessionRepository, never()).save(Mockito.any());
+    }
+
+    // Иначе проверка полноты и сборка файла проходят по сотне миллионов частей.
+    @Test
+    public void createSession_tooManyChunks_throwsIllegalArgumentException_Test() {
+        var authToken = "Bearer auth-token";
+        var uploadSessionRepository = Mockito.mock(UploadSessionRepository.class);
+        var fileService = Mockito.mock(FileService.class);
+        var uploadSessionService = newUploadSessionService(uploadSessionRepository, fileService);
+
+        var exception = assertThrows(IllegalArgumentException.class, () -> uploadSessionService.createSession(authToken, "filename", HASH, 100L * 1024 * 1024, 1));
+        assertEquals("chunkSize must be at least 10486 for a file of 104857600 bytes", exception.getMessage());
+        assertDoesNotThrow(() -> uploadSessionService.createSession(authToken, "filename", HASH, 100L * 1024 * 1024, 10486));
+    }
+
+    @Test
+    public void commit_chunksUploadedOutOfOrder_storesContentInOrder_Test() throws AuthException, IOException {
+        var authToken = "Bearer auth-token";
+        var user = new User();
+        var session = newSession(user, 10, 4);
+        var uploadSessionRepository = Mockito.mock(UploadSessionRepository.class);
+        var fileService = Mockito.mock(FileService.class);
+        var uploadSessionService = newUploadSessionService(uploadSessionRepository, fileService);
+        var stored = new AtomicReference<String>();
+
+        Mockito.when(fileService.checkUserExistence(authToken)).thenReturn(user);
+        Mockito.when(uploadSessionRepository.findByIdAndUser(session.getId(), user)).thenReturn(Optional.of(session));
+        Mockito.when(uploadSessionRepository.findByIdAndUserForUpdate(session.getId(), user)).thenReturn(Optional.of(session));
+        Mockito.when(fileService.storeFile(Mockito.eq(user), Mockito.eq("filename"), Mockito.eq(HASH), Mockito.notNull(), Mockito.eq(10L))).thenAnswer(invocation -> {
+            InputStream content = invocation.getArgument(3);
+            stored.set(new String(content.readAllBytes(), StandardCharsets.UTF_8));
+            return null;
+        });
+        Files.createDirectories(sessionsDir.resolve(session.getId().toString()));
+
+        uploadSessionService.uploadChunk(authToken, session.getId(), 2, stream("89"));
+        uploadSessionService.uploadChunk(authToken, session.getId(), 0, stream("0123"));
+        uploadSessionService.uploadChunk(authToken, session.getId(), 1, stream("4567"));
+        var received = uploadSessionService.getSession(authToken, session.getId()).getReceivedChunks();
+        uploadSessionService.commit(authToken, session.getId());
+
+        assertEquals(List.of(0, 1, 2), received);
+        assertEquals("0123456789", stored.get());
+        assertFalse(Files.exists(sessionsDir.resolve(session.getId().toString())));
+        Mockito.verify(uploadSessionRepository, Mockito.times(1)).delete(session);
+    }
+
+    @Test
+    public void uploadChunk_wrongLength_isNotReceived_Test() throws AuthException, IOException {
+        var authToken = "Bearer auth-token";
+        var user = new User();
+        var session = newSession(user, 10, 4);
+        var uploadSessionRepository = Mockito.mock(UploadSessionRepository.class);
+        var fileService = Mockito.mock(FileService.class);
+        var uploadSessionService = newUploadSessionService(uploadSessionRepository, fileService);
+
+        Mockito.when(fileService.checkUserExistence(authToken)).thenReturn(user);
+        Mockito.when(uploadSessionRepository.findByIdAndUser(session.getId(), user)).thenReturn(Optional.of(session));
+        Files.createDirectories(sessionsDir.resolve(session.getId().toString()));
+
+        assertThrows(IllegalArgumentException.class, () -> uploadSessionService.uploadChunk(authToken, session.getId(), 0, stream("012")));
+        assertThrows(IllegalArgumentException.class, () -> uploadSessionService.uploadChunk(authToken, session.getId(), 2, stream("890")));
+        assertEquals(List.of(), uploadSessionService.getSession(authToken, session.getId()).getReceivedChunks());
+    }
+
+    @Test
+    public void commit_missingChunks_throwsIllegalArgumentException_Test() throws AuthException, IOException {
+        var authToken = "Bearer auth-token";
+        var user = new User();
+        var session = newSession(user, 10, 4);
+        var uploadSessionRepository = Mockito.mock(UploadSessionRepository.class);
+        var fileService = Mockito.mock(FileService.class);
+        var uploadSessionService = newUploadSessionService(uploadSessionRepository, fileService);
+
+        Mockito.when(fileService.checkUserExistence(authToken)).thenReturn(user);
+        Mockito.when(uploadSessionRepository.findByIdAndUser(session.getId(), user)).thenReturn(Optional.of(session));
+        Mockito.when(uploadSessionRepository.findByIdAndUserForUpdate(session.getId(), user)).thenReturn(Optional.of(session));
+        Files.createDirectories(sessionsDir.resolve(session.getId().toString()));
+        uploadSessionService.uploadChunk(authToken, session.getId(), 0, stream("0123"));
+
+        assertThrows(IllegalArgumentException.class, () -> uploadSessionService.commit(authToken, session.getId()));
+        Mockito.verify(fileService, never()).storeFile(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyLong());
+    }
+
+    // Второй commit той же сессии не ждёт первый и не сохраняет файл ещё раз.
+    @Test
+    public void commit_sessionLockedByAnotherCommit_throwsIllegalArgumentException_Test() throws AuthException, IOException {
+        var authToken = "Bearer auth-token";
+        var user = new User();
+        var session = newSession(user, 4, 4);
+        var uploadSessionRepository = Mockito.mock(UploadSessionRepository.class);
+        var fileService = Mockito.mock(FileService.class);
+        var uploadSessionService = newUploadSessionService(uploadSessionRepository, fileService);
+
+        Mockito.when(fileService.checkUserExistence(authToken)).thenReturn(user);
+        Mockito.when(uploadSessionRepository.findByIdAndUser(session.getId(), user)).thenReturn(Optional.of(session));
+        Mockito.when(uploadSessionRepository.findByIdAndUserForUpdate(session.getId(), user))
+                .thenThrow(new CannotAcquireLockException("could not obtain lock on row in relation \"upload_sessions\""));
+        Files.createDirectories(sessionsDir.resolve(session.getId().toString()));
+        uploadSessionService.uploadChunk(authToken, session.getId(), 0, stream("0123"));
+
+        assertThrows(IllegalArgumentException.class, () -> uploadSessionService.commit(authToken, session.getId()));
+        Mockito.verify(fileService, never()).storeFile(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyLong());
+        Mockito.verify(uploadSessionRepository, never()).delete(Mockito.any());
+        assertEquals(List.of(0), uploadSessionService.getSession(authToken, session.getId()).getReceivedChunks());
+    }
+
+    // Файл сохранён в транзакции commit: части удаляются только после её коммита, при откате commit можно повторить.
+    @Test
+    public void commit_inTransaction_deletesChunksAfterCommit_Test() throws AuthException, IOException {
+        var authToken = "Bearer auth-token";
+        var user = new User();
+        var session = newSession(user, 4, 4);
+        var uploadSessionRepository = Mockito.mock(UploadSessionRepository.class);
+        var fileService = Mockito.mock(FileService.class);
+        var uploadSessionService = newUploadSessionService(uploadSessionRepository, fileService);
+        var dir = sessionsDir.resolve(session.getId().toString());
+
+        Mockito.when(fileService.checkUserExistence(authToken)).thenReturn(user);
+        Mockito.when(uploadSessionRepository.findByIdAndUser(session.getId(), user)).thenReturn(Optional.of(session));
+        Mockito.when(uploadSessionRepository.findByIdAndUserForUpdate(session.getId(), user)).thenReturn(Optional.of(session));
+        Files.createDirectories(dir);
+        uploadSessionService.uploadChunk(authToken, session.getId(), 0, stream("0123"));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            uploadSessionService.commit(authToken, session.getId());
+            assertTrue(Files.exists(dir.resolve("chunk-0")));
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertFalse(Files.exists(dir));
+    }
+
+    @Test
+    public void getSession_expiredSession_throwsNoSuchElementException_Test() throws AuthException {
+        var authToken = "Bearer auth-token";
+        var user = new User();
+        var session = newSession(user, 10, 4);
+        session.setExpiresAt(Instant.now().minusSeconds(1));
+        var uploadSessionRepository = Mockito.mock(UploadSessionRepository.class);
+        var fileService = Mockito.mock(FileService.class);
+        var uploadSessionService = newUploadSessionService(uploadSessionRepository, fileService);
+
+        Mockito.when(fileService.checkUserExistence(authToken)).thenReturn(user);
+        Mockito.when(uploadSessionRepository.findByIdAndUser(session.getId(), user)).thenReturn(Optional.of(session));
+
+        assertThrows(NoSuchElementException.class, () -> uploadSessionService.getSession(authToken, session.getId()));
+    }
+
+    @Test
+    public void removeExpiredSessions_deletesSessionAndChunks_Test() throws IOException {
+        var session = newSession(new User(), 10, 4);
+        var uploadSessionRepository = Mockito.mock(UploadSessionRepository.class);
+        var uploadSessionService = newUploadSessionService(uploadSessionRepository, Mockito.mock(FileService.class));
+        var dir = Files.createDirectories(sessionsDir.resolve(session.getId().toString()));
+        Files.write(dir.resolve("chunk-0"), new byte[4]);
+
+        Mockito.when(uploadSessionRepository.findAllByExpiresAtBefore(Mockito.notNull())).thenReturn(List.of(session));
+
+        uploadSessionService.removeExpiredSessions();
+
+        assertFalse(Files.exists(dir));
+        Mockito.verify(uploadSessionRepository, Mockito.times(1)).delete(session);
+    }
+
+    private UploadSessionService newUploadSessionService(UploadSessionRepository uploadSessionRepository, FileService fileService) {
+        try {
+            return new UploadSessionService(uploadSessionRepository, fileService, Mockito.mock(StorageQuota.class), sessionsDir, Duration.ofHours(1),
+                    DataSize.ofMegabytes(100), DataSize.ofMegabytes(1), 10_000);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static UploadSession newSession(User user, long size, int chunkSize) {
+        var session = new UploadSession();
+        session.setId(UUID.randomUUID());
+        session.setUser(user);
+        session.setFilename("filename");
+        session.setHash(HASH);
+        session.setSize(size);
+        session.setChunkSize(chunkSize);
+        session.setExpiresAt(Instant.now().plusSeconds(3600));
+        return session;
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}